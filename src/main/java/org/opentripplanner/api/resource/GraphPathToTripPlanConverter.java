@@ -845,11 +845,9 @@ public abstract class GraphPathToTripPlanConverter {
         if (stop == null) {
             return new ArrayList<>();
         }
-        Collection<AlertPatch> alertsForStopAndRoute = graph.index.getAlertsForStopAndRoute(stopId,routeId);
+        // The alerts of the index are shared, so the alerts of the parent stops are added to a copy
+        Collection<AlertPatch> alertsForStopAndRoute = new HashSet<>(graph.index.getAlertsForStopAndRoute(stopId,routeId));
         if (checkParentStop) {
-            if (alertsForStopAndRoute == null) {
-                alertsForStopAndRoute = new HashSet<>();
-            }
             if (stop.getParentStation() != null) {
                 //Also check parent
                 Collection<AlertPatch> parentStopAlerts = graph.index.getAlertsForStopAndRoute(stop.getParentStationAgencyAndId(), routeId);
@@ -881,11 +879,8 @@ public abstract class GraphPathToTripPlanConverter {
             return new ArrayList<>();
         }
 
-        Collection<AlertPatch> alertsForStopAndTrip = graph.index.getAlertsForStopAndTrip(stopId, tripId);
+        Collection<AlertPatch> alertsForStopAndTrip = new HashSet<>(graph.index.getAlertsForStopAndTrip(stopId, tripId));
         if (checkParentStop) {
-            if (alertsForStopAndTrip == null) {
-                alertsForStopAndTrip = new HashSet<>();
-            }
             if  (stop.getParentStation() != null) {
                 // Also check parent
                 Collection<AlertPatch> parentStopAlerts = graph.index.getAlertsForStopAndTrip(stop.getParentStationAgencyAndId(), tripId);
@@ -915,11 +910,8 @@ public abstract class GraphPathToTripPlanConverter {
             return new ArrayList<>();
         }
 
-        Collection<AlertPatch> alertsForStop  = graph.index.getAlertsForStopId(stopId);
+        Collection<AlertPatch> alertsForStop = new HashSet<>(graph.index.getAlertsForStopId(stopId));
         if (checkParentStop) {
-            if (alertsForStop == null) {
-                alertsForStop = new HashSet<>();
-            }
             if  (stop.getParentStation() != null) {
                 // Also check parent
                 Collection<AlertPatch> parentStopAlerts = graph.index.getAlertsForStopId(stop.getParentStationAgencyAndId());
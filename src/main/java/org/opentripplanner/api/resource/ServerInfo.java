@@ -14,6 +14,7 @@
 package org.opentripplanner.api.resource;
 
 import org.opentripplanner.common.MavenVersion;
+import org.opentripplanner.routing.algorithm.SearchWorkspacePool;
 
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
@@ -54,6 +55,16 @@ public class ServerInfo {
     @XmlElement 
     public int nCores = 0;
 
+    /** Searches that reused a pooled search workspace, see {@link SearchWorkspacePool}. */
+    public long getSearchWorkspacePoolHits() {
+        return SearchWorkspacePool.getInstance().getHitCount();
+    }
+
+    /** Searches that had to allocate a new search workspace. */
+    public long getSearchWorkspacePoolMisses() {
+        return SearchWorkspacePool.getInstance().getMissCount();
+    }
+
     /* It would make sense to have one object containing maven, git, and hardware subobjects. */
     
     /**
@@ -4,6 +4,8 @@ import org.opentripplanner.standalone.OTPServer;
 import org.opentripplanner.standalone.Router;
 import org.opentripplanner.updater.GraphUpdater;
 import org.opentripplanner.updater.GraphUpdaterManager;
+import org.opentripplanner.updater.UpdaterMetrics;
+import org.opentripplanner.updater.stoptime.TimetableSnapshotSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -11,6 +13,9 @@ import javax.ws.rs.*;
 import javax.ws.rs.core.*;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Response;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Report the status of the graph updaters via a web service.
@@ -40,6 +45,77 @@ public class UpdaterStatusResource {
         return Response.status(Response.Status.OK).entity(updaterManager.getUpdaterDescriptions()).build();
     }
 
+    /**
+     * Return the age and staleness of the realtime timetable snapshot handed to requests. The largest staleness seen
+     * by requests is the one over the last minute.
+     */
+    @GET
+    @Path("/snapshot")
+    public Response getSnapshotStatus () {
+        TimetableSnapshotSource snapshotSource = router.graph.timetableSnapshotSource;
+        if (snapshotSource == null) {
+            return Response.status(Response.Status.NOT_FOUND).entity("No realtime timetables.").build();
+        }
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("ageMillis", snapshotSource.getSnapshotAgeMillis());
+        status.put("stalenessMillis", snapshotSource.getSnapshotStalenessMillis());
+        status.put("maxStalenessSeenMillis", snapshotSource.getMaxSnapshotStalenessSeenMillis());
+        status.put("reads", snapshotSource.getSnapshotReadCount());
+        status.put("commits", snapshotSource.getSnapshotCommitCount());
+        status.put("lastCommitNanos", snapshotSource.getLastSnapshotCommitNanos());
+        status.put("lastCommitChangedTimetables", snapshotSource.getLastSnapshotChangedTimetables());
+        return Response.status(Response.Status.OK).entity(status).build();
+    }
+
+    /**
+     * Return the throughput and latency statistics of the updaters, and of the updates applied to the realtime
+     * timetables by kind of update.
+     */
+    @GET
+    @Path("/metrics")
+    public Response getMetrics () {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        for (Map.Entry<String, UpdaterMetrics> entry : collectMetrics().entrySet()) {
+            metrics.put(entry.getKey(), entry.getValue().toMap());
+        }
+        return Response.status(Response.Status.OK).entity(metrics).build();
+    }
+
+    /** Return the same statistics as above in the Prometheus text format, to be scraped. */
+    @GET
+    @Path("/metrics/prometheus")
+    @Produces("text/plain; version=0.0.4")
+    public Response getPrometheusMetrics () {
+        StringBuilder text = new StringBuilder();
+        UpdaterMetrics.writePrometheusText(collectMetrics(), text);
+        return Response.status(Response.Status.OK).entity(text.toString()).build();
+    }
+
+    /**
+     * @return the statistics of each updater recording any, by updater id and class, and those of the realtime
+     *         timetables by kind of update.
+     */
+    private Map<String, UpdaterMetrics> collectMetrics () {
+        Map<String, UpdaterMetrics> metrics = new LinkedHashMap<>();
+        GraphUpdaterManager updaterManager = router.graph.updaterManager;
+        if (updaterManager != null) {
+            List<GraphUpdater> updaters = updaterManager.getUpdaterList();
+            for (int i = 0; i < updaters.size(); i++) {
+                UpdaterMetrics updaterMetrics = updaters.get(i).getMetrics();
+                if (updaterMetrics != null) {
+                    metrics.put(i + ":" + updaters.get(i).getClass().getSimpleName(), updaterMetrics);
+                }
+            }
+        }
+        TimetableSnapshotSource snapshotSource = router.graph.timetableSnapshotSource;
+        if (snapshotSource != null) {
+            for (Map.Entry<String, UpdaterMetrics> entry : snapshotSource.getMetrics().entrySet()) {
+                metrics.put("timetables:" + entry.getKey(), entry.getValue());
+            }
+        }
+        return metrics;
+    }
+
     /** Return status for a specific updater. */
     @GET
     @Path("/{updaterId}")
@@ -0,0 +1,164 @@
+package org.opentripplanner.common;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiPredicate;
+
+/**
+ * A hash map from which cheap immutable snapshots can be taken, for data that is written by one thread and read by
+ * many through snapshots, such as realtime timetables.
+ *
+ * The entries are spread over a fixed number of shards, each a plain HashMap. A snapshot shares all shards with the
+ * map it was taken from. After a snapshot, the first write to a shard copies it, so taking a snapshot costs a copy of
+ * the shard array and the writes between two snapshots cost a copy of each shard they touch. This is proportional to
+ * the number of changed entries rather than to the size of the map.
+ *
+ * Snapshots must not be written to. Like HashMap, this class is not thread safe: snapshots can be read concurrently,
+ * but all writes to the map itself must happen on one thread at a time.
+ */
+public class ShardedCopyOnWriteMap<K, V> {
+
+    private static final int SHARD_BITS = 8;
+
+    private static final int N_SHARDS = 1 << SHARD_BITS;
+
+    /** The shards, null where empty. */
+    private final HashMap<K, V>[] shards;
+
+    /** Which shards have been copied since the last snapshot, and may be written in place. Null for snapshots. */
+    private final boolean[] owned;
+
+    private int size;
+
+    private int shardsCopiedSinceSnapshot = 0;
+
+    @SuppressWarnings("unchecked")
+    public ShardedCopyOnWriteMap() {
+        shards = new HashMap[N_SHARDS];
+        owned = new boolean[N_SHARDS];
+        size = 0;
+    }
+
+    private ShardedCopyOnWriteMap(HashMap<K, V>[] shards, int size) {
+        this.shards = shards;
+        this.owned = null;
+        this.size = size;
+    }
+
+    public V get(Object key) {
+        HashMap<K, V> shard = shards[shardIndex(key)];
+        return shard == null ? null : shard.get(key);
+    }
+
+    public boolean containsKey(Object key) {
+        HashMap<K, V> shard = shards[shardIndex(key)];
+        return shard != null && shard.containsKey(key);
+    }
+
+    public V put(K key, V value) {
+        HashMap<K, V> shard = writableShard(shardIndex(key));
+        if (!shard.containsKey(key)) {
+            size++;
+        }
+        return shard.put(key, value);
+    }
+
+    public V remove(Object key) {
+        int s = shardIndex(key);
+        if (shards[s] == null || !shards[s].containsKey(key)) {
+            return null;
+        }
+        V old = writableShard(s).remove(key);
+        size--;
+        return old;
+    }
+
+    /**
+     * Remove all entries matching the given predicate. Only the shards holding such an entry are copied.
+     *
+     * @return true if any entry was removed.
+     */
+    public boolean removeIf(BiPredicate<? super K, ? super V> predicate) {
+        boolean removed = false;
+        for (int s = 0; s < N_SHARDS; s++) {
+            HashMap<K, V> shard = shards[s];
+            if (shard == null) continue;
+            boolean matches = false;
+            for (Map.Entry<K, V> entry : shard.entrySet()) {
+                if (predicate.test(entry.getKey(), entry.getValue())) {
+                    matches = true;
+                    break;
+                }
+            }
+            if (matches) {
+                HashMap<K, V> writable = writableShard(s);
+                int before = writable.size();
+                writable.entrySet().removeIf(entry -> predicate.test(entry.getKey(), entry.getValue()));
+                size -= before - writable.size();
+                removed = true;
+            }
+        }
+        return removed;
+    }
+
+    /** @return a copy of all entries, which can be used to modify the map while iterating. */
+    public List<Map.Entry<K, V>> entries() {
+        List<Map.Entry<K, V>> entries = new ArrayList<>(size);
+        for (HashMap<K, V> shard : shards) {
+            if (shard == null) continue;
+            for (Map.Entry<K, V> entry : shard.entrySet()) {
+                entries.add(new AbstractMap.SimpleImmutableEntry<>(entry));
+            }
+        }
+        return entries;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return an immutable view of the current contents of this map, sharing all of its shards. Later writes to this
+     *         map copy the shards they touch, so they are not visible in the snapshot.
+     */
+    public ShardedCopyOnWriteMap<K, V> snapshot() {
+        if (owned == null) {
+            return this;
+        }
+        Arrays.fill(owned, false);
+        shardsCopiedSinceSnapshot = 0;
+        return new ShardedCopyOnWriteMap<>(Arrays.copyOf(shards, N_SHARDS), size);
+    }
+
+    /** @return the number of shards copied by writes since the last snapshot. */
+    public int getShardsCopiedSinceSnapshot() {
+        return shardsCopiedSinceSnapshot;
+    }
+
+    private HashMap<K, V> writableShard(int s) {
+        if (owned == null) {
+            throw new UnsupportedOperationException("Snapshots of a ShardedCopyOnWriteMap are read-only.");
+        }
+        if (!owned[s]) {
+            shards[s] = shards[s] == null ? new HashMap<>() : new HashMap<>(shards[s]);
+            owned[s] = true;
+            shardsCopiedSinceSnapshot++;
+        }
+        return shards[s];
+    }
+
+    private static int shardIndex(Object key) {
+        int h = key == null ? 0 : key.hashCode();
+        // Take the shard from the top bits of a multiplicative hash. HashMap picks buckets from the low bits, which
+        // would otherwise be the same for all keys in a shard.
+        return (h * 0x9E3779B9) >>> (32 - SHARD_BITS);
+    }
+}
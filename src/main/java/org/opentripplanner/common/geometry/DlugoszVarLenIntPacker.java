@@ -14,7 +14,9 @@
 package org.opentripplanner.common.geometry;
 
 import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -74,6 +76,42 @@ public class DlugoszVarLenIntPacker {
         return baos.toByteArray();
     }
 
+    /**
+     * Same as {@link #unpack(byte[])}, reading the packed values from a region of a buffer instead of copying them to
+     * an array first. The position of the buffer is left unchanged.
+     */
+    public static int[] unpack(ByteBuffer buffer, int offset, int length) {
+        int[] values = new int[length];
+        int n = 0;
+        int i = offset;
+        int end = offset + length;
+        while (i < end) {
+            int v1 = buffer.get(i) & 0xFF;
+            i++;
+            if ((v1 & 0x80) == 0x00) {
+                values[n++] = (v1 & 0x7F) - 64;
+            } else if ((v1 & 0xC0) == 0x80) {
+                values[n++] = ((v1 & 0x3F) << 8) + (buffer.get(i) & 0xFF) - 8192;
+                i++;
+            } else if ((v1 & 0xE0) == 0xC0) {
+                values[n++] = ((v1 & 0x1F) << 16) + ((buffer.get(i) & 0xFF) << 8) + (buffer.get(i + 1) & 0xFF)
+                        - 1048576;
+                i += 2;
+            } else if ((v1 & 0xF8) == 0xE0) {
+                values[n++] = ((v1 & 0x1F) << 24) + ((buffer.get(i) & 0xFF) << 16)
+                        + ((buffer.get(i + 1) & 0xFF) << 8) + (buffer.get(i + 2) & 0xFF) - 67108864;
+                i += 3;
+            } else {
+                long sv = (((long) v1 & 0x1F) << 32) + ((buffer.get(i) & 0xFF) << 24)
+                        + ((buffer.get(i + 1) & 0xFF) << 16) + ((buffer.get(i + 2) & 0xFF) << 8)
+                        + (buffer.get(i + 3) & 0xFF) - 2147483648L;
+                i += 4;
+                values[n++] = (int) sv;
+            }
+        }
+        return n == length ? values : Arrays.copyOf(values, n);
+    }
+
     public static int[] unpack(byte[] arr) {
         if (arr == null)
             return null;
@@ -15,7 +15,7 @@ package org.opentripplanner.common.pqueue;
 
 import java.util.Arrays;
 
-public class BinHeap<T> {
+public class BinHeap<T> implements OTPPriorityQueue<T> {
     
     private static final double GROW_FACTOR = 2.0;
     
@@ -117,6 +117,23 @@ public class BinHeap<T> {
     	size=0;
     } 
 
+    /**
+     * Empties the queue and drops all references to its elements, keeping the allocated capacity so the heap can be
+     * reused for another search without growing again.
+     */
+    public void clear() {
+        Arrays.fill(elem, null);
+        size = 0;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public void ensureCapacity(int capacity) {
+        if (capacity > this.capacity) resize(capacity);
+    }
+
     public void insert(T e, double p) {
         int i;
         size += 1;
@@ -0,0 +1,121 @@
+package org.opentripplanner.common.pqueue;
+
+import java.util.Arrays;
+
+/**
+ * A 4-ary min heap on parallel primitive key and element arrays. Compared to the {@link BinHeap} the tree is half as
+ * deep, so extract_min does fewer levels of sifting, and the four children of a node share one or two cache lines
+ * of the key array.
+ */
+public class FourAryHeap<T> implements OTPPriorityQueue<T> {
+
+    private static final double GROW_FACTOR = 2.0;
+
+    private double[] prio;
+
+    private T[] elem;
+
+    private int size = 0;
+
+    public FourAryHeap() {
+        this(1000);
+    }
+
+    @SuppressWarnings("unchecked")
+    public FourAryHeap(int capacity) {
+        if (capacity < 10) capacity = 10;
+        elem = (T[]) new Object[capacity];
+        prio = new double[capacity];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean empty() {
+        return size <= 0;
+    }
+
+    @Override
+    public double peek_min_key() {
+        if (size > 0)
+            return prio[0];
+        else
+            throw new IllegalStateException("An empty queue does not have a minimum key.");
+    }
+
+    @Override
+    public T peek_min() {
+        return size > 0 ? elem[0] : null;
+    }
+
+    @Override
+    public void insert(T e, double p) {
+        if (size == elem.length) {
+            ensureCapacity((int) (elem.length * GROW_FACTOR));
+        }
+        int i = size++;
+        // sift up
+        while (i > 0) {
+            int parent = (i - 1) >> 2;
+            if (prio[parent] <= p) break;
+            elem[i] = elem[parent];
+            prio[i] = prio[parent];
+            i = parent;
+        }
+        elem[i] = e;
+        prio[i] = p;
+    }
+
+    @Override
+    public T extract_min() {
+        if (size <= 0)
+            return null;
+        T minElem = elem[0];
+        size -= 1;
+        T lastElem = elem[size];
+        double lastPrio = prio[size];
+        elem[size] = null;
+        if (size > 0) {
+            // sift the last element down from the root
+            int i = 0;
+            while (true) {
+                int first = (i << 2) + 1;
+                if (first >= size) break;
+                int last = Math.min(first + 4, size);
+                int child = first;
+                for (int c = first + 1; c < last; c++) {
+                    if (prio[c] < prio[child]) child = c;
+                }
+                if (prio[child] >= lastPrio) break;
+                elem[i] = elem[child];
+                prio[i] = prio[child];
+                i = child;
+            }
+            elem[i] = lastElem;
+            prio[i] = lastPrio;
+        }
+        return minElem;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(elem, 0, size, null);
+        size = 0;
+    }
+
+    @Override
+    public int capacity() {
+        return elem.length;
+    }
+
+    @Override
+    public void ensureCapacity(int capacity) {
+        if (capacity > elem.length) {
+            elem = Arrays.copyOf(elem, capacity);
+            prio = Arrays.copyOf(prio, capacity);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package org.opentripplanner.common.pqueue;
+
+/**
+ * A min priority queue with double keys, as used by the shortest path searches. There is no decrease-key operation:
+ * searches insert a new element instead and skip stale ones when they come out of the queue.
+ *
+ * @see PriorityQueueType for choosing an implementation.
+ */
+public interface OTPPriorityQueue<T> {
+
+    int size();
+
+    boolean empty();
+
+    /** @return the key of the minimum element. Throws an IllegalStateException when the queue is empty. */
+    double peek_min_key();
+
+    /** @return the minimum element, or null if the queue is empty. */
+    T peek_min();
+
+    void insert(T e, double p);
+
+    /** @return and remove the minimum element, or null if the queue is empty. */
+    T extract_min();
+
+    /** Empty the queue and drop all references to its elements, keeping the allocated capacity. */
+    void clear();
+
+    /** @return the number of elements the queue can hold without growing. */
+    int capacity();
+
+    /** Make sure the queue can hold at least the given number of elements without growing. */
+    void ensureCapacity(int capacity);
+}
@@ -0,0 +1,26 @@
+package org.opentripplanner.common.pqueue;
+
+/**
+ * The priority queue implementations available to the shortest path searches. Chosen per request with the
+ * priorityQueueType routing parameter, which can be set in the routingDefaults of router-config.json.
+ */
+public enum PriorityQueueType {
+
+    /** The classic binary heap, {@link BinHeap}. */
+    BINARY_HEAP {
+        @Override
+        public <T> OTPPriorityQueue<T> create(int capacity) {
+            return new BinHeap<>(capacity);
+        }
+    },
+
+    /** A shallower 4-ary heap on primitive arrays, {@link FourAryHeap}. */
+    FOUR_ARY_HEAP {
+        @Override
+        public <T> OTPPriorityQueue<T> create(int capacity) {
+            return new FourAryHeap<>(capacity);
+        }
+    };
+
+    public abstract <T> OTPPriorityQueue<T> create(int capacity);
+}
@@ -65,6 +65,9 @@ public class GraphBuilder implements Runnable {
     /** Should the graph be serialized to disk after being created or not? */
     private boolean serializeGraph = true;
 
+    /** Should the street network columns be saved along with the graph or not? */
+    private boolean streetNetworkColumns = false;
+
     private GraphBuilder(OtpDataStore dataStore, boolean skipTransit) {
         this.dataStore = dataStore;
         // If we are skipping transit, then we are only building the street network,
@@ -120,10 +123,11 @@ public class GraphBuilder implements Runnable {
                 load.buildGraph(graph, extra);
 
             graph.summarizeBuilderAnnotations();
+            graph.deduplicator.logBytesSaved();
 
             if (serializeGraph) {
                 try {
-                    graph.save(getGraphOutputSource());
+                    graph.save(getGraphOutputSource(), streetNetworkColumns);
                 } catch (Exception ex) {
                     throw new IllegalStateException(ex);
                 }
@@ -295,6 +299,7 @@ public class GraphBuilder implements Runnable {
             );
         }
         graphBuilder.serializeGraph = (!cmdLineParams.inMemory) || cmdLineParams.preFlight;
+        graphBuilder.streetNetworkColumns = builderParams.streetNetworkColumns;
         return graphBuilder;
     }
 
@@ -40,7 +40,7 @@ public class NetexModule implements GraphBuilderModule {
 
         try {
             for (NetexBundle netexBundle : netexBundles) {
-                OtpTransitBuilder daoBuilder = new NetexLoader(netexBundle,graph).loadBundle();
+                OtpTransitBuilder daoBuilder = new NetexLoader(netexBundle, graph, graph.deduplicator).loadBundle();
 
                 TripTransformService.runTripTransform(daoBuilder, configDirectory);
 
@@ -581,7 +581,7 @@ public class IndexAPI {
     @GET
     @Path("/areas")
     public Response getAllAreas() {
-        List<AgencyAndId> ids = new ArrayList<>(index.areasById.keySet());
+        List<AgencyAndId> ids = new ArrayList<>(index.getAreasById().keySet());
         return Response.status(Status.OK).entity(ids).build();
     }
 
@@ -590,7 +590,7 @@ public class IndexAPI {
     @Path("/areas/{id}")
     public Response getAreaIdByFeedId(@PathParam("id") String areaIdString) {
         AgencyAndId id = GtfsLibrary.convertIdFromString(areaIdString);
-        Geometry area = index.areasById.get(id);
+        Geometry area = index.getAreasById().get(id);
         if (area == null) {
             return Response.status(Status.NOT_FOUND).build();
         }
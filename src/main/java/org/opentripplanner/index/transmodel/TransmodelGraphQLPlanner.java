@@ -19,6 +19,7 @@ import org.opentripplanner.model.AgencyAndId;
 import org.opentripplanner.model.TransmodelTransportSubmode;
 import org.opentripplanner.routing.core.OptimizeType;
 import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.SearchAlgorithm;
 import org.opentripplanner.routing.core.TraverseMode;
 import org.opentripplanner.routing.edgetype.StationStopEdge;
 import org.opentripplanner.routing.graph.GraphIndex;
@@ -241,6 +242,7 @@ public class TransmodelGraphQLPlanner {
 
         callWith.argument("heuristicStepsPerMainStep", (Integer v) -> request.heuristicStepsPerMainStep = v);
         callWith.argument("compactLegsByReversedSearch", (Boolean v) -> request.compactLegsByReversedSearch = v);
+        callWith.argument("searchAlgorithm", (SearchAlgorithm v) -> request.searchAlgorithm = v);
         callWith.argument("banFirstServiceJourneysFromReuseNo", (Integer v) -> request.banFirstTripsFromReuseNo = v);
         callWith.argument("allowBikeRental", (Boolean v) -> request.allowBikeRental = v);
 
@@ -73,6 +73,7 @@ import org.opentripplanner.routing.car_park.CarPark;
 import org.opentripplanner.routing.car_park.CarParkService;
 import org.opentripplanner.routing.core.OptimizeType;
 import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.SearchAlgorithm;
 import org.opentripplanner.routing.core.TraverseMode;
 import org.opentripplanner.routing.core.TraverseModeSet;
 import org.opentripplanner.routing.edgetype.TripPattern;
@@ -348,6 +349,12 @@ public class TransmodelIndexGraphQLSchema {
             .value("transfers", OptimizeType.TRANSFERS)
             .build();
 
+    private static GraphQLEnumType searchAlgorithmEnum = GraphQLEnumType.newEnum()
+            .name("SearchAlgorithm")
+            .value("aStar", SearchAlgorithm.ASTAR, "Repeated A* searches, one per trip pattern.")
+            .value("raptor", SearchAlgorithm.RAPTOR, "A single round-based transit search finding all trip patterns at once. Falls back to aStar for unsupported requests.")
+            .build();
+
     private static GraphQLEnumType directionTypeEnum = GraphQLEnumType.newEnum()
             .name("DirectionType")
             .value("unknown",-1)
@@ -1043,6 +1050,12 @@ public class TransmodelIndexGraphQLSchema {
                         .type(Scalars.GraphQLBoolean)
                         .defaultValue(defaultRoutingRequest.compactLegsByReversedSearch)
                         .build())
+                .argument(GraphQLArgument.newArgument()
+                        .name("searchAlgorithm")
+                        .description("The algorithm used to find trip patterns. Experimental argument, may be removed!")
+                        .type(searchAlgorithmEnum)
+                        .defaultValue(defaultRoutingRequest.searchAlgorithm)
+                        .build())
                 .argument(GraphQLArgument.newArgument()
                         .name("reverseOptimizeOnTheFly")
                         .description("For debugging only.")
@@ -1260,7 +1273,7 @@ public class TransmodelIndexGraphQLSchema {
                 .field(GraphQLFieldDefinition.newFieldDefinition()
                         .name("datedServiceJourneys")
                         .type(new GraphQLNonNull(new GraphQLList(datedServiceJourneyType)))
-                        .dataFetcher(environment -> wrapInListUnlessNull(index.datedServiceJourneyForId.get(((AlertPatch) environment.getSource()).getDatedServiceJourneyId())))
+                        .dataFetcher(environment -> wrapInListUnlessNull(index.getDatedServiceJourneyForId().get(((AlertPatch) environment.getSource()).getDatedServiceJourneyId())))
                         .build())
                 .field(GraphQLFieldDefinition.newFieldDefinition()
                         .name("quays")
@@ -2374,7 +2387,7 @@ public class TransmodelIndexGraphQLSchema {
                 .description("The DatedServiceJourney replaced by this DSJ. This is based on planed alterations, not real-time cancelations.")
                 .dataFetcher(environment -> {
                     var id = ((DatedServiceJourney) environment.getSource()).getReplacesId();
-                    return id == null? null : index.datedServiceJourneyForId.get(id);
+                    return id == null? null : index.getDatedServiceJourneyForId().get(id);
                 })
                 .build())
             .field(GraphQLFieldDefinition.newFieldDefinition()
@@ -3516,7 +3529,7 @@ public class TransmodelIndexGraphQLSchema {
                             .name("id")
                             .type(new GraphQLNonNull(Scalars.GraphQLString))
                             .build())
-                        .dataFetcher(environment -> index.datedServiceJourneyForId
+                        .dataFetcher(environment -> index.getDatedServiceJourneyForId()
                             .get(mappingUtil.fromIdString(environment.getArgument("id"))))
                         .build())
                 .field(GraphQLFieldDefinition.newFieldDefinition()
@@ -3555,7 +3568,7 @@ public class TransmodelIndexGraphQLSchema {
                             Set<TripAlteration> alts = enumSet(e.getArgument("alterations"));
                             List<String> authorities = e.getArgument("authorities");
 
-                            return index.datedServiceJourneyForId.values().stream()
+                            return index.getDatedServiceJourneyForId().values().stream()
                                 .filter(dsj -> match(lines, dsj.getTrip().getRoute().getId()))
                                 .filter(dsj -> match(sjs, dsj.getTrip().getId()))
                                 .filter(dsj -> match(authorities, dsj.getTrip().getRoute().getAgency().getId()))
@@ -4627,6 +4640,12 @@ public class TransmodelIndexGraphQLSchema {
                         .type(Scalars.GraphQLBoolean)
                         .dataFetcher(environment -> ((RoutingRequest) environment.getSource()).compactLegsByReversedSearch)
                         .build())
+                .field(GraphQLFieldDefinition.newFieldDefinition()
+                        .name("searchAlgorithm")
+                        .description("The algorithm used to find trip patterns.")
+                        .type(searchAlgorithmEnum)
+                        .dataFetcher(environment -> ((RoutingRequest) environment.getSource()).searchAlgorithm)
+                        .build())
                 .field(GraphQLFieldDefinition.newFieldDefinition()
                         .name("carDecelerationSpeed")
                         .description("The deceleration speed of an automobile, in meters per second per second.")
@@ -0,0 +1,101 @@
+package org.opentripplanner.kryo;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.ReferenceResolver;
+import com.esotericsoftware.kryo.util.Util;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A Kryo reference resolver whose scope may extend the scope of another resolver. References to the objects of the
+ * enclosing scope are written as back references to their ids in that scope, other objects are numbered after them.
+ *
+ * This lets separate parts of an object graph be serialized by separate Kryo instances and decoded independently of
+ * each other, as long as they share the objects of the enclosing scope. That scope must not change once it is
+ * extended, and the reading side must decode it before the scopes extending it.
+ *
+ * Unlike the default MapReferenceResolver this one keeps its scope when Kryo resets it between top-level objects, so
+ * several top-level objects can share a scope.
+ */
+public class ScopedReferenceResolver implements ReferenceResolver {
+
+    private final ScopedReferenceResolver enclosingScope;
+
+    /** The number of ids used by the enclosing scopes, the ids of this scope start from there. */
+    private final int firstId;
+
+    /** The objects written or read in this scope, in the order of their ids. */
+    private final List<Object> objects = new ArrayList<>();
+
+    private final Map<Object, Integer> writtenIds = new IdentityHashMap<>();
+
+    public ScopedReferenceResolver() {
+        this(null);
+    }
+
+    public ScopedReferenceResolver(ScopedReferenceResolver enclosingScope) {
+        this.enclosingScope = enclosingScope;
+        this.firstId = enclosingScope == null ? 0 : enclosingScope.firstId + enclosingScope.objects.size();
+    }
+
+    /** @return the objects written or read in this scope, excluding those of the enclosing scopes. */
+    public List<Object> getObjects() {
+        return objects;
+    }
+
+    @Override
+    public void setKryo(Kryo kryo) {
+    }
+
+    @Override
+    public int getWrittenId(Object object) {
+        if (enclosingScope != null) {
+            int id = enclosingScope.getWrittenId(object);
+            if (id != -1) {
+                return id;
+            }
+        }
+        Integer id = writtenIds.get(object);
+        return id == null ? -1 : id;
+    }
+
+    @Override
+    public int addWrittenObject(Object object) {
+        int id = firstId + objects.size();
+        objects.add(object);
+        writtenIds.put(object, id);
+        return id;
+    }
+
+    @Override
+    public int nextReadId(Class type) {
+        int id = firstId + objects.size();
+        objects.add(null);
+        return id;
+    }
+
+    @Override
+    public void setReadObject(int id, Object object) {
+        objects.set(id - firstId, object);
+    }
+
+    @Override
+    public Object getReadObject(Class type, int id) {
+        if (id < firstId) {
+            return enclosingScope.getReadObject(type, id);
+        }
+        return objects.get(id - firstId);
+    }
+
+    @Override
+    public void reset() {
+    }
+
+    @Override
+    public boolean useReferences(Class type) {
+        return !Util.isWrapperClass(type);
+    }
+}
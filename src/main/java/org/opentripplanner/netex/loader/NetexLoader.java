@@ -8,6 +8,7 @@ import org.opentripplanner.graph_builder.module.NetexModule;
 import org.opentripplanner.model.impl.OtpTransitBuilder;
 import org.opentripplanner.netex.mapping.NetexMapper;
 import org.opentripplanner.routing.graph.AddBuilderAnnotation;
+import org.opentripplanner.routing.trippattern.Deduplicator;
 import org.opentripplanner.standalone.datastore.DataSource;
 import org.rutebanken.netex.model.Authority;
 import org.rutebanken.netex.model.Branding;
@@ -89,13 +90,17 @@ public class NetexLoader {
 
     private final AddBuilderAnnotation addBuilderAnnotation;
 
+    private final Deduplicator deduplicator;
+
     private Unmarshaller unmarshaller;
 
     private NetexMapper otpMapper;
 
-    public NetexLoader(NetexBundle netexBundle, AddBuilderAnnotation addBuilderAnnotation) {
+    public NetexLoader(NetexBundle netexBundle, AddBuilderAnnotation addBuilderAnnotation,
+            Deduplicator deduplicator) {
         this.netexBundle = netexBundle;
         this.addBuilderAnnotation = addBuilderAnnotation;
+        this.deduplicator = deduplicator;
     }
 
     public OtpTransitBuilder loadBundle() throws Exception {
@@ -108,7 +113,8 @@ public class NetexLoader {
                 netexBundle.netexParameters.netexFeedId,
                 netexBundle.netexParameters.defaultFlexMaxTravelTime,
                 netexBundle.netexParameters.defaultMinimumFlexPaddingTimeMins,
-                addBuilderAnnotation
+                addBuilderAnnotation,
+                deduplicator
         );
 
         loadDao();
@@ -11,6 +11,7 @@ import org.opentripplanner.model.impl.OtpTransitBuilder;
 import org.opentripplanner.netex.loader.NetexDao;
 import org.opentripplanner.netex.mapping.calendar.ServiceCalendarBuilder;
 import org.opentripplanner.routing.graph.AddBuilderAnnotation;
+import org.opentripplanner.routing.trippattern.Deduplicator;
 import org.rutebanken.netex.model.Authority;
 import org.rutebanken.netex.model.Branding;
 import org.rutebanken.netex.model.FlexibleStopPlace;
@@ -68,13 +69,14 @@ public class NetexMapper {
             String agencyId,
             String defaultFlexMaxTravelTime,
             int defaultMinimumFlexPaddingTime,
-            AddBuilderAnnotation addBuilderAnnotation
+            AddBuilderAnnotation addBuilderAnnotation,
+            Deduplicator deduplicator
     ) {
         this.transitBuilder = transitBuilder;
         this.agencyId = agencyId;
         this.defaultFlexMaxTravelTime = defaultFlexMaxTravelTime;
         this.defaultMinimumFlexPaddingTime = defaultMinimumFlexPaddingTime;
-        this.tripPatternMapper = new TripPatternMapper(addBuilderAnnotation);
+        this.tripPatternMapper = new TripPatternMapper(addBuilderAnnotation, deduplicator);
         this.flexibleStopPlaceMapper= new FlexibleStopPlaceMapper(addBuilderAnnotation);
         this.serviceLinkMapper = new ServiceLinkMapper(addBuilderAnnotation);
         this.stopMapper= new StopMapper(addBuilderAnnotation);
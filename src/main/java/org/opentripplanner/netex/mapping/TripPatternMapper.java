@@ -60,10 +60,12 @@ public class TripPatternMapper {
 
     private BookingArrangementMapper bookingArrangementMapper = new BookingArrangementMapper();
     private final AddBuilderAnnotation addBuilderAnnotation;
+    private final Deduplicator deduplicator;
     private String currentHeadsign;
 
-    public TripPatternMapper(AddBuilderAnnotation addBuilderAnnotation) {
+    public TripPatternMapper(AddBuilderAnnotation addBuilderAnnotation, Deduplicator deduplicator) {
         this.addBuilderAnnotation = addBuilderAnnotation;
+        this.deduplicator = deduplicator;
     }
 
     public void mapTripPattern(
@@ -178,8 +180,6 @@ public class TripPatternMapper {
         tripPattern.name = journeyPattern.getName() == null ? "" : journeyPattern.getName().getValue();
         tripPattern.id = AgencyAndIdFactory.createAgencyAndId(journeyPattern.getId());
 
-        Deduplicator deduplicator = new Deduplicator();
-
         for (Trip trip : trips) {
             if (transitBuilder.getStopTimesSortedByTrip().get(trip).size() == 0) {
                 LOG.warn("Trip" + trip.getId() + " does not contain any trip times.");
@@ -168,7 +168,7 @@ public class AlertPatch implements Serializable {
                .collect(Collectors.toList());
             } else {
                 // Find patterns for the feed.
-                tripPatterns = graph.index.patternsForFeedId.get(feedId);
+                tripPatterns = graph.index.getPatternsForFeedId().get(feedId);
             }
 
             if (tripPatterns != null) {
@@ -242,7 +242,7 @@ public class AlertPatch implements Serializable {
                tripPatterns = graph.index.patternsForRoute.get(route);
             } else {
                 // Find patterns for the feed.
-                tripPatterns = graph.index.patternsForFeedId.get(feedId);
+                tripPatterns = graph.index.getPatternsForFeedId().get(feedId);
             }
 
             if (tripPatterns != null) {
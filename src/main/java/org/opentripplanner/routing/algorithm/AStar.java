@@ -14,7 +14,7 @@
 package org.opentripplanner.routing.algorithm;
 
 import com.beust.jcommander.internal.Lists;
-import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.common.pqueue.OTPPriorityQueue;
 import org.opentripplanner.routing.algorithm.strategies.RemainingWeightHeuristic;
 import org.opentripplanner.routing.algorithm.strategies.SearchTerminationStrategy;
 import org.opentripplanner.routing.algorithm.strategies.TrivialRemainingWeightHeuristic;
@@ -64,7 +64,8 @@ public class AStar {
 
         public State u;
         public ShortestPathTree spt;
-        BinHeap<State> pq;
+        OTPPriorityQueue<State> pq;
+        SearchWorkspace workspace;
         RemainingWeightHeuristic heuristic;
         public RoutingContext rctx;
         public int nVisited;
@@ -135,7 +136,8 @@ public class AStar {
         // before reaching its target.
         int initialSize = runState.rctx.graph.getVertices().size();
         initialSize = (int) Math.ceil(2 * (Math.sqrt((double) initialSize + 1)));
-        runState.pq = new BinHeap<>(initialSize);
+        runState.workspace = SearchWorkspacePool.getInstance().borrow(options.priorityQueueType, initialSize);
+        runState.pq = runState.workspace.queue;
         runState.nVisited = 0;
         runState.targetAcceptedStates = Lists.newArrayList();
         
@@ -312,11 +314,15 @@ public class AStar {
         ShortestPathTree spt = null;
         long abortTime = DateUtils.absoluteTimeout(relTimeoutSeconds);
 
-        startSearch (options, terminationStrategy, abortTime);
+        try {
+            startSearch (options, terminationStrategy, abortTime);
 
-        if (runState != null) {
-            runSearch(abortTime);
-            spt = runState.spt;
+            if (runState != null) {
+                runSearch(abortTime);
+                spt = runState.spt;
+            }
+        } finally {
+            releaseWorkspace();
         }
         
         storeMemory();
@@ -330,23 +336,40 @@ public class AStar {
         ShortestPathTree spt = null;
         long abortTime = DateUtils.absoluteTimeout(relTimeoutSeconds);
 
-        startSearch (options, terminationStrategy, abortTime, false);
-        
-        if (runState != null) {
-            for (State state : initialStates) {
-                runState.spt.add(state);
-                // TODO: hardwired for earliest arrival
-                // TODO: weights are seconds, no?
-                runState.pq.insert(state, state.getElapsedTimeSeconds());
+        try {
+            startSearch (options, terminationStrategy, abortTime, false);
+
+            if (runState != null) {
+                for (State state : initialStates) {
+                    runState.spt.add(state);
+                    // TODO: hardwired for earliest arrival
+                    // TODO: weights are seconds, no?
+                    runState.pq.insert(state, state.getElapsedTimeSeconds());
+                }
+
+                runSearch(abortTime);
+                spt = runState.spt;
             }
-            
-            runSearch(abortTime);
-            spt = runState.spt;
+        } finally {
+            releaseWorkspace();
         }
         
         return spt;
     }
 
+    /**
+     * Return the priority queue of the search to the pool so the next search can reuse it. This is also called when
+     * the search failed, or timed out before it could borrow a workspace.
+     */
+    private void releaseWorkspace() {
+        if (runState == null) {
+            return;
+        }
+        SearchWorkspacePool.getInstance().release(runState.workspace);
+        runState.workspace = null;
+        runState.pq = null;
+    }
+
     private void storeMemory() {
         if (store.isMonitoring("memoryUsed")) {
             System.gc();
@@ -13,7 +13,7 @@
 
 package org.opentripplanner.routing.algorithm;
 
-import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.common.pqueue.OTPPriorityQueue;
 import org.opentripplanner.routing.algorithm.strategies.SearchTerminationStrategy;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.State;
@@ -71,7 +71,7 @@ public class EarliestArrivalSearch {
         State initialState = new State(options);
         spt.add(initialState);
 
-        BinHeap<State> pq = new BinHeap<State>();
+        OTPPriorityQueue<State> pq = options.priorityQueueType.create(1000);
         pq.insert(initialState, 0);
 
         while (!pq.empty()) {
@@ -0,0 +1,37 @@
+package org.opentripplanner.routing.algorithm;
+
+import org.opentripplanner.common.pqueue.OTPPriorityQueue;
+import org.opentripplanner.common.pqueue.PriorityQueueType;
+import org.opentripplanner.routing.core.State;
+
+/**
+ * The scratch data structures of a single AStar search that do not escape the search itself and can therefore be
+ * reused by the next search instead of being reallocated. Instances are handed out by {@link SearchWorkspacePool};
+ * the states and the ShortestPathTree are returned to the caller and are not part of the workspace.
+ */
+public class SearchWorkspace {
+
+    final PriorityQueueType queueType;
+
+    final OTPPriorityQueue<State> queue;
+
+    SearchWorkspace(PriorityQueueType queueType, int initialCapacity) {
+        this.queueType = queueType;
+        queue = queueType.create(initialCapacity);
+    }
+
+    /** Prepare this workspace for a new search, making sure the queue can hold at least the given number of states. */
+    void reset(int initialCapacity) {
+        queue.clear();
+        queue.ensureCapacity(initialCapacity);
+    }
+
+    /** Drop all references to states of the finished search, so they can be garbage collected while pooled. */
+    void clear() {
+        queue.clear();
+    }
+
+    int capacity() {
+        return queue.capacity();
+    }
+}
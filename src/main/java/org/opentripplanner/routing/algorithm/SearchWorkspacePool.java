@@ -0,0 +1,86 @@
+package org.opentripplanner.routing.algorithm;
+
+import org.opentripplanner.common.pqueue.PriorityQueueType;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of {@link SearchWorkspace}s shared by all AStar searches. A search borrows a workspace when it
+ * starts and returns it when it is done, so the priority queue grown by one search is reused by the next one instead
+ * of being reallocated for every request.
+ *
+ * The pool never blocks: when it is empty a new workspace is created (a miss), and when it is full a returned
+ * workspace is simply dropped. Its size defaults to the number of available processors, which is also the size of
+ * the Grizzly worker pool handling routing requests. Workspaces are kept apart by the type of their priority queue.
+ */
+public class SearchWorkspacePool {
+
+    /** Queues grown beyond this many states by an exceptionally large search are not kept in the pool. */
+    private static final int MAX_RETAINED_CAPACITY = 1 << 20;
+
+    private static final SearchWorkspacePool INSTANCE =
+            new SearchWorkspacePool(Runtime.getRuntime().availableProcessors());
+
+    private final Map<PriorityQueueType, BlockingQueue<SearchWorkspace>> idle = new EnumMap<>(PriorityQueueType.class);
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    public SearchWorkspacePool(int maxSize) {
+        for (PriorityQueueType type : PriorityQueueType.values()) {
+            idle.put(type, new ArrayBlockingQueue<>(Math.max(1, maxSize)));
+        }
+    }
+
+    public static SearchWorkspacePool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return an empty workspace with a queue of the given type, which can hold at least initialCapacity states
+     *         without growing.
+     */
+    public SearchWorkspace borrow(PriorityQueueType queueType, int initialCapacity) {
+        SearchWorkspace workspace = idle.get(queueType).poll();
+        if (workspace == null) {
+            misses.incrementAndGet();
+            return new SearchWorkspace(queueType, initialCapacity);
+        }
+        hits.incrementAndGet();
+        workspace.reset(initialCapacity);
+        return workspace;
+    }
+
+    /** Return a workspace to the pool. The workspace must not be used by the caller afterwards. */
+    public void release(SearchWorkspace workspace) {
+        if (workspace == null) return;
+        workspace.clear();
+        if (workspace.capacity() <= MAX_RETAINED_CAPACITY) {
+            idle.get(workspace.queueType).offer(workspace);
+        }
+    }
+
+    /** @return the number of searches that could reuse a pooled workspace. */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /** @return the number of searches for which a new workspace had to be allocated. */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /** @return the number of workspaces currently idle in the pool. */
+    public int getIdleCount() {
+        int count = 0;
+        for (BlockingQueue<SearchWorkspace> queue : idle.values()) {
+            count += queue.size();
+        }
+        return count;
+    }
+}
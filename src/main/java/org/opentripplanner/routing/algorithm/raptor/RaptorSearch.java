@@ -0,0 +1,546 @@
+package org.opentripplanner.routing.algorithm.raptor;
+
+import org.opentripplanner.model.Trip;
+import org.opentripplanner.routing.algorithm.EarliestArrivalSearch;
+import org.opentripplanner.routing.core.RoutingContext;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.ServiceDay;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.edgetype.SimpleTransfer;
+import org.opentripplanner.routing.edgetype.Timetable;
+import org.opentripplanner.routing.edgetype.TripPattern;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.request.BannedStopSet;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.routing.trippattern.FrequencyEntry;
+import org.opentripplanner.routing.trippattern.SortedDepartureIndex;
+import org.opentripplanner.routing.trippattern.TripTimes;
+import org.opentripplanner.routing.vertextype.TransitStop;
+import org.opentripplanner.util.DateUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * A round-based transit search in the style of RAPTOR (Delling, Pajor and Werneck, "Round-Based Public Transit
+ * Routing"). Round k finds the earliest arrival at every stop using at most k transit vehicles, so a single pass
+ * yields the Pareto set of itineraries over arrival time and number of transfers. Street access and egress are
+ * computed once up front, with an earliest arrival search limited by the maximum walk distance and
+ * {@link RoutingRequest#raptorMaxAccessEgressSeconds}.
+ *
+ * The rounds work on the array-packed {@link RaptorTransitIndex} and only record arrival times and back pointers.
+ * Each optimal itinerary is then turned into a GraphPath by traversing the corresponding edges with the original
+ * request, so the resulting paths carry the same states, costs and realtime data as paths found by AStar. An
+ * itinerary that cannot be re-traversed (for instance because of a transfer table rule that the rounds do not model)
+ * is dropped.
+ *
+ * Only depart-after searches with walking access and egress are supported, see {@link #isSupported(RoutingRequest)}.
+ * Like AStar, one instance should be used per request.
+ */
+public class RaptorSearch {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RaptorSearch.class);
+
+    private static final int UNREACHED = Integer.MAX_VALUE;
+
+    /** The number of rounds is capped to bound the size of the per-round state arrays. */
+    private static final int MAX_ROUNDS = 10;
+
+    /** Source of a stop reached directly from the origin. */
+    private static final int SOURCE_ACCESS = -2;
+
+    /** Source of a stop reached by alighting from a vehicle. Non-negative sources are the stop transferred from. */
+    private static final int SOURCE_TRANSIT = -1;
+
+    private final RaptorTransitIndex index;
+
+    private final RoutingRequest options;
+
+    private final int nStops;
+
+    private final int maxRounds;
+
+    private final List<Round> rounds = new ArrayList<>();
+
+    private final State[] accessStates;
+
+    private final State[] egressStates;
+
+    private long abortTime;
+
+    public RaptorSearch(RaptorTransitIndex index, RoutingRequest options) {
+        this.index = index;
+        this.options = options;
+        this.nStops = index.stops.length;
+        this.maxRounds = Math.min(options.maxTransfers + 1, MAX_ROUNDS);
+        this.accessStates = new State[nStops];
+        this.egressStates = new State[nStops];
+    }
+
+    /**
+     * @return true if the given request can be answered by this search. Everything else (arrive-by searches, bike or
+     * car access, flexible transit, departing on-board) is left to AStar.
+     */
+    public static boolean isSupported(RoutingRequest options) {
+        return options.modes.isTransit()
+                && !options.arriveBy
+                && !options.modes.getBicycle()
+                && !options.modes.getCar()
+                && !options.allowBikeRental
+                && !options.bikeParkAndRide
+                && !options.parkAndRide
+                && !options.kissAndRide
+                && !options.rideAndKiss
+                && !options.useFlexService
+                && options.startingTransitTripId == null
+                && options.rctx != null
+                && options.rctx.fromVertex != null
+                && options.rctx.toVertex != null;
+    }
+
+    /**
+     * Run the search and return one path for each Pareto-optimal combination of arrival time and number of
+     * transfers, in order of increasing number of transfers.
+     */
+    public List<GraphPath> getPaths(double relTimeoutSeconds) {
+        abortTime = DateUtils.absoluteTimeout(relTimeoutSeconds);
+        long searchBeginTime = System.currentTimeMillis();
+
+        findAccessAndEgress();
+        int[] egressStops = IntStream.range(0, nStops).filter(s -> egressStates[s] != null).toArray();
+
+        Round round0 = new Round(nStops);
+        BitSet marked = new BitSet(nStops);
+        for (int s = 0; s < nStops; s++) {
+            if (accessStates[s] != null) {
+                round0.time[s] = (int) accessStates[s].getElapsedTimeSeconds();
+                round0.source[s] = SOURCE_ACCESS;
+                marked.set(s);
+            }
+        }
+        rounds.add(round0);
+
+        int bestTargetTime = UNREACHED;
+        List<int[]> optima = new ArrayList<>();
+        for (int k = 1; k <= maxRounds && !marked.isEmpty(); k++) {
+            if (isTimedOut()) {
+                break;
+            }
+            Round previous = rounds.get(k - 1);
+            Round current = new Round(previous);
+            rounds.add(current);
+
+            BitSet patternsToScan = new BitSet(index.patterns.length);
+            for (int s = marked.nextSetBit(0); s >= 0; s = marked.nextSetBit(s + 1)) {
+                for (int p : index.patternsForStop[s]) {
+                    patternsToScan.set(p);
+                }
+            }
+            BitSet improved = new BitSet(nStops);
+            for (int p = patternsToScan.nextSetBit(0); p >= 0; p = patternsToScan.nextSetBit(p + 1)) {
+                scanPattern(k, p, previous, current, improved, bestTargetTime);
+            }
+
+            // Check whether any stop near the destination is now reached early enough to give a better arrival
+            // there. The transit arrival at a stop may improve without its best arrival improving, when a transfer
+            // reached it earlier, so all egress stops are checked rather than the improved ones only.
+            int bestStop = -1;
+            for (int s : egressStops) {
+                if (current.transitTime[s] == UNREACHED) continue;
+                long arrival = (long) current.transitTime[s] + egressStates[s].getElapsedTimeSeconds();
+                if (arrival < bestTargetTime) {
+                    bestTargetTime = (int) arrival;
+                    bestStop = s;
+                }
+            }
+            if (bestStop >= 0) {
+                optima.add(new int[] { k, bestStop });
+            }
+
+            marked = (BitSet) improved.clone();
+            for (int s = improved.nextSetBit(0); s >= 0; s = improved.nextSetBit(s + 1)) {
+                relaxTransfers(k, s, current, marked, bestTargetTime);
+            }
+        }
+
+        List<GraphPath> paths = new ArrayList<>();
+        for (int[] optimum : optima) {
+            GraphPath path = buildPath(optimum[0], optimum[1]);
+            if (path == null) {
+                LOG.debug("Unable to traverse RAPTOR itinerary with {} rides, dropping it.", optimum[0]);
+                continue;
+            }
+            paths.add(path);
+        }
+        LOG.debug("RAPTOR search found {} paths in {} rounds ({} msec)", paths.size(), rounds.size() - 1,
+                System.currentTimeMillis() - searchBeginTime);
+        return paths;
+    }
+
+    /**
+     * Find all stops within walking distance of the origin and the destination. The two searches are independent of
+     * the rounds, so they are only done once per request.
+     */
+    private void findAccessAndEgress() {
+        RoutingContext rctx = options.rctx;
+        EarliestArrivalSearch search = new EarliestArrivalSearch();
+        search.maxDuration = (int) Math.min(options.maxWalkDistance / options.walkSpeed,
+                options.raptorMaxAccessEgressSeconds);
+
+        RoutingRequest accessRequest = createStreetRequest(false);
+        accessRequest.setRoutingContext(rctx.graph, rctx.fromVertex, null);
+        collectStopStates(search.getShortestPathTree(accessRequest), accessStates);
+
+        RoutingRequest egressRequest = createStreetRequest(true);
+        egressRequest.setRoutingContext(rctx.graph, null, rctx.toVertex);
+        collectStopStates(search.getShortestPathTree(egressRequest), egressStates);
+        // The street routing contexts share their endpoints with the main request, so they are not cleaned up here:
+        // that would dispose of the temporary vertices still used by the main request. Creating them does not change
+        // those vertices either: with a single endpoint no partial edges are added, and temporary vertices are never
+        // given an index.
+    }
+
+    private RoutingRequest createStreetRequest(boolean arriveBy) {
+        RoutingRequest request = options.clone();
+        request.setModes(new TraverseModeSet(TraverseMode.WALK));
+        request.setArriveBy(arriveBy);
+        request.clampInitialWait = 0;
+        return request;
+    }
+
+    private void collectStopStates(ShortestPathTree spt, State[] stopStates) {
+        if (spt == null) return;
+        for (State state : spt.getAllStates()) {
+            Vertex vertex = state.getVertex();
+            if (!(vertex instanceof TransitStop)) continue;
+            int s = index.indexOf((TransitStop) vertex);
+            if (s < 0) continue;
+            if (stopStates[s] == null || state.getElapsedTimeSeconds() < stopStates[s].getElapsedTimeSeconds()) {
+                stopStates[s] = state;
+            }
+        }
+    }
+
+    /**
+     * Ride all trips of one pattern which can be boarded at stops reached in the previous round, recording the arrival
+     * at every later stop.
+     */
+    private void scanPattern(int k, int p, Round previous, Round current, BitSet improved, int bestTargetTime) {
+        TripPattern pattern = index.patterns[p];
+        if (options.routeIsBanned(pattern.route) || !options.modes.contains(pattern.mode)) {
+            return;
+        }
+        int[] patternStops = index.stopsForPattern[p];
+        int boardTime = options.getBoardTime(pattern.route.getTransportSubmode());
+        int alightTime = options.getAlightTime(pattern.route.getTransportSubmode());
+        // Mirrors the slack applied by PreBoardEdge and PreAlightEdge
+        int boardSlack = (k == 1) ? options.boardSlack : options.transferSlack - options.alightSlack;
+
+        Boarding trip = null;
+        int boardPos = -1;
+        for (int i = 0; i < patternStops.length; i++) {
+            int s = patternStops[i];
+            if (s < 0) continue;
+            boolean accessible = !options.wheelchairAccessible || pattern.wheelchairAccessible(i);
+
+            if (trip != null && accessible && pattern.alightEdges[i] != null) {
+                int arrival = trip.arrivalTime(i) + alightTime + options.alightSlack;
+                if (arrival < current.transitTime[s] && arrival < bestTargetTime) {
+                    current.transitTime[s] = arrival;
+                    current.legRound[s] = k;
+                    current.legPattern[s] = p;
+                    current.legBoardPos[s] = boardPos;
+                    current.legAlightPos[s] = i;
+                    if (arrival < current.time[s]) {
+                        current.time[s] = arrival;
+                        current.source[s] = SOURCE_TRANSIT;
+                        improved.set(s);
+                    }
+                }
+            }
+
+            if (accessible && pattern.boardEdges[i] != null && previous.time[s] != UNREACHED) {
+                int earliest = previous.time[s] + boardSlack + boardTime;
+                if (trip == null || earliest <= trip.departureTime(i)) {
+                    Boarding boarding = findBoarding(p, i, earliest);
+                    if (boarding != null && (trip == null || boarding.departureTime(i) < trip.departureTime(i))) {
+                        trip = boarding;
+                        boardPos = i;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the first trip on the given pattern departing from the given position at or after the given time, over
+     * all service days relevant to the request. This applies the same filters as Timetable.getNextTrip, except for
+     * the transfer table rules, which are checked when the resulting path is traversed.
+     */
+    private Boarding findBoarding(int p, int stopPos, int earliest) {
+        TripPattern pattern = index.patterns[p];
+        RoutingContext rctx = options.rctx;
+        TripTimes bestTripTimes = null;
+        long bestOffset = 0;
+        int bestShift = 0;
+        long bestDeparture = UNREACHED;
+        for (ServiceDay sd : index.extendedDates[p] ? rctx.extendedServiceDays : rctx.serviceDays) {
+            Timetable timetable = pattern.getUpdatedTimetable(options, sd);
+            if (timetable.serviceDate != null && !sd.getServiceDate().equals(timetable.serviceDate)) {
+                continue;
+            }
+            // Offset from the search time to midnight on this service day
+            long offset = sd.time(0) - options.getSecondsSinceEpoch();
+            long earliestOnDay = earliest - offset;
+            if (earliestOnDay > Integer.MAX_VALUE) continue;
+            TripTimes tt = findFirstDeparture(timetable, stopPos, sd, (int) Math.max(earliestOnDay, 0));
+            if (tt != null && offset + tt.getDepartureTime(stopPos) < bestDeparture) {
+                bestDeparture = offset + tt.getDepartureTime(stopPos);
+                bestTripTimes = tt;
+                bestOffset = offset;
+                bestShift = 0;
+            }
+            for (FrequencyEntry freq : timetable.frequencyEntries) {
+                TripTimes tt = freq.tripTimes;
+                if (!isBoardable(tt, stopPos, sd)) continue;
+                int departure = freq.nextDepartureTime(stopPos, (int) Math.max(earliestOnDay, Integer.MIN_VALUE));
+                if (departure < 0) continue;
+                if (offset + departure < bestDeparture) {
+                    bestDeparture = offset + departure;
+                    bestTripTimes = tt;
+                    bestOffset = offset;
+                    bestShift = departure - tt.getDepartureTime(stopPos);
+                }
+            }
+        }
+        return bestTripTimes == null ? null : new Boarding(bestTripTimes, bestOffset + bestShift);
+    }
+
+    /**
+     * Find the boardable trip of the timetable departing first from the given position at or after the given time,
+     * relative to midnight on the given service day. Of several trips departing at the same time the one coming first
+     * in the timetable is chosen. Uses a binary search when the trips are sorted at that position, a linear scan
+     * otherwise.
+     */
+    private TripTimes findFirstDeparture(Timetable timetable, int stopPos, ServiceDay sd, int earliest) {
+        TripTimes best = null;
+        int bestDeparture = UNREACHED;
+        SortedDepartureIndex departureIndex = timetable.getDepartureIndex();
+        if (departureIndex != null && departureIndex.departuresSorted(stopPos)) {
+            int bestPosition = Integer.MAX_VALUE;
+            BitSet running = departureIndex.getTripsRunning(sd);
+            int start = departureIndex.firstDepartureAtOrAfter(stopPos, earliest);
+            for (int i = running.nextSetBit(start); i >= 0; i = running.nextSetBit(i + 1)) {
+                TripTimes tt = departureIndex.get(i);
+                int departure = tt.getDepartureTime(stopPos);
+                if (departure > bestDeparture) break;
+                if (!isBoardable(tt, stopPos, sd)) continue;
+                if (departureIndex.getTimetablePosition(i) < bestPosition) {
+                    best = tt;
+                    bestDeparture = departure;
+                    bestPosition = departureIndex.getTimetablePosition(i);
+                }
+            }
+        } else {
+            for (TripTimes tt : timetable.tripTimes) {
+                if (!isBoardable(tt, stopPos, sd)) continue;
+                int departure = tt.getDepartureTime(stopPos);
+                if (departure < earliest) continue;
+                if (departure < bestDeparture) {
+                    best = tt;
+                    bestDeparture = departure;
+                }
+            }
+        }
+        return best;
+    }
+
+    private boolean isBoardable(TripTimes tt, int stopPos, ServiceDay sd) {
+        if (tt.isCanceled()) return false;
+        if (tt.getNumStops() <= stopPos) return false;
+        if (!sd.serviceRunning(tt.serviceCode)) return false;
+        Trip trip = tt.trip;
+        if (options.tripIsBanned(trip)) return false;
+        BannedStopSet banned = options.bannedTrips.get(trip.getId());
+        if (banned != null && banned.contains(stopPos)) return false;
+        if (options.wheelchairAccessible && trip.getWheelchairAccessible() == 2) return false;
+        if (!options.includePlannedCancellations && !trip.isRunningOnDate(sd.getServiceDate())) return false;
+        return true;
+    }
+
+    /** Walk from a stop reached by transit in round k to all stops connected to it by a SimpleTransfer. */
+    private void relaxTransfers(int k, int s, Round current, BitSet marked, int bestTargetTime) {
+        SimpleTransfer[] transfers = index.transfersForStop[s];
+        int[] targets = index.transferTargets[s];
+        for (int i = 0; i < transfers.length; i++) {
+            if (transfers[i].getDistance() > options.getMaxTransferWalkDistance()) continue;
+            int target = targets[i];
+            int arrival = current.transitTime[s] + transfers[i].getTraversalTimeSeconds(options.walkSpeed);
+            if (arrival < current.time[target] && arrival < bestTargetTime) {
+                current.time[target] = arrival;
+                current.source[target] = s;
+                current.transferRound[target] = k;
+                current.transferEdge[target] = i;
+                marked.set(target);
+            }
+        }
+    }
+
+    /**
+     * Follow the back pointers from the given stop and round to the origin, collect the edges of the itinerary and
+     * traverse them with the original request.
+     */
+    private GraphPath buildPath(int round, int egressStop) {
+        LinkedList<Edge> edges = new LinkedList<>();
+        // Egress states come from an arrive-by search, so their back states lead towards the destination
+        for (State state = egressStates[egressStop]; state.getBackState() != null; state = state.getBackState()) {
+            edges.addLast(state.getBackEdge());
+        }
+        int k = round;
+        int stop = egressStop;
+        while (true) {
+            Round legEnd = rounds.get(k);
+            int p = legEnd.legPattern[stop];
+            int boardPos = legEnd.legBoardPos[stop];
+            addTransitLeg(edges, p, boardPos, legEnd.legAlightPos[stop]);
+
+            int boardRound = legEnd.legRound[stop] - 1;
+            int boardStop = index.stopsForPattern[p][boardPos];
+            Round legStart = rounds.get(boardRound);
+            int source = legStart.source[boardStop];
+            if (source == SOURCE_ACCESS) {
+                for (State state = accessStates[boardStop]; state.getBackState() != null; state = state.getBackState()) {
+                    edges.addFirst(state.getBackEdge());
+                }
+                break;
+            } else if (source == SOURCE_TRANSIT) {
+                k = boardRound;
+                stop = boardStop;
+            } else {
+                edges.addFirst(index.transfersForStop[source][legStart.transferEdge[boardStop]]);
+                k = legStart.transferRound[boardStop];
+                stop = source;
+            }
+        }
+        return traverse(edges);
+    }
+
+    private void addTransitLeg(LinkedList<Edge> edges, int p, int boardPos, int alightPos) {
+        TripPattern pattern = index.patterns[p];
+        List<Edge> leg = new ArrayList<>();
+        leg.add(index.preBoardEdges[index.stopsForPattern[p][boardPos]]);
+        leg.add(pattern.boardEdges[boardPos]);
+        for (int i = boardPos; i < alightPos; i++) {
+            if (i > boardPos) {
+                leg.add(pattern.dwellEdges[i]);
+            }
+            leg.add(pattern.hopEdges[i]);
+        }
+        leg.add(pattern.alightEdges[alightPos]);
+        leg.add(index.preAlightEdges[index.stopsForPattern[p][alightPos]]);
+        edges.addAll(0, leg);
+    }
+
+    private GraphPath traverse(List<Edge> edges) {
+        State state = new State(options);
+        for (Edge edge : edges) {
+            if (edge == null) return null;
+            state = edge.traverse(state);
+            if (state == null) return null;
+        }
+        if (state.getVertex() != options.rctx.toVertex) return null;
+        return new GraphPath(state, true);
+    }
+
+    private boolean isTimedOut() {
+        if (abortTime < Long.MAX_VALUE && System.currentTimeMillis() > abortTime) {
+            LOG.info("RAPTOR search timeout. origin={} target={}", options.rctx.origin, options.rctx.target);
+            options.rctx.aborted = true;
+            options.rctx.debugOutput.timedOut = true;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * The state of one round. All times are in seconds after the search time. A round starts out as a copy of the
+     * previous one, so each array holds the best value found using at most this many rides.
+     */
+    private static class Round {
+
+        /** Best arrival at each stop, by transit or by a transfer after transit. */
+        final int[] time;
+
+        /** How the best arrival was reached: SOURCE_ACCESS, SOURCE_TRANSIT or the index of the stop transferred from. */
+        final int[] source;
+
+        /** For arrivals by transfer, the round and position in the transfer list of the transfer. */
+        final int[] transferRound;
+        final int[] transferEdge;
+
+        /** Best arrival at each stop by transit only, and the ride producing it. */
+        final int[] transitTime;
+        final int[] legRound;
+        final int[] legPattern;
+        final int[] legBoardPos;
+        final int[] legAlightPos;
+
+        Round(int nStops) {
+            time = new int[nStops];
+            Arrays.fill(time, UNREACHED);
+            source = new int[nStops];
+            transferRound = new int[nStops];
+            transferEdge = new int[nStops];
+            transitTime = new int[nStops];
+            Arrays.fill(transitTime, UNREACHED);
+            legRound = new int[nStops];
+            legPattern = new int[nStops];
+            legBoardPos = new int[nStops];
+            legAlightPos = new int[nStops];
+        }
+
+        Round(Round other) {
+            time = other.time.clone();
+            source = other.source.clone();
+            transferRound = other.transferRound.clone();
+            transferEdge = other.transferEdge.clone();
+            transitTime = other.transitTime.clone();
+            legRound = other.legRound.clone();
+            legPattern = other.legPattern.clone();
+            legBoardPos = other.legBoardPos.clone();
+            legAlightPos = other.legAlightPos.clone();
+        }
+    }
+
+    /** A trip boarded on a given service day, with times relative to the search time. */
+    private static class Boarding {
+
+        final TripTimes tripTimes;
+
+        /** Seconds from the search time to midnight of the service day, plus any frequency-based time shift. */
+        final long offset;
+
+        Boarding(TripTimes tripTimes, long offset) {
+            this.tripTimes = tripTimes;
+            this.offset = offset;
+        }
+
+        int departureTime(int stopPos) {
+            return (int) (offset + tripTimes.getDepartureTime(stopPos));
+        }
+
+        int arrivalTime(int stopPos) {
+            return (int) (offset + tripTimes.getArrivalTime(stopPos));
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package org.opentripplanner.routing.algorithm.raptor;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import org.opentripplanner.routing.edgetype.PreAlightEdge;
+import org.opentripplanner.routing.edgetype.PreBoardEdge;
+import org.opentripplanner.routing.edgetype.SimpleTransfer;
+import org.opentripplanner.routing.edgetype.TransitBoardAlight;
+import org.opentripplanner.routing.edgetype.TripPattern;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.GraphIndex;
+import org.opentripplanner.routing.vertextype.TransitStop;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An array-packed view of the transit network, used by {@link RaptorSearch}. Every TransitStop and TripPattern is
+ * given a dense integer index so the round-based search can keep all of its state in primitive arrays instead of maps
+ * keyed on vertices.
+ *
+ * This only captures the structure of the network (which patterns visit which stops and which stops are connected by
+ * SimpleTransfers). Timetables are resolved against the realtime snapshot of each request, so one instance can be
+ * shared by all requests on the same graph. Patterns created by realtime updates after the index was built are not
+ * included.
+ */
+public class RaptorTransitIndex {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RaptorTransitIndex.class);
+
+    private static final int NO_STOP = -1;
+
+    public final TransitStop[] stops;
+
+    public final TripPattern[] patterns;
+
+    /** For each pattern, the stop index of each position in the pattern. */
+    public final int[][] stopsForPattern;
+
+    /** For each stop, the indices of all patterns visiting that stop. */
+    public final int[][] patternsForStop;
+
+    /** For each pattern, whether boarding must consider the extended set of service days. */
+    public final boolean[] extendedDates;
+
+    /** For each stop, the outgoing SimpleTransfers and the index of the stop each of them leads to. */
+    public final SimpleTransfer[][] transfersForStop;
+    public final int[][] transferTargets;
+
+    /** The edges leading from each stop onto transit and back, used to rebuild paths through the graph. */
+    final PreBoardEdge[] preBoardEdges;
+    final PreAlightEdge[] preAlightEdges;
+
+    private final TObjectIntMap<TransitStop> indexForStop;
+
+    public RaptorTransitIndex(GraphIndex graphIndex) {
+        long startTime = System.currentTimeMillis();
+
+        List<TransitStop> stopList = new ArrayList<>(graphIndex.stopVertexForStop.values());
+        stops = stopList.toArray(new TransitStop[stopList.size()]);
+        indexForStop = new TObjectIntHashMap<>(stops.length, 0.5f, NO_STOP);
+        preBoardEdges = new PreBoardEdge[stops.length];
+        preAlightEdges = new PreAlightEdge[stops.length];
+        for (int s = 0; s < stops.length; s++) {
+            indexForStop.put(stops[s], s);
+            for (Edge edge : stops[s].getOutgoing()) {
+                if (edge instanceof PreBoardEdge) {
+                    preBoardEdges[s] = (PreBoardEdge) edge;
+                }
+            }
+            for (Edge edge : stops[s].getIncoming()) {
+                if (edge instanceof PreAlightEdge) {
+                    preAlightEdges[s] = (PreAlightEdge) edge;
+                }
+            }
+        }
+
+        List<TripPattern> patternList = new ArrayList<>(graphIndex.patternForId.values());
+        patterns = patternList.toArray(new TripPattern[patternList.size()]);
+        stopsForPattern = new int[patterns.length][];
+        extendedDates = new boolean[patterns.length];
+        TIntArrayList[] patternLists = new TIntArrayList[stops.length];
+        for (int p = 0; p < patterns.length; p++) {
+            TripPattern pattern = patterns[p];
+            int nStops = pattern.getStops().size();
+            int[] patternStops = new int[nStops];
+            for (int i = 0; i < nStops; i++) {
+                TransitStop stopVertex = graphIndex.stopVertexForStop.get(pattern.getStop(i));
+                int s = stopVertex == null ? NO_STOP : indexForStop.get(stopVertex);
+                patternStops[i] = s;
+                if (s == NO_STOP) continue;
+                if (patternLists[s] == null) {
+                    patternLists[s] = new TIntArrayList(4);
+                }
+                if (!patternLists[s].contains(p)) {
+                    patternLists[s].add(p);
+                }
+            }
+            stopsForPattern[p] = patternStops;
+            for (TransitBoardAlight boardEdge : pattern.boardEdges) {
+                if (boardEdge != null && boardEdge.hasExtendedDates()) {
+                    extendedDates[p] = true;
+                    break;
+                }
+            }
+        }
+
+        patternsForStop = new int[stops.length][];
+        transfersForStop = new SimpleTransfer[stops.length][];
+        transferTargets = new int[stops.length][];
+        for (int s = 0; s < stops.length; s++) {
+            patternsForStop[s] = patternLists[s] == null ? new int[0] : patternLists[s].toArray();
+            List<SimpleTransfer> transfers = new ArrayList<>();
+            TIntArrayList targets = new TIntArrayList();
+            for (Edge edge : stops[s].getOutgoing()) {
+                if (edge instanceof SimpleTransfer) {
+                    int target = indexForStop.get(edge.getToVertex());
+                    if (target == NO_STOP) continue;
+                    transfers.add((SimpleTransfer) edge);
+                    targets.add(target);
+                }
+            }
+            transfersForStop[s] = transfers.toArray(new SimpleTransfer[transfers.size()]);
+            transferTargets[s] = targets.toArray();
+        }
+
+        LOG.info("Built RAPTOR transit index with {} stops and {} patterns in {} msec.", stops.length,
+                patterns.length, System.currentTimeMillis() - startTime);
+    }
+
+    /** @return the index of the given stop, or -1 if the stop is not part of this index. */
+    public int indexOf(TransitStop stop) {
+        return indexForStop.get(stop);
+    }
+}
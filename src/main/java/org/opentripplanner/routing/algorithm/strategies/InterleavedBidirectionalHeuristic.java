@@ -13,6 +13,7 @@
 
 package org.opentripplanner.routing.algorithm.strategies;
 
+import com.google.common.util.concurrent.Uninterruptibles;
 import gnu.trove.map.TObjectDoubleMap;
 import gnu.trove.map.hash.TObjectDoubleHashMap;
 import org.opentripplanner.common.pqueue.BinHeap;
@@ -32,6 +33,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This the goal direction heuristic used for transit searches.
@@ -59,8 +69,12 @@ import java.util.Set;
  * heuristic across an edge that were greater in magnitude than the weight of that edge. This has been solved by
  * creating two separate distance maps, one pre-transit and one post-transit.
  *
- * Note that the backward search does not happen in a separate thread. It is interleaved with the main search in a
- * ratio of N:1 iterations.
+ * By default the backward search does not happen in a separate thread. It is interleaved with the main search in a
+ * ratio of N:1 iterations. When parallel is set, the backward search through the transit network runs on a thread of
+ * a shared pool instead. It then publishes the lower bounds it finds in a concurrent map, which the main search reads
+ * without locking. A bound is only published after maxWeightSeen has been raised to its value, so any vertex missing
+ * from the map has a weight of at least the maxWeightSeen read afterwards, and the heuristic stays admissible. When
+ * every thread of the pool is busy the search falls back to interleaving.
  */
 public class InterleavedBidirectionalHeuristic implements RemainingWeightHeuristic {
 
@@ -68,9 +82,15 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
 
     private static Logger LOG = LoggerFactory.getLogger(InterleavedBidirectionalHeuristic.class);
 
+    /** Threads shared by all heuristics running their backward transit search in parallel with the main search. */
+    private static final ThreadPoolExecutor BACKWARD_SEARCH_EXECUTOR = createExecutor();
+
     // For each step in the main search, how many steps should the reverse search proceed?
     private int HEURISTIC_STEPS_PER_MAIN_STEP; // TODO determine a good value empirically
 
+    /** Whether to run the backward transit search on a separate thread. */
+    private final boolean parallel;
+
     /** The vertex at which the main search begins. */
     Vertex origin;
 
@@ -91,22 +111,42 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
 
     RoutingRequest routingRequest;
 
+    /**
+     * Lower bounds found by the backward transit search when it runs on a separate thread, or null when it is
+     * interleaved with the main search. postBoardingWeights is then only written before the main search starts.
+     */
+    transient ConcurrentMap<Vertex, Double> concurrentTransitWeights;
+
     // The maximum weight yet seen at a closed node in the reverse search. The priority queue head has a uniformly
     // increasing weight, so any unreached transit node must have greater weight than this.
-    double maxWeightSeen = 0;
+    volatile double maxWeightSeen = 0;
 
     // The priority queue for the interleaved backward search through the transit network.
     BinHeap<Vertex> transitQueue;
 
     // True when the entire transit network has been explored by the reverse search.
-    boolean finished = false;
+    volatile boolean finished = false;
+
+    // True while the backward transit search is running on a separate thread.
+    private transient volatile boolean backgroundSearchRunning = false;
+
+    // Set to stop a backward search running on a separate thread.
+    private transient volatile boolean aborted = false;
+
+    // The backward search submitted to a separate thread, or null when none was started.
+    private transient Future<?> backgroundSearch;
 
     public InterleavedBidirectionalHeuristic() {
         this(8);
     }
 
     public InterleavedBidirectionalHeuristic(final int heuristicStepsPerMainStep) {
+        this(heuristicStepsPerMainStep, false);
+    }
+
+    public InterleavedBidirectionalHeuristic(final int heuristicStepsPerMainStep, boolean parallel) {
         HEURISTIC_STEPS_PER_MAIN_STEP = heuristicStepsPerMainStep;
+        this.parallel = parallel;
     }
 
     /**
@@ -122,6 +162,8 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
             return;
         }
         LOG.debug("Initializing heuristic computation.");
+        // The queue and weights are replaced below, a search towards the previous target must not touch them.
+        stopBackwardSearch();
         this.graph = request.rctx.graph;
         long start = System.currentTimeMillis();
         this.target = target;
@@ -145,9 +187,62 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
         request.setMaxWalkDistance(Double.POSITIVE_INFINITY);
         request.setMaxPreTransitTime(Integer.MAX_VALUE);
         LOG.debug("initialized SSSP");
+        if (parallel) {
+            startBackwardSearch(abortTime);
+        }
         request.rctx.debugOutput.finishedPrecalculating();
     }
 
+    /**
+     * Hand the backward search through the transit network over to a pooled thread. If no thread is available it
+     * keeps being interleaved with the main search.
+     */
+    private void startBackwardSearch(long abortTime) {
+        concurrentTransitWeights = new ConcurrentHashMap<>();
+        backgroundSearchRunning = true;
+        try {
+            backgroundSearch = BACKWARD_SEARCH_EXECUTOR.submit(() -> {
+                try {
+                    while (!finished && !aborted) {
+                        if (abortTime < Long.MAX_VALUE && System.currentTimeMillis() > abortTime) {
+                            break;
+                        }
+                        searchTransitBackward(HEURISTIC_STEPS_PER_MAIN_STEP);
+                    }
+                    LOG.debug("Parallel heuristic search ended, {} transit vertices reached.",
+                            concurrentTransitWeights.size());
+                } finally {
+                    // Hands the queue back to doSomeWork for any remaining searches towards the same target.
+                    backgroundSearchRunning = false;
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LOG.debug("No thread available for the heuristic search, interleaving it with the main search.");
+            backgroundSearchRunning = false;
+        }
+    }
+
+    /**
+     * Stop any backward search still running on a separate thread and wait for it to end, then clear the state of
+     * the search so that it can start over towards another target.
+     */
+    private void stopBackwardSearch() {
+        if (backgroundSearch != null) {
+            aborted = true;
+            try {
+                Uninterruptibles.getUninterruptibly(backgroundSearch);
+            } catch (ExecutionException e) {
+                LOG.warn("Parallel heuristic search failed.", e.getCause());
+            }
+            backgroundSearch = null;
+        }
+        concurrentTransitWeights = null;
+        maxWeightSeen = 0;
+        finished = false;
+        aborted = false;
+        backgroundSearchRunning = false;
+    }
+
     /**
      * This function supplies the main search with an (under)estimate of the remaining path weight to the target.
      * No matter how much progress has been made on the reverse heuristic search, we must return an underestimate
@@ -181,18 +276,37 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
             // The main search is not currently on a street vertex, it's probably on transit.
             // If the current part of the transit network has been explored, then return the stored lower bound.
             // Otherwise return the highest lower bound yet seen -- this location must have a higher cost than that.
-            double h = postBoardingWeights.get(v);
+            // The maximum must be read before looking up the vertex, see the class comment.
+            double maxWeight = maxWeightSeen;
+            double h = getPostBoardingWeight(v);
             if (h == Double.POSITIVE_INFINITY) {
-                return maxWeightSeen;
+                return maxWeight;
             } else {
                 return h;
             }
         }
     }
 
+    /** @return the lower bound known for the given vertex, infinity if the reverse search did not reach it yet. */
+    private double getPostBoardingWeight(Vertex v) {
+        double h = postBoardingWeights.get(v);
+        if (concurrentTransitWeights != null) {
+            Double transitWeight = concurrentTransitWeights.get(v);
+            if (transitWeight != null && transitWeight < h) {
+                h = transitWeight;
+            }
+        }
+        return h;
+    }
+
     @Override
     public void reset() { }
 
+    @Override
+    public void abort() {
+        aborted = true;
+    }
+
     /**
      * Move backward N steps through the transit network.
      * This improves the heuristic's knowledge of the transit network as seen from the target,
@@ -200,8 +314,14 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
      */
     @Override
     public void doSomeWork() {
+        // The backward search is running on its own thread.
+        if (backgroundSearchRunning) return;
+        searchTransitBackward(HEURISTIC_STEPS_PER_MAIN_STEP);
+    }
+
+    private void searchTransitBackward(int steps) {
         if (finished) return;
-        for (int i = 0; i < HEURISTIC_STEPS_PER_MAIN_STEP; ++i) {
+        for (int i = 0; i < steps; ++i) {
             if (transitQueue.empty()) {
                 finished = true;
                 break;
@@ -213,10 +333,14 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
             maxWeightSeen = uWeight;
             // Now that this vertex is closed, we can store its weight for use as a lower bound / heuristic value.
             // We don't implement decrease-key operations though, so check whether a smaller value is already known.
-            double uWeightOld = postBoardingWeights.get(u);
+            double uWeightOld = getPostBoardingWeight(u);
             if (uWeight < uWeightOld) {
                 // Including when uWeightOld is infinite because the vertex is not yet closed.
-                postBoardingWeights.put(u, uWeight);
+                if (concurrentTransitWeights != null) {
+                    concurrentTransitWeights.put(u, (double) uWeight);
+                } else {
+                    postBoardingWeights.put(u, uWeight);
+                }
             } else {
                 // The vertex was already closed. This time it necessarily has a higher weight, so skip it.
                 continue;
@@ -241,7 +365,7 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
                     continue;
                 }
                 double vWeight = uWeight + edgeWeight;
-                double vWeightOld = postBoardingWeights.get(v);
+                double vWeightOld = getPostBoardingWeight(v);
                 if (vWeight < vWeightOld) {
                     // Should only happen when vWeightOld is infinite because it is not yet closed.
                     transitQueue.insert(v, vWeight);
@@ -357,6 +481,18 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
         return vertices;
     }
 
+    private static ThreadPoolExecutor createExecutor() {
+        AtomicInteger threadCount = new AtomicInteger();
+        // No queue: a search that cannot get a thread right away interleaves the heuristic instead of waiting.
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(0, Runtime.getRuntime().availableProcessors(),
+                60, TimeUnit.SECONDS, new SynchronousQueue<>(), r -> {
+                    Thread thread = new Thread(r, "heuristic-search-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        return executor;
+    }
+
     /**
      * maxPreTransitWalkDistance should be respected unless the street search is actually searching for
      * kissAndRide / rideAndKiss, in which case it makes no sense.
@@ -44,6 +44,9 @@ public interface RemainingWeightHeuristic extends Serializable {
      * estimate. Avoids thread synchronization evil by interleaving forward and backward searches. 
      */
     public void doSomeWork();
+
+    /** Stop any work the heuristic is still doing in the background. Called when the search is over. */
+    public default void abort() { }
     
 }
 
@@ -402,6 +402,9 @@ public class RoutingContext implements Cloneable {
      * for garbage collection.
      */
     public void destroy() {
+        if (remainingWeightHeuristic != null) {
+            remainingWeightHeuristic.abort();
+        }
         TemporaryVertex.dispose(fromVertex);
         TemporaryVertex.dispose(toVertex);
         for (TemporaryEdge edge : this.temporaryEdges) {
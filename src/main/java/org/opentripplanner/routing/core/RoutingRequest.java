@@ -21,6 +21,7 @@ import org.opentripplanner.api.parameter.QualifiedModeSet;
 import org.opentripplanner.common.MavenVersion;
 import org.opentripplanner.common.model.GenericLocation;
 import org.opentripplanner.common.model.NamedPlace;
+import org.opentripplanner.common.pqueue.PriorityQueueType;
 import org.opentripplanner.gtfs.GtfsLibrary;
 import org.opentripplanner.model.AgencyAndId;
 import org.opentripplanner.model.Route;
@@ -497,11 +498,39 @@ public class RoutingRequest implements Cloneable, Serializable {
 
     public int heuristicStepsPerMainStep = 8;
 
+    /**
+     * When true, the backward search of the interleaved bidirectional heuristic runs on a separate thread instead of
+     * being interleaved with the main search. It is still interleaved when no thread is available.
+     */
+    public boolean parallelHeuristic = false;
+
     /**
      * When true, do a full reversed search to compact the legs of the GraphPath.
      */
     public boolean compactLegsByReversedSearch = false;
 
+    /**
+     * When true together with compactLegsByReversedSearch, the reversed searches compacting an itinerary run on a
+     * separate thread while the search for the next itinerary is already underway. The result is the same as when
+     * compacting sequentially.
+     */
+    public boolean parallelItinerarySearch = false;
+
+    /**
+     * The algorithm used to find transit itineraries. RAPTOR falls back to ASTAR for requests it does not support.
+     */
+    public SearchAlgorithm searchAlgorithm = SearchAlgorithm.ASTAR;
+
+    /**
+     * The maximum duration (in seconds) of the walking access and egress of a RAPTOR search. The stops within reach
+     * of the origin and destination are all found up front, so the walk distance limit alone would explore hours of
+     * walking around each end.
+     */
+    public int raptorMaxAccessEgressSeconds = 30 * 60;
+
+    /** The priority queue implementation used by the AStar and earliest arrival searches. */
+    public PriorityQueueType priorityQueueType = PriorityQueueType.BINARY_HEAP;
+
     /**
      * If true, cost turns as they would be in a country where driving occurs on the right; otherwise, cost them as they would be in a country where
      * driving occurs on the left.
@@ -781,6 +810,16 @@ public class RoutingRequest implements Cloneable, Serializable {
             worstTime = arriveBy ? 0 : Long.MAX_VALUE;
     }
 
+    /** Set the search algorithm by name, which allows configuring it in the routingDefaults of the router config. */
+    public void setSearchAlgorithm(String searchAlgorithm) {
+        this.searchAlgorithm = SearchAlgorithm.valueOf(searchAlgorithm.toUpperCase());
+    }
+
+    /** Set the priority queue by name, which allows configuring it in the routingDefaults of the router config. */
+    public void setPriorityQueueType(String priorityQueueType) {
+        this.priorityQueueType = PriorityQueueType.valueOf(priorityQueueType.toUpperCase());
+    }
+
     public void setMode(TraverseMode mode) {
         setModes(new TraverseModeSet(mode));
     }
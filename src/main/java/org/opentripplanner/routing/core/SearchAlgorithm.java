@@ -0,0 +1,11 @@
+package org.opentripplanner.routing.core;
+
+/**
+ * The algorithm used by the GraphPathFinder to find transit itineraries.
+ */
+public enum SearchAlgorithm {
+    /** Repeated AStar searches, banning the trips of each itinerary found in the following searches. */
+    ASTAR,
+    /** A single round-based transit search producing all arrival time / transfers optimal itineraries at once. */
+    RAPTOR
+}
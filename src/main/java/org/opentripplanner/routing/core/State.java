@@ -58,11 +58,17 @@ public class State implements Cloneable {
     // The time traveled pre-transit, for park and ride or kiss and ride searches
     int preTransitTime;
 
-    // track the states of all path parsers -- probably changes frequently
-    protected int[] pathParserStates;
-
     int callAndRideTime = 0;
 
+    /* The mode that was used to traverse the backEdge. Kept here rather than in StateData because it changes at
+       every switch between street and transit edges, which would otherwise copy the StateData. */
+    TraverseMode backMode;
+
+    boolean backWalkingBike;
+
+    /* This boolean is set to true upon transition from a normal street to a no-through-traffic street. */
+    boolean enteredNoThroughTrafficArea;
+
     private static final Logger LOG = LoggerFactory.getLogger(State.class);
 
     /* CONSTRUCTORS */
@@ -380,11 +386,11 @@ public class State implements Cloneable {
     }
     
     public TraverseMode getBackMode () {
-        return stateData.backMode;
+        return backMode;
     }
     
     public boolean isBackWalkingBike () {
-        return stateData.backWalkingBike;
+        return backWalkingBike;
     }
 
     /**
@@ -633,16 +639,6 @@ public class State implements Cloneable {
         return foundAlternatePaths;
     }
     
-    public String getPathParserStates() {
-        StringBuilder sb = new StringBuilder();
-        sb.append("( ");
-        for (int i : pathParserStates) {
-            sb.append(String.format("%02d ", i));
-        }
-        sb.append(")");
-        return sb.toString();
-    }
-
     /** @return the last TripPattern used in this path (which is set when leaving the vehicle). */
     public TripPattern getLastPattern() {
         return stateData.lastPattern;
@@ -804,10 +800,6 @@ public class State implements Cloneable {
                 LOG.warn("Initial wait time not propagated: is "
                         + reversed.stateData.initialWaitTime + ", should be " + newInitialWaitTime);
 
-            // copy the path parser states so this path is not thrown out going forward
-//            reversed.pathParserStates = 
-//                    Arrays.copyOf(this.pathParserStates, this.pathParserStates.length, newLength);
-            
             // copy things that didn't get copied
             reversed.initializeFieldsFrom(this);
             return reversed;
@@ -839,6 +831,9 @@ public class State implements Cloneable {
         
         // easier to clone and copy back, plus more future proof
         this.stateData = o.stateData.clone();
+        this.backMode = o.backMode;
+        this.backWalkingBike = o.backWalkingBike;
+        this.enteredNoThroughTrafficArea = o.enteredNoThroughTrafficArea;
         this.stateData.initialWaitTime = currentStateData.initialWaitTime;
         // this will get re-set on the next alight (or board in a reverse search)
         this.stateData.lastNextArrivalDelta = -1;
@@ -853,7 +848,7 @@ public class State implements Cloneable {
     }
 
     public boolean hasEnteredNoThruTrafficArea() {
-        return stateData.enteredNoThroughTrafficArea;
+        return enteredNoThroughTrafficArea;
     }
 
 }
\ No newline at end of file
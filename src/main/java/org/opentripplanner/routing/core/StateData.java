@@ -26,6 +26,9 @@ import org.opentripplanner.routing.trippattern.TripTimes;
  * StateData contains the components of search state that are unlikely to be changed as often as
  * time or weight. This avoids frequent duplication, which should have a positive impact on both
  * time and space use during searches.
+ *
+ * Fields that change on ordinary street or mode-switching traversals (such as the back mode) are kept as primitive
+ * fields directly in the State instead, so that walking does not copy this object at every change of edge type.
  */
 public class StateData implements Cloneable {
 
@@ -89,18 +92,8 @@ public class StateData implements Cloneable {
      */
     protected int lastNextArrivalDelta;
 
-    /**
-     * The mode that was used to traverse the backEdge
-     */
-    protected TraverseMode backMode;
-
-    protected boolean backWalkingBike;
-
     public Set<String> bikeRentalNetworks;
 
-    /* This boolean is set to true upon transition from a normal street to a no-through-traffic street. */
-    protected boolean enteredNoThroughTrafficArea;
-
     public StateData(RoutingRequest options) {
         TraverseModeSet modes = options.modes;
         if (modes.getCar())
@@ -274,7 +274,7 @@ public class StateEditor {
     }
 
     public void setEnteredNoThroughTrafficArea() {
-        child.stateData.enteredNoThroughTrafficArea = true;
+        child.enteredNoThroughTrafficArea = true;
     }
     
     /**
@@ -287,19 +287,11 @@ public class StateEditor {
     }
     
     public void setBackMode(TraverseMode mode) {
-        if (mode == child.stateData.backMode)
-            return;
-        
-        cloneStateDataAsNeeded();
-        child.stateData.backMode = mode;
+        child.backMode = mode;
     }
 
     public void setBackWalkingBike (boolean walkingBike) {
-        if (walkingBike == child.stateData.backWalkingBike)
-            return;
-        
-        cloneStateDataAsNeeded();
-        child.stateData.backWalkingBike = walkingBike;
+        child.backWalkingBike = walkingBike;
     }
 
     /** 
@@ -352,6 +344,9 @@ public class StateEditor {
     }
 
     public void setEverBoarded(boolean everBoarded) {
+        if (child.stateData.everBoarded)
+            return;
+
         cloneStateDataAsNeeded();
         child.stateData.everBoarded = true;
     }
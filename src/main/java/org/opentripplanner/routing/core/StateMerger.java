@@ -8,6 +8,17 @@ package org.opentripplanner.routing.core;
 public class StateMerger {
 
 
+    /**
+     * Merge the state data of the first state of the next path into the last state of the first path, replacing the
+     * StateData of the latter.
+     */
+    public static void merge(State lastStateOfFirstPath, State firstStateOfNextPath) {
+        if (!lastStateOfFirstPath.stateData.everBoarded) {
+            lastStateOfFirstPath.backMode = firstStateOfNextPath.backMode;
+        }
+        lastStateOfFirstPath.stateData = merge(lastStateOfFirstPath.stateData, firstStateOfNextPath.stateData);
+    }
+
     public static StateData merge(StateData firstState, StateData nextState) {
 
         StateData merged = nextState.clone();
@@ -24,7 +35,6 @@ public class StateMerger {
             merged.previousStop = firstState.previousStop;
             merged.routeSequence = firstState.routeSequence;
             merged.serviceDay = firstState.serviceDay;
-            merged.backMode = firstState.backMode;
         }
         return merged;
     }
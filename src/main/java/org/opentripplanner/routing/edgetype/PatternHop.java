@@ -177,6 +177,11 @@ public class PatternHop extends TablePatternEdge implements OnboardEdge, HopEdge
 
     }
 
+    /** Set a geometry compacted by {@link CompactLineString}, which may be shared with other hops. */
+    public void setCompactGeometry(byte[] compactGeometry) {
+        this.compactGeometry = compactGeometry;
+    }
+
     public LineString getGeometry() {
         Coordinate c1 = new Coordinate(begin.getLon(), begin.getLat());
         Coordinate c2 = new Coordinate(end.getLon(), end.getLat());
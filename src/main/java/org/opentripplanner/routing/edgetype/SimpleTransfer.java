@@ -76,13 +76,18 @@ public class SimpleTransfer extends Edge {
         double walkspeed = rr.walkSpeed;
         StateEditor se = s0.edit(this);
         se.setBackMode(TraverseMode.WALK);
-        int time = (int) Math.ceil(distance / walkspeed) + 2 * StreetTransitLink.STL_TRAVERSE_COST;
+        int time = getTraversalTimeSeconds(walkspeed);
         se.incrementTimeInSeconds(time);
         se.incrementWeight(time * rr.walkReluctance);
         se.incrementWalkDistance(distance);
         return se.makeState();
     }
 
+    /** @return the time in seconds it takes to walk this transfer at the given speed. */
+    public int getTraversalTimeSeconds(double walkSpeed) {
+        return (int) Math.ceil(distance / walkSpeed) + 2 * StreetTransitLink.STL_TRAVERSE_COST;
+    }
+
     @Override
     public String getName() {
         return fromv.getName() + " => " + tov.getName();
@@ -97,6 +97,12 @@ public class StreetEdge extends Edge implements Cloneable {
     protected float bicycleSafetyFactor;
 
     private byte[] compactGeometry;
+
+    /** The street network columns holding the geometry of this edge instead of compactGeometry, if any. */
+    private transient StreetNetworkColumns columns;
+
+    /** The index of this edge in the street network columns of the graph, or -1 if it is not in them. */
+    private int columnIndex = -1;
     
     private I18NString name;
 
@@ -677,11 +683,35 @@ public class StreetEdge extends Edge implements Cloneable {
 	}
 
 	public LineString getGeometry() {
-		return CompactLineString.uncompackLineString(fromv.getLon(), fromv.getLat(), tov.getLon(), tov.getLat(), compactGeometry, isBack());
+		if (columns != null) {
+			return CompactLineString.uncompactLineString(fromv.getLon(), fromv.getLat(), tov.getLon(), tov.getLat(),
+					columns.getCompactCoordinates(columnIndex), isBack());
+		}
+		return CompactLineString.uncompackLineString(fromv.getLon(), fromv.getLat(), tov.getLon(), tov.getLat(), getCompactGeometry(), isBack());
 	}
 
 	private void setGeometry(LineString geometry) {
 		this.compactGeometry = CompactLineString.compackLineString(fromv.getLon(), fromv.getLat(), tov.getLon(), tov.getLat(), isBack() ? (LineString)geometry.reverse() : geometry, isBack());
+		this.columns = null;
+		this.columnIndex = -1;
+	}
+
+	byte[] getCompactGeometry() {
+		return columns == null ? compactGeometry : columns.getCompactGeometry(columnIndex);
+	}
+
+	/**
+	 * Read the geometry of this edge from the given street network columns from now on, instead of keeping it on
+	 * the heap.
+	 */
+	void attachColumns(StreetNetworkColumns columns, int columnIndex) {
+		this.columns = columns;
+		this.columnIndex = columnIndex;
+		this.compactGeometry = null;
+	}
+
+	int getColumnIndex() {
+		return columnIndex;
 	}
 
 	public void shareData(StreetEdge reversedEdge) {
@@ -0,0 +1,158 @@
+package org.opentripplanner.routing.edgetype;
+
+import org.opentripplanner.common.geometry.CompactLineString;
+import org.opentripplanner.common.geometry.DlugoszVarLenIntPacker;
+import org.opentripplanner.routing.graph.Edge;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A columnar copy of the compacted geometries of the street edges: the offset and length of the geometry of each street
+ * edge, followed by the geometries themselves, all in a single ByteBuffer.
+ *
+ * When a graph is saved with its street network columns, the street edges are attached to them and read their
+ * geometry from the columns instead of holding it on the heap. A graph loaded from a local file maps the columns,
+ * so the geometries stay off the heap. The geometries are by far the largest per-edge data; the other attributes of
+ * the street edges stay in the edge objects used by routing.
+ *
+ * Layout of the buffer, all values big-endian:
+ * <pre>
+ * int nEdges, int nGeometryBytes
+ * int[nEdges] geometryOffset, int[nEdges] geometryLength
+ * byte[nGeometryBytes] geometries
+ * </pre>
+ */
+public class StreetNetworkColumns {
+
+    private static final int HEADER_BYTES = 2 * Integer.BYTES;
+
+    private final int nEdges;
+
+    private final IntBuffer geometryOffset;
+    private final IntBuffer geometryLength;
+    private final ByteBuffer geometries;
+
+    private final ByteBuffer buffer;
+
+    /**
+     * @param buffer the columns, in the layout described above, from position 0 to the limit of the buffer.
+     */
+    public StreetNetworkColumns(ByteBuffer buffer) {
+        this.buffer = buffer;
+        nEdges = buffer.getInt(0);
+        int nGeometryBytes = buffer.getInt(Integer.BYTES);
+        int offset = HEADER_BYTES;
+        geometryOffset = slice(offset, nEdges * Integer.BYTES).asIntBuffer();
+        offset += nEdges * Integer.BYTES;
+        geometryLength = slice(offset, nEdges * Integer.BYTES).asIntBuffer();
+        offset += nEdges * Integer.BYTES;
+        geometries = slice(offset, nGeometryBytes);
+    }
+
+    /**
+     * Copy the geometries of the street edges among the given edges to new columns on the heap, numbering the edges
+     * in the order they are found. The edges are not attached to the columns.
+     */
+    public static StreetNetworkColumns build(List<Edge> edges) {
+        List<byte[]> edgeGeometries = new ArrayList<>();
+        // Geometries shared by the two directions of a street are only stored once
+        Map<byte[], Integer> geometryOffsets = new IdentityHashMap<>();
+        List<byte[]> geometries = new ArrayList<>();
+        long nGeometryBytes = 0;
+        for (Edge edge : edges) {
+            if (!(edge instanceof StreetEdge)) {
+                continue;
+            }
+            byte[] geometry = ((StreetEdge) edge).getCompactGeometry();
+            edgeGeometries.add(geometry);
+            if (geometry != null && geometryOffsets.putIfAbsent(geometry, (int) nGeometryBytes) == null) {
+                geometries.add(geometry);
+                nGeometryBytes += geometry.length;
+            }
+        }
+        int nEdges = edgeGeometries.size();
+        long size = HEADER_BYTES + (long) nEdges * 2 * Integer.BYTES + nGeometryBytes;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalStateException("The street network is too large for columns of " + size + " bytes.");
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        buffer.putInt(nEdges).putInt((int) nGeometryBytes);
+        for (byte[] geometry : edgeGeometries) {
+            buffer.putInt(geometry == null ? 0 : geometryOffsets.get(geometry));
+        }
+        for (byte[] geometry : edgeGeometries) {
+            buffer.putInt(geometry == null ? 0 : geometry.length);
+        }
+        for (byte[] geometry : geometries) {
+            buffer.put(geometry);
+        }
+        buffer.flip();
+        return new StreetNetworkColumns(buffer);
+    }
+
+    /**
+     * Attach the street edges to these columns, so that they read their geometry from them. The street edges of a
+     * graph being saved are numbered in the order of the given edges, those of a loaded graph keep their number.
+     *
+     * @return the number of street edges attached.
+     */
+    public int attach(List<Edge> edges, boolean numberEdges) {
+        int n = 0;
+        for (Edge edge : edges) {
+            if (edge instanceof StreetEdge) {
+                StreetEdge streetEdge = (StreetEdge) edge;
+                int index = numberEdges ? n : streetEdge.getColumnIndex();
+                if (index >= 0) {
+                    if (index >= nEdges) {
+                        throw new IllegalStateException("Street edge " + index + " is not in the street network "
+                                + "columns, which have " + nEdges + " edges.");
+                    }
+                    streetEdge.attachColumns(this, index);
+                    n++;
+                }
+            }
+        }
+        return n;
+    }
+
+    /** @return the columns, from position 0 to the limit of the returned buffer. */
+    public ByteBuffer getBuffer() {
+        return buffer.duplicate();
+    }
+
+    public int getEdgeCount() {
+        return nEdges;
+    }
+
+    /** @return a copy of the compacted geometry of the given edge. */
+    byte[] getCompactGeometry(int edge) {
+        int offset = geometryOffset.get(edge);
+        byte[] geometry = new byte[geometryLength.get(edge)];
+        // A duplicate has a position of its own, so concurrent readers do not interfere
+        ByteBuffer source = geometries.duplicate();
+        source.position(offset);
+        source.get(geometry);
+        return geometry;
+    }
+
+    /**
+     * @return the coordinates of the geometry of the given edge, as {@link CompactLineString} deltas, decoded right
+     *         from the columns without copying the compacted geometry first.
+     */
+    int[] getCompactCoordinates(int edge) {
+        return DlugoszVarLenIntPacker.unpack(geometries, geometryOffset.get(edge), geometryLength.get(edge));
+    }
+
+    private ByteBuffer slice(int offset, int length) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(offset);
+        slice.limit(offset + length);
+        return slice.slice();
+    }
+}
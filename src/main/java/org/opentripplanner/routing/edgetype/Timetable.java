@@ -33,6 +33,7 @@ import org.opentripplanner.routing.graph.GraphIndex;
 import org.opentripplanner.routing.trippattern.FrequencyEntry;
 import org.opentripplanner.routing.trippattern.OccupancyStatus;
 import org.opentripplanner.routing.trippattern.RealTimeState;
+import org.opentripplanner.routing.trippattern.SortedDepartureIndex;
 import org.opentripplanner.routing.trippattern.TripTimes;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -55,6 +56,7 @@ import java.time.ZonedDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -113,6 +115,12 @@ public class Timetable implements Serializable {
      */
     private transient int minTime, maxTime;
 
+    /**
+     * The trips sorted by departure time, for binary searching the next departure. Built in finish(), null if the
+     * trips cannot be compared or trips were added or replaced since.
+     */
+    private transient SortedDepartureIndex departureIndex;
+
     /**
      * Construct an empty Timetable.
      */
@@ -185,50 +193,59 @@ public class Timetable implements Serializable {
         }
         TripTimes bestTrip = null;
         Stop currentStop = pattern.getStop(stopIndex);
-        // Linear search through the timetable looking for the best departure.
-        // We no longer use a binary search on Timetables because:
-        // 1. we allow combining trips from different service IDs on the same tripPattern.
-        // 2. We mix frequency-based and one-off TripTimes together on tripPatterns.
-        // 3. Stoptimes may change with realtime updates, and we cannot count on them being sorted.
-        //    The complexity of keeping sorted indexes up to date does not appear to be worth the
-        //    apparently minor speed improvement.
         int bestTime = boarding ? Integer.MAX_VALUE : Integer.MIN_VALUE;
-        // Hoping JVM JIT will distribute the loop over the if clauses as needed.
-        // We could invert this and skip some service days based on schedule overlap as in RRRR.
-        for (TripTimes tt : tripTimes) {
-            if (tt.isCanceled()) continue;
-            if ((tt.getNumStops() <= stopIndex)) continue;
-            if (!serviceDay.serviceRunning(tt.serviceCode)) continue; // TODO merge into call on next line
-            if (!tt.tripAcceptable(s0, stopIndex, serviceDay.getServiceDate())) continue;
-            if (s0.getOptions().tripIsBanned(tt.trip)) continue;
-            int adjustedTime = adjustTimeForTransfer(s0, currentStop, tt.trip, boarding, serviceDay, time);
-            if (adjustedTime == -1) continue;
-            if (boarding) {
-                int adjustment = 0;
-                if (stopIndex + 1 < tt.getNumStops() && flexOffsetScale != 0.0) {
-                    adjustment = (int) Math.round(flexOffsetScale*tt.getRunningTime(stopIndex));
-                }
-                int vehicleTime = (preBoardDirectTime == 0) ? 0 : tt.getDemandResponseMaxTime(preBoardDirectTime);
-                int depTime = tt.getDepartureTime(stopIndex) + adjustment - vehicleTime;
-                if (depTime < 0)
-                    continue; // negative values were previously used for canceled trips/passed stops/skipped stops, but
-                // now its not sure if this check should be still in place because there is a boolean field
-                // for canceled trips
-                if (depTime >= adjustedTime && depTime < bestTime) {
-                    bestTrip = tt;
-                    bestTime = depTime;
-                }
-            } else {
-                int adjustment = 0;
-                if (stopIndex - 1 >= 0 && flexOffsetScale != 0.0) {
-                    adjustment = (int) Math.round(flexOffsetScale*tt.getRunningTime(stopIndex - 1));
-                }
-                int vehicleTime = (postAlightDirectTime == 0) ? 0 : tt.getDemandResponseMaxTime(postAlightDirectTime);
-                int arvTime = tt.getArrivalTime(stopIndex) + adjustment + vehicleTime;
-                if (arvTime < 0) continue;
-                if (arvTime <= adjustedTime && arvTime > bestTime) {
-                    bestTrip = tt;
-                    bestTime = arvTime;
+        // Binary search for the best departure when the trips are sorted at this stop. Flexible trips shift their
+        // times by a per-trip amount, which breaks the ordering.
+        SortedDepartureIndex index = departureIndex;
+        if (index != null && flexOffsetScale == 0.0 && (boarding
+                ? preBoardDirectTime == 0 && index.departuresSorted(stopIndex)
+                : postAlightDirectTime == 0 && index.arrivalsSorted(stopIndex))) {
+            bestTrip = boarding
+                    ? findNextDeparture(index, s0, serviceDay, stopIndex, currentStop, time)
+                    : findPreviousArrival(index, s0, serviceDay, stopIndex, currentStop, time);
+            if (bestTrip != null) {
+                bestTime = boarding ? bestTrip.getDepartureTime(stopIndex) : bestTrip.getArrivalTime(stopIndex);
+            }
+        } else {
+            // Otherwise linear search through the timetable looking for the best departure. Stoptimes may change with
+            // realtime updates, and the trips may then no longer be sorted at every stop.
+            // Hoping JVM JIT will distribute the loop over the if clauses as needed.
+            // We could invert this and skip some service days based on schedule overlap as in RRRR.
+            for (TripTimes tt : tripTimes) {
+                if (tt.isCanceled()) continue;
+                if ((tt.getNumStops() <= stopIndex)) continue;
+                if (!serviceDay.serviceRunning(tt.serviceCode)) continue; // TODO merge into call on next line
+                if (!tt.tripAcceptable(s0, stopIndex, serviceDay.getServiceDate())) continue;
+                if (s0.getOptions().tripIsBanned(tt.trip)) continue;
+                int adjustedTime = adjustTimeForTransfer(s0, currentStop, tt.trip, boarding, serviceDay, time);
+                if (adjustedTime == -1) continue;
+                if (boarding) {
+                    int adjustment = 0;
+                    if (stopIndex + 1 < tt.getNumStops() && flexOffsetScale != 0.0) {
+                        adjustment = (int) Math.round(flexOffsetScale*tt.getRunningTime(stopIndex));
+                    }
+                    int vehicleTime = (preBoardDirectTime == 0) ? 0 : tt.getDemandResponseMaxTime(preBoardDirectTime);
+                    int depTime = tt.getDepartureTime(stopIndex) + adjustment - vehicleTime;
+                    if (depTime < 0)
+                        continue; // negative values were previously used for canceled trips/passed stops/skipped stops, but
+                    // now its not sure if this check should be still in place because there is a boolean field
+                    // for canceled trips
+                    if (depTime >= adjustedTime && depTime < bestTime) {
+                        bestTrip = tt;
+                        bestTime = depTime;
+                    }
+                } else {
+                    int adjustment = 0;
+                    if (stopIndex - 1 >= 0 && flexOffsetScale != 0.0) {
+                        adjustment = (int) Math.round(flexOffsetScale*tt.getRunningTime(stopIndex - 1));
+                    }
+                    int vehicleTime = (postAlightDirectTime == 0) ? 0 : tt.getDemandResponseMaxTime(postAlightDirectTime);
+                    int arvTime = tt.getArrivalTime(stopIndex) + adjustment + vehicleTime;
+                    if (arvTime < 0) continue;
+                    if (arvTime <= adjustedTime && arvTime > bestTime) {
+                        bestTrip = tt;
+                        bestTime = arvTime;
+                    }
                 }
             }
         }
@@ -271,6 +288,75 @@ public class Timetable implements Serializable {
         return getNextTrip(s0, serviceDay, stopIndex, boarding, 0, 0, 0);
     }
 
+    /**
+     * Find the trip departing first from the given stop at or after the given time, using the sorted departures. The
+     * same trips are accepted as in the linear search, and of several trips departing at the same time the one coming
+     * first in the timetable is chosen.
+     */
+    private TripTimes findNextDeparture(SortedDepartureIndex index, State s0, ServiceDay serviceDay, int stopIndex,
+                                        Stop currentStop, int time) {
+        TripTimes bestTrip = null;
+        int bestTime = Integer.MAX_VALUE;
+        int bestPosition = Integer.MAX_VALUE;
+        // Only visit the trips running on this day. Transfer rules only ever make the earliest possible departure
+        // later, and negative times are never boarded.
+        BitSet running = index.getTripsRunning(serviceDay);
+        int start = index.firstDepartureAtOrAfter(stopIndex, Math.max(time, 0));
+        for (int i = running.nextSetBit(start); i >= 0; i = running.nextSetBit(i + 1)) {
+            TripTimes tt = index.get(i);
+            int depTime = tt.getDepartureTime(stopIndex);
+            if (depTime > bestTime) break;
+            if (tt.isCanceled()) continue;
+            if (!tt.tripAcceptable(s0, stopIndex, serviceDay.getServiceDate())) continue;
+            if (s0.getOptions().tripIsBanned(tt.trip)) continue;
+            int adjustedTime = adjustTimeForTransfer(s0, currentStop, tt.trip, true, serviceDay, time);
+            if (adjustedTime == -1 || depTime < adjustedTime) continue;
+            if (depTime < bestTime || index.getTimetablePosition(i) < bestPosition) {
+                bestTrip = tt;
+                bestTime = depTime;
+                bestPosition = index.getTimetablePosition(i);
+            }
+        }
+        return bestTrip;
+    }
+
+    /**
+     * Find the trip arriving last at the given stop at or before the given time, using the sorted arrivals. This
+     * mirrors {@link #findNextDeparture}.
+     */
+    private TripTimes findPreviousArrival(SortedDepartureIndex index, State s0, ServiceDay serviceDay, int stopIndex,
+                                          Stop currentStop, int time) {
+        TripTimes bestTrip = null;
+        int bestTime = Integer.MIN_VALUE;
+        int bestPosition = Integer.MAX_VALUE;
+        BitSet running = index.getTripsRunning(serviceDay);
+        int start = index.lastArrivalAtOrBefore(stopIndex, time);
+        for (int i = start < 0 ? -1 : running.previousSetBit(start); i >= 0; i = running.previousSetBit(i - 1)) {
+            TripTimes tt = index.get(i);
+            int arvTime = tt.getArrivalTime(stopIndex);
+            if (arvTime < bestTime || arvTime < 0) break;
+            if (tt.isCanceled()) continue;
+            if (!tt.tripAcceptable(s0, stopIndex, serviceDay.getServiceDate())) continue;
+            if (s0.getOptions().tripIsBanned(tt.trip)) continue;
+            int adjustedTime = adjustTimeForTransfer(s0, currentStop, tt.trip, false, serviceDay, time);
+            if (adjustedTime == -1 || arvTime > adjustedTime) continue;
+            if (arvTime > bestTime || index.getTimetablePosition(i) < bestPosition) {
+                bestTrip = tt;
+                bestTime = arvTime;
+                bestPosition = index.getTimetablePosition(i);
+            }
+        }
+        return bestTrip;
+    }
+
+    /**
+     * @return the trips sorted by departure time, or null if they are not indexed. The trips are not necessarily
+     *         sorted at every stop, see {@link SortedDepartureIndex#departuresSorted(int)}.
+     */
+    public SortedDepartureIndex getDepartureIndex() {
+        return departureIndex;
+    }
+
     // could integrate with getNextTrip
     public TripTimes getNextCallNRideTrip(State s0, ServiceDay serviceDay, int stopIndex, boolean boarding, int directTime) {
         /* Search at the state's time, but relative to midnight on the given service day. */
@@ -372,10 +458,19 @@ public class Timetable implements Serializable {
 
     /**
      * Finish off a Timetable once all TripTimes have been added to it. This involves caching
-     * lower bounds on the running times and dwell times at each stop, and may perform other
-     * actions to compact the data structure such as trimming and deduplicating arrays.
+     * lower bounds on the running times and dwell times at each stop, sorting the trips for
+     * binary search, and may perform other actions to compact the data structure such as
+     * trimming and deduplicating arrays.
      */
     public void finish() {
+        finish(true);
+    }
+
+    /**
+     * @param buildDepartureIndex false to skip sorting the trips, for short-lived timetables that are only
+     *                            searched a few times.
+     */
+    void finish(boolean buildDepartureIndex) {
         int nStops = pattern.stopPattern.size;
         int nHops = nStops - 1;
         /* Find lower bounds on dwell and running times at each stop. */
@@ -419,6 +514,7 @@ public class Timetable implements Serializable {
             minTime = Math.min(minTime, freq.getMinDeparture());
             maxTime = Math.max(maxTime, freq.getMaxArrival());
         }
+        departureIndex = buildDepartureIndex ? SortedDepartureIndex.build(tripTimes, nStops) : null;
     }
 
     /**
@@ -478,6 +574,7 @@ public class Timetable implements Serializable {
      * @return old trip times of trip
      */
     public TripTimes setTripTimes(int tripIndex, TripTimes tt) {
+        departureIndex = null;
         return tripTimes.set(tripIndex, tt);
     }
 
@@ -1375,6 +1472,7 @@ public class Timetable implements Serializable {
      * Here we don't know if it's a scheduled trip or a realtime-added trip.
      */
     public void addTripTimes(TripTimes tt) {
+        departureIndex = null;
         tripTimes.add(tt);
     }
 
@@ -1442,6 +1540,10 @@ public class Timetable implements Serializable {
             TripTimes tt = freq.tripTimes;
             tt.serviceCode = serviceCodes.get(tt.trip.getServiceId());
         }
+        SortedDepartureIndex index = departureIndex;
+        if (index != null) {
+            index.clearTripsRunning();
+        }
     }
 
 } 
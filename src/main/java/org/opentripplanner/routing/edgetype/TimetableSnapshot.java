@@ -14,8 +14,8 @@
 package org.opentripplanner.routing.edgetype;
 
 import java.util.*;
-import java.util.Map.Entry;
 
+import org.opentripplanner.common.ShardedCopyOnWriteMap;
 import org.opentripplanner.model.calendar.ServiceDate;
 import org.opentripplanner.routing.trippattern.TripTimes;
 import org.opentripplanner.model.Trip;
@@ -100,12 +100,11 @@ public class TimetableSnapshot {
 
     private static final Logger LOG = LoggerFactory.getLogger(TimetableSnapshot.class);
     
-    // Use HashMap not Map so we can clone.
+    // A copy-on-write map, so a commit only copies the parts of the map changed since the previous one.
     // if this turns out to be slow/spacious we can use an array with integer pattern indexes
     // The SortedSet members are copy-on-write
     // FIXME: this could be made into a flat hashtable with compound keys.
-    private HashMap<TripPattern, SortedSet<Timetable>> timetables =
-            new HashMap<TripPattern, SortedSet<Timetable>>();
+    private ShardedCopyOnWriteMap<TripPattern, SortedSet<Timetable>> timetables = new ShardedCopyOnWriteMap<>();
 
     /**
      * <p>
@@ -114,10 +113,19 @@ public class TimetableSnapshot {
      * with trip times of a trip that didn't exist yet in the trip pattern.
      * </p>
      * <p>
-     * This is a HashMap and not a Map so the clone function is available.
+     * This is copy-on-write, like the timetables.
      * </p>
      */
-    private HashMap<TripIdAndServiceDate, TripPattern> lastAddedTripPattern = new HashMap<>();
+    private ShardedCopyOnWriteMap<TripIdAndServiceDate, TripPattern> lastAddedTripPattern =
+            new ShardedCopyOnWriteMap<>();
+
+    /**
+     * The patterns having a timetable for each service date, and the keys of lastAddedTripPattern for each service
+     * date, so expired dates can be purged without walking all entries. These may still hold entries that were
+     * cleared or replaced since, which the purge skips. They are only kept in the writable buffer, not in snapshots.
+     */
+    private final TreeMap<ServiceDate, Set<TripPattern>> patternsByServiceDate = new TreeMap<>();
+    private final TreeMap<ServiceDate, Set<TripIdAndServiceDate>> lastAddedByServiceDate = new TreeMap<>();
     
     /**
      * Boolean value indicating that timetable snapshot is read only if true. Once it is true, it shouldn't
@@ -137,6 +145,12 @@ public class TimetableSnapshot {
      */
     private Set<Timetable> dirtyTimetables = new HashSet<Timetable>();
 
+    /** Statistics on the commits of this snapshot, read by monitoring threads. */
+    private volatile long commitCount = 0;
+    private volatile long totalCommitNanos = 0;
+    private volatile long lastCommitNanos = 0;
+    private volatile int lastCommitChangedTimetables = 0;
+
     /**
      * Returns an updated timetable for the specified pattern if one is available in this snapshot,
      * or the originally scheduled timetable if there are no updates in this snapshot.
@@ -159,7 +173,8 @@ public class TimetableSnapshot {
                         }
                     }
                 }
-                lastAdded.finish();
+                // This timetable is built for a single lookup, so it is not worth sorting its trips.
+                lastAdded.finish(false);
                 return lastAdded;
             } else {
                 for (Timetable timetable : sortedTimetables) {
@@ -264,6 +279,7 @@ public class TimetableSnapshot {
                 sortedTimetables.remove(old);
             sortedTimetables.add(tt);
             timetables.put(pattern, sortedTimetables);
+            patternsByServiceDate.computeIfAbsent(serviceDate, k -> new HashSet<>()).add(pattern);
             dirtyTimetables.add(tt);
             dirty = true;
         }
@@ -283,6 +299,7 @@ public class TimetableSnapshot {
         String tripId = updatedTripTimes.trip.getId().getId();
         TripIdAndServiceDate tripIdAndServiceDate = new TripIdAndServiceDate(feedId, tripId, serviceDate);
         lastAddedTripPattern.put(tripIdAndServiceDate, pattern);
+        lastAddedByServiceDate.computeIfAbsent(serviceDate, k -> new HashSet<>()).add(tripIdAndServiceDate);
 
         // The time tables are finished during the commit
         
@@ -290,20 +307,19 @@ public class TimetableSnapshot {
     }
 
     /**
-     * This produces a small delay of typically around 50ms, which is almost entirely due to
-     * the indexing step. Cloning the map is much faster (2ms).
+     * Only the timetables changed since the previous commit are indexed. The maps are shared with
+     * the previous snapshot except for the parts written since, so the cost of a commit is
+     * proportional to the number of changed patterns rather than to the size of the network.
      * It is perhaps better to index timetables as they are changed to avoid experiencing all
      * this lag at once, but we want to avoid re-indexing when receiving multiple updates for
      * the same timetable in rapid succession. This compromise is expressed by the
-     * maxSnapshotFrequency property of StoptimeUpdater. The indexing could be made much more
-     * efficient as well.
+     * maxSnapshotFrequency property of StoptimeUpdater.
      * @return an immutable copy of this TimetableSnapshot with all updates applied
      */
     public TimetableSnapshot commit() {
         return commit(false);
     }
 
-    @SuppressWarnings("unchecked")
     public TimetableSnapshot commit(boolean force) {
         if (readOnly) {
             throw new ConcurrentModificationException("This TimetableSnapshot is read-only.");
@@ -311,19 +327,47 @@ public class TimetableSnapshot {
         
         TimetableSnapshot ret = new TimetableSnapshot();
         if (!force && !this.isDirty()) return null;
+        long startTime = System.nanoTime();
         for (Timetable tt : dirtyTimetables) {
             tt.finish(); // summarize, index, etc. the new timetables
         }
-        ret.timetables = (HashMap<TripPattern, SortedSet<Timetable>>) this.timetables.clone();
-        ret.lastAddedTripPattern = (HashMap<TripIdAndServiceDate, TripPattern>)
-                this.lastAddedTripPattern.clone();
+        int changedTimetables = dirtyTimetables.size();
+        ret.timetables = this.timetables.snapshot();
+        ret.lastAddedTripPattern = this.lastAddedTripPattern.snapshot();
         this.dirtyTimetables.clear();
         this.dirty = false;
 
         ret.readOnly = true; // mark the snapshot as henceforth immutable
+
+        long duration = System.nanoTime() - startTime;
+        commitCount++;
+        totalCommitNanos += duration;
+        lastCommitNanos = duration;
+        lastCommitChangedTimetables = changedTimetables;
+        LOG.debug("Committed {} changed timetables in {} ms.", changedTimetables, duration / 1000000.0);
         return ret;
     }
 
+    /** @return the number of commits of this snapshot. */
+    public long getCommitCount() {
+        return commitCount;
+    }
+
+    /** @return the total time spent in commits of this snapshot, in nanoseconds. */
+    public long getTotalCommitNanos() {
+        return totalCommitNanos;
+    }
+
+    /** @return the duration of the last commit of this snapshot, in nanoseconds. */
+    public long getLastCommitNanos() {
+        return lastCommitNanos;
+    }
+
+    /** @return the number of timetables changed since the commit before the last one. */
+    public int getLastCommitChangedTimetables() {
+        return lastCommitChangedTimetables;
+    }
+
     /**
      * Clear all data of snapshot for the provided feed id
      *
@@ -350,7 +394,7 @@ public class TimetableSnapshot {
      * @return true if the timetable changed as a result of the call
      */
     protected boolean clearTimetable(String feedId) {
-        return timetables.keySet().removeIf(tripPattern -> feedId.equals(tripPattern.getFeedId()));
+        return timetables.removeIf((tripPattern, sortedTimetables) -> feedId.equals(tripPattern.getFeedId()));
     }
 
     /**
@@ -360,51 +404,98 @@ public class TimetableSnapshot {
      * @return true if the lastAddedTripPattern changed as a result of the call
      */
     protected boolean clearLastAddedTripPattern(String feedId) {
-        return lastAddedTripPattern.keySet().removeIf(lastAddedTripPattern -> feedId.equals(lastAddedTripPattern.getFeedId()));
+        return lastAddedTripPattern.removeIf((tripIdAndServiceDate, pattern) -> feedId.equals(tripIdAndServiceDate.getFeedId()));
     }
 
     /**
      * Removes all Timetables which are valid for a ServiceDate on-or-before the one supplied.
      */
     public boolean purgeExpiredData(ServiceDate serviceDate) {
+        return purgeExpiredData(serviceDate, Long.MAX_VALUE);
+    }
+
+    /**
+     * Removes Timetables and last added trip patterns for ServiceDates on-or-before the one supplied, until the given
+     * time budget is spent. The cost is proportional to the number of entries for the expired dates, not to the size
+     * of the snapshot. Whatever is left is removed by the next calls, see {@link #hasExpiredData(ServiceDate)}. At
+     * least one entry is removed per call, so repeated calls always make progress.
+     *
+     * @param timeBudgetNanos the time after which to stop purging, in nanoseconds
+     * @return true if anything was removed
+     */
+    public boolean purgeExpiredData(ServiceDate serviceDate, long timeBudgetNanos) {
         if (readOnly) {
             throw new ConcurrentModificationException("This TimetableSnapshot is read-only.");
         }
+        long startTime = System.nanoTime();
 
         boolean modified = false;
-        for (Iterator<TripPattern> it = timetables.keySet().iterator(); it.hasNext();){
-            TripPattern pattern = it.next();
-            SortedSet<Timetable> sortedTimetables = timetables.get(pattern);
-            SortedSet<Timetable> toKeepTimetables =
-                    new TreeSet<Timetable>(new SortedTimetableComparator());
-            for(Timetable timetable : sortedTimetables) {
-                if(serviceDate.compareTo(timetable.serviceDate) < 0) {
-                    toKeepTimetables.add(timetable);
-                } else {
-                    modified = true;
+        while (!patternsByServiceDate.isEmpty() && serviceDate.compareTo(patternsByServiceDate.firstKey()) >= 0) {
+            Iterator<TripPattern> patterns = patternsByServiceDate.firstEntry().getValue().iterator();
+            while (patterns.hasNext()) {
+                modified |= purgeExpiredTimetables(patterns.next(), serviceDate);
+                patterns.remove();
+                if (System.nanoTime() - startTime > timeBudgetNanos) {
+                    return modified;
                 }
             }
-
-            if(toKeepTimetables.isEmpty()) {
-                it.remove();
-            } else {
-                timetables.put(pattern, toKeepTimetables);
-            }
+            patternsByServiceDate.pollFirstEntry();
         }
-        
+
         // Also remove last added trip pattern for days that are purged
-        for (Iterator<Entry<TripIdAndServiceDate, TripPattern>> iterator = lastAddedTripPattern
-                .entrySet().iterator(); iterator.hasNext();) {
-            TripIdAndServiceDate tripIdAndServiceDate = iterator.next().getKey();
-            if (serviceDate.compareTo(tripIdAndServiceDate.getServiceDate()) >= 0) {
-                iterator.remove();
-                modified = true;
+        while (!lastAddedByServiceDate.isEmpty() && serviceDate.compareTo(lastAddedByServiceDate.firstKey()) >= 0) {
+            Iterator<TripIdAndServiceDate> keys = lastAddedByServiceDate.firstEntry().getValue().iterator();
+            while (keys.hasNext()) {
+                modified |= lastAddedTripPattern.remove(keys.next()) != null;
+                keys.remove();
+                if (System.nanoTime() - startTime > timeBudgetNanos) {
+                    return modified;
+                }
             }
+            lastAddedByServiceDate.pollFirstEntry();
         }
 
         return modified;
     }
 
+    /**
+     * @return true if there may be Timetables or last added trip patterns left for ServiceDates on-or-before the one
+     *         supplied.
+     */
+    public boolean hasExpiredData(ServiceDate serviceDate) {
+        return (!patternsByServiceDate.isEmpty() && serviceDate.compareTo(patternsByServiceDate.firstKey()) >= 0)
+                || (!lastAddedByServiceDate.isEmpty() && serviceDate.compareTo(lastAddedByServiceDate.firstKey()) >= 0);
+    }
+
+    /**
+     * Removes the Timetables of one pattern which are valid for a ServiceDate on-or-before the one supplied.
+     *
+     * @return true if any Timetable was removed
+     */
+    private boolean purgeExpiredTimetables(TripPattern pattern, ServiceDate serviceDate) {
+        SortedSet<Timetable> sortedTimetables = timetables.get(pattern);
+        if (sortedTimetables == null) {
+            return false;
+        }
+        SortedSet<Timetable> toKeepTimetables =
+                new TreeSet<Timetable>(new SortedTimetableComparator());
+        for(Timetable timetable : sortedTimetables) {
+            if(serviceDate.compareTo(timetable.serviceDate) < 0) {
+                toKeepTimetables.add(timetable);
+            }
+        }
+
+        // Only write the patterns that change, to keep the rest of the map shared with the last snapshot.
+        if(toKeepTimetables.isEmpty()) {
+            timetables.remove(pattern);
+            return true;
+        } else if (toKeepTimetables.size() < sortedTimetables.size()) {
+            timetables.put(pattern, toKeepTimetables);
+            return true;
+        }
+        return false;
+    }
+
     public boolean isDirty() {
         if (readOnly) return false;
         return dirty;
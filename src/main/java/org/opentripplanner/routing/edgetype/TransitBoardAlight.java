@@ -396,6 +396,11 @@ public class TransitBoardAlight extends TablePatternEdge implements OnboardEdge
                 (int)(s0.getTimeSeconds() - sd.time(tripTimes.getArrivalTime(stopIndex)));
     }
 
+    /** @return true if trips on this edge may run more than one day past their service date. */
+    public boolean hasExtendedDates() {
+        return extendedDates;
+    }
+
     public boolean isDeviated() {
         return false;
     }
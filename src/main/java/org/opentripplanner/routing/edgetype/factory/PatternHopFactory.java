@@ -27,6 +27,7 @@ import org.locationtech.jts.linearref.LinearLocation;
 import org.locationtech.jts.linearref.LocationIndexedLine;
 import org.apache.commons.math3.util.FastMath;
 import org.opentripplanner.model.*;
+import org.opentripplanner.common.geometry.CompactLineString;
 import org.opentripplanner.common.geometry.GeometryUtils;
 import org.opentripplanner.common.geometry.PackedCoordinateSequence;
 import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
@@ -78,6 +79,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -273,6 +275,9 @@ public class PatternHopFactory {
 
     private Map<AgencyAndId, LineString> _geometriesByShapeId = new HashMap<AgencyAndId, LineString>();
 
+    /** The straight lines between stops, shared by all the hops between the same two stops. */
+    private Map<P2<Stop>, LineString> _simpleGeometriesByStops = new HashMap<P2<Stop>, LineString>();
+
     private Map<AgencyAndId, double[]> _distancesByShapeId = new HashMap<AgencyAndId, double[]>();
 
     private Map<String, Geometry> _areasById = new HashMap<>();
@@ -376,6 +381,10 @@ public class PatternHopFactory {
         /* Generate unique short IDs for all the TableTripPatterns. */
         TripPattern.generateUniqueIds(tripPatterns);
 
+        /* The geometries of shape segments and of straight lines between stops are shared by the trip patterns, so
+         * each one is compacted once and the hops share the compacted geometry too. */
+        Map<LineString, byte[]> compactGeometries = new IdentityHashMap<>();
+
         /* Loop over all new TripPatterns, creating edges, setting the service codes and geometries, etc. */
         for (TripPattern tripPattern : tripPatterns) {
             tripPattern.makePatternVerticesAndEdges(graph, context.stationStopNodes);
@@ -383,7 +392,8 @@ public class PatternHopFactory {
             LineString[] geom = geometriesByTripPattern.get(tripPattern);
             if (geom != null) {
                 for (int i = 0; i < tripPattern.hopEdges.length; i++) {
-                    tripPattern.hopEdges[i].setGeometry(geom[i]);
+                    tripPattern.hopEdges[i].setCompactGeometry(compactGeometries.computeIfAbsent(geom[i],
+                            geometry -> CompactLineString.compackLineString(geometry, false)));
                 }
             }
             tripPattern.setServiceCodes(graph.serviceCodes); // TODO this could be more elegant
@@ -866,14 +876,15 @@ public class PatternHopFactory {
 
     /** create a 2-point linestring (a straight line segment) between the two stops */
     private LineString createSimpleGeometry(Stop s0, Stop s1) {
-
-        Coordinate[] coordinates = new Coordinate[] {
-                new Coordinate(s0.getLon(), s0.getLat()),
-                new Coordinate(s1.getLon(), s1.getLat())
-        };
-        CoordinateSequence sequence = new PackedCoordinateSequence.Double(coordinates, 2);
-
-        return _geometryFactory.createLineString(sequence);
+        return _simpleGeometriesByStops.computeIfAbsent(new P2<>(s0, s1), stops -> {
+            Coordinate[] coordinates = new Coordinate[] {
+                    new Coordinate(s0.getLon(), s0.getLat()),
+                    new Coordinate(s1.getLon(), s1.getLat())
+            };
+            CoordinateSequence sequence = new PackedCoordinateSequence.Double(coordinates, 2);
+
+            return _geometryFactory.createLineString(sequence);
+        });
     }
 
     private boolean isValid(Geometry geometry, Stop s0, Stop s1) {
@@ -38,6 +38,9 @@ public abstract class Edge implements Serializable {
 
     protected Vertex tov;
 
+    /** Dense index of this edge, see {@link Vertex#getIndex()}. -1 if no index has been assigned. */
+    private transient int index = -1;
+
     protected Edge(Vertex v1, Vertex v2) {
         if (v1 == null || v2 == null) {
             String err = String.format("%s constructed with null vertex : %s %s", this.getClass(),
@@ -57,6 +60,16 @@ public abstract class Edge implements Serializable {
     public Vertex getToVertex() {
         return tov;
     }
+
+    /** @return the dense index of this edge, or -1 if it has none. */
+    @XmlTransient
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
     
     /**
      * Returns true if this edge is partial - overriden by subclasses.
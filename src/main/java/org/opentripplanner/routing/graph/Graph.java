@@ -16,8 +16,6 @@ package org.opentripplanner.routing.graph;
 import com.conveyal.r5.kryo.TIntArrayListSerializer;
 import com.conveyal.r5.kryo.TIntIntHashMapSerializer;
 import com.esotericsoftware.kryo.Kryo;
-import com.esotericsoftware.kryo.io.Input;
-import com.esotericsoftware.kryo.io.Output;
 import com.esotericsoftware.kryo.serializers.ExternalizableSerializer;
 import com.esotericsoftware.kryo.serializers.JavaSerializer;
 import com.google.common.annotations.VisibleForTesting;
@@ -67,6 +65,7 @@ import org.opentripplanner.routing.core.TransferTable;
 import org.opentripplanner.routing.core.TraverseMode;
 import org.opentripplanner.routing.edgetype.EdgeWithCleanup;
 import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetNetworkColumns;
 import org.opentripplanner.routing.edgetype.TripPattern;
 import org.opentripplanner.routing.flex.FlexIndex;
 import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
@@ -91,8 +90,11 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
@@ -102,11 +104,14 @@ import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.prefs.Preferences;
+import java.util.stream.IntStream;
 /**
  * A graph is really just one or more indexes into a set of vertexes. It used to keep edgelists for each vertex, but those are in the vertex now.
  */
@@ -123,7 +128,11 @@ public class Graph implements Serializable, AddBuilderAnnotation {
     // TODO Remove this field, use Router.routerId ?
     public String routerId;
 
-    private final Map<Edge, Set<AlertPatch>> alertPatches = new HashMap<Edge, Set<AlertPatch>>(0);
+    /**
+     * The alert patches of each edge, read by request threads while the alert updaters modify them. The sets are never
+     * modified once they are in the map, a change replaces the set of the edge.
+     */
+    private final Map<Edge, Set<AlertPatch>> alertPatches = new ConcurrentHashMap<>();
 
     private final Map<Edge, List<TurnRestriction>> turnRestrictions = Maps.newHashMap();
 
@@ -163,8 +172,15 @@ public class Graph implements Serializable, AddBuilderAnnotation {
     /* Vertex index by name is reconstructed from edges. TODO Is this actually needed? */
     private transient Map<String, Vertex> vertices;
 
+    /** The number of vertex and edge indices handed out by the last call to rebuildVertexAndEdgeIndices. */
+    private transient int vertexIndexCount = 0;
+
+    private transient int edgeIndexCount = 0;
+
     private transient CalendarService calendarService;
 
+    private transient StreetNetworkColumns streetNetworkColumns;
+
     private boolean debugData = false;
 
     public transient StreetVertexIndexService streetIndex;
@@ -331,9 +347,7 @@ public class Graph implements Serializable, AddBuilderAnnotation {
      */
     public void removeEdge(Edge e) {
         if (e != null) {
-            synchronized (alertPatches) {   // This synchronization is somewhat silly because this
-                alertPatches.remove(e);     // method isn't thread-safe anyway, but it is consistent
-            }
+            alertPatches.remove(e);
 
             turnRestrictions.remove(e);
             streetNotesService.removeStaticNotes(e);
@@ -394,19 +408,17 @@ public class Graph implements Serializable, AddBuilderAnnotation {
      */
     public void addAlertPatch(Edge edge, AlertPatch alertPatch) {
         if (edge == null || alertPatch == null) return;
-        synchronized (alertPatches) {
-            Set<AlertPatch> alertPatches = this.alertPatches.get(edge);
+        alertPatches.compute(edge, (e, alertPatches) -> {
             if (alertPatches == null) {
-                this.alertPatches.put(edge, Collections.singleton(alertPatch));
-            } else if (alertPatches instanceof HashSet) {
-                alertPatches.add(alertPatch);
-            } else {
-                alertPatches = new HashSet<AlertPatch>(alertPatches);
-                if (alertPatches.add(alertPatch)) {
-                    this.alertPatches.put(edge, alertPatches);
-                }
+                return Collections.singleton(alertPatch);
             }
-        }
+            if (alertPatches.contains(alertPatch)) {
+                return alertPatches;
+            }
+            Set<AlertPatch> copy = new HashSet<AlertPatch>(alertPatches);
+            copy.add(alertPatch);
+            return Collections.unmodifiableSet(copy);
+        });
     }
 
     /**
@@ -417,16 +429,17 @@ public class Graph implements Serializable, AddBuilderAnnotation {
      */
     public void removeAlertPatch(Edge edge, AlertPatch alertPatch) {
         if (edge == null || alertPatch == null) return;
-        synchronized (alertPatches) {
-            Set<AlertPatch> alertPatches = this.alertPatches.get(edge);
-            if (alertPatches != null && alertPatches.contains(alertPatch)) {
-                if (alertPatches.size() < 2) {
-                    this.alertPatches.remove(edge);
-                } else {
-                    alertPatches.remove(alertPatch);
-                }
+        alertPatches.computeIfPresent(edge, (e, alertPatches) -> {
+            if (!alertPatches.contains(alertPatch)) {
+                return alertPatches;
             }
-        }
+            if (alertPatches.size() < 2) {
+                return null;
+            }
+            Set<AlertPatch> copy = new HashSet<AlertPatch>(alertPatches);
+            copy.remove(alertPatch);
+            return Collections.unmodifiableSet(copy);
+        });
     }
 
     /**
@@ -436,11 +449,9 @@ public class Graph implements Serializable, AddBuilderAnnotation {
      */
     public AlertPatch[] getAlertPatches(Edge edge) {
         if (edge != null) {
-            synchronized (alertPatches) {
-                Set<AlertPatch> alertPatches = this.alertPatches.get(edge);
-                if (alertPatches != null) {
-                    return alertPatches.toArray(new AlertPatch[alertPatches.size()]);
-                }
+            Set<AlertPatch> alertPatches = this.alertPatches.get(edge);
+            if (alertPatches != null) {
+                return alertPatches.toArray(new AlertPatch[alertPatches.size()]);
             }
         }
         return new AlertPatch[0];
@@ -622,6 +633,36 @@ public class Graph implements Serializable, AddBuilderAnnotation {
         return vertices.size();
     }
 
+    /**
+     * Assign a dense integer index to every vertex and edge in the graph, so that searches can keep per-vertex state in
+     * arrays instead of hash maps. Vertices and edges added after this call keep an index of -1, as do the temporary
+     * vertices and edges created for a single request: these are shared by the threads working on the request, so
+     * their states are kept in the per-search maps of the shortest path tree rather than in an indexed slot.
+     */
+    public void rebuildVertexAndEdgeIndices() {
+        int nVertices = 0;
+        int nEdges = 0;
+        for (Vertex v : getVertices()) {
+            v.setIndex(nVertices++);
+            for (Edge e : v.getOutgoing()) {
+                e.setIndex(nEdges++);
+            }
+        }
+        vertexIndexCount = nVertices;
+        edgeIndexCount = nEdges;
+        LOG.info("Assigned indices to {} vertices and {} edges.", nVertices, nEdges);
+    }
+
+    /** @return the number of vertex indices in use by permanent graph vertices, 0 if they were never assigned. */
+    public int getVertexIndexCount() {
+        return vertexIndexCount;
+    }
+
+    /** @return the number of edge indices in use by permanent graph edges, 0 if they were never assigned. */
+    public int getEdgeIndexCount() {
+        return edgeIndexCount;
+    }
+
     /**
      * Find the total number of edges in this Graph. There are assumed to be no Edges in an incoming edge list that are not in an outgoing edge list.
      * 
@@ -689,16 +730,19 @@ public class Graph implements Serializable, AddBuilderAnnotation {
      * TODO: do we really need a factory for different street vertex indexes?
      */
     public void index (StreetVertexIndexFactory indexFactory) {
+        // The street index only reads the graph, it is built while the timetables are finished
         LOG.info("Building street index.");
-        streetIndex = indexFactory.newIndex(this);
+        CompletableFuture<StreetVertexIndexService> streetIndexFuture =
+                CompletableFuture.supplyAsync(() -> indexFactory.newIndex(this));
         LOG.info("Rebuilding edge and vertex indices.");
+        rebuildVertexAndEdgeIndices();
         Set<TripPattern> tableTripPatterns = Sets.newHashSet();
         for (PatternArriveVertex pav : Iterables.filter(this.getVertices(), PatternArriveVertex.class)) {
             tableTripPatterns.add(pav.getTripPattern());
         }
-        for (TripPattern ttp : tableTripPatterns) {
-            if (ttp != null) ttp.scheduledTimetable.finish(); // skip frequency-based patterns with no table (null)
-        }
+        // skip frequency-based patterns with no table (null)
+        tableTripPatterns.parallelStream().filter(Objects::nonNull).forEach(ttp -> ttp.scheduledTimetable.finish());
+        streetIndex = streetIndexFuture.join();
         // TODO: Move this ^ stuff into the graph index
         this.index = new GraphIndex(this);
         if (useFlexService ) {
@@ -708,37 +752,88 @@ public class Graph implements Serializable, AddBuilderAnnotation {
     }
     
     public static Graph load(InputStream in) {
-        // TODO store version information, halt load if versions mismatch
-        Input input = new Input(in);
-        Kryo kryo = makeKryo();
-        Graph graph = (Graph) kryo.readClassAndObject(input);
+        GraphFileFormat.Contents contents;
+        try {
+            // Graphs read from a local file get their street network columns mapped rather than read
+            FileChannel channel = in instanceof FileInputStream ? ((FileInputStream) in).getChannel() : null;
+            contents = GraphFileFormat.read(in, channel);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not read graph: " + e.getMessage(), e);
+        }
+        Graph graph = contents.graph;
         LOG.debug("Basic graph info read.");
         if (graph.graphVersionMismatch()) {
             throw new RuntimeException("Graph version mismatch detected.");
         }
         // Vertex edge lists are transient to avoid excessive recursion depth during serialization.
         // vertex list is transient because it can be reconstructed from edges.
-        LOG.debug("Loading edges...");
-        List<Edge> edges = (ArrayList<Edge>) kryo.readClassAndObject(input);
         graph.vertices = new ConcurrentHashMap<>(); // why is this concurrent?
-
-        for (Edge e : edges) {
-            Vertex fromVertex = e.getFromVertex();
-            Vertex toVertex = e.getToVertex();
-            graph.vertices.put(fromVertex.getLabel(), fromVertex);
-            graph.vertices.put(toVertex.getLabel(), toVertex);
-            // Compensating for the fact that we're not using the standard Java de/serialization methods.
-            fromVertex.initEdgeListsIfNeeded();
-            toVertex.initEdgeListsIfNeeded();
-            fromVertex.addOutgoing(e);
-            toVertex.addIncoming(e);
+        graph.wireEdges(contents.vertices, contents.edges);
+        if (contents.streetNetworkColumns != null) {
+            int n = contents.streetNetworkColumns.attach(contents.edges, false);
+            LOG.info("{} street edges read their geometry from the street network columns.", n);
+            graph.streetNetworkColumns = contents.streetNetworkColumns;
         }
 
         LOG.info("Main graph read. |V|={} |E|={}", graph.countVertices(), graph.countEdges());
         graph.index(new DefaultStreetVertexIndexFactory());
+        graph.deduplicateTripTimes();
         return graph;
     }
 
+    /**
+     * Make the TripTimes of all the patterns share their equal arrays, strings and BitSets through the deduplicator
+     * of the graph, which also lets the TripTimes created by real-time updates share them.
+     */
+    private void deduplicateTripTimes() {
+        long startTime = System.currentTimeMillis();
+        index.patternForId.values().parallelStream()
+                .map(pattern -> pattern.scheduledTimetable)
+                .filter(Objects::nonNull)
+                .forEach(timetable -> {
+                    timetable.tripTimes.forEach(tripTimes -> tripTimes.deduplicate(deduplicator));
+                    timetable.frequencyEntries.forEach(entry -> entry.tripTimes.deduplicate(deduplicator));
+                });
+        LOG.info("Deduplicated trip times in {} ms.", System.currentTimeMillis() - startTime);
+        deduplicator.logBytesSaved();
+    }
+
+    /**
+     * Add the deserialized vertices to the graph and fill in their edge lists. The edges of each vertex are first
+     * grouped in one array, in the order of the edge list, after which the vertices are filled in parallel.
+     */
+    private void wireEdges(List<Vertex> vertexList, List<Edge> edges) {
+        int nVertices = vertexList.size();
+        // The vertex indices are only used here, they are rebuilt when indexing the graph
+        for (int i = 0; i < nVertices; i++) {
+            vertexList.get(i).setIndex(i);
+        }
+        int[] outgoingStart = new int[nVertices + 1];
+        int[] incomingStart = new int[nVertices + 1];
+        for (Edge e : edges) {
+            outgoingStart[e.getFromVertex().getIndex() + 1]++;
+            incomingStart[e.getToVertex().getIndex() + 1]++;
+        }
+        for (int i = 0; i < nVertices; i++) {
+            outgoingStart[i + 1] += outgoingStart[i];
+            incomingStart[i + 1] += incomingStart[i];
+        }
+        Edge[] outgoing = new Edge[edges.size()];
+        Edge[] incoming = new Edge[edges.size()];
+        int[] outgoingEnd = Arrays.copyOf(outgoingStart, nVertices);
+        int[] incomingEnd = Arrays.copyOf(incomingStart, nVertices);
+        for (Edge e : edges) {
+            outgoing[outgoingEnd[e.getFromVertex().getIndex()]++] = e;
+            incoming[incomingEnd[e.getToVertex().getIndex()]++] = e;
+        }
+        IntStream.range(0, nVertices).parallel().forEach(i -> {
+            Vertex v = vertexList.get(i);
+            v.setEdgeLists(Arrays.copyOfRange(incoming, incomingStart[i], incomingStart[i + 1]),
+                    Arrays.copyOfRange(outgoing, outgoingStart[i], outgoingStart[i + 1]));
+            vertices.put(v.getLabel(), v);
+        });
+    }
+
     /**
      * Compares the OTP version number stored in the graph with that of the currently running instance. Logs warnings explaining that mismatched
      * versions can cause problems.
@@ -819,11 +914,17 @@ public class Graph implements Serializable, AddBuilderAnnotation {
     }
 
     public void save(DataSource graphSource) {
+        save(graphSource, false);
+    }
+
+    /**
+     * @param streetNetworkColumns true to save the street network in columns as well, the geometries of the street
+     *                             edges are then only held by the columns.
+     */
+    public void save(DataSource graphSource, boolean streetNetworkColumns) {
         LOG.info("Main graph size: |V|={} |E|={}", this.countVertices(), this.countEdges());
         LOG.info("Writing graph " + graphSource.path() + " ...");
-        Kryo kryo = makeKryo();
         LOG.debug("Consolidating edges...");
-        Output output = new Output(graphSource.asOutputStream());
         // this is not space efficient
         List<Edge> edges = new ArrayList<Edge>(this.countEdges());
         for (Vertex v : getVertices()) {
@@ -833,13 +934,23 @@ public class Graph implements Serializable, AddBuilderAnnotation {
             if (v.getDegreeOut() + v.getDegreeIn() == 0)
                 LOG.debug("vertex {} has no edges, it will not survive serialization.", v);
         }
+        if (streetNetworkColumns) {
+            this.streetNetworkColumns = StreetNetworkColumns.build(edges);
+            this.streetNetworkColumns.attach(edges, true);
+            LOG.info("Built street network columns of {} edges.", this.streetNetworkColumns.getEdgeCount());
+        }
         LOG.debug("Writing edges...");
-        kryo.writeClassAndObject(output, this);
-        kryo.writeClassAndObject(output, edges);
-        output.close();
+        try (OutputStream output = graphSource.asOutputStream()) {
+            GraphFileFormat.write(this, edges, this.streetNetworkColumns, output);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not write graph: " + e.getMessage(), e);
+        }
         LOG.info("Graph written.");
-        // Summarize serialized classes and associated serializers:
-        // ((InstanceCountingClassResolver) kryo.getClassResolver()).summarize();
+    }
+
+    /** @return the street network columns the street edges are attached to, or null if they are not. */
+    public StreetNetworkColumns getStreetNetworkColumns() {
+        return streetNetworkColumns;
     }
 
     public CalendarService getCalendarService() {
@@ -0,0 +1,232 @@
+package org.opentripplanner.routing.graph;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
+import org.opentripplanner.kryo.ScopedReferenceResolver;
+import org.opentripplanner.routing.edgetype.StreetNetworkColumns;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The layout of a serialized graph. After a header holding the format version, the graph is written in sections, each
+ * of them serialized by a Kryo instance of its own:
+ *
+ * - the vertices, followed by the Graph object itself with the transit data and services
+ * - the edges, in sections of up to {@link #EDGES_PER_SECTION} edges
+ * - optionally, the {@link StreetNetworkColumns} as raw bytes
+ *
+ * All the sections share a single reference scope, so an object reachable from several sections is written once, in
+ * the first of them, and referred to by the following ones. Since the Graph shares the scope of the edges, the edges
+ * and transit objects it refers to (turn restrictions, street notes, alert patches...) are the very instances found
+ * in the edge sections, and its maps keyed on edges are hashed against the final vertices. The sections are decoded
+ * one after the other as they are read from the stream, so only one of them is buffered at a time on either side.
+ * When the graph is read from a file channel, the street network columns are mapped from the graph file rather than
+ * read, so the processes serving the same graph file share their pages.
+ */
+class GraphFileFormat {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GraphFileFormat.class);
+
+    /** "OTPG" */
+    private static final int MAGIC = 0x4F545047;
+
+    /** Incremented whenever the layout of the sections changes. */
+    static final int VERSION = 5;
+
+    /** Set in the flags of the header when the street network columns follow the edge sections. */
+    private static final int STREET_NETWORK_COLUMNS = 1;
+
+    static final int EDGES_PER_SECTION = 100000;
+
+    /** The contents of a graph file, the edges not being added to the edge lists of their vertices yet. */
+    static class Contents {
+        final Graph graph;
+        final List<Vertex> vertices;
+        final List<Edge> edges;
+        /** Null if the graph was saved without them. */
+        final StreetNetworkColumns streetNetworkColumns;
+
+        Contents(Graph graph, List<Vertex> vertices, List<Edge> edges, StreetNetworkColumns streetNetworkColumns) {
+            this.graph = graph;
+            this.vertices = vertices;
+            this.edges = edges;
+            this.streetNetworkColumns = streetNetworkColumns;
+        }
+    }
+
+    /**
+     * @param streetNetworkColumns the columns the street edges are attached to, or null to keep the street edges
+     *                             whole.
+     */
+    static void write(Graph graph, List<Edge> edges, StreetNetworkColumns streetNetworkColumns,
+            OutputStream outputStream) throws IOException {
+        write(graph, edges, streetNetworkColumns, outputStream, EDGES_PER_SECTION);
+    }
+
+    static void write(Graph graph, List<Edge> edges, StreetNetworkColumns streetNetworkColumns,
+            OutputStream outputStream, int edgesPerSection) throws IOException {
+        List<Vertex> vertices = endpoints(edges);
+        List<List<Edge>> edgeSections = Lists.partition(edges, edgesPerSection);
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(outputStream));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(streetNetworkColumns == null ? 0 : STREET_NETWORK_COLUMNS);
+        out.writeInt(edgeSections.size());
+        ScopedReferenceResolver references = new ScopedReferenceResolver();
+        writeSection(out, serialize(references, new ArrayList<>(vertices), graph));
+        for (List<Edge> edgeSection : edgeSections) {
+            writeSection(out, serialize(references, new ArrayList<>(edgeSection)));
+        }
+        if (streetNetworkColumns != null) {
+            ByteBuffer columns = streetNetworkColumns.getBuffer();
+            out.writeInt(columns.remaining());
+            if (columns.hasArray()) {
+                out.write(columns.array(), columns.arrayOffset() + columns.position(), columns.remaining());
+            } else {
+                byte[] bytes = new byte[columns.remaining()];
+                columns.get(bytes);
+                out.write(bytes);
+            }
+        }
+        out.flush();
+    }
+
+    static Contents read(InputStream inputStream) throws IOException {
+        return read(inputStream, null);
+    }
+
+    /**
+     * @param channel the channel of the file the input stream reads, positioned at the start of the graph, or null
+     *                if the graph is not read from a file. The street network columns are mapped from the channel
+     *                when there is one. The mapping stays valid when the file is replaced afterwards, as graph files
+     *                are never overwritten in place.
+     */
+    static Contents read(InputStream inputStream, FileChannel channel) throws IOException {
+        long startTime = System.currentTimeMillis();
+        long start = channel == null ? 0 : channel.position();
+        CountingInputStream counter = new CountingInputStream(new BufferedInputStream(inputStream));
+        DataInputStream in = new DataInputStream(counter);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a graph file, or a graph written by an older version of OTP.");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Graph file format version " + version + " is not supported, expected "
+                    + VERSION + ". Please rebuild the graph.");
+        }
+        int flags = in.readInt();
+        int nEdgeSections = in.readInt();
+
+        ScopedReferenceResolver references = new ScopedReferenceResolver();
+        List<Object> vertexObjects = readSection(in, references, 2);
+        List<Edge> edges = new ArrayList<>();
+        for (int i = 0; i < nEdgeSections; i++) {
+            edges.addAll((List<Edge>) readSection(in, references, 1).get(0));
+        }
+
+        StreetNetworkColumns streetNetworkColumns = null;
+        if ((flags & STREET_NETWORK_COLUMNS) != 0) {
+            int length = in.readInt();
+            ByteBuffer columns;
+            if (channel != null) {
+                long position = start + counter.getCount();
+                if (position + length > channel.size()) {
+                    throw new EOFException("The graph file ends within the street network columns.");
+                }
+                columns = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            } else {
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                columns = ByteBuffer.wrap(bytes);
+            }
+            streetNetworkColumns = new StreetNetworkColumns(columns);
+            LOG.info("{} street network columns of {} edges, {} bytes.", channel == null ? "Read" : "Mapped",
+                    streetNetworkColumns.getEdgeCount(), length);
+        }
+
+        Contents contents = new Contents((Graph) vertexObjects.get(1), (List<Vertex>) vertexObjects.get(0), edges,
+                streetNetworkColumns);
+        LOG.info("Decoded {} vertices and {} edges in {} sections in {} ms.", contents.vertices.size(),
+                edges.size(), nEdgeSections, System.currentTimeMillis() - startTime);
+        return contents;
+    }
+
+    /**
+     * @return the vertices at either end of the edges, in the order they are first found. Vertices without edges do
+     * not survive serialization.
+     */
+    private static List<Vertex> endpoints(List<Edge> edges) {
+        Set<Vertex> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<Vertex> vertices = new ArrayList<>();
+        for (Edge edge : edges) {
+            if (seen.add(edge.getFromVertex())) {
+                vertices.add(edge.getFromVertex());
+            }
+            if (seen.add(edge.getToVertex())) {
+                vertices.add(edge.getToVertex());
+            }
+        }
+        return vertices;
+    }
+
+    private static Kryo makeKryo(ScopedReferenceResolver references) {
+        Kryo kryo = Graph.makeKryo();
+        kryo.setReferenceResolver(references);
+        return kryo;
+    }
+
+    private static byte[] serialize(ScopedReferenceResolver references, Object... objects) {
+        Output output = new Output(4096, -1);
+        serializeTo(output, references, objects);
+        return output.toBytes();
+    }
+
+    private static void serializeTo(Output output, ScopedReferenceResolver references, Object... objects) {
+        Kryo kryo = makeKryo(references);
+        for (Object object : objects) {
+            kryo.writeClassAndObject(output, object);
+        }
+        output.flush();
+    }
+
+    private static void writeSection(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /** Decode the given number of objects from the next section of the stream, without buffering it whole. */
+    private static List<Object> readSection(DataInputStream in, ScopedReferenceResolver references, int count)
+            throws IOException {
+        InputStream section = ByteStreams.limit(in, in.readInt());
+        Kryo kryo = makeKryo(references);
+        Input input = new Input(section, 65536);
+        List<Object> objects = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            objects.add(kryo.readClassAndObject(input));
+        }
+        // Move to the next section even if the objects did not take up all of this one
+        ByteStreams.exhaust(section);
+        return objects;
+    }
+}
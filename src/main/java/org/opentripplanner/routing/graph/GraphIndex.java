@@ -10,6 +10,7 @@ import graphql.ExecutionResult;
 import graphql.GraphQL;
 import graphql.analysis.MaxQueryComplexityInstrumentation;
 import graphql.schema.GraphQLSchema;
+import org.apache.commons.io.FileUtils;
 import org.apache.lucene.util.PriorityQueue;
 import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
@@ -36,6 +37,7 @@ import org.opentripplanner.model.TripAlterationOnDate;
 import org.opentripplanner.model.calendar.ServiceDate;
 import org.opentripplanner.routing.alertpatch.AlertPatch;
 import org.opentripplanner.routing.algorithm.AStar;
+import org.opentripplanner.routing.algorithm.raptor.RaptorTransitIndex;
 import org.opentripplanner.routing.algorithm.ExtendedTraverseVisitor;
 import org.opentripplanner.routing.algorithm.TraverseVisitor;
 import org.opentripplanner.routing.algorithm.strategies.SearchTerminationStrategy;
@@ -64,6 +66,7 @@ import org.opentripplanner.routing.vertextype.ParkAndRideVertex;
 import org.opentripplanner.routing.vertextype.TransitStation;
 import org.opentripplanner.routing.vertextype.TransitStop;
 import org.opentripplanner.standalone.Router;
+import org.opentripplanner.updater.SiriFuzzyTripMatcherIndex;
 import org.opentripplanner.updater.alerts.GtfsRealtimeAlertsUpdater;
 import org.opentripplanner.updater.alerts.SiriSXUpdater;
 import org.slf4j.Logger;
@@ -89,8 +92,12 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -115,23 +122,15 @@ public class GraphIndex {
     public final Map<AgencyAndId, Stop> stationForId = Maps.newHashMap();
     public final Map<AgencyAndId, Trip> tripForId = Maps.newHashMap();
 
-    /**
-     * This is a NeTEx concept. This is subject to be refactored in OTP2, but is kept
-     * as close to the NeTEx model here.
-     */
-    public final Map<AgencyAndId, DatedServiceJourney> datedServiceJourneyForId = Maps.newHashMap();
-
     public final Map<AgencyAndId, Route> routeForId = Maps.newHashMap();
     public final Map<AgencyAndId, String> serviceForId = Maps.newHashMap();
     public final Map<String, TripPattern> patternForId = Maps.newHashMap();
     public final Map<Stop, TransitStop> stopVertexForStop = Maps.newHashMap();
     public final Map<Trip, TripPattern> patternForTrip = Maps.newHashMap();
-    public final Multimap<String, TripPattern> patternsForFeedId = ArrayListMultimap.create();
     public final Multimap<Route, TripPattern> patternsForRoute = ArrayListMultimap.create();
     public final Multimap<Stop, TripPattern> patternsForStop = ArrayListMultimap.create();
     public final Multimap<AgencyAndId, Stop> stopsForParentStation = ArrayListMultimap.create();
     final HashGridSpatialIndex<TransitStop> stopSpatialIndex = new HashGridSpatialIndex<TransitStop>();
-    public final Map<AgencyAndId, Geometry> areasById = Maps.newHashMap();
     private Map<AgencyAndId, Notice> noticeMap = new HashMap<>();
     private Map<AgencyAndId, List<Notice>> noticeAssignmentMap = new HashMap<>();
 
@@ -141,8 +140,50 @@ public class GraphIndex {
 
     private AlertPatchService alertPatchService;
 
-    /* Full-text search extensions */
-    public LuceneIndex luceneIndex;
+    /*
+     * Rough sizes of the entries of the secondary indexes in bytes, for the index report. An entry of a hash map is a
+     * 32 byte node plus its slot in the table, an entry of a multimap is a reference in the list of its key.
+     */
+    private static final int MAP_ENTRY_BYTES = 40;
+    private static final int MULTIMAP_VALUE_BYTES = 8;
+    private static final int DATED_SERVICE_JOURNEY_BYTES = 24;
+
+    /**
+     * This is a NeTEx concept. This is subject to be refactored in OTP2, but is kept
+     * as close to the NeTEx model here.
+     */
+    private final LazyIndex<Map<AgencyAndId, DatedServiceJourney>> datedServiceJourneyForId = new LazyIndex<>(
+            "datedServiceJourneys", this::indexDatedServiceJourneys,
+            map -> (long) map.size() * (MAP_ENTRY_BYTES + DATED_SERVICE_JOURNEY_BYTES));
+
+    /**
+     * The trips with dated service journeys, as of the construction of this index. The dated service journeys are
+     * indexed from them rather than from tripForId, which the realtime updaters write to.
+     */
+    private Trip[] tripsWithDatedServiceJourneys;
+
+    private final LazyIndex<Multimap<String, TripPattern>> patternsForFeedId = new LazyIndex<>(
+            "patternsForFeedId", this::indexPatternsForFeedId,
+            multimap -> (long) multimap.keySet().size() * MAP_ENTRY_BYTES
+                    + (long) multimap.size() * MULTIMAP_VALUE_BYTES);
+
+    /* The areas map belongs to the graph, so it adds nothing to the footprint of the index. */
+    private final LazyIndex<Map<AgencyAndId, Geometry>> areasById = new LazyIndex<>(
+            "areas", this::indexAreas, map -> 0L);
+
+    /* Full-text search extensions, the footprint being the size of the files of the index. */
+    private final LazyIndex<LuceneIndex> luceneIndex = new LazyIndex<>(
+            "lucene", this::indexNames, index -> FileUtils.sizeOfDirectory(luceneDirectory));
+
+    private File luceneDirectory;
+
+    /** The secondary indexes, built on first use or when building them is requested. */
+    private final List<LazyIndex<?>> secondaryIndexes = Arrays.asList(
+            datedServiceJourneyForId, patternsForFeedId, areasById, luceneIndex);
+
+    private RaptorTransitIndex raptorTransitIndex;
+
+    private SiriFuzzyTripMatcherIndex siriFuzzyTripMatcherIndex;
 
     /* This is a workaround, and should probably eventually be removed. */
     public Graph graph;
@@ -156,9 +197,90 @@ public class GraphIndex {
 
     public final ExecutorService threadPool;
 
+    /**
+     * Build the indexes. The independent index families are built concurrently, each of them only writing to its own
+     * maps, and all of them are complete once the constructor returns.
+     */
     public GraphIndex (Graph graph) {
         LOG.info("Indexing graph...");
+        long startTime = System.currentTimeMillis();
+        this.graph = graph;
 
+        noticeMap = graph.getNoticeMap();
+        noticeAssignmentMap = graph.getNoticeAssignmentMap();
+
+        // Copy these two service indexes from the graph until we have better ones.
+        calendarService = graph.getCalendarService();
+        serviceCodes = graph.serviceCodes;
+        threadPool = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("GraphQLExecutor-" + graph.routerId + "-%d")
+                .build()
+        );
+
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), p -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            thread.setName("graph-indexer-" + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+        try {
+            Collection<Edge> edges = graph.getEdges();
+            CompletableFuture<Void> agencies = runTimed("agency", () -> indexAgencies(graph), pool);
+            CompletableFuture<GraphQLSchema> schema = CompletableFuture.supplyAsync(() -> {
+                long schemaStartTime = System.currentTimeMillis();
+                GraphQLSchema indexSchema = new IndexGraphQLSchema(this).indexSchema;
+                LOG.info("Built GraphQL schema in {} ms.", System.currentTimeMillis() - schemaStartTime);
+                return indexSchema;
+            }, pool);
+
+            /* We will keep a separate set of all vertices in case some have the same label.
+             * Maybe we should just guarantee unique labels. */
+            CompletableFuture<Set<Vertex>> vertices = CompletableFuture.supplyAsync(() -> {
+                Set<Vertex> vertexSet = Sets.newHashSet();
+                for (Edge edge : edges) {
+                    vertexSet.add(edge.getFromVertex());
+                    vertexSet.add(edge.getToVertex());
+                }
+                return vertexSet;
+            }, pool);
+            CompletableFuture<Void> vertexIndex = vertices.thenCompose(
+                    v -> runTimed("vertex", () -> indexVertices(v), pool));
+            CompletableFuture<Void> stopIndex = vertices.thenCompose(v -> runTimed("stop", () -> indexStops(v), pool));
+            CompletableFuture<Void> stopSpatialIndex = stopIndex.thenCompose(
+                    x -> runTimed("stop spatial", this::indexStopLocations, pool));
+            CompletableFuture<Void> patternIndex = runTimed("pattern", () -> indexPatterns(edges), pool)
+                    .thenCompose(x -> runTimed("trip and route", this::indexTripsAndRoutes, pool));
+
+            for (CompletableFuture<?> index : Arrays.asList(agencies, vertexIndex, stopSpatialIndex, patternIndex)) {
+                join(index);
+            }
+            indexSchema = join(schema);
+        } finally {
+            pool.shutdown();
+        }
+
+        LOG.info("Done indexing graph in {} ms.", System.currentTimeMillis() - startTime);
+    }
+
+    private static CompletableFuture<Void> runTimed(String name, Runnable task, ForkJoinPool pool) {
+        return CompletableFuture.runAsync(() -> {
+            long startTime = System.currentTimeMillis();
+            task.run();
+            LOG.info("Built {} index in {} ms.", name, System.currentTimeMillis() - startTime);
+        }, pool);
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private void indexAgencies(Graph graph) {
         for (String feedId : graph.getFeedIds()) {
             for (Agency agency : graph.getAgencies(feedId)) {
                 Map<String, Agency> agencyForId = agenciesForFeedId.getOrDefault(feedId, new HashMap<>());
@@ -171,23 +293,21 @@ public class GraphIndex {
         for (Operator operator : graph.getOperators()) {
             this.operatorForId.put(operator.getId(), operator);
         }
+    }
 
+    /** The areas are already indexed by the graph, the index only stands in for a missing map. */
+    private Map<AgencyAndId, Geometry> indexAreas() {
+        return graph.areasById != null ? graph.areasById : Collections.emptyMap();
+    }
 
-        Collection<Edge> edges = graph.getEdges();
-        /* We will keep a separate set of all vertices in case some have the same label.
-         * Maybe we should just guarantee unique labels. */
-        Set<Vertex> vertices = Sets.newHashSet();
-        for (Edge edge : edges) {
-            vertices.add(edge.getFromVertex());
-            vertices.add(edge.getToVertex());
-            if (edge instanceof TablePatternEdge) {
-                TablePatternEdge patternEdge = (TablePatternEdge) edge;
-                TripPattern pattern = patternEdge.getPattern();
-                patternForId.put(pattern.code, pattern);
-            }
-        }
+    private void indexVertices(Set<Vertex> vertices) {
         for (Vertex vertex : vertices) {
             vertexForId.put(vertex.getLabel(), vertex);
+        }
+    }
+
+    private void indexStops(Set<Vertex> vertices) {
+        for (Vertex vertex : vertices) {
             if (vertex instanceof TransitStop) {
                 TransitStop transitStop = (TransitStop) vertex;
                 Stop stop = transitStop.getStop();
@@ -210,12 +330,27 @@ public class GraphIndex {
                 stationForId.put(stop.getId(), stop);
             }
         }
+    }
+
+    private void indexStopLocations() {
         for (TransitStop stopVertex : stopVertexForStop.values()) {
             Envelope envelope = new Envelope(stopVertex.getCoordinate());
             stopSpatialIndex.insert(envelope, stopVertex);
         }
+    }
+
+    private void indexPatterns(Collection<Edge> edges) {
+        for (Edge edge : edges) {
+            if (edge instanceof TablePatternEdge) {
+                TablePatternEdge patternEdge = (TablePatternEdge) edge;
+                TripPattern pattern = patternEdge.getPattern();
+                patternForId.put(pattern.code, pattern);
+            }
+        }
+    }
+
+    private void indexTripsAndRoutes() {
         for (TripPattern pattern : patternForId.values()) {
-            patternsForFeedId.put(pattern.getFeedId(), pattern);
             patternsForRoute.put(pattern.route, pattern);
 
             for (Trip trip : pattern.getTrips()) {
@@ -231,36 +366,67 @@ public class GraphIndex {
         for (Route route : patternsForRoute.asMap().keySet()) {
             routeForId.put(route.getId(), route);
         }
+        tripsWithDatedServiceJourneys = tripForId.values().stream()
+                .filter(trip -> trip.listTripAlterationOnDates().iterator().hasNext())
+                .toArray(Trip[]::new);
+    }
+
+    private Multimap<String, TripPattern> indexPatternsForFeedId() {
+        Multimap<String, TripPattern> patterns = ArrayListMultimap.create();
+        for (TripPattern pattern : patternForId.values()) {
+            patterns.put(pattern.getFeedId(), pattern);
+        }
+        return patterns;
+    }
 
-        for (Trip trip : tripForId.values()) {
+    private Map<AgencyAndId, DatedServiceJourney> indexDatedServiceJourneys() {
+        Map<AgencyAndId, DatedServiceJourney> datedServiceJourneys = new HashMap<>();
+        for (Trip trip : tripsWithDatedServiceJourneys) {
             for (TripAlterationOnDate it : trip.listTripAlterationOnDates()) {
-                datedServiceJourneyForId.put(it.getId(), new DatedServiceJourney(trip, it));
+                datedServiceJourneys.put(it.getId(), new DatedServiceJourney(trip, it));
             }
         }
+        return datedServiceJourneys;
+    }
 
-        noticeMap = graph.getNoticeMap();
-        noticeAssignmentMap = graph.getNoticeAssignmentMap();
-
-        // Copy these two service indexes from the graph until we have better ones.
-        calendarService = graph.getCalendarService();
-        serviceCodes = graph.serviceCodes;
-        this.graph = graph;
-        threadPool = Executors.newCachedThreadPool(
-            new ThreadFactoryBuilder().setNameFormat("GraphQLExecutor-" + graph.routerId + "-%d")
-                .build()
-        );
-
-        indexSchema = new IndexGraphQLSchema(this).indexSchema;
-        getLuceneIndex();
+    private LuceneIndex indexNames() {
+        try {
+            luceneDirectory = Files.createTempDirectory(graph.routerId + "_lucene",
+                (FileAttribute<?>[]) new FileAttribute[]{}).toFile();
+        } catch (IOException e) {
+            return null;
+        }
+        return new LuceneIndex(this, luceneDirectory, false);
+    }
 
-        LOG.info("Initializing areas....");
-        if (graph.areasById != null) {
-            for (AgencyAndId id : graph.areasById.keySet()) {
-                areasById.put(id, graph.areasById.get(id));
+    /**
+     * Build the named secondary indexes now rather than on their first use.
+     *
+     * @param names the names of the indexes, as listed in the index report.
+     */
+    public void buildIndexes(Collection<String> names) {
+        for (String name : names) {
+            Optional<LazyIndex<?>> index = secondaryIndexes.stream()
+                    .filter(it -> it.getName().equals(name))
+                    .findFirst();
+            if (index.isPresent()) {
+                index.get().get();
+            } else {
+                LOG.error("There is no secondary index named '{}'.", name);
             }
         }
+    }
 
-        LOG.info("Done indexing graph.");
+    /** Log which of the secondary indexes are built and their estimated size. */
+    public void logIndexReport() {
+        for (LazyIndex<?> index : secondaryIndexes) {
+            if (index.isBuilt()) {
+                LOG.info("Secondary index {}: built in {} ms, about {} kB.", index.getName(),
+                        index.getBuildMillis(), index.estimateFootprint() / 1024);
+            } else {
+                LOG.info("Secondary index {}: not built, it will be built on first use.", index.getName());
+            }
+        }
     }
 
     /* TODO: an almost similar function exists in ProfileRouter, combine these.
@@ -354,23 +520,46 @@ public class GraphIndex {
         return results.subList(0, min(results.size(), maxResults));
     }
 
-    public LuceneIndex getLuceneIndex() {
+    /** Get the array-packed transit index used by the RAPTOR search, building it on first use. */
+    public RaptorTransitIndex getRaptorTransitIndex() {
         synchronized (this) {
-            if (luceneIndex == null) {
-                File directory;
-                try {
-                    directory = Files.createTempDirectory(graph.routerId + "_lucene",
-                        (FileAttribute<?>[]) new FileAttribute[]{}).toFile();
-                } catch (IOException e) {
-                    return null;
-                }
-                // Synchronously lazy-initialize the Lucene index
-                luceneIndex = new LuceneIndex(this, directory, false);
+            if (raptorTransitIndex == null) {
+                raptorTransitIndex = new RaptorTransitIndex(this);
+            }
+            return raptorTransitIndex;
+        }
+    }
+
+    /** Get the lookup tables shared by all SIRI fuzzy trip matchers on this graph, building them on first use. */
+    public SiriFuzzyTripMatcherIndex getSiriFuzzyTripMatcherIndex() {
+        synchronized (this) {
+            if (siriFuzzyTripMatcherIndex == null) {
+                siriFuzzyTripMatcherIndex = new SiriFuzzyTripMatcherIndex(this);
             }
-            return luceneIndex;
+            return siriFuzzyTripMatcherIndex;
         }
     }
 
+    public LuceneIndex getLuceneIndex() {
+        return luceneIndex.get();
+    }
+
+    /**
+     * This is a NeTEx concept. This is subject to be refactored in OTP2, but is kept
+     * as close to the NeTEx model here.
+     */
+    public Map<AgencyAndId, DatedServiceJourney> getDatedServiceJourneyForId() {
+        return datedServiceJourneyForId.get();
+    }
+
+    public Multimap<String, TripPattern> getPatternsForFeedId() {
+        return patternsForFeedId.get();
+    }
+
+    public Map<AgencyAndId, Geometry> getAreasById() {
+        return areasById.get();
+    }
+
     public static class StopAndDistance {
         public Stop stop;
         public int distance;
@@ -0,0 +1,75 @@
+package org.opentripplanner.routing.graph;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * A secondary index of the graph, built the first time it is used rather than along with the GraphIndex. The index is
+ * built at most once, even when several threads ask for it at the same time, after which it is returned without any
+ * locking.
+ *
+ * If the builder returns null, nothing is memoized and the next call tries again.
+ */
+public class LazyIndex<T> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LazyIndex.class);
+
+    private final String name;
+
+    private final Supplier<T> builder;
+
+    private final ToLongFunction<T> footprint;
+
+    private volatile T value;
+
+    private volatile long buildMillis;
+
+    /**
+     * @param footprint an estimate of the bytes held by a built index, not counting the graph objects it refers to.
+     */
+    public LazyIndex(String name, Supplier<T> builder, ToLongFunction<T> footprint) {
+        this.name = name;
+        this.builder = builder;
+        this.footprint = footprint;
+    }
+
+    /** @return the index, built by the calling thread if no other thread built it before. */
+    public T get() {
+        T result = value;
+        if (result == null) {
+            synchronized (this) {
+                result = value;
+                if (result == null) {
+                    long startTime = System.currentTimeMillis();
+                    result = builder.get();
+                    buildMillis = System.currentTimeMillis() - startTime;
+                    value = result;
+                    LOG.info("Built {} index in {} ms.", name, buildMillis);
+                }
+            }
+        }
+        return result;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isBuilt() {
+        return value != null;
+    }
+
+    /** @return the time it took to build the index, 0 if it is not built yet. */
+    public long getBuildMillis() {
+        return buildMillis;
+    }
+
+    /** @return the estimated size of the index in bytes, 0 if it is not built yet. */
+    public long estimateFootprint() {
+        T result = value;
+        return result == null ? 0 : footprint.applyAsLong(result);
+    }
+}
@@ -57,6 +57,11 @@ public abstract class Vertex implements Serializable, Cloneable {
 
     private transient Edge[] outgoing = new Edge[0];
 
+    /**
+     * Dense index of this vertex, assigned by {@link Graph#rebuildVertexAndEdgeIndices()} for vertices in the graph.
+     * -1 if no index has been assigned, which is always the case for the temporary vertices of a request.
+     */
+    private transient int index = -1;
 
     /* CONSTRUCTORS */
 
@@ -168,6 +173,16 @@ public abstract class Vertex implements Serializable, Cloneable {
         }
     }
 
+    /**
+     * Replace both edge lists, when all the edges of a deserialized graph are added at once.
+     */
+    public void setEdgeLists(Edge[] incoming, Edge[] outgoing) {
+        synchronized (this) {
+            this.incoming = incoming;
+            this.outgoing = outgoing;
+        }
+    }
+
     /** @return whether the edge was found and removed. */
     public boolean removeIncoming(Edge edge) {
         synchronized (this) {
@@ -236,6 +251,16 @@ public abstract class Vertex implements Serializable, Cloneable {
     }
 
 
+    /** @return the dense index of this vertex, or -1 if it has none. */
+    @XmlTransient
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
     /* FIELD ACCESSOR METHODS : READ ONLY */
 
     /**
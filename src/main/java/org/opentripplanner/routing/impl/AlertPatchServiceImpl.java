@@ -13,6 +13,8 @@
 
 package org.opentripplanner.routing.impl;
 
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import org.opentripplanner.model.AgencyAndId;
 import org.opentripplanner.model.Stop;
 import org.opentripplanner.routing.alertpatch.AlertPatch;
@@ -21,23 +23,21 @@ import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.services.AlertPatchService;
 
 import java.util.*;
-import java.util.Map.Entry;
-import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * The alert patches are looked up by request threads while the alert updaters modify them. The updaters are serialized
+ * on this object and build a new immutable {@link AlertIndex} at the end of each batch of changes, which is then
+ * published through a volatile field. Readers never take a lock, they see either the index from before or from after
+ * a batch, and each lookup is a single map probe.
+ */
 public class AlertPatchServiceImpl implements AlertPatchService {
 
     private Graph graph;
 
-    private Map<String, AlertPatch> alertPatches = new ConcurrentHashMap<>();
-    private Map<AgencyAndId, Set<AlertPatch>> patchesByRoute = new ConcurrentHashMap<>();
-    private Map<AgencyAndId, Set<AlertPatch>> patchesByStop = new ConcurrentHashMap<>();
-    private Map<AgencyAndId, Set<AlertPatch>> patchesByDatedServiceJourney = new ConcurrentHashMap<>();
-    private Map<StopAndRouteOrTripKey, Set<AlertPatch>> patchesByStopAndRoute = new ConcurrentHashMap<>();
-    private Map<StopAndRouteOrTripKey, Set<AlertPatch>> patchesByStopAndTrip = new ConcurrentHashMap<>();
-    private Map<StopAndRouteOrTripKey, Set<AlertPatch>> patchesByStopAndDatedServiceJourney = new ConcurrentHashMap<>();
-    private Map<AgencyAndId, Set<AlertPatch>> patchesByTrip = new ConcurrentHashMap<>();
-    private Map<String, Set<AlertPatch>> patchesByAgency = new ConcurrentHashMap<>();
-    private Map<String, Set<AlertPatch>> patchesByTripPattern = new ConcurrentHashMap<>();
+    /** The patches currently applied, only accessed by the writers while holding the lock on this object. */
+    private final Map<String, AlertPatch> alertPatches = new HashMap<>();
+
+    private volatile AlertIndex index = AlertIndex.EMPTY;
 
     public AlertPatchServiceImpl(Graph graph) {
         this.graph = graph;
@@ -45,286 +45,246 @@ public class AlertPatchServiceImpl implements AlertPatchService {
 
     @Override
     public Collection<AlertPatch> getAllAlertPatches() {
-        return alertPatches.values();
+        return index.patchesById.values();
     }
 
     @Override
     public AlertPatch getPatchById(String id) {
-        return alertPatches.get(id);
+        return index.patchesById.get(id);
     }
 
+    /**
+     * If there are no patches for the stop itself, the patches of its parent station and multimodal station are
+     * returned, those are resolved when building the index.
+     */
     @Override
     public Collection<AlertPatch> getStopPatches(AgencyAndId stop) {
-        Set<AlertPatch> result = patchesByStop.get(stop);
-        if (result == null || result.isEmpty()) {
-            result = new HashSet<>();
-            // Search for alerts on parent-stop
-            if (graph != null && graph.index != null) {
-                Stop quay = graph.index.stopForId.get(stop);
-                if (quay != null) {
-                    if ( quay.getParentStation() != null) {
-                        // Add alerts for parent-station
-                        result.addAll(patchesByStop.getOrDefault(quay.getParentStationAgencyAndId(), Collections.emptySet()));
-                    }
-                    if (quay.getMultiModalStation() != null) {
-                        // Add alerts for multimodal-station
-                        result.addAll(patchesByStop.getOrDefault(new AgencyAndId(stop.getAgencyId(), quay.getMultiModalStation()), Collections.emptySet()));
-                    }
-                }
-            }
-        }
-        return result;
+        return lookup(index.patchesByStopOrParent, stop);
     }
 
     @Override
     public Collection<AlertPatch> getRoutePatches(AgencyAndId route) {
-        Set<AlertPatch> result = new HashSet<>();
-        if (route != null && patchesByRoute.containsKey(route)) {
-            result.addAll(patchesByRoute.get(route));
-        }
-
-        return result;
-
+        return lookup(index.patchesByRoute, route);
     }
 
     @Override
     public Collection<AlertPatch> getTripPatches(AgencyAndId trip) {
-        Set<AlertPatch> result = new HashSet<>();
-        if (trip != null && patchesByTrip.containsKey(trip)) {
-            result.addAll(patchesByTrip.get(trip));
-        }
-        return result;
+        return lookup(index.patchesByTrip, trip);
     }
 
-
     @Override
     public Collection<AlertPatch> getAgencyPatches(String agency) {
-        Set<AlertPatch> result = new HashSet<>();
-        if (agency != null && patchesByAgency.containsKey(agency)) {
-            result.addAll(patchesByAgency.get(agency));
-        }
-        return result;
+        return lookup(index.patchesByAgency, agency);
     }
 
     @Override
     public Collection<AlertPatch> getStopAndRoutePatches(AgencyAndId stop, AgencyAndId route) {
-        Set<AlertPatch> result = new HashSet<>();
-        StopAndRouteOrTripKey key = new StopAndRouteOrTripKey(stop, route);
-        if (patchesByStopAndRoute.containsKey(key)) {
-            result.addAll(patchesByStopAndRoute.get(key));
-        }
-        return result;
+        return lookup(index.patchesByStopAndRoute, new StopAndRouteOrTripKey(stop, route));
     }
 
     @Override
     public Collection<AlertPatch> getStopAndTripPatches(AgencyAndId stop, AgencyAndId trip) {
-        Set<AlertPatch> result = new HashSet<>();
-        StopAndRouteOrTripKey key = new StopAndRouteOrTripKey(stop, trip);
-        if (patchesByStopAndTrip.containsKey(key)) {
-            result.addAll(patchesByStopAndTrip.get(key));
-        }
-        return result;
+        return lookup(index.patchesByStopAndTrip, new StopAndRouteOrTripKey(stop, trip));
     }
 
     @Override
     public Collection<AlertPatch> getTripPatternPatches(TripPattern pattern) {
-        Set<AlertPatch> result = new HashSet<>();
-        if (pattern != null && pattern.code != null && patchesByTripPattern.containsKey(pattern.code)) {
-            result.addAll(patchesByTripPattern.get(pattern.code));
-        }
-        return result;
+        return pattern == null ? ImmutableSet.of() : lookup(index.patchesByTripPattern, pattern.code);
     }
 
     @Override
     public Collection<AlertPatch> getDatedServiceJourneyPatches(
         AgencyAndId stopId, AgencyAndId dsjId
     ) {
-        Set<AlertPatch> result = new HashSet<>();
+        if (dsjId == null) {
+            return ImmutableSet.of();
+        }
         if (stopId != null) {
-            StopAndRouteOrTripKey key = new StopAndRouteOrTripKey(stopId, dsjId);
-            if (dsjId != null && patchesByStopAndDatedServiceJourney.containsKey(key)) {
-                result.addAll(patchesByStopAndDatedServiceJourney.get(key));
-            }
-        } else {
-            if (dsjId != null && patchesByDatedServiceJourney.containsKey(dsjId)) {
-                result.addAll(patchesByDatedServiceJourney.get(dsjId));
-            }
+            return lookup(index.patchesByStopAndDatedServiceJourney, new StopAndRouteOrTripKey(stopId, dsjId));
         }
-        return result;
+        return lookup(index.patchesByDatedServiceJourney, dsjId);
+    }
+
+    private static <K> Set<AlertPatch> lookup(Map<K, ImmutableSet<AlertPatch>> patches, K key) {
+        if (key == null) {
+            return ImmutableSet.of();
+        }
+        Set<AlertPatch> result = patches.get(key);
+        return result == null ? ImmutableSet.of() : result;
     }
 
     @Override
     public synchronized void applyAll(Set<AlertPatch> alertPatches) {
-        for (AlertPatch alertPatch : alertPatches) {
-            apply(alertPatch);
-        }
+        update(Collections.emptySet(), alertPatches);
     }
 
     @Override
     public synchronized void apply(AlertPatch alertPatch) {
-        if (alertPatches.containsKey(alertPatch.getId())) {
-            expire(alertPatches.get(alertPatch.getId()));
-        }
-
-        alertPatch.apply(graph);
-        alertPatches.put(alertPatch.getId(), alertPatch);
-
-        AgencyAndId stop = alertPatch.getStop();
-        AgencyAndId route = alertPatch.getRoute();
-        AgencyAndId trip = alertPatch.getTrip();
-        AgencyAndId dsj = alertPatch.getDatedServiceJourneyId();
-
-        if (stop != null && trip != null) {
-            StopAndRouteOrTripKey key = new StopAndRouteOrTripKey(stop, trip);
-            Set<AlertPatch> set = patchesByStopAndTrip.getOrDefault(key, new HashSet());
-            set.add(alertPatch);
-            patchesByStopAndTrip.put(key, set);
-        } else if (stop != null && route != null) {
-            StopAndRouteOrTripKey key = new StopAndRouteOrTripKey(stop, route);
-            Set<AlertPatch> set = patchesByStopAndRoute.getOrDefault(key, new HashSet());
-            set.add(alertPatch);
-            patchesByStopAndRoute.put(key, set);
-        } else if (dsj != null) {
-            if (stop != null) {
-                // Stop and DSJ
-                StopAndRouteOrTripKey key = new StopAndRouteOrTripKey(stop, dsj);
-                Set<AlertPatch> set = patchesByStopAndRoute.getOrDefault(key, new HashSet());
-                set.add(alertPatch);
-                patchesByStopAndDatedServiceJourney.put(key, set);
-            } else {
-                // DSJ only
-                Set<AlertPatch> set = patchesByDatedServiceJourney.getOrDefault(dsj, new HashSet());
-                set.add(alertPatch);
-                patchesByDatedServiceJourney.put(dsj, set);
-            }
-        } else {
-            if (stop != null) {
-                Set<AlertPatch> set = patchesByStop.getOrDefault(stop, new HashSet());
-                set.add(alertPatch);
-                patchesByStop.put(stop, set);
-            }
-
-            if (route != null) {
-                Set<AlertPatch> set = patchesByRoute.getOrDefault(route, new HashSet());
-                set.add(alertPatch);
-                patchesByRoute.put(route, set);
-            }
+        update(Collections.emptySet(), Collections.singleton(alertPatch));
+    }
 
-            if (trip != null) {
-                Set<AlertPatch> set = patchesByTrip.getOrDefault(trip, new HashSet());
-                set.add(alertPatch);
-                patchesByTrip.put(trip, set);
+    @Override
+    public synchronized void update(Set<String> idsToExpire, Collection<AlertPatch> alertPatches) {
+        for (String patchId : idsToExpire) {
+            AlertPatch alertPatch = this.alertPatches.remove(patchId);
+            if (alertPatch != null) {
+                alertPatch.remove(graph);
             }
         }
-
-        String agency = alertPatch.getAgency();
-        if (agency != null && !agency.isEmpty()) {
-            Set<AlertPatch> set = (Set) patchesByAgency.getOrDefault(agency, new HashSet());
-            set.add(alertPatch);
-            patchesByAgency.put(agency, set);
-        }
-
-        List<TripPattern> tripPatterns = alertPatch.getTripPatterns();
-        if (tripPatterns != null) {
-            for (TripPattern pattern : tripPatterns) {
-                Set<AlertPatch> set = patchesByTripPattern.getOrDefault(pattern.code, new HashSet());
-                set.add(alertPatch);
-                patchesByTripPattern.put(pattern.code, set);
+        for (AlertPatch alertPatch : alertPatches) {
+            AlertPatch previous = this.alertPatches.put(alertPatch.getId(), alertPatch);
+            if (previous != null) {
+                previous.remove(graph);
             }
+            alertPatch.apply(graph);
         }
-
+        publish();
     }
 
-
     @Override
-    public void expire(Set<String> purge) {
-        for (String patchId : purge) {
-            if (alertPatches.containsKey(patchId)) {
-                expire(alertPatches.get(patchId));
-            }
-        }
-
-        alertPatches.keySet().removeAll(purge);
+    public synchronized void expire(Set<String> purge) {
+        update(purge, Collections.emptySet());
     }
 
     @Override
-    public void expireAll() {
-        for (AlertPatch alertPatch : alertPatches.values()) {
-            expire(alertPatch);
-        }
-        alertPatches.clear();
+    public synchronized void expireAll() {
+        expireAllExcept(Collections.emptySet());
     }
 
     @Override
-    public void expireAllExcept(Set<String> retain) {
-        ArrayList<String> toRemove = new ArrayList<String>();
-
-        for (Entry<String, AlertPatch> entry : alertPatches.entrySet()) {
-            final String key = entry.getKey();
-            if (!retain.contains(key)) {
-                toRemove.add(key);
-                expire(entry.getValue());
-            }
-        }
-        alertPatches.keySet().removeAll(toRemove);
+    public synchronized void expireAllExcept(Set<String> retain) {
+        Set<String> toRemove = new HashSet<>(alertPatches.keySet());
+        toRemove.removeAll(retain);
+        update(toRemove, Collections.emptySet());
     }
 
-    private void expire(AlertPatch alertPatch) {
-        AgencyAndId stop = alertPatch.getStop();
-        AgencyAndId route = alertPatch.getRoute();
-        AgencyAndId trip = alertPatch.getTrip();
-        AgencyAndId dsj = alertPatch.getDatedServiceJourneyId();
-
-        if (stop != null) {
-            removeAlertPatch(patchesByStop.get(stop), alertPatch);
-        }
-
-        if (route != null) {
-            removeAlertPatch(patchesByRoute.get(route), alertPatch);
-        }
+    /** Build the index of the patches currently applied and make it visible to the readers. */
+    private void publish() {
+        index = new AlertIndex(alertPatches.values(), graph);
+    }
 
-        if (trip != null) {
-            removeAlertPatch(patchesByTrip.get(trip), alertPatch);
-        }
+    /**
+     * An immutable index of the alert patches, by each of the entities they may refer to.
+     */
+    private static class AlertIndex {
+
+        static final AlertIndex EMPTY = new AlertIndex(Collections.emptySet(), null);
+
+        final Map<String, AlertPatch> patchesById;
+        final Map<AgencyAndId, ImmutableSet<AlertPatch>> patchesByRoute;
+        final Map<AgencyAndId, ImmutableSet<AlertPatch>> patchesByStopOrParent;
+        final Map<AgencyAndId, ImmutableSet<AlertPatch>> patchesByDatedServiceJourney;
+        final Map<StopAndRouteOrTripKey, ImmutableSet<AlertPatch>> patchesByStopAndRoute;
+        final Map<StopAndRouteOrTripKey, ImmutableSet<AlertPatch>> patchesByStopAndTrip;
+        final Map<StopAndRouteOrTripKey, ImmutableSet<AlertPatch>> patchesByStopAndDatedServiceJourney;
+        final Map<AgencyAndId, ImmutableSet<AlertPatch>> patchesByTrip;
+        final Map<String, ImmutableSet<AlertPatch>> patchesByAgency;
+        final Map<String, ImmutableSet<AlertPatch>> patchesByTripPattern;
+
+        AlertIndex(Collection<AlertPatch> alertPatches, Graph graph) {
+            Map<String, AlertPatch> byId = new HashMap<>();
+            Map<AgencyAndId, Set<AlertPatch>> byRoute = new HashMap<>();
+            Map<AgencyAndId, Set<AlertPatch>> byStop = new HashMap<>();
+            Map<AgencyAndId, Set<AlertPatch>> byDatedServiceJourney = new HashMap<>();
+            Map<StopAndRouteOrTripKey, Set<AlertPatch>> byStopAndRoute = new HashMap<>();
+            Map<StopAndRouteOrTripKey, Set<AlertPatch>> byStopAndTrip = new HashMap<>();
+            Map<StopAndRouteOrTripKey, Set<AlertPatch>> byStopAndDatedServiceJourney = new HashMap<>();
+            Map<AgencyAndId, Set<AlertPatch>> byTrip = new HashMap<>();
+            Map<String, Set<AlertPatch>> byAgency = new HashMap<>();
+            Map<String, Set<AlertPatch>> byTripPattern = new HashMap<>();
+
+            for (AlertPatch alertPatch : alertPatches) {
+                byId.put(alertPatch.getId(), alertPatch);
+
+                AgencyAndId stop = alertPatch.getStop();
+                AgencyAndId route = alertPatch.getRoute();
+                AgencyAndId trip = alertPatch.getTrip();
+                AgencyAndId dsj = alertPatch.getDatedServiceJourneyId();
+
+                if (stop != null && trip != null) {
+                    add(byStopAndTrip, new StopAndRouteOrTripKey(stop, trip), alertPatch);
+                } else if (stop != null && route != null) {
+                    add(byStopAndRoute, new StopAndRouteOrTripKey(stop, route), alertPatch);
+                } else if (dsj != null) {
+                    if (stop != null) {
+                        add(byStopAndDatedServiceJourney, new StopAndRouteOrTripKey(stop, dsj), alertPatch);
+                    } else {
+                        add(byDatedServiceJourney, dsj, alertPatch);
+                    }
+                } else {
+                    if (stop != null) {
+                        add(byStop, stop, alertPatch);
+                    }
+                    if (route != null) {
+                        add(byRoute, route, alertPatch);
+                    }
+                    if (trip != null) {
+                        add(byTrip, trip, alertPatch);
+                    }
+                }
 
-        if (dsj != null) {
-            removeAlertPatch(patchesByDatedServiceJourney.get(dsj), alertPatch);
-        }
+                String agency = alertPatch.getAgency();
+                if (agency != null && !agency.isEmpty()) {
+                    add(byAgency, agency, alertPatch);
+                }
 
-        if (stop != null && route != null) {
-            removeAlertPatch(patchesByStopAndRoute.get(new StopAndRouteOrTripKey(stop, route)), alertPatch);
-        }
+                List<TripPattern> tripPatterns = alertPatch.getTripPatterns();
+                if (tripPatterns != null) {
+                    for (TripPattern pattern : tripPatterns) {
+                        if (pattern.code != null) {
+                            add(byTripPattern, pattern.code, alertPatch);
+                        }
+                    }
+                }
+            }
 
-        if (stop != null && trip != null) {
-            removeAlertPatch(patchesByStopAndTrip.get(new StopAndRouteOrTripKey(stop, trip)), alertPatch);
+            addParentStationPatches(byStop, graph);
+
+            patchesById = ImmutableMap.copyOf(byId);
+            patchesByRoute = freeze(byRoute);
+            patchesByStopOrParent = freeze(byStop);
+            patchesByDatedServiceJourney = freeze(byDatedServiceJourney);
+            patchesByStopAndRoute = freeze(byStopAndRoute);
+            patchesByStopAndTrip = freeze(byStopAndTrip);
+            patchesByStopAndDatedServiceJourney = freeze(byStopAndDatedServiceJourney);
+            patchesByTrip = freeze(byTrip);
+            patchesByAgency = freeze(byAgency);
+            patchesByTripPattern = freeze(byTripPattern);
         }
 
-        if (stop != null && dsj != null) {
-            removeAlertPatch(patchesByStopAndDatedServiceJourney.get(new StopAndRouteOrTripKey(stop, dsj)), alertPatch);
+        /**
+         * Give the stops without patches of their own the patches of their parent station and multimodal station, so
+         * that a stop lookup needs no further probes.
+         */
+        private static void addParentStationPatches(Map<AgencyAndId, Set<AlertPatch>> byStop, Graph graph) {
+            if (graph == null || graph.index == null || byStop.isEmpty()) {
+                return;
+            }
+            Map<AgencyAndId, Set<AlertPatch>> inherited = new HashMap<>();
+            for (Map.Entry<AgencyAndId, Set<AlertPatch>> entry : byStop.entrySet()) {
+                for (Stop child : graph.index.stopsForParentStation.get(entry.getKey())) {
+                    if (!byStop.containsKey(child.getId())) {
+                        inherited.computeIfAbsent(child.getId(), id -> new HashSet<>()).addAll(entry.getValue());
+                    }
+                }
+            }
+            byStop.putAll(inherited);
         }
 
-        String agency = alertPatch.getAgency();
-        if (agency != null) {
-            removeAlertPatch(patchesByAgency.get(agency), alertPatch);
+        private static <K> void add(Map<K, Set<AlertPatch>> patches, K key, AlertPatch alertPatch) {
+            patches.computeIfAbsent(key, k -> new HashSet<>()).add(alertPatch);
         }
 
-        List<TripPattern> tripPatterns = alertPatch.getTripPatterns();
-        if (tripPatterns != null) {
-            for (TripPattern pattern : tripPatterns) {
-                removeAlertPatch(patchesByTripPattern.get(pattern), alertPatch);
+        private static <K> Map<K, ImmutableSet<AlertPatch>> freeze(Map<K, Set<AlertPatch>> patches) {
+            ImmutableMap.Builder<K, ImmutableSet<AlertPatch>> builder = ImmutableMap.builder();
+            for (Map.Entry<K, Set<AlertPatch>> entry : patches.entrySet()) {
+                builder.put(entry.getKey(), ImmutableSet.copyOf(entry.getValue()));
             }
-        }
-        alertPatch.remove(graph);
-    }
-
-    private void removeAlertPatch(Set<AlertPatch> alertPatches, AlertPatch alertPatch) {
-
-        if (alertPatches != null) {
-            alertPatches.remove(alertPatch);
+            return builder.build();
         }
     }
 
-    private class StopAndRouteOrTripKey {
+    private static class StopAndRouteOrTripKey {
         private final AgencyAndId stop;
         private final AgencyAndId routeOrTrip;
         private transient int hash = 0;
@@ -345,17 +305,13 @@ public class AlertPatchServiceImpl implements AlertPatchService {
 
             StopAndRouteOrTripKey that = (StopAndRouteOrTripKey) o;
 
-            if (!stop.equals(that.stop)) {
-                return false;
-            }
-            return routeOrTrip.equals(that.routeOrTrip);
+            return Objects.equals(stop, that.stop) && Objects.equals(routeOrTrip, that.routeOrTrip);
         }
 
         @Override
         public int hashCode() {
             if (hash == 0) {
-                int result = stop.hashCode();
-                hash = 31 * result + routeOrTrip.hashCode();
+                hash = 31 * Objects.hashCode(stop) + Objects.hashCode(routeOrTrip);
             }
             return hash;
         }
@@ -18,13 +18,14 @@ import org.opentripplanner.model.AgencyAndId;
 import org.opentripplanner.api.resource.DebugOutput;
 import org.opentripplanner.common.model.GenericLocation;
 import org.opentripplanner.routing.algorithm.AStar;
+import org.opentripplanner.routing.algorithm.raptor.RaptorSearch;
 import org.opentripplanner.routing.algorithm.strategies.EuclideanRemainingWeightHeuristic;
 import org.opentripplanner.routing.algorithm.strategies.InterleavedBidirectionalHeuristic;
 import org.opentripplanner.routing.algorithm.strategies.RemainingWeightHeuristic;
 import org.opentripplanner.routing.algorithm.strategies.TrivialRemainingWeightHeuristic;
 import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.SearchAlgorithm;
 import org.opentripplanner.routing.core.State;
-import org.opentripplanner.routing.core.StateData;
 import org.opentripplanner.routing.core.StateMerger;
 import org.opentripplanner.routing.edgetype.LegSwitchingEdge;
 import org.opentripplanner.routing.edgetype.TransitBoardAlight;
@@ -35,6 +36,7 @@ import org.opentripplanner.routing.flex.DeviatedRouteGraphModifier;
 import org.opentripplanner.routing.flex.FlagStopGraphModifier;
 import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.request.BannedStopSet;
 import org.opentripplanner.routing.spt.DominanceFunction;
 import org.opentripplanner.routing.spt.GraphPath;
 import org.opentripplanner.standalone.Router;
@@ -42,6 +44,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 /**
@@ -71,6 +80,9 @@ public class GraphPathFinder {
     private static final double DEFAULT_MAX_WALK = 2000;
     private static final double CLAMP_MAX_WALK = 15000;
 
+    /** Threads compacting the legs of itineraries while the search for the next itinerary goes on. */
+    private static final ThreadPoolExecutor COMPACTION_EXECUTOR = createCompactionExecutor();
+
     Router router;
 
     public GraphPathFinder(Router router) {
@@ -82,6 +94,9 @@ public class GraphPathFinder {
      * For search N, all trips used in itineraries retained from trips 0..(N-1) are "banned" to create variety.
      * The goal direction heuristic is reused between tries, which means the later tries have more information to
      * work with (in the case of the more sophisticated bidirectional heuristic, which improves over time).
+     *
+     * If the request selects {@link SearchAlgorithm#RAPTOR} and is supported by it, all itineraries are instead found in
+     * a single {@link RaptorSearch}.
      */
     public List<GraphPath> getPaths(RoutingRequest options) {
 
@@ -120,8 +135,10 @@ public class GraphPathFinder {
             // Only use the BiDi heuristic for transit. It is not very useful for on-street modes.
             // heuristic = new InterleavedBidirectionalHeuristic(options.rctx.graph);
             // Use a simplistic heuristic until BiDi heuristic is improved, see #2153
-            heuristic = new InterleavedBidirectionalHeuristic(options.heuristicStepsPerMainStep);
-            reversedSearchHeuristic = new InterleavedBidirectionalHeuristic(options.heuristicStepsPerMainStep);
+            heuristic = new InterleavedBidirectionalHeuristic(options.heuristicStepsPerMainStep,
+                    options.parallelHeuristic);
+            reversedSearchHeuristic = new InterleavedBidirectionalHeuristic(options.heuristicStepsPerMainStep,
+                    options.parallelHeuristic);
         } else {
             heuristic = new EuclideanRemainingWeightHeuristic();
             reversedSearchHeuristic = new EuclideanRemainingWeightHeuristic();
@@ -150,13 +167,22 @@ public class GraphPathFinder {
                 svc2.createBackwardHops(options);
             }
         }
+        if (options.searchAlgorithm == SearchAlgorithm.RAPTOR && RaptorSearch.isSupported(options)) {
+            List<GraphPath> raptorPaths = getPathsWithRaptor(options);
+            // If no transit itinerary was found, fall back on AStar, which will also find on-street itineraries.
+            if (!raptorPaths.isEmpty() || options.rctx.aborted) {
+                return raptorPaths;
+            }
+        }
         long searchBeginTime = System.currentTimeMillis();
         LOG.debug("BEGIN SEARCH");
         List<GraphPath> paths = Lists.newArrayList();
         double totalTimeout = searchBeginTime + router.totalTimeout * 1000;
-        while (paths.size() < options.numItineraries) {
+        // The compaction of the last itinerary found, when it runs in parallel with the search for the next one.
+        PendingCompaction pendingCompaction = null;
+        while (paths.size() + (pendingCompaction == null ? 0 : 1) < options.numItineraries) {
             // TODO pull all this timeout logic into a function near org.opentripplanner.util.DateUtils.absoluteTimeout()
-            int timeoutIndex = paths.size();
+            int timeoutIndex = paths.size() + (pendingCompaction == null ? 0 : 1);
             if (timeoutIndex >= router.timeouts.length) {
                 timeoutIndex = router.timeouts.length - 1;
             }
@@ -177,58 +203,287 @@ public class GraphPathFinder {
                 break; // Search timed out or was gracefully aborted for some other reason.
             }
             List<GraphPath> newPaths = aStar.getPathsToTarget();
+
+            if (pendingCompaction != null) {
+                // The search above banned the trips of the uncompacted itinerary. Its result can only be kept if the
+                // compacted itinerary leads to the same restrictions, otherwise the search is repeated.
+                boolean sameRestrictions = finishCompaction(pendingCompaction, options, paths);
+                pendingCompaction = null;
+                if (!sameRestrictions || paths.size() >= options.numItineraries) {
+                    LOG.debug("Discarding the search run in parallel with the compaction.");
+                    continue;
+                }
+            }
             if (newPaths.isEmpty()) {
                 break;
             }
 
             // Do a full reversed search to compact the legs
-            if(options.compactLegsByReversedSearch) {
-                try {
-                    // Add two extra seconds to make sure the reverse search doesn't time out.
-                    newPaths = compactLegsByReversedSearch(aStar, originalReq, options, newPaths, timeout + 2, reversedSearchHeuristic);
-                } catch (Exception e) {
-                    LOG.warn("CompactLegsByReversedSearch failed on request: " + originalReq.toString(), e);
+            if (options.compactLegsByReversedSearch) {
+                // Compacting several paths at once bans trips in the request, so only single paths are done in parallel.
+                if (options.parallelItinerarySearch && newPaths.size() == 1) {
+                    pendingCompaction = startCompaction(originalReq, options, newPaths, timeout + 2,
+                            reversedSearchHeuristic);
                 }
-            }
-            // Find all trips used in this path and ban them for the remaining searches
-            for (GraphPath path : newPaths) {
-                // path.dump();
-                List<AgencyAndId> tripIds = path.getTrips();
-                banTrips(options, tripIds);
-
-                if (tripIds.isEmpty()) {
-                    // This path does not use transit (is entirely on-street). Do not repeatedly find the same one.
-                    options.onlyTransitTrips = true;
-                }
-                // for direct-hop trip banning, limit the allowable call-n-ride time to what it is currently
-                if (tripIds.size() < 2) {
-                    int duration = path.getCallAndRideDuration();
-                    if (duration > 0) {
-                        int constantLimit = Math.min(0, duration - options.reduceCallAndRideSeconds);
-                        int ratioLimit = (int) Math.round(options.reduceCallAndRideRatio * duration);
-                        options.maxCallAndRideSeconds = Math.min(constantLimit, ratioLimit);
+                if (pendingCompaction == null) {
+                    try {
+                        // Add two extra seconds to make sure the reverse search doesn't time out.
+                        newPaths = compactLegsByReversedSearch(aStar, originalReq, options, newPaths, timeout + 2, reversedSearchHeuristic);
+                    } catch (Exception e) {
+                        LOG.warn("CompactLegsByReversedSearch failed on request: " + originalReq.toString(), e);
                     }
                 }
             }
+            // Find all trips used in this path and ban them for the remaining searches
+            banTripsOfPaths(options, newPaths);
+            if (pendingCompaction != null) {
+                // The paths themselves are added once compacted.
+                continue;
+            }
 
             paths.addAll(newPaths.stream()
-                    .filter(path -> {
-                        double duration = options.useRequestedDateTimeInMaxHours
-                            ? options.arriveBy
-                                ? options.dateTime - path.getStartTime()
-                                : path.getEndTime() - options.dateTime
-                            : path.getDuration();
-                        return duration < options.maxHours * 60 * 60;
-                    })
+                    .filter(path -> isWithinMaxHours(options, path))
                     .collect(Collectors.toList()));
 
             LOG.debug("we have {} paths", paths.size());
         }
+        if (pendingCompaction != null) {
+            finishCompaction(pendingCompaction, options, paths);
+        }
+        heuristic.abort();
+        reversedSearchHeuristic.abort();
         LOG.debug("END SEARCH ({} msec)", System.currentTimeMillis() - searchBeginTime);
         Collections.sort(paths, new PathComparator(options.arriveBy));
         return paths;
     }
 
+    /**
+     * Find all itineraries in a single round-based search. The Pareto set over arrival time and number of transfers
+     * replaces the repeated searches with trip banning, so the trips are not banned and legs are not compacted.
+     * RAPTOR only finds itineraries using transit, so the itinerary of a direct street search is merged in.
+     */
+    private List<GraphPath> getPathsWithRaptor(RoutingRequest options) {
+        long searchBeginTime = System.currentTimeMillis();
+        LOG.debug("BEGIN RAPTOR SEARCH");
+        double timeout = Double.min(router.timeouts[0], router.totalTimeout);
+        RaptorSearch raptorSearch = new RaptorSearch(router.graph.index.getRaptorTransitIndex(), options);
+        List<GraphPath> paths = raptorSearch.getPaths(timeout).stream()
+                .filter(path -> isWithinMaxHours(options, path))
+                .limit(options.numItineraries)
+                .collect(Collectors.toList());
+        if (!paths.isEmpty()) {
+            // Without transit itineraries the AStar search takes over, and finds the street itineraries itself
+            GraphPath directPath = getDirectStreetPath(options, timeout);
+            if (directPath != null && isWithinMaxHours(options, directPath)) {
+                mergeDirectStreetPath(options, paths, directPath);
+            }
+        }
+        LOG.debug("END RAPTOR SEARCH ({} msec)", System.currentTimeMillis() - searchBeginTime);
+        Collections.sort(paths, new PathComparator(options.arriveBy));
+        return paths;
+    }
+
+    /**
+     * Search for an itinerary using only the street modes of the request. The search shares the routing context of
+     * the request, whose heuristic is replaced by a euclidean one for its duration: the bidirectional heuristic is
+     * only useful for transit.
+     *
+     * @return the street path, or null if there is none.
+     */
+    private GraphPath getDirectStreetPath(RoutingRequest options, double timeout) {
+        RoutingRequest streetRequest = options.clone();
+        streetRequest.setModes(options.modes.getNonTransitSet());
+        RemainingWeightHeuristic heuristic = options.rctx.remainingWeightHeuristic;
+        options.rctx.remainingWeightHeuristic = new EuclideanRemainingWeightHeuristic();
+        try {
+            AStar aStar = new AStar();
+            aStar.getShortestPathTree(streetRequest, timeout);
+            List<GraphPath> streetPaths = aStar.getPathsToTarget();
+            return streetPaths.isEmpty() ? null : streetPaths.get(0);
+        } finally {
+            options.rctx.remainingWeightHeuristic = heuristic;
+        }
+    }
+
+    /**
+     * Add the direct street path to the transit paths if there is room for it, or if it costs less than one of them,
+     * which then makes room for it.
+     */
+    private static void mergeDirectStreetPath(RoutingRequest options, List<GraphPath> paths, GraphPath directPath) {
+        Comparator<GraphPath> byWeight = Comparator.comparingDouble(GraphPath::getWeight);
+        if (paths.size() < options.numItineraries) {
+            paths.add(directPath);
+            return;
+        }
+        GraphPath worstPath = Collections.max(paths, byWeight);
+        if (directPath.getWeight() < worstPath.getWeight()) {
+            paths.remove(worstPath);
+            paths.add(directPath);
+        }
+    }
+
+    private static boolean isWithinMaxHours(RoutingRequest options, GraphPath path) {
+        double duration = options.useRequestedDateTimeInMaxHours
+            ? options.arriveBy
+                ? options.dateTime - path.getStartTime()
+                : path.getEndTime() - options.dateTime
+            : path.getDuration();
+        return duration < options.maxHours * 60 * 60;
+    }
+
+    /** Ban the trips used by the given paths, and the call-and-ride or on-street paths like them, in the request. */
+    private void banTripsOfPaths(RoutingRequest options, List<GraphPath> newPaths) {
+        for (GraphPath path : newPaths) {
+            // path.dump();
+            List<AgencyAndId> tripIds = path.getTrips();
+            banTrips(options, tripIds);
+
+            if (tripIds.isEmpty()) {
+                // This path does not use transit (is entirely on-street). Do not repeatedly find the same one.
+                options.onlyTransitTrips = true;
+            }
+            // for direct-hop trip banning, limit the allowable call-n-ride time to what it is currently
+            if (tripIds.size() < 2) {
+                int duration = path.getCallAndRideDuration();
+                if (duration > 0) {
+                    int constantLimit = Math.min(0, duration - options.reduceCallAndRideSeconds);
+                    int ratioLimit = (int) Math.round(options.reduceCallAndRideRatio * duration);
+                    options.maxCallAndRideSeconds = Math.min(constantLimit, ratioLimit);
+                }
+            }
+        }
+    }
+
+    /**
+     * Start compacting the legs of the given paths on a separate thread, with its own AStar and a copy of the request
+     * so the next search can ban trips in the meantime. The reversed requests and their routing contexts are created
+     * on the calling thread, so the compaction thread only runs searches and never builds a RoutingContext while the
+     * next search of this request is running.
+     *
+     * @return the running compaction, or null if no thread is available.
+     */
+    private PendingCompaction startCompaction(RoutingRequest originalReq, RoutingRequest options,
+                                              List<GraphPath> newPaths, double timeout,
+                                              RemainingWeightHeuristic remainingWeightHeuristic) {
+        RoutingRequest compactionOptions = options.clone();
+        List<ReversedSearches> reversedSearches = prepareReversedSearches(originalReq, compactionOptions, newPaths,
+                remainingWeightHeuristic);
+        try {
+            Future<List<GraphPath>> future = COMPACTION_EXECUTOR.submit(() -> compactLegsByReversedSearch(new AStar(),
+                    originalReq, compactionOptions, newPaths, reversedSearches, timeout));
+            return new PendingCompaction(newPaths, new SearchRestrictions(options), future);
+        } catch (RejectedExecutionException e) {
+            LOG.debug("No thread available, compacting the legs sequentially.");
+            return null;
+        }
+    }
+
+    /**
+     * Wait for a compaction to finish, add the compacted paths and ban their trips. The restrictions of the request
+     * are first rolled back to what they were before the trips of the uncompacted paths were banned.
+     *
+     * @return whether the request ends up with the same restrictions as when the uncompacted paths were banned.
+     */
+    private boolean finishCompaction(PendingCompaction compaction, RoutingRequest options, List<GraphPath> paths) {
+        List<GraphPath> newPaths = compaction.uncompactedPaths;
+        try {
+            newPaths = compaction.future.get();
+        } catch (InterruptedException e) {
+            compaction.future.cancel(true);
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            LOG.warn("CompactLegsByReversedSearch failed on request: " + options.toString(), e.getCause());
+        }
+        SearchRestrictions speculativeRestrictions = new SearchRestrictions(options);
+        compaction.restrictionsBefore.applyTo(options);
+        banTripsOfPaths(options, newPaths);
+        paths.addAll(newPaths.stream()
+                .filter(path -> isWithinMaxHours(options, path))
+                .collect(Collectors.toList()));
+        LOG.debug("we have {} paths", paths.size());
+        return speculativeRestrictions.equals(new SearchRestrictions(options));
+    }
+
+    private static ThreadPoolExecutor createCompactionExecutor() {
+        AtomicInteger threadCount = new AtomicInteger();
+        // No queue: when every thread is busy the request compacts its legs itself instead of waiting for a thread.
+        return new ThreadPoolExecutor(0, Runtime.getRuntime().availableProcessors(), 60, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), r -> {
+                    Thread thread = new Thread(r, "compact-legs-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /** A compaction of the legs of an itinerary running in parallel with the search for the next itinerary. */
+    private static class PendingCompaction {
+
+        final List<GraphPath> uncompactedPaths;
+
+        /** The restrictions of the request before the trips of the uncompacted paths were banned. */
+        final SearchRestrictions restrictionsBefore;
+
+        final Future<List<GraphPath>> future;
+
+        PendingCompaction(List<GraphPath> uncompactedPaths, SearchRestrictions restrictionsBefore,
+                          Future<List<GraphPath>> future) {
+            this.uncompactedPaths = uncompactedPaths;
+            this.restrictionsBefore = restrictionsBefore;
+            this.future = future;
+        }
+    }
+
+    /** The two reversed searches compacting the legs of a path, with their routing contexts already set. */
+    private static class ReversedSearches {
+
+        /** The street search between the first or last transit stop and the origin or destination. */
+        final RoutingRequest transitRequest;
+
+        /** The reversed transit search to or from that stop. */
+        final RoutingRequest mainRequest;
+
+        ReversedSearches(RoutingRequest transitRequest, RoutingRequest mainRequest) {
+            this.transitRequest = transitRequest;
+            this.mainRequest = mainRequest;
+        }
+    }
+
+    /** The parts of a request changed by {@link #banTripsOfPaths} between successive searches. */
+    private static class SearchRestrictions {
+
+        final HashMap<AgencyAndId, BannedStopSet> bannedTrips;
+
+        final boolean onlyTransitTrips;
+
+        final int maxCallAndRideSeconds;
+
+        SearchRestrictions(RoutingRequest options) {
+            bannedTrips = new HashMap<>(options.bannedTrips);
+            onlyTransitTrips = options.onlyTransitTrips;
+            maxCallAndRideSeconds = options.maxCallAndRideSeconds;
+        }
+
+        void applyTo(RoutingRequest options) {
+            options.bannedTrips.clear();
+            options.bannedTrips.putAll(bannedTrips);
+            options.onlyTransitTrips = onlyTransitTrips;
+            options.maxCallAndRideSeconds = maxCallAndRideSeconds;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof SearchRestrictions)) return false;
+            SearchRestrictions other = (SearchRestrictions) o;
+            return bannedTrips.equals(other.bannedTrips) && onlyTransitTrips == other.onlyTransitTrips
+                    && maxCallAndRideSeconds == other.maxCallAndRideSeconds;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(bannedTrips, onlyTransitTrips, maxCallAndRideSeconds);
+        }
+    }
+
     private void banTrips(RoutingRequest options, List<AgencyAndId> tripIds) {
         List<AgencyAndId> orderedTripIds=new ArrayList<>(tripIds);
         if (options.arriveBy) {
@@ -258,11 +513,22 @@ public class GraphPathFinder {
     private List<GraphPath> compactLegsByReversedSearch(AStar aStar, RoutingRequest originalReq, RoutingRequest options,
                                                         List<GraphPath> newPaths, double timeout,
                                                         RemainingWeightHeuristic remainingWeightHeuristic){
-        List<GraphPath> reversedPaths = new ArrayList<>();
+        return compactLegsByReversedSearch(aStar, originalReq, options, newPaths,
+                prepareReversedSearches(originalReq, options, newPaths, remainingWeightHeuristic), timeout);
+    }
+
+    /**
+     * Create the requests of the reversed searches compacting the legs of each path, see
+     * {@link #compactLegsByReversedSearch}. Paths with less than two boardings are not compacted.
+     */
+    private List<ReversedSearches> prepareReversedSearches(RoutingRequest originalReq, RoutingRequest options,
+                                                           List<GraphPath> newPaths,
+                                                           RemainingWeightHeuristic remainingWeightHeuristic) {
+        List<ReversedSearches> reversedSearches = new ArrayList<>(newPaths.size());
         for(GraphPath newPath : newPaths){
             State targetAcceptedState = options.arriveBy ? newPath.states.getLast().reverse() : newPath.states.getLast();
             if(targetAcceptedState.stateData.getNumBooardings() < 2) {
-                reversedPaths.add(newPath);
+                reversedSearches.add(null);
                 continue;
             }
             final long arrDepTime = targetAcceptedState.getTimeSeconds();
@@ -289,6 +555,32 @@ public class GraphPathFinder {
             Vertex toVertex = options.arriveBy ? transitStop : options.rctx.toVertex;
             RoutingRequest reversedTransitRequest = createReversedTransitRequest(originalReq, options, fromVertex, toVertex,
                     arrDepTime, new EuclideanRemainingWeightHeuristic());
+
+            // the reversed search to/from transitStop
+            Vertex fromTransVertex = options.arriveBy ? transitStop : options.rctx.fromVertex;
+            Vertex toTransVertex = options.arriveBy ? options.rctx.toVertex: transitStop;
+            RoutingRequest reversedMainRequest = createReversedMainRequest(originalReq, options, fromTransVertex,
+                    toTransVertex, transitStopTime, remainingWeightHeuristic);
+            reversedSearches.add(new ReversedSearches(reversedTransitRequest, reversedMainRequest));
+        }
+        return reversedSearches;
+    }
+
+    /**
+     * Run the reversed searches prepared by {@link #prepareReversedSearches} for each path. This only reads the
+     * routing contexts of the prepared requests, so it can run on another thread than the one that created them.
+     */
+    private List<GraphPath> compactLegsByReversedSearch(AStar aStar, RoutingRequest originalReq, RoutingRequest options,
+                                                        List<GraphPath> newPaths,
+                                                        List<ReversedSearches> reversedSearches, double timeout) {
+        List<GraphPath> reversedPaths = new ArrayList<>();
+        for (int i = 0; i < newPaths.size(); i++) {
+            GraphPath newPath = newPaths.get(i);
+            if (reversedSearches.get(i) == null) {
+                reversedPaths.add(newPath);
+                continue;
+            }
+            RoutingRequest reversedTransitRequest = reversedSearches.get(i).transitRequest;
             // Set boardCost to max value instead of only allowing traverseMode walk. This is so we are able to use station
             // to stop links that are not allowed when using walk only.
             int originalWalkBoardCost = reversedTransitRequest.walkBoardCost;
@@ -308,10 +600,7 @@ public class GraphPathFinder {
             GraphPath walkPath = pathsToTarget.get(0);
 
             // do the reversed search to/from transitStop
-            Vertex fromTransVertex = options.arriveBy ? transitStop : options.rctx.fromVertex;
-            Vertex toTransVertex = options.arriveBy ? options.rctx.toVertex: transitStop;
-            RoutingRequest reversedMainRequest = createReversedMainRequest(originalReq, options, fromTransVertex,
-                    toTransVertex, transitStopTime, remainingWeightHeuristic);
+            RoutingRequest reversedMainRequest = reversedSearches.get(i).mainRequest;
             aStar.getShortestPathTree(reversedMainRequest, timeout);
 
             List<GraphPath> newRevPaths = aStar.getPathsToTarget();
@@ -339,9 +628,9 @@ public class GraphPathFinder {
                     // Joining two paths require compatible stateData between last state in first path and first state in last path.
                     // kissAndRide / rideAndKiss searches are typically not compatible at this stage as only one of the parts allow car at this point
                     // Copy data from first state in last path to last state in first path, but adjusting for the fact that the first path has boarded while the last path has not
-                    StateData startStateOfSecondPathData = concatenatedPaths.get(1).states.getFirst().stateData;
+                    State startStateOfSecondPath = concatenatedPaths.get(1).states.getFirst();
                     State endStateOfFirstPath = concatenatedPaths.get(0).states.getLast();
-                    endStateOfFirstPath.stateData = StateMerger.merge(endStateOfFirstPath.stateData, startStateOfSecondPathData);
+                    StateMerger.merge(endStateOfFirstPath, startStateOfSecondPath);
 
                     GraphPath joinedPath = joinPaths(concatenatedPaths, false);
 
@@ -50,4 +50,10 @@ public interface AlertPatchService {
     void expireAllExcept(Set<String> ids);
 
     void applyAll(Set<AlertPatch> alertPatches);
+
+    /**
+     * Expire the patches with the given ids and apply the given patches as a single update: readers see the patches
+     * from either before or after the whole update.
+     */
+    void update(Set<String> idsToExpire, Collection<AlertPatch> alertPatches);
 }
@@ -0,0 +1,123 @@
+package org.opentripplanner.routing.spt;
+
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A ShortestPathTree that keeps the states of each vertex in an array slot addressed by the dense vertex index (see
+ * {@link Graph#rebuildVertexAndEdgeIndices()}), avoiding the hashing done for every add and visit in the map-based
+ * implementation.
+ *
+ * The slots are allocated in fixed-size pages on first use, so a search that only touches a small part of a large
+ * graph does not pay for an array the size of the whole graph. Vertices without an index, which includes the temporary
+ * vertices of the request, and vertices whose slot is already taken by another vertex with the same index fall back
+ * to the map in the superclass. Since that map belongs to this tree, concurrent searches never share a slot for
+ * their temporary vertices.
+ */
+public class ArrayShortestPathTree extends ShortestPathTree {
+
+    private static final int PAGE_BITS = 10;
+
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    private List<State>[][] statePages;
+
+    private Vertex[][] vertexPages;
+
+    private int indexedVertexCount = 0;
+
+    /**
+     * @param expectedVertexCount the number of vertex indices expected to be used, typically the vertex index count
+     *                            of the graph. Larger indices are still accepted.
+     */
+    @SuppressWarnings("unchecked")
+    public ArrayShortestPathTree(RoutingRequest options, DominanceFunction dominanceFunction, int expectedVertexCount) {
+        super(options, dominanceFunction);
+        int nPages = (expectedVertexCount >> PAGE_BITS) + 1;
+        statePages = new List[nPages][];
+        vertexPages = new Vertex[nPages][];
+    }
+
+    @Override
+    public List<State> getStates(Vertex dest) {
+        int index = dest.getIndex();
+        if (index >= 0) {
+            int page = index >> PAGE_BITS;
+            if (page < vertexPages.length) {
+                Vertex[] vertices = vertexPages[page];
+                if (vertices != null && vertices[index & PAGE_MASK] == dest) {
+                    return statePages[page][index & PAGE_MASK];
+                }
+            }
+        }
+        return super.getStates(dest);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void putStates(Vertex vertex, List<State> states) {
+        int index = vertex.getIndex();
+        if (index < 0) {
+            super.putStates(vertex, states);
+            return;
+        }
+        int page = index >> PAGE_BITS;
+        if (page >= vertexPages.length) {
+            statePages = Arrays.copyOf(statePages, page + 1);
+            vertexPages = Arrays.copyOf(vertexPages, page + 1);
+        }
+        if (vertexPages[page] == null) {
+            statePages[page] = new List[PAGE_SIZE];
+            vertexPages[page] = new Vertex[PAGE_SIZE];
+        }
+        if (vertexPages[page][index & PAGE_MASK] != null) {
+            super.putStates(vertex, states);
+            return;
+        }
+        vertexPages[page][index & PAGE_MASK] = vertex;
+        statePages[page][index & PAGE_MASK] = states;
+        indexedVertexCount++;
+    }
+
+    @Override
+    public Set<Vertex> getVertices() {
+        Set<Vertex> vertices = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Vertex[] page : vertexPages) {
+            if (page == null) continue;
+            for (Vertex v : page) {
+                if (v != null) vertices.add(v);
+            }
+        }
+        vertices.addAll(super.getVertices());
+        return vertices;
+    }
+
+    @Override
+    public int getVertexCount() {
+        return indexedVertexCount + super.getVertexCount();
+    }
+
+    @Override
+    public Collection<State> getAllStates() {
+        List<State> allStates = new ArrayList<>(super.getAllStates());
+        for (List<State>[] page : statePages) {
+            if (page == null) continue;
+            for (List<State> states : page) {
+                if (states != null) allStates.addAll(states);
+            }
+        }
+        return allStates;
+    }
+}
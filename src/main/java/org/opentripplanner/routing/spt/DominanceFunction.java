@@ -106,6 +106,10 @@ public abstract class DominanceFunction implements Serializable {
      * MultiShortestPathTree is the general case -- it will work with both single- and multi-state functions.
      */
      public ShortestPathTree getNewShortestPathTree(RoutingRequest routingRequest) {
+        // Use the array-based tree when the graph has dense vertex indices, see Graph#rebuildVertexAndEdgeIndices.
+        if (routingRequest.rctx != null && routingRequest.rctx.graph.getVertexIndexCount() > 0) {
+            return new ArrayShortestPathTree(routingRequest, this, routingRequest.rctx.graph.getVertexIndexCount());
+        }
         return new ShortestPathTree(routingRequest, this);
      }
 
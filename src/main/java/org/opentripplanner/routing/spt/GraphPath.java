@@ -207,7 +207,7 @@ public class GraphPath {
         System.out.println(" --- BEGIN GRAPHPATH DUMP ---");
         System.out.println(this.toString());
         for (State s : states) 
-            System.out.println(s.getPathParserStates() + s + " via " + s.getBackEdge());
+            System.out.println(s + " via " + s.getBackEdge());
         System.out.println(" --- END GRAPHPATH DUMP ---");
     }
 
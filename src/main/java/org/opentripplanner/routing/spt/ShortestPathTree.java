@@ -89,8 +89,8 @@ public class ShortestPathTree {
         Multiset<Integer> histogram = HashMultiset.create();
         int statesCount = 0;
         int maxSize = 0;
-        for (Map.Entry<Vertex, List<State>> kv : stateSets.entrySet()) {
-            List<State> states = kv.getValue();
+        for (Vertex v : getVertices()) {
+            List<State> states = getStates(v);
             int size = states.size();
             histogram.add(size);
             statesCount += size;
@@ -98,9 +98,10 @@ public class ShortestPathTree {
                 maxSize = size;
             }
         }
-        LOG.info("SPT: vertices: " + stateSets.size() + " states: total: "
+        int vertexCount = getVertexCount();
+        LOG.info("SPT: vertices: " + vertexCount + " states: total: "
                 + statesCount + " per vertex max: " + maxSize + " avg: "
-                + (statesCount * 1.0 / stateSets.size()));
+                + (statesCount * 1.0 / vertexCount));
         List<Integer> nStates = new ArrayList<Integer>(histogram.elementSet());
         Collections.sort(nStates);
         for (Integer nState : nStates) {
@@ -124,12 +125,12 @@ public class ShortestPathTree {
      */
     public boolean add(State newState) {
         Vertex vertex = newState.getVertex();
-        List<State> states = stateSets.get(vertex);
+        List<State> states = getStates(vertex);
 
         // if the vertex has no states, add one and return
         if (states == null) {
             states = new ArrayList<>();
-            stateSets.put(vertex, states);
+            putStates(vertex, states);
             states.add(newState);
             return true;
         }
@@ -159,7 +160,7 @@ public class ShortestPathTree {
      * @return a 'best' state at that vertex
      */
     public State getState(Vertex dest) {
-        Collection<State> states = stateSets.get(dest);
+        Collection<State> states = getStates(dest);
         if (states == null)
             return null;
         State ret = null;
@@ -185,6 +186,11 @@ public class ShortestPathTree {
         return stateSets.get(dest);
     }
 
+    /** Associate the given (initially empty) list of states with a vertex that had no states yet. */
+    protected void putStates(Vertex vertex, List<State> states) {
+        stateSets.put(vertex, states);
+    }
+
     /** @return number of vertices referenced in this SPT */
     public int getVertexCount() {
         return stateSets.keySet().size();
@@ -215,7 +221,7 @@ public class ShortestPathTree {
      */
     public boolean visit(State state) {
         boolean ret = false;
-        for (State s : stateSets.get(state.getVertex())) {
+        for (State s : getStates(state.getVertex())) {
             if (s == state) {
                 ret = true;
                 break;
@@ -234,7 +240,7 @@ public class ShortestPathTree {
     }
 
     public String toString() {
-        return "ShortestPathTree(" + this.stateSets.size() + " vertices)";
+        return getClass().getSimpleName() + "(" + getVertexCount() + " vertices)";
     }
 
 }
\ No newline at end of file
@@ -14,24 +14,53 @@
 package org.opentripplanner.routing.trippattern;
 
 import com.google.common.collect.Maps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.Serializable;
 import java.util.Arrays;
 import java.util.BitSet;
+import java.util.EnumMap;
 import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Does the same thing as String.intern, but for several different types.
  * Java's String.intern uses perm gen space and is broken anyway.
+ *
+ * This is thread safe, as realtime updates may create TripTimes on several threads at once.
  */
 public class Deduplicator implements Serializable {
     private static final long serialVersionUID = 20140524L;
 
-    private final Map<IntArray, IntArray> canonicalIntArrays = Maps.newHashMap();
-    private final Map<DoubleArray, DoubleArray> canonicalDoubleArrays = Maps.newHashMap();
-    private final Map<String, String> canonicalStrings = Maps.newHashMap();
-    private final Map<BitSet, BitSet> canonicalBitSets = Maps.newHashMap();
-    private final Map<StringArray, StringArray> canonicalStringArrays = Maps.newHashMap();
+    private static final Logger LOG = LoggerFactory.getLogger(Deduplicator.class);
+
+    /** The size of an object header, plus the length for arrays, assuming compressed references. */
+    private static final int OBJECT_HEADER_BYTES = 12;
+    private static final int ARRAY_HEADER_BYTES = 16;
+    private static final int REFERENCE_BYTES = 4;
+
+    /** A node of a ConcurrentHashMap and its slot in the table, and the wrapper around a canonical array. */
+    private static final int MAP_ENTRY_BYTES = 36;
+    private static final int WRAPPER_BYTES = 24;
+
+    /** The kinds of objects deduplicated, for the report of the bytes saved. */
+    private enum Kind { INT_ARRAY, DOUBLE_ARRAY, STRING, BIT_SET, STRING_ARRAY }
+
+    private final Map<IntArray, IntArray> canonicalIntArrays = Maps.newConcurrentMap();
+    private final Map<DoubleArray, DoubleArray> canonicalDoubleArrays = Maps.newConcurrentMap();
+    private final Map<String, String> canonicalStrings = Maps.newConcurrentMap();
+    private final Map<BitSet, BitSet> canonicalBitSets = Maps.newConcurrentMap();
+    private final Map<StringArray, StringArray> canonicalStringArrays = Maps.newConcurrentMap();
+
+    /** The estimated bytes of the instances replaced by an equal canonical instance, per kind of object. */
+    private final Map<Kind, LongAdder> bytesSaved = new EnumMap<>(Kind.class);
+
+    public Deduplicator() {
+        for (Kind kind : Kind.values()) {
+            bytesSaved.put(kind, new LongAdder());
+        }
+    }
 
     /** Free up any memory used by the deduplicator. */
     public void reset() {
@@ -40,47 +69,49 @@ public class Deduplicator implements Serializable {
         canonicalStrings.clear();
         canonicalBitSets.clear();
         canonicalStringArrays.clear();
+        bytesSaved.values().forEach(LongAdder::reset);
     }
 
     /** Used to deduplicate time and stop sequence arrays. The same times may occur in many trips. */
     public int[] deduplicateIntArray(int[] original) {
         if (original == null) return null;
         IntArray intArray = new IntArray(original);
-        IntArray canonical = canonicalIntArrays.get(intArray);
-        if (canonical == null) {
-            canonical = intArray;
-            canonicalIntArrays.put(canonical, canonical);
+        int[] canonical = canonical(canonicalIntArrays, intArray).array;
+        if (canonical != original) {
+            saved(Kind.INT_ARRAY, ARRAY_HEADER_BYTES + (long) original.length * Integer.BYTES);
         }
-        return canonical.array;
+        return canonical;
     }
 
     public double[] deduplicateDoubleArray(double[] original) {
         if (original == null) return null;
         DoubleArray doubleArray = new DoubleArray(original);
-        DoubleArray canonical = canonicalDoubleArrays.get(doubleArray);
-        if (canonical == null) {
-            canonical = doubleArray;
-            canonicalDoubleArrays.put(canonical, canonical);
+        double[] canonical = canonical(canonicalDoubleArrays, doubleArray).array;
+        if (canonical != original) {
+            saved(Kind.DOUBLE_ARRAY, ARRAY_HEADER_BYTES + (long) original.length * Double.BYTES);
         }
-        return canonical.array;
+        return canonical;
     }
 
     public String deduplicateString(String original) {
         if (original == null) return null;
         String canonical = canonicalStrings.get(original);
         if (canonical == null) {
-            canonical = new String(original.toCharArray()); // Trim String if necessary (older JDKs)
-            canonicalStrings.put(canonical, canonical);
+            canonical = canonical(canonicalStrings, new String(original.toCharArray())); // Trim String if necessary (older JDKs)
+        } else if (canonical != original) {
+            // A String is an object with a hash and a reference to its byte array
+            saved(Kind.STRING, OBJECT_HEADER_BYTES + 2 * REFERENCE_BYTES + ARRAY_HEADER_BYTES + original.length());
         }
         return canonical;
     }
 
     public BitSet deduplicateBitSet(BitSet original) {
         if (original == null) return null;
-        BitSet canonical = canonicalBitSets.get(original);
-        if (canonical == null) {
-            canonical = original;
-            canonicalBitSets.put(canonical, canonical);
+        BitSet canonical = canonical(canonicalBitSets, original);
+        if (canonical != original) {
+            // A BitSet is an object with a long array and two fields
+            saved(Kind.BIT_SET, OBJECT_HEADER_BYTES + 3 * REFERENCE_BYTES + ARRAY_HEADER_BYTES
+                    + (long) (original.size() / Long.SIZE) * Long.BYTES);
         }
         return canonical;
     }
@@ -89,12 +120,52 @@ public class Deduplicator implements Serializable {
         if (original == null) return null;
         StringArray canonical = canonicalStringArrays.get(new StringArray(original, false));
         if (canonical == null) {
-            canonical = new StringArray(original, true);
-            canonicalStringArrays.put(canonical, canonical);
+            canonical = canonical(canonicalStringArrays, new StringArray(original, true));
+        } else if (canonical.array != original) {
+            saved(Kind.STRING_ARRAY, ARRAY_HEADER_BYTES + (long) original.length * REFERENCE_BYTES);
         }
         return canonical.array;
     }
 
+    /**
+     * @return the estimated number of bytes saved by returning canonical instances, provided nothing else refers to
+     * the instances they replaced.
+     */
+    public long getBytesSaved() {
+        return bytesSaved.values().stream().mapToLong(LongAdder::sum).sum();
+    }
+
+    /**
+     * @return the estimated number of bytes the deduplicator itself retains to find the canonical instances, not
+     * counting the canonical instances, which are shared with the objects referring to them. Canonical instances
+     * nothing else refers to any more are retained as well, until the deduplicator is reset.
+     */
+    public long getBytesRetained() {
+        long wrappedArrays = canonicalIntArrays.size() + canonicalDoubleArrays.size() + canonicalStringArrays.size();
+        long entries = wrappedArrays + canonicalStrings.size() + canonicalBitSets.size();
+        return entries * MAP_ENTRY_BYTES + wrappedArrays * WRAPPER_BYTES;
+    }
+
+    public void logBytesSaved() {
+        for (Map.Entry<Kind, LongAdder> entry : bytesSaved.entrySet()) {
+            LOG.info("Deduplication of {} saved about {} kB.", entry.getKey().name().toLowerCase().replace('_', ' '),
+                    entry.getValue().sum() / 1024);
+        }
+        LOG.info("Deduplication saved about {} MB in total, the deduplicator retains about {} MB to keep sharing "
+                + "with the trip times of real-time updates.", getBytesSaved() / (1024 * 1024),
+                getBytesRetained() / (1024 * 1024));
+    }
+
+    private void saved(Kind kind, long bytes) {
+        bytesSaved.get(kind).add(bytes);
+    }
+
+    /** @return the instance equal to the given one that was stored first, storing the given one if there is none. */
+    private static <T> T canonical(Map<T, T> canonicals, T value) {
+        T existing = canonicals.putIfAbsent(value, value);
+        return existing == null ? value : existing;
+    }
+
     /** A wrapper for a primitive int array. This is insane but necessary in Java. */
     private class IntArray implements Serializable {
         private static final long serialVersionUID = 20140524L;
@@ -0,0 +1,178 @@
+package org.opentripplanner.routing.trippattern;
+
+import org.opentripplanner.model.calendar.ServiceDate;
+import org.opentripplanner.routing.core.ServiceDay;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The TripTimes of a timetable sorted by departure time at the first stop, so the next departure from or previous
+ * arrival at a stop can be found by binary search instead of a scan over all trips.
+ *
+ * Trips on a pattern usually do not overtake each other, so in that order the times at every other stop are sorted as
+ * well. This is checked for each stop when the index is built: realtime updates may well make one trip overtake
+ * another, and at stops where the times are not monotone the timetable falls back to a linear scan.
+ *
+ * The index holds its own copy of the trips, so it stays consistent with the timetable it was built for even if trips
+ * are added to that timetable before it is finished again. Besides the trips, it caches which of them run on each
+ * service date searched. Most searches are for today or tomorrow, so the service of each trip is then checked only
+ * once per day for all requests instead of at every boarding.
+ */
+public final class SortedDepartureIndex {
+
+    /** Searches span yesterday, today and tomorrow, so a few days are enough to cover all current requests. */
+    private static final int MAX_CACHED_SERVICE_DATES = 8;
+
+    /** The trips, sorted by departure at the first stop and then by their position in the timetable. */
+    private final TripTimes[] trips;
+
+    /** The position of each sorted trip in the timetable, breaking ties the same way as a linear scan does. */
+    private final int[] positions;
+
+    /** For each stop, whether the departure (arrival) times of the sorted trips are non-decreasing. */
+    private final boolean[] departuresSorted;
+    private final boolean[] arrivalsSorted;
+
+    /** For each service date searched, the sorted positions of the trips whose service runs on that date. */
+    private final Map<ServiceDate, BitSet> tripsRunningByDate = new ConcurrentHashMap<>();
+
+    private SortedDepartureIndex(TripTimes[] trips, int[] positions, boolean[] departuresSorted,
+                                 boolean[] arrivalsSorted) {
+        this.trips = trips;
+        this.positions = positions;
+        this.departuresSorted = departuresSorted;
+        this.arrivalsSorted = arrivalsSorted;
+    }
+
+    /**
+     * @param tripTimes the trips of a timetable, in timetable order.
+     * @param nStops the number of stops in the pattern of the timetable.
+     * @return the index, or null if not every trip visits all stops of the pattern, in which case times at the same
+     *         stop index cannot be compared between trips.
+     */
+    public static SortedDepartureIndex build(List<TripTimes> tripTimes, int nStops) {
+        int nTrips = 0;
+        Integer[] order = new Integer[tripTimes.size()];
+        TripTimes[] all = tripTimes.toArray(new TripTimes[0]);
+        for (int i = 0; i < all.length; i++) {
+            TripTimes tt = all[i];
+            if (tt.getNumStops() != nStops) return null;
+            // Cancelled trips can never be boarded, leave them out so their times do not break the ordering.
+            if (tt.isCanceled()) continue;
+            order[nTrips++] = i;
+        }
+        order = Arrays.copyOf(order, nTrips);
+        Arrays.sort(order, Comparator.comparingInt((Integer i) -> all[i].getDepartureTime(0))
+                .thenComparingInt(i -> i));
+
+        TripTimes[] trips = new TripTimes[nTrips];
+        int[] positions = new int[nTrips];
+        for (int i = 0; i < nTrips; i++) {
+            trips[i] = all[order[i]];
+            positions[i] = order[i];
+        }
+        boolean[] departuresSorted = new boolean[nStops];
+        boolean[] arrivalsSorted = new boolean[nStops];
+        for (int s = 0; s < nStops; s++) {
+            departuresSorted[s] = true;
+            arrivalsSorted[s] = true;
+            for (int i = 1; i < nTrips; i++) {
+                if (trips[i].getDepartureTime(s) < trips[i - 1].getDepartureTime(s)) {
+                    departuresSorted[s] = false;
+                }
+                if (trips[i].getArrivalTime(s) < trips[i - 1].getArrivalTime(s)) {
+                    arrivalsSorted[s] = false;
+                }
+            }
+        }
+        return new SortedDepartureIndex(trips, positions, departuresSorted, arrivalsSorted);
+    }
+
+    public int size() {
+        return trips.length;
+    }
+
+    /** @return the trip at the given position in sorted order. */
+    public TripTimes get(int i) {
+        return trips[i];
+    }
+
+    /** @return the position in the timetable of the trip at the given position in sorted order. */
+    public int getTimetablePosition(int i) {
+        return positions[i];
+    }
+
+    /**
+     * @return the sorted positions of the trips whose service runs on the given day. The result is shared, it must
+     *         not be modified.
+     */
+    public BitSet getTripsRunning(ServiceDay serviceDay) {
+        BitSet running = tripsRunningByDate.get(serviceDay.getServiceDate());
+        if (running == null) {
+            running = new BitSet(trips.length);
+            for (int i = 0; i < trips.length; i++) {
+                if (serviceDay.serviceRunning(trips[i].serviceCode)) {
+                    running.set(i);
+                }
+            }
+            // Concurrent requests may compute the same set, which is harmless.
+            if (tripsRunningByDate.size() >= MAX_CACHED_SERVICE_DATES) {
+                tripsRunningByDate.clear();
+            }
+            tripsRunningByDate.put(serviceDay.getServiceDate(), running);
+        }
+        return running;
+    }
+
+    /** Forget the trips running on each day, after the service codes of the trips have changed. */
+    public void clearTripsRunning() {
+        tripsRunningByDate.clear();
+    }
+
+    public boolean departuresSorted(int stopIndex) {
+        return departuresSorted[stopIndex];
+    }
+
+    public boolean arrivalsSorted(int stopIndex) {
+        return arrivalsSorted[stopIndex];
+    }
+
+    /**
+     * @return the sorted position of the first trip departing from the given stop at or after the given time, or
+     *         {@link #size()} if there is none. Only valid if the departures at that stop are sorted.
+     */
+    public int firstDepartureAtOrAfter(int stopIndex, int time) {
+        int lo = 0, hi = trips.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (trips[mid].getDepartureTime(stopIndex) < time) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * @return the sorted position of the last trip arriving at the given stop at or before the given time, or -1 if
+     *         there is none. Only valid if the arrivals at that stop are sorted.
+     */
+    public int lastArrivalAtOrBefore(int stopIndex, int time) {
+        int lo = 0, hi = trips.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (trips[mid].getArrivalTime(stopIndex) <= time) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo - 1;
+    }
+}
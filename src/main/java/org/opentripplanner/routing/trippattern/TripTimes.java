@@ -75,19 +75,19 @@ public class TripTimes implements Serializable, Comparable<TripTimes>, Cloneable
      * trip_headsign we may also set the headsigns array to null to save space.
      * Field is private to force use of the getter method which does the necessary fallbacks.
      */
-    private final String[] headsigns;
+    private String[] headsigns;
 
     /**
      * The time in seconds after midnight at which the vehicle should arrive at each stop according
      * to the original schedule.
      */
-    final int[] scheduledArrivalTimes;
+    int[] scheduledArrivalTimes;
 
     /**
      * The time in seconds after midnight at which the vehicle should leave each stop according
      * to the original schedule.
      */
-    final int[] scheduledDepartureTimes;
+    int[] scheduledDepartureTimes;
 
     /**
      * The time in seconds after midnight at which the vehicle arrives at each stop, accounting for
@@ -149,15 +149,15 @@ public class TripTimes implements Serializable, Comparable<TripTimes>, Cloneable
      * trip level. An effort is made to re-use the sequence number arrays when they are the same
      * across different trips in the same pattern.
      */
-    private final int[] stopSequences;
+    private int[] stopSequences;
 
-    private final int[] continuousPickup;
+    private int[] continuousPickup;
 
-    private final int[] continuousDropOff;
+    private int[] continuousDropOff;
 
-    private final double[] serviceAreaRadius;
+    private double[] serviceAreaRadius;
 
-    private final String[] serviceArea;
+    private String[] serviceArea;
 
     /**
      * The real-time state of this TripTimes.
@@ -165,7 +165,7 @@ public class TripTimes implements Serializable, Comparable<TripTimes>, Cloneable
     private RealTimeState realTimeState = RealTimeState.SCHEDULED;
 
     /** A Set of stop indexes that are marked as timepoints in the GTFS input. */
-    private final BitSet timepoints;
+    private BitSet timepoints;
 
     /* DRT service parameters */
     private DrtTravelTime maxTravelTime;
@@ -668,6 +668,25 @@ public class TripTimes implements Serializable, Comparable<TripTimes>, Cloneable
         return true;
     }
 
+    /**
+     * Replace the scheduled arrays and BitSets of this TripTimes with the equal instances held by the deduplicator,
+     * as the constructor does. A graph read from disk only shares the instances that were shared when it was
+     * written, so the TripTimes of a loaded graph go through this again.
+     */
+    public void deduplicate(Deduplicator deduplicator) {
+        scheduledDepartureTimes = deduplicator.deduplicateIntArray(scheduledDepartureTimes);
+        scheduledArrivalTimes = deduplicator.deduplicateIntArray(scheduledArrivalTimes);
+        stopSequences = deduplicator.deduplicateIntArray(stopSequences);
+        headsigns = deduplicator.deduplicateStringArray(headsigns);
+        pickups = deduplicator.deduplicateIntArray(pickups);
+        dropoffs = deduplicator.deduplicateIntArray(dropoffs);
+        timepoints = deduplicator.deduplicateBitSet(timepoints);
+        continuousPickup = deduplicator.deduplicateIntArray(continuousPickup);
+        continuousDropOff = deduplicator.deduplicateIntArray(continuousDropOff);
+        serviceAreaRadius = deduplicator.deduplicateDoubleArray(serviceAreaRadius);
+        serviceArea = deduplicator.deduplicateStringArray(serviceArea);
+    }
+
     /** Cancel this entire trip */
     public void cancel() {
         arrivalTimes = new int[getNumStops()];
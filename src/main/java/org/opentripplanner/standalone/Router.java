@@ -19,7 +19,9 @@ import org.opentripplanner.util.WorldEnvelope;
 import org.opentripplanner.visualizer.GraphVisualizer;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.EnumMap;
+import java.util.List;
 
 /**
  * Represents the configuration of a single router (a single graph for a specific geographic area)
@@ -161,6 +163,21 @@ public class Router {
             graph.setUseFlexService(useFlexService.asBoolean(false));
         }
 
+        /* Build the secondary indexes that should not wait for their first use */
+        if (graph.index != null) {
+            JsonNode eagerIndexes = config.get("eagerIndexes");
+            if (eagerIndexes != null && eagerIndexes.isArray()) {
+                List<String> names = new ArrayList<>();
+                for (JsonNode name : eagerIndexes) {
+                    names.add(name.asText());
+                }
+                graph.index.buildIndexes(names);
+            } else if (eagerIndexes != null) {
+                LOG.error("The 'eagerIndexes' configuration option should be an array of index names.");
+            }
+            graph.index.logIndexReport();
+        }
+
         JsonNode tokenUrl = config.get("kartverketTokenUrl");
         if (tokenUrl != null && tokenUrl.has("url")) {
             this.kartverketToken = tokenUrl.get("url").asText();
@@ -200,6 +200,12 @@ public class GraphBuilderParameters {
      */
     public double distanceBetweenElevationSamples;
 
+    /**
+     * Also save the street network in columns at the end of the graph file. The street edges then read their
+     * geometry from the columns, which are memory-mapped when the graph is loaded from a local file.
+     */
+    public final boolean streetNetworkColumns;
+
 
     /**
      * Set all parameters from the given Jackson JSON tree, applying defaults.
@@ -241,5 +247,6 @@ public class GraphBuilderParameters {
         linkMultiModalStopsToParentStations = config.path("linkMultiModalStopsToParentStations").asBoolean(false);
         analyzeTransfers = config.path("analyzeTransfers").asBoolean(false);
         distanceBetweenElevationSamples = config.path("distanceBetweenElevationSamples").asDouble(10);
+        streetNetworkColumns = config.path("streetNetworkColumns").asBoolean(false);
     }
 }
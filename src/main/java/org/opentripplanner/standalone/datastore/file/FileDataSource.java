@@ -4,11 +4,14 @@ import org.opentripplanner.standalone.datastore.FileType;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.zip.GZIPInputStream;
 
 public class FileDataSource extends AbstractFileDataSource {
@@ -40,13 +43,43 @@ public class FileDataSource extends AbstractFileDataSource {
     }
   }
 
+  /**
+   * The content is written to a temporary file next to the file, which replaces the file when the stream is closed.
+   * The file is never overwritten in place, so a process still reading or mapping the previous file, like a server
+   * having mapped a graph file, keeps seeing the previous content.
+   */
   @Override
   public OutputStream asOutputStream() {
+    if (file.isDirectory()) {
+      throw new IllegalStateException("Can not write to " + path() + ", it is a directory.");
+    }
+    try {
+      File tempFile = File.createTempFile(file.getName() + ".", ".tmp", file.getAbsoluteFile().getParentFile());
+      return new FileOutputStream(tempFile) {
+        private boolean closed = false;
+
+        @Override
+        public void close() throws IOException {
+          if (closed) {
+            return;
+          }
+          closed = true;
+          super.close();
+          replace(tempFile.toPath(), file.toPath());
+        }
+      };
+    }
+    catch (IOException e) {
+      throw new IllegalStateException("Failed to write " + path() + ": " + e.getLocalizedMessage(), e);
+    }
+  }
+
+  private static void replace(Path source, Path target) throws IOException {
     try {
-      return new FileOutputStream(file);
+      Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
     }
-    catch (FileNotFoundException e) {
-      throw new IllegalStateException(e.getLocalizedMessage(), e);
+    catch (AtomicMoveNotSupportedException e) {
+      Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
     }
   }
 }
@@ -55,4 +55,11 @@ public interface GraphUpdater extends JsonConfigurable {
      */
     public void teardown();
 
+    /**
+     * @return the throughput and latency statistics of this updater, or null if it does not record any.
+     */
+    default UpdaterMetrics getMetrics() {
+        return null;
+    }
+
 }
@@ -29,12 +29,18 @@ import org.opentripplanner.updater.siri.SiriLiteETUpdater;
 import org.opentripplanner.updater.siri.SiriLiteVMUpdater;
 import org.opentripplanner.updater.siri.SiriVMUpdater;
 import org.opentripplanner.updater.stoptime.PollingStoptimeUpdater;
+import org.opentripplanner.updater.stoptime.RealtimeReplayLog;
+import org.opentripplanner.updater.stoptime.TimetableSnapshotSource;
 import org.opentripplanner.updater.stoptime.WebsocketGtfsRealtimeUpdater;
 import org.opentripplanner.updater.street_notes.WinkkiPollingGraphUpdater;
 import org.opentripplanner.updater.traffic.OpenTrafficUpdater;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Upon loading a Graph, configure/decorate it using a JSON tree from Jackson. This mainly involves starting
  * graph updater processes (GTFS-RT, bike rental, etc.), hence the class name.
@@ -55,9 +61,15 @@ public abstract class GraphUpdaterConfigurator {
 
     private static Logger LOG = LoggerFactory.getLogger(GraphUpdaterConfigurator.class);
 
+    private static final int DEFAULT_REPLAY_CHECKPOINT_INTERVAL = 100000;
+
+    private static final int DEFAULT_REPLAY_MAX_AGE_HOURS = 48;
+
     public static void setupGraph(Graph graph, JsonNode mainConfig) {
         // Create a updater manager for this graph
-        GraphUpdaterManager updaterManager = new GraphUpdaterManager(graph);
+        int queueCapacity = mainConfig == null ? GraphUpdaterManager.DEFAULT_QUEUE_CAPACITY :
+                mainConfig.path("updaterQueueCapacity").asInt(GraphUpdaterManager.DEFAULT_QUEUE_CAPACITY);
+        GraphUpdaterManager updaterManager = new GraphUpdaterManager(graph, queueCapacity);
 
         // Look for embedded config if it exists
         // TODO figure out how & when we will use embedded config in absence of main config.
@@ -171,16 +183,46 @@ public abstract class GraphUpdaterConfigurator {
             }
         }
 
+        setupRealtimeReplayLog(updaterManager, config.path("realtimeReplayLog"));
+
         updaterManager.startUpdaters();
 
         return updaterManager;
     }
 
+    /**
+     * If a realtime replay log is configured, replay it before the updaters start and log the updates to it from then
+     * on.
+     */
+    private static void setupRealtimeReplayLog(GraphUpdaterManager updaterManager, JsonNode config) {
+        String file = config.path("file").asText(null);
+        if (file == null || file.isEmpty()) {
+            return;
+        }
+        RealtimeReplayLog replayLog = new RealtimeReplayLog(new File(file),
+                config.path("checkpointInterval").asInt(DEFAULT_REPLAY_CHECKPOINT_INTERVAL),
+                TimeUnit.HOURS.toMillis(config.path("maxAgeHours").asLong(DEFAULT_REPLAY_MAX_AGE_HOURS)));
+        try {
+            updaterManager.executeBlocking(graph -> {
+                if (graph.timetableSnapshotSource == null) {
+                    graph.timetableSnapshotSource = new TimetableSnapshotSource(graph);
+                }
+                replayLog.replay(graph, graph.timetableSnapshotSource);
+                graph.timetableSnapshotSource.replayLog = replayLog;
+            });
+        } catch (InterruptedException | ExecutionException e) {
+            LOG.error("Could not replay realtime replay log " + file, e);
+        }
+    }
+
     public static void shutdownGraph(Graph graph) {
         GraphUpdaterManager updaterManager = graph.updaterManager;
         if (updaterManager != null) {
             LOG.info("Stopping updater manager with " + updaterManager.size() + " updaters.");
             updaterManager.stop();
         }
+        if (graph.timetableSnapshotSource != null && graph.timetableSnapshotSource.replayLog != null) {
+            graph.timetableSnapshotSource.replayLog.close();
+        }
     }
 }
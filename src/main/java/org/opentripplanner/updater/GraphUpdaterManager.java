@@ -19,13 +19,18 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.opentripplanner.routing.graph.Graph;
 import org.slf4j.Logger;
@@ -51,6 +56,15 @@ public class GraphUpdaterManager {
      * Text used for naming threads when the graph lacks a routerId.
      */
     private static String DEFAULT_ROUTER_ID = "(default)";
+
+    /** The number of graph writer runnables that may be waiting before updaters submitting more are blocked. */
+    public static final int DEFAULT_QUEUE_CAPACITY = 10000;
+
+    /** The maximum number of graph writer runnables taken from the queue at once. */
+    private static final int MAX_BATCH_SIZE = 1000;
+
+    /** How long an updater waits for room in a full queue before checking whether the manager was stopped. */
+    private static final long QUEUE_OFFER_TIMEOUT_MILLIS = 1000;
     
     /**
      * Thread factory used to create new threads.
@@ -66,6 +80,24 @@ public class GraphUpdaterManager {
      */
     private ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
 
+    /**
+     * Graph writer runnables waiting to be run by the scheduler. They are taken from this queue in batches, and
+     * successive runnables that can be combined are run as one. When the queue is full, updaters block until there is
+     * room, rather than piling up work faster than it can be applied.
+     */
+    private final BlockingQueue<QueuedGraphWriter> queue;
+
+    /** The scheduler thread running the graph writer runnables, which never waits for room in the queue. */
+    private volatile Thread writerThread;
+
+    private volatile boolean stopped = false;
+
+    /** Statistics on the queue, read by monitoring threads. */
+    private final AtomicLong executedCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private volatile long lastQueueLagMillis = 0;
+    private volatile long maxQueueLagMillis = 0;
+
     /**
      * Pool with updaters
      */
@@ -87,7 +119,16 @@ public class GraphUpdaterManager {
      * @param graph is parent graph of manager
      */
     public GraphUpdaterManager(Graph graph) {
+        this(graph, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param graph is parent graph of manager
+     * @param queueCapacity is the number of graph writer runnables that may wait to be run
+     */
+    public GraphUpdaterManager(Graph graph, int queueCapacity) {
         this.graph = graph;
+        this.queue = new LinkedBlockingQueue<>(queueCapacity);
         
         String routerId = graph.routerId;
         if(routerId == null || routerId.isEmpty())
@@ -100,6 +141,7 @@ public class GraphUpdaterManager {
 
     public void stop() {
         // TODO: find a better way to stop these threads
+        stopped = true;
 
         // Shutdown updaters
         updaterPool.shutdownNow();
@@ -130,6 +172,16 @@ public class GraphUpdaterManager {
             // This should not happen
             LOG.warn("Interrupted while waiting for scheduled task to finish.");
         }
+
+        // Nothing runs the graph writer runnables that are still queued, so anyone waiting for them is released
+        List<QueuedGraphWriter> unexecuted = new ArrayList<>();
+        queue.drainTo(unexecuted);
+        for (QueuedGraphWriter queued : unexecuted) {
+            queued.future.cancel(false);
+        }
+        if (!unexecuted.isEmpty()) {
+            LOG.warn("Cancelled {} graph writer runnables that were still queued.", unexecuted.size());
+        }
     }
 
     /**
@@ -198,20 +250,116 @@ public class GraphUpdaterManager {
         future.get();
     }
 
-    private Future<?> executeReturningFuture(final GraphWriterRunnable runnable) {
-        // TODO: check for high water mark?
-        Future<?> future = scheduler.submit(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    runnable.run(graph);
-                } catch (Exception e) {
-                    LOG.error("Error while running graph writer {}:", runnable.getClass().getName(),
-                            e);
+    /**
+     * Like execute, but lets the updater wait for the runnable when it chooses to, e.g. to keep only a bounded number
+     * of its runnables waiting in the queue.
+     *
+     * @return a future completed once the runnable has been run, or cancelled if the manager is stopped first
+     */
+    public Future<?> executeReturningFuture(final GraphWriterRunnable runnable) {
+        QueuedGraphWriter queued = new QueuedGraphWriter(runnable);
+        if (Thread.currentThread() == writerThread) {
+            // A runnable submitting another one would wait forever for room in a full queue, as only this thread
+            // makes room. It is run right away instead, which is also when the writes it makes are visible.
+            run(runnable);
+            executedCount.incrementAndGet();
+            queued.future.complete(null);
+            return queued.future;
+        }
+        try {
+            // Waits while the queue is full, slowing down the updater until the writer thread catches up
+            while (!queue.offer(queued, QUEUE_OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (stopped) {
+                    queued.future.cancel(false);
+                    return queued.future;
                 }
             }
-        });
-        return future;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            queued.future.cancel(false);
+            return queued.future;
+        }
+        // Every submission schedules a drain, so the queue is never left with work. Drains finding the queue empty
+        // because an earlier one took the whole batch return right away.
+        try {
+            scheduler.execute(this::runQueuedGraphWriters);
+        } catch (RejectedExecutionException e) {
+            // The manager was stopped, nothing will run the runnable
+            queue.remove(queued);
+            queued.future.cancel(false);
+        }
+        return queued.future;
+    }
+
+    /**
+     * Run a batch of queued graph writer runnables, combining successive runnables where possible. This always runs
+     * on the single scheduler thread.
+     */
+    private void runQueuedGraphWriters() {
+        writerThread = Thread.currentThread();
+        List<QueuedGraphWriter> batch = new ArrayList<>();
+        queue.drainTo(batch, MAX_BATCH_SIZE);
+        if (batch.isEmpty()) {
+            return;
+        }
+        long lag = System.currentTimeMillis() - batch.get(0).queuedTime;
+        lastQueueLagMillis = lag;
+        if (lag > maxQueueLagMillis) {
+            maxQueueLagMillis = lag;
+        }
+        int i = 0;
+        while (i < batch.size()) {
+            GraphWriterRunnable runnable = batch.get(i).runnable;
+            int end = i + 1;
+            while (end < batch.size()) {
+                GraphWriterRunnable combined = runnable.coalesce(batch.get(end).runnable);
+                if (combined == null) {
+                    break;
+                }
+                runnable = combined;
+                end++;
+            }
+            run(runnable);
+            for (int j = i; j < end; j++) {
+                batch.get(j).future.complete(null);
+            }
+            executedCount.addAndGet(end - i);
+            coalescedCount.addAndGet(end - i - 1);
+            i = end;
+        }
+    }
+
+    private void run(GraphWriterRunnable runnable) {
+        try {
+            runnable.run(graph);
+        } catch (Exception e) {
+            LOG.error("Error while running graph writer {}:", runnable.getClass().getName(), e);
+        }
+    }
+
+    /** @return the number of graph writer runnables waiting to be run. */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /** @return how long the oldest runnable of the last batch waited in the queue, in milliseconds. */
+    public long getLastQueueLagMillis() {
+        return lastQueueLagMillis;
+    }
+
+    /** @return the longest any runnable has waited in the queue, in milliseconds. */
+    public long getMaxQueueLagMillis() {
+        return maxQueueLagMillis;
+    }
+
+    /** @return the number of graph writer runnables run, including those combined with others. */
+    public long getExecutedCount() {
+        return executedCount.get();
+    }
+
+    /** @return the number of graph writer runnables that were run as part of an earlier one. */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
     }
 
     public int size() {
@@ -243,4 +391,17 @@ public class GraphUpdaterManager {
     public List<GraphUpdater> getUpdaterList() {
         return updaterList;
     }
+
+    private static class QueuedGraphWriter {
+
+        final GraphWriterRunnable runnable;
+
+        final long queuedTime = System.currentTimeMillis();
+
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        QueuedGraphWriter(GraphWriterRunnable runnable) {
+            this.runnable = runnable;
+        }
+    }
 }
@@ -32,4 +32,15 @@ public interface GraphWriterRunnable {
      * This function is executed to modify the graph.
      */
     public void run(Graph graph);
+
+    /**
+     * Combine this runnable with the one queued right after it, so the work of both is done in a single run. This
+     * lets the GraphUpdaterManager apply a burst of small updates at once.
+     *
+     * @return a runnable with the same effect as running this one and then the given one, or null if they cannot be
+     *         combined.
+     */
+    public default GraphWriterRunnable coalesce(GraphWriterRunnable next) {
+        return null;
+    }
 }
@@ -52,6 +52,16 @@ public abstract class PollingGraphUpdater extends ReadinessBlockingUpdater imple
      */
     protected Integer frequencySec;
 
+    /**
+     * Statistics on the updates fetched by the concrete class
+     */
+    protected final UpdaterMetrics metrics = new UpdaterMetrics();
+
+    @Override
+    public UpdaterMetrics getMetrics() {
+        return metrics;
+    }
+
     @Override
     final public void run() {
         try {
@@ -24,11 +24,11 @@ import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This class is used for matching TripDescriptors without trip_ids to scheduled GTFS data and to
@@ -40,19 +40,18 @@ public class SiriFuzzyTripMatcher {
 
     private GraphIndex index;
 
-    private static Map<String, Set<Trip>> mappedTripsCache = new HashMap<>();
-    private static Map<String, Set<Trip>> mappedVehicleRefCache = new HashMap<>();
-    private static Map<String, Set<Route>> mappedRoutesCache = new HashMap<>();
-    private static Map<String, Set<Trip>> start_stop_tripCache = new HashMap<>();
+    /** The lookup tables built from the scheduled data, shared by all matchers on the same graph. */
+    private final SiriFuzzyTripMatcherIndex matcherIndex;
 
-    private static Map<String, Trip> vehicleJourneyTripCache = new HashMap<>();
+    /** Trips added by realtime updates after the matcher index was built, by their id without feed id. */
+    private final Map<String, Trip> addedTripsByVehicleJourney = new ConcurrentHashMap<>();
 
-    private static Set<String> nonExistingStops = new HashSet<>();
+    private final Set<String> nonExistingStops = ConcurrentHashMap.newKeySet();
     private final ZoneId timeZoneId;
 
     public SiriFuzzyTripMatcher(GraphIndex index) {
         this.index = index;
-        initCache(this.index);
+        this.matcherIndex = index.getSiriFuzzyTripMatcherIndex();
         timeZoneId = index.graph.getTimeZone().toZoneId();
     }
 
@@ -61,11 +60,8 @@ public class SiriFuzzyTripMatcher {
         LOG.error("For testing only");
         this.index = index;
         timeZoneId = index.graph.getTimeZone().toZoneId();
-
-        if (forceCacheRebuild) {
-            mappedTripsCache.clear();
-        }
-        initCache(this.index);
+        this.matcherIndex = forceCacheRebuild ? new SiriFuzzyTripMatcherIndex(index) :
+                index.getSiriFuzzyTripMatcherIndex();
     }
 
     /**
@@ -80,7 +76,7 @@ public class SiriFuzzyTripMatcher {
             if (monitoredVehicleJourney.getFramedVehicleJourneyRef() != null) {
                 datedVehicleRef = monitoredVehicleJourney.getFramedVehicleJourneyRef().getDatedVehicleJourneyRef();
                 if (datedVehicleRef != null) {
-                    trips = mappedTripsCache.get(datedVehicleRef);
+                    trips = matcherIndex.getTripsById(datedVehicleRef);
                 }
             }
             if (monitoredVehicleJourney.getDestinationRef() != null) {
@@ -105,7 +101,7 @@ public class SiriFuzzyTripMatcher {
                 if (trip != null) {
                     return trip;
                 }
-                final DatedServiceJourney datedServiceJourney = index.datedServiceJourneyForId.get(
+                final DatedServiceJourney datedServiceJourney = index.getDatedServiceJourneyForId().get(
                     new AgencyAndId(feedId, serviceJourneyId));
                 if (datedServiceJourney != null) {
                     return datedServiceJourney.getTrip();
@@ -178,13 +174,11 @@ public class SiriFuzzyTripMatcher {
                                             .toLocalTime()
                                             .toSecondOfDay();
 
-        Set<Trip> trips = start_stop_tripCache.get(createStartStopKey(lastStopPoint,
-            arrivalTimeInSeconds
-        ));
+        Set<Trip> trips = matcherIndex.getTripsByLastStopAndArrival(lastStopPoint, arrivalTimeInSeconds);
 
         if (trips == null) {
             //Attempt to fetch trips that started yesterday - i.e. add 24 hours to arrival-time
-            trips = start_stop_tripCache.get(createStartStopKey(lastStopPoint, arrivalTimeInSeconds + (24 * 60 * 60)));
+            trips = matcherIndex.getTripsByLastStopAndArrival(lastStopPoint, arrivalTimeInSeconds + (24 * 60 * 60));
         }
 
         if (trips == null || trips.isEmpty()) {
@@ -194,12 +188,13 @@ public class SiriFuzzyTripMatcher {
             if (stop != null && stop.getParentStation() != null) {
                 Collection<Stop> allQuays = index.stopsForParentStation.get(stop.getParentStationAgencyAndId());
                 for (Stop quay : allQuays) {
-                    Set<Trip> tripSet = start_stop_tripCache.get(createStartStopKey(quay.getId().getId(),
+                    Set<Trip> tripSet = matcherIndex.getTripsByLastStopAndArrival(quay.getId().getId(),
                         arrivalTimeInSeconds
-                    ));
+                    );
                     if (tripSet != null) {
+                        // Copy the cached set rather than adding the trips of the other quays to it
                         if (trips == null) {
-                            trips = tripSet;
+                            trips = new HashSet<>(tripSet);
                         } else {
                             trips.addAll(tripSet);
                         }
@@ -212,96 +207,14 @@ public class SiriFuzzyTripMatcher {
 
     private Set<Trip> getCachedTripsByVehicleRef(String vehicleRef) {
         if (vehicleRef == null) {return null;}
-        return mappedVehicleRefCache.getOrDefault(vehicleRef, new HashSet<>());
+        Set<Trip> trips = matcherIndex.getTripsByVehicleRef(vehicleRef);
+        return trips != null ? trips : new HashSet<>();
     }
 
     private Set<Trip> getCachedTripsBySiriId(String tripId) {
         if (tripId == null) {return null;}
-        return mappedTripsCache.getOrDefault(tripId, new HashSet<>());
-    }
-
-    private static void initCache(GraphIndex index) {
-        if (mappedTripsCache.isEmpty()) {
-
-            Set<Trip> trips = index.patternForTrip.keySet();
-            for (Trip trip : trips) {
-
-                TripPattern tripPattern = index.patternForTrip.get(trip);
-
-                    String currentTripId = getUnpaddedTripId(trip.getId().getId());
-
-                    if (mappedTripsCache.containsKey(currentTripId)) {
-                        mappedTripsCache.get(currentTripId).add(trip);
-                    } else {
-                        Set<Trip> initialSet = new HashSet<>();
-                        initialSet.add(trip);
-                        mappedTripsCache.put(currentTripId, initialSet);
-                    }
-
-                if (tripPattern != null && (tripPattern.mode.equals(TraverseMode.RAIL) ||
-                                                    (trip.getTransportSubmode() != null &&
-                                                            trip.getTransportSubmode().equals(TransmodelTransportSubmode.RAIL_REPLACEMENT_BUS))) ){
-                    if (trip.getTripShortName() != null) {
-                        String tripShortName = trip.getTripShortName();
-                        if (mappedVehicleRefCache.containsKey(tripShortName)) {
-                            mappedVehicleRefCache.get(tripShortName).add(trip);
-                        } else {
-                            Set<Trip> initialSet = new HashSet<>();
-                            initialSet.add(trip);
-                            mappedVehicleRefCache.put(tripShortName, initialSet);
-                        }
-                    }
-                }
-                String lastStopId = tripPattern.getStops().get(tripPattern.getStops().size()-1).getId().getId();
-
-                TripTimes tripTimes = tripPattern.scheduledTimetable.getTripTimes(trip);
-                if (tripTimes != null) {
-                    int arrivalTime = tripTimes.getArrivalTime(tripTimes.getNumStops() - 1);
-
-                    String key = createStartStopKey(lastStopId, arrivalTime);
-                    if (start_stop_tripCache.containsKey(key)) {
-                        start_stop_tripCache.get(key).add(trip);
-                    } else {
-                        Set<Trip> initialSet = new HashSet<>();
-                        initialSet.add(trip);
-                        start_stop_tripCache.put(key, initialSet);
-                    }
-                }
-            }
-            Set<Route> routes = index.patternsForRoute.keySet();
-            for (Route route : routes) {
-
-                String currentRouteId = getUnpaddedTripId(route.getId().getId());
-                if (mappedRoutesCache.containsKey(currentRouteId)) {
-                    mappedRoutesCache.get(currentRouteId).add(route);
-                } else {
-                    Set<Route> initialSet = new HashSet<>();
-                    initialSet.add(route);
-                    mappedRoutesCache.put(currentRouteId, initialSet);
-                }
-            }
-
-            LOG.info("Built route-cache [{}].", mappedRoutesCache.size());
-            LOG.info("Built vehicleRef-cache [{}].", mappedVehicleRefCache.size());
-            LOG.info("Built trips-cache [{}].", mappedTripsCache.size());
-            LOG.info("Built start-stop-cache [{}].", start_stop_tripCache.size());
-        }
-
-        if (vehicleJourneyTripCache.isEmpty()) {
-            index.tripForId.values().forEach(trip -> vehicleJourneyTripCache.put(trip.getId().getId(), trip));
-        }
-    }
-
-    private static String createStartStopKey(String lastStopId, int lastStopArrivalTime) {
-        return lastStopId + ":" + lastStopArrivalTime;
-    }
-
-    private static String getUnpaddedTripId(String id) {
-        if (id.indexOf("-") > 0) {
-            return id.substring(0, id.indexOf("-"));
-        } else {
-            return id;
-        }
+        Set<Trip> trips = matcherIndex.getTripsById(tripId);
+        return trips != null ? trips : new HashSet<>();
     }
 
     public Set<Route> getRoutesForStop(AgencyAndId siriStopId) {
@@ -343,12 +256,13 @@ public class SiriFuzzyTripMatcher {
     }
 
     public Set<Route> getRoutes(String lineRefValue) {
-        return mappedRoutesCache.getOrDefault(lineRefValue, new HashSet<>());
+        Set<Route> routes = matcherIndex.getRoutesById(lineRefValue);
+        return routes != null ? routes : new HashSet<>();
     }
 
     public DatedServiceJourney getDatedServiceJourney(String datedServiceJourneyId) {
         for (String feedId : index.agenciesForFeedId.keySet()) {
-            final DatedServiceJourney dsj = index.datedServiceJourneyForId.get(new AgencyAndId(feedId,
+            final DatedServiceJourney dsj = index.getDatedServiceJourneyForId().get(new AgencyAndId(feedId,
                 datedServiceJourneyId
             ));
             if (dsj != null) {
@@ -359,7 +273,10 @@ public class SiriFuzzyTripMatcher {
     }
 
     public AgencyAndId getTripId(String vehicleJourney) {
-        Trip trip = vehicleJourneyTripCache.get(vehicleJourney);
+        Trip trip = matcherIndex.getTripByVehicleJourney(vehicleJourney);
+        if (trip == null) {
+            trip = addedTripsByVehicleJourney.get(vehicleJourney);
+        }
         if (trip != null) {
             return trip.getId();
         }
@@ -367,7 +284,7 @@ public class SiriFuzzyTripMatcher {
         for (String feedId : index.agenciesForFeedId.keySet()) {
             trip = index.tripForId.get(new AgencyAndId(feedId, vehicleJourney));
             if (trip != null) {
-                vehicleJourneyTripCache.put(vehicleJourney, trip);
+                addedTripsByVehicleJourney.put(vehicleJourney, trip);
                 return trip.getId();
             }
         }
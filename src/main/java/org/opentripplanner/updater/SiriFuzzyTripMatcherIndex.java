@@ -0,0 +1,148 @@
+package org.opentripplanner.updater;
+
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import org.opentripplanner.model.Route;
+import org.opentripplanner.model.TransmodelTransportSubmode;
+import org.opentripplanner.model.Trip;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.edgetype.TripPattern;
+import org.opentripplanner.routing.graph.GraphIndex;
+import org.opentripplanner.routing.trippattern.TripTimes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The lookup tables used by {@link SiriFuzzyTripMatcher}, built once from the scheduled data of a graph.
+ *
+ * This is immutable once built, so all SIRI updaters on a graph can share one instance and match concurrently. It is
+ * attached to the {@link GraphIndex} (see {@link GraphIndex#getSiriFuzzyTripMatcherIndex()}), so a reloaded graph
+ * gets a fresh index along with its new GraphIndex. The sets returned must not be modified.
+ */
+public class SiriFuzzyTripMatcherIndex {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SiriFuzzyTripMatcherIndex.class);
+
+    /** Trips by their id, without the part following the first dash. */
+    private final Map<String, Set<Trip>> tripsById;
+
+    /** Rail and rail replacement trips by their short name, which is used as vehicle ref. */
+    private final Map<String, Set<Trip>> tripsByVehicleRef;
+
+    /** Routes by their id, without the part following the first dash. */
+    private final Map<String, Set<Route>> routesById;
+
+    /** Trips by the id of their last stop, and then by their scheduled arrival time at that stop. */
+    private final Map<String, TIntObjectMap<Set<Trip>>> tripsByLastStopAndArrival;
+
+    /** Trips by their id without feed id. */
+    private final Map<String, Trip> tripsByVehicleJourney;
+
+    public SiriFuzzyTripMatcherIndex(GraphIndex index) {
+        long startTime = System.currentTimeMillis();
+        Map<String, Set<Trip>> tripsById = new HashMap<>();
+        Map<String, Set<Trip>> tripsByVehicleRef = new HashMap<>();
+        Map<String, Set<Route>> routesById = new HashMap<>();
+        Map<String, TIntObjectMap<Set<Trip>>> tripsByLastStopAndArrival = new HashMap<>();
+        Map<String, Trip> tripsByVehicleJourney = new HashMap<>();
+
+        for (Map.Entry<Trip, TripPattern> entry : index.patternForTrip.entrySet()) {
+            Trip trip = entry.getKey();
+            TripPattern tripPattern = entry.getValue();
+
+            tripsById.computeIfAbsent(getUnpaddedId(trip.getId().getId()), k -> new HashSet<>()).add(trip);
+
+            if (tripPattern != null && (tripPattern.mode.equals(TraverseMode.RAIL) ||
+                    (trip.getTransportSubmode() != null &&
+                            trip.getTransportSubmode().equals(TransmodelTransportSubmode.RAIL_REPLACEMENT_BUS)))) {
+                if (trip.getTripShortName() != null) {
+                    tripsByVehicleRef.computeIfAbsent(trip.getTripShortName(), k -> new HashSet<>()).add(trip);
+                }
+            }
+            if (tripPattern == null) {
+                continue;
+            }
+            String lastStopId = tripPattern.getStops().get(tripPattern.getStops().size() - 1).getId().getId();
+
+            TripTimes tripTimes = tripPattern.scheduledTimetable.getTripTimes(trip);
+            if (tripTimes != null) {
+                int arrivalTime = tripTimes.getArrivalTime(tripTimes.getNumStops() - 1);
+                TIntObjectMap<Set<Trip>> tripsByArrival =
+                        tripsByLastStopAndArrival.computeIfAbsent(lastStopId, k -> new TIntObjectHashMap<>());
+                Set<Trip> trips = tripsByArrival.get(arrivalTime);
+                if (trips == null) {
+                    trips = new HashSet<>();
+                    tripsByArrival.put(arrivalTime, trips);
+                }
+                trips.add(trip);
+            }
+        }
+        for (Route route : index.patternsForRoute.keySet()) {
+            routesById.computeIfAbsent(getUnpaddedId(route.getId().getId()), k -> new HashSet<>()).add(route);
+        }
+        for (Trip trip : index.tripForId.values()) {
+            tripsByVehicleJourney.put(trip.getId().getId(), trip);
+        }
+
+        this.tripsById = unmodifiable(tripsById);
+        this.tripsByVehicleRef = unmodifiable(tripsByVehicleRef);
+        this.routesById = unmodifiable(routesById);
+        for (TIntObjectMap<Set<Trip>> tripsByArrival : tripsByLastStopAndArrival.values()) {
+            tripsByArrival.transformValues(Collections::unmodifiableSet);
+        }
+        this.tripsByLastStopAndArrival = Collections.unmodifiableMap(tripsByLastStopAndArrival);
+        this.tripsByVehicleJourney = Collections.unmodifiableMap(tripsByVehicleJourney);
+
+        LOG.info("Built SIRI fuzzy trip matcher index in {} msec: {} routes, {} vehicle refs, {} trips, {} last stops.",
+                System.currentTimeMillis() - startTime, routesById.size(), tripsByVehicleRef.size(), tripsById.size(),
+                tripsByLastStopAndArrival.size());
+    }
+
+    /** @return the trips with the given id, ignoring anything after the first dash, or null if there are none. */
+    public Set<Trip> getTripsById(String tripId) {
+        return tripsById.get(tripId);
+    }
+
+    /** @return the rail trips with the given short name, or null if there are none. */
+    public Set<Trip> getTripsByVehicleRef(String vehicleRef) {
+        return tripsByVehicleRef.get(vehicleRef);
+    }
+
+    /** @return the routes with the given id, ignoring anything after the first dash, or null if there are none. */
+    public Set<Route> getRoutesById(String routeId) {
+        return routesById.get(routeId);
+    }
+
+    /**
+     * @return the trips ending at the given stop at the given number of seconds after midnight, or null if there are
+     *         none.
+     */
+    public Set<Trip> getTripsByLastStopAndArrival(String lastStopId, int arrivalTime) {
+        TIntObjectMap<Set<Trip>> tripsByArrival = tripsByLastStopAndArrival.get(lastStopId);
+        return tripsByArrival == null ? null : tripsByArrival.get(arrivalTime);
+    }
+
+    /** @return the scheduled trip with the given id, without feed id, or null if there is none. */
+    public Trip getTripByVehicleJourney(String vehicleJourney) {
+        return tripsByVehicleJourney.get(vehicleJourney);
+    }
+
+    static String getUnpaddedId(String id) {
+        if (id.indexOf("-") > 0) {
+            return id.substring(0, id.indexOf("-"));
+        } else {
+            return id;
+        }
+    }
+
+    private static <K, V> Map<K, Set<V>> unmodifiable(Map<K, Set<V>> map) {
+        map.replaceAll((key, values) -> Collections.unmodifiableSet(values));
+        return Collections.unmodifiableMap(map);
+    }
+}
@@ -12,6 +12,8 @@ import javax.xml.datatype.DatatypeFactory;
 import javax.xml.stream.XMLStreamException;
 import java.io.InputStream;
 import java.time.ZonedDateTime;
+import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
 
 public class SiriHelper {
@@ -40,6 +42,30 @@ public class SiriHelper {
         return SiriXml.parseXml(is);
     }
 
+    /**
+     * Wrap journeys read by a {@link SiriStreamReader} in a delivery, as they would have been found in the
+     * ServiceDelivery.
+     */
+    public static List<EstimatedTimetableDeliveryStructure> createEstimatedTimetableDeliveries(
+            List<EstimatedVehicleJourney> journeys) {
+        EstimatedVersionFrameStructure frame = new EstimatedVersionFrameStructure();
+        frame.getEstimatedVehicleJourneies().addAll(journeys);
+        EstimatedTimetableDeliveryStructure delivery = new EstimatedTimetableDeliveryStructure();
+        delivery.getEstimatedJourneyVersionFrames().add(frame);
+        return Collections.singletonList(delivery);
+    }
+
+    /**
+     * Wrap activities read by a {@link SiriStreamReader} in a delivery, as they would have been found in the
+     * ServiceDelivery.
+     */
+    public static List<VehicleMonitoringDeliveryStructure> createVehicleMonitoringDeliveries(
+            List<VehicleActivityStructure> activities) {
+        VehicleMonitoringDeliveryStructure delivery = new VehicleMonitoringDeliveryStructure();
+        delivery.getVehicleActivities().addAll(activities);
+        return Collections.singletonList(delivery);
+    }
+
     public static String createSXServiceRequestAsXml(String requestorRef) throws JAXBException {
         Siri request = createSXServiceRequest(requestorRef);
         return SiriXml.toXml(request);
@@ -0,0 +1,191 @@
+package org.opentripplanner.updater;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.WireFormat;
+import org.entur.protobuf.mapper.SiriMapper;
+import uk.org.siri.siri20.Siri;
+import uk.org.siri.www.siri.SiriType;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the repeated elements of a protobuf encoded SIRI ServiceDelivery, such as EstimatedVehicleJourneys, from a
+ * stream in chunks, instead of parsing and mapping the whole SiriType at once. This is the protobuf counterpart of
+ * {@link SiriStreamReader}.
+ *
+ * Each chunk is returned as a Siri document holding only the elements of that chunk, with the same nesting as the
+ * original. The fields around the elements, such as the ResponseTimestamp, are copied as far as they precede the
+ * elements in the stream. A chunk never spans two enclosing messages, e.g. two version frames. Only the raw bytes of
+ * the elements in a chunk are kept, so memory use is bounded by the chunk size rather than by the size of the data.
+ *
+ * The nested messages are found by field name at runtime, through the protobuf descriptors, so this does not depend
+ * on the field numbers of the SIRI protobuf schema. An instance must only be used by one thread. Closing it closes
+ * the underlying stream. The stream can be at most 2GB.
+ */
+public class SiriProtobufStreamReader implements AutoCloseable {
+
+    private final InputStream inputStream;
+
+    private final CodedInputStream input;
+
+    /** The field number of the next message on the path at each depth, the last one being the elements to read. */
+    private final int[] fieldNumbers;
+
+    /** The limit to restore when leaving the message at each depth. */
+    private final int[] oldLimits;
+
+    /** The other fields read so far of the message at each depth, in wire format. */
+    private final ByteString.Output[] otherFields;
+    private final CodedOutputStream[] otherFieldsOutput;
+
+    /** The depth of the message being read, 0 for the SiriType itself. */
+    private int depth = 0;
+
+    /** Incremented each time an enclosing message is entered, so chunks can be kept within one. */
+    private int enclosingMessageCount = 0;
+
+    /** An element read ahead, which did not fit in the previous chunk. */
+    private ByteString pendingElement;
+
+    private int elementCount = 0;
+
+    /**
+     * @param path the names of the nested message fields leading from the SiriType to the elements to read, as in
+     *             the XML, e.g. "ServiceDelivery", "EstimatedTimetableDelivery", "EstimatedJourneyVersionFrame",
+     *             "EstimatedVehicleJourney".
+     */
+    public SiriProtobufStreamReader(InputStream inputStream, String... path) {
+        this.inputStream = inputStream;
+        this.input = CodedInputStream.newInstance(inputStream);
+        this.input.setSizeLimit(Integer.MAX_VALUE);
+        this.fieldNumbers = new int[path.length];
+        this.oldLimits = new int[path.length];
+        this.otherFields = new ByteString.Output[path.length];
+        this.otherFieldsOutput = new CodedOutputStream[path.length];
+
+        Descriptors.Descriptor descriptor = SiriType.getDescriptor();
+        for (int i = 0; i < path.length; i++) {
+            Descriptors.FieldDescriptor field = findField(descriptor, path[i]);
+            fieldNumbers[i] = field.getNumber();
+            if (i < path.length - 1) {
+                descriptor = field.getMessageType();
+            }
+        }
+        resetOtherFields(0);
+    }
+
+    /**
+     * Read up to the given number of elements.
+     *
+     * @return a Siri document holding the elements read, or null once the end of the stream is reached.
+     */
+    public Siri next(int maxElements) throws IOException {
+        List<ByteString> elements = new ArrayList<>();
+        int enclosingMessage = -1;
+        while (elements.size() < maxElements) {
+            ByteString element = pendingElement != null ? pendingElement : nextElement();
+            pendingElement = null;
+            if (element == null) {
+                break;
+            }
+            if (enclosingMessage != -1 && enclosingMessage != enclosingMessageCount) {
+                pendingElement = element;
+                break;
+            }
+            enclosingMessage = enclosingMessageCount;
+            elements.add(element);
+        }
+        if (elements.isEmpty()) {
+            return null;
+        }
+        elementCount += elements.size();
+        return SiriMapper.mapToJaxb(SiriType.parseFrom(buildMessage(0, elements)));
+    }
+
+    /** @return the number of elements read so far. */
+    public int getElementCount() {
+        return elementCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inputStream.close();
+    }
+
+    /**
+     * Advance to the next element, entering and leaving the enclosing messages on the way.
+     *
+     * @return the bytes of the element, or null if the end of the stream was reached.
+     */
+    private ByteString nextElement() throws IOException {
+        while (true) {
+            if (input.isAtEnd()) {
+                if (depth == 0) {
+                    return null;
+                }
+                input.popLimit(oldLimits[depth]);
+                depth--;
+                continue;
+            }
+            int tag = input.readTag();
+            if (WireFormat.getTagFieldNumber(tag) == fieldNumbers[depth]
+                    && WireFormat.getTagWireType(tag) == WireFormat.WIRETYPE_LENGTH_DELIMITED) {
+                if (depth == fieldNumbers.length - 1) {
+                    return input.readBytes();
+                }
+                int length = input.readRawVarint32();
+                depth++;
+                oldLimits[depth] = input.pushLimit(length);
+                resetOtherFields(depth);
+                enclosingMessageCount++;
+            } else {
+                input.skipField(tag, otherFieldsOutput[depth]);
+            }
+        }
+    }
+
+    /** Build the message at the given depth, holding the given elements and the other fields read so far. */
+    private ByteString buildMessage(int messageDepth, List<ByteString> elements) throws IOException {
+        otherFieldsOutput[messageDepth].flush();
+        ByteString.Output message = ByteString.newOutput();
+        CodedOutputStream output = CodedOutputStream.newInstance(message);
+        output.writeRawBytes(otherFields[messageDepth].toByteString());
+        if (messageDepth == fieldNumbers.length - 1) {
+            for (ByteString element : elements) {
+                output.writeBytes(fieldNumbers[messageDepth], element);
+            }
+        } else {
+            output.writeBytes(fieldNumbers[messageDepth], buildMessage(messageDepth + 1, elements));
+        }
+        output.flush();
+        return message.toByteString();
+    }
+
+    private void resetOtherFields(int messageDepth) {
+        for (int i = messageDepth; i < otherFields.length; i++) {
+            otherFields[i] = ByteString.newOutput();
+            otherFieldsOutput[i] = CodedOutputStream.newInstance(otherFields[i]);
+        }
+    }
+
+    /** Find a field by its XML element name, e.g. "ServiceDelivery" for service_delivery. */
+    private static Descriptors.FieldDescriptor findField(Descriptors.Descriptor descriptor, String name) {
+        for (Descriptors.FieldDescriptor field : descriptor.getFields()) {
+            if (normalize(field.getName()).equals(normalize(name))
+                    && field.getType() == Descriptors.FieldDescriptor.Type.MESSAGE) {
+                return field;
+            }
+        }
+        throw new IllegalArgumentException("No message field " + name + " in " + descriptor.getFullName());
+    }
+
+    private static String normalize(String name) {
+        return name.replace("_", "").toLowerCase();
+    }
+}
@@ -0,0 +1,140 @@
+package org.opentripplanner.updater;
+
+import uk.org.siri.siri20.Siri;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the repeated elements of a SIRI ServiceDelivery, such as EstimatedVehicleJourneys or VehicleActivities, one
+ * by one from a stream, instead of unmarshalling the whole document at once.
+ *
+ * Only the elements currently handed out are kept in memory, so large deliveries can be applied in chunks while the
+ * rest of the response is still being downloaded. Everything around the repeated elements is skipped, except for the
+ * ResponseTimestamp and MoreData values of the ServiceDelivery.
+ *
+ * Like a JAXB Unmarshaller, an instance must only be used by one thread. Closing it closes the underlying stream.
+ */
+public class SiriStreamReader<T> implements AutoCloseable {
+
+    private static final JAXBContext jaxbContext;
+
+    private static final XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+
+    static {
+        try {
+            jaxbContext = JAXBContext.newInstance(Siri.class);
+        } catch (JAXBException e) {
+            throw new RuntimeException(e);
+        }
+        xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    private final InputStream inputStream;
+
+    private final XMLStreamReader reader;
+
+    private final Unmarshaller unmarshaller;
+
+    private final String elementName;
+
+    private final Class<T> elementType;
+
+    private ZonedDateTime responseTimestamp;
+
+    private boolean moreData = false;
+
+    private int elementCount = 0;
+
+    /**
+     * @param elementName the local name of the elements to read, e.g. "EstimatedVehicleJourney"
+     * @param elementType the JAXB class of these elements
+     */
+    public SiriStreamReader(InputStream inputStream, String elementName, Class<T> elementType)
+            throws JAXBException, XMLStreamException {
+        this.inputStream = inputStream;
+        this.reader = xmlInputFactory.createXMLStreamReader(inputStream);
+        this.unmarshaller = jaxbContext.createUnmarshaller();
+        this.elementName = elementName;
+        this.elementType = elementType;
+    }
+
+    /**
+     * @return the ResponseTimestamp of the ServiceDelivery, or null if there is none. This precedes all deliveries, so
+     *         it can be checked before reading any element.
+     */
+    public ZonedDateTime getResponseTimestamp() throws XMLStreamException {
+        moveToNextElement();
+        return responseTimestamp;
+    }
+
+    /**
+     * Read up to the given number of elements.
+     *
+     * @return the elements read, an empty list once the end of the document is reached.
+     */
+    public List<T> next(int maxElements) throws XMLStreamException, JAXBException {
+        List<T> elements = new ArrayList<>();
+        while (elements.size() < maxElements && moveToNextElement()) {
+            // This leaves the reader at the event right after the end of the element
+            elements.add(unmarshaller.unmarshal(reader, elementType).getValue());
+        }
+        elementCount += elements.size();
+        return elements;
+    }
+
+    /** @return the MoreData flag of the ServiceDelivery. Only valid once all elements have been read. */
+    public boolean isMoreData() {
+        return moreData;
+    }
+
+    /** @return the number of elements read so far. */
+    public int getElementCount() {
+        return elementCount;
+    }
+
+    @Override
+    public void close() throws XMLStreamException, IOException {
+        try {
+            reader.close();
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Advance to the start of the next element to read, picking up the values of the ServiceDelivery on the way.
+     *
+     * @return false if the end of the document was reached.
+     */
+    private boolean moveToNextElement() throws XMLStreamException {
+        while (true) {
+            if (reader.isStartElement()) {
+                String name = reader.getLocalName();
+                if (elementName.equals(name)) {
+                    return true;
+                }
+                // The deliveries have timestamps of their own, the one of the ServiceDelivery comes first
+                if (responseTimestamp == null && "ResponseTimestamp".equals(name)) {
+                    responseTimestamp = ZonedDateTime.parse(reader.getElementText().trim());
+                } else if ("MoreData".equals(name)) {
+                    moreData = Boolean.parseBoolean(reader.getElementText().trim());
+                }
+            }
+            if (!reader.hasNext()) {
+                return false;
+            }
+            reader.next();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package org.opentripplanner.updater;
+
+import org.opentripplanner.routing.graph.Graph;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.stream.XMLStreamException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Applies the elements of a SIRI response in chunks, as they are read from a {@link SiriStreamReader}, for the
+ * polling updaters that read their responses as a stream.
+ *
+ * A chunk is only handed to the graph writer once the previous one is applied, so at most two chunks are kept in
+ * memory: the one being applied and the one being read.
+ *
+ * The realtime timetables are not published while the chunks of a full dataset are applied, as requests would see
+ * the previous updates cleared by the first chunk and only part of the dataset applied again. They are published
+ * once the last chunk is applied, or once reading the response failed, with the chunks applied so far.
+ */
+public class SiriStreamingUpdates {
+
+    /** Creates the graph writer runnable applying one chunk of elements. */
+    public interface ChunkRunnableFactory<T> {
+        GraphWriterRunnable create(boolean fullDataset, List<T> chunk);
+    }
+
+    private SiriStreamingUpdates() {
+    }
+
+    /**
+     * Read all the elements of the given reader and apply them in chunks, returning once all chunks are applied.
+     *
+     * Of a full dataset, only the first chunk is applied as a full dataset, as it replaces the previous updates,
+     * while the following chunks add to it. A full dataset without any element is still applied, to clear the
+     * previous updates.
+     */
+    public static <T> void applyInChunks(SiriStreamReader<T> reader, int chunkSize, boolean fullDataset,
+            ChunkRunnableFactory<T> runnableFactory, GraphUpdaterManager updaterManager, UpdaterMetrics metrics)
+            throws XMLStreamException, JAXBException, InterruptedException, ExecutionException {
+        boolean holdPublication = fullDataset;
+        if (holdPublication) {
+            updaterManager.execute(SiriStreamingUpdates::holdPublication);
+        }
+        long parseNanos = 0;
+        Future<?> previousChunk = null;
+        try {
+            while (true) {
+                long parseTime = System.nanoTime();
+                List<T> chunk = reader.next(chunkSize);
+                parseNanos += System.nanoTime() - parseTime;
+                if (chunk.isEmpty() && !(fullDataset && reader.getElementCount() == 0)) {
+                    break;
+                }
+                GraphWriterRunnable runnable = runnableFactory.create(fullDataset, chunk);
+                if (previousChunk != null) {
+                    previousChunk.get();
+                }
+                previousChunk = updaterManager.executeReturningFuture(runnable);
+                fullDataset = false;
+                if (chunk.isEmpty()) {
+                    break;
+                }
+            }
+            if (previousChunk != null) {
+                previousChunk.get();
+            }
+        } finally {
+            if (holdPublication) {
+                // Also after a failure, so the realtime timetables are not held back for good
+                updaterManager.execute(SiriStreamingUpdates::releasePublication);
+            }
+        }
+        metrics.recordTime(UpdaterMetrics.Stage.PARSE, parseNanos);
+        metrics.addReceived(reader.getElementCount());
+    }
+
+    private static void holdPublication(Graph graph) {
+        if (graph.timetableSnapshotSource != null) {
+            graph.timetableSnapshotSource.holdPublication();
+        }
+    }
+
+    private static void releasePublication(Graph graph) {
+        if (graph.timetableSnapshotSource != null) {
+            graph.timetableSnapshotSource.releasePublication();
+        }
+    }
+}
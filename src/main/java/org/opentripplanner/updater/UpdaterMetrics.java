@@ -0,0 +1,205 @@
+package org.opentripplanner.updater;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+/**
+ * Throughput and latency statistics of one source of realtime updates: a graph updater, or one kind of update applied
+ * by the TimetableSnapshotSource. All methods may be called from any thread, recording is cheap enough for the update
+ * path.
+ *
+ * The statistics are exposed by the UpdaterStatusResource, as JSON and in the Prometheus text format.
+ */
+public class UpdaterMetrics {
+
+    /** The stages an update goes through, each of which is timed separately. */
+    public enum Stage {
+        /** Waiting for the response or message to arrive */
+        FETCH,
+        /** Turning the raw data into SIRI or GTFS-RT objects */
+        PARSE,
+        /** Finding the trips the updates refer to */
+        MATCH,
+        /** Writing the updated trips to the realtime timetables */
+        APPLY
+    }
+
+    private final LongAdder received = new LongAdder();
+
+    private final LongAdder applied = new LongAdder();
+
+    private final LongAdder failedToMatch = new LongAdder();
+
+    private final Timer[] stageTimers = new Timer[Stage.values().length];
+
+    /** The time from the creation of an update to its publication in a snapshot used for routing. */
+    private final Timer visibilityDelay = new Timer();
+
+    /** The creation time of the oldest update applied but not published yet, Long.MAX_VALUE if there is none. */
+    private final AtomicLong oldestUnpublishedCreationMillis = new AtomicLong(Long.MAX_VALUE);
+
+    public UpdaterMetrics() {
+        for (int i = 0; i < stageTimers.length; i++) {
+            stageTimers[i] = new Timer();
+        }
+    }
+
+    public void addReceived(long count) {
+        received.add(count);
+    }
+
+    public void addApplied(long count) {
+        applied.add(count);
+    }
+
+    public void addFailedToMatch(long count) {
+        failedToMatch.add(count);
+    }
+
+    public void recordTime(Stage stage, long nanos) {
+        stageTimers[stage.ordinal()].record(nanos);
+    }
+
+    /**
+     * Remember that updates created at the given time were applied, so their visibility delay can be recorded once
+     * they are published.
+     */
+    public void recordAppliedCreationTime(long creationTimeMillis) {
+        oldestUnpublishedCreationMillis.accumulateAndGet(creationTimeMillis, Math::min);
+    }
+
+    /**
+     * Record the visibility delay of the updates applied since the previous publication, taking the oldest of them.
+     */
+    public void recordPublished(long publicationTimeMillis) {
+        long oldest = oldestUnpublishedCreationMillis.getAndSet(Long.MAX_VALUE);
+        if (oldest != Long.MAX_VALUE) {
+            visibilityDelay.record(Math.max(0, publicationTimeMillis - oldest) * 1000000);
+        }
+    }
+
+    public long getReceived() {
+        return received.sum();
+    }
+
+    public long getApplied() {
+        return applied.sum();
+    }
+
+    public long getFailedToMatch() {
+        return failedToMatch.sum();
+    }
+
+    /** @return the statistics as a tree of maps, to be serialized as JSON. */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("received", getReceived());
+        map.put("applied", getApplied());
+        map.put("failedToMatch", getFailedToMatch());
+        for (Stage stage : Stage.values()) {
+            Timer timer = stageTimers[stage.ordinal()];
+            if (timer.count.sum() > 0) {
+                map.put(stage.name().toLowerCase(Locale.ROOT), timer.toMap());
+            }
+        }
+        if (visibilityDelay.count.sum() > 0) {
+            map.put("visibilityDelay", visibilityDelay.toMap());
+        }
+        return map;
+    }
+
+    /**
+     * Write the statistics of the given sources in the Prometheus text exposition format, each source being
+     * identified by a "source" label holding its key in the map.
+     */
+    public static void writePrometheusText(Map<String, UpdaterMetrics> metrics, StringBuilder out) {
+        writeCounter(out, "otp_updater_received_total", "Updates received.", metrics, UpdaterMetrics::getReceived);
+        writeCounter(out, "otp_updater_applied_total", "Updates applied.", metrics, UpdaterMetrics::getApplied);
+        writeCounter(out, "otp_updater_failed_to_match_total", "Updates not matching any trip.", metrics,
+                UpdaterMetrics::getFailedToMatch);
+
+        writeTimers(out, "otp_updater_stage_seconds", "Time spent in each stage of the updates.", metrics, true,
+                false);
+        writeTimers(out, "otp_updater_stage_max_seconds", "Longest time spent in each stage of an update.", metrics,
+                true, true);
+        writeTimers(out, "otp_updater_visibility_delay_seconds",
+                "Time from the creation of an update until routing uses it.", metrics, false, false);
+        writeTimers(out, "otp_updater_visibility_delay_max_seconds",
+                "Longest time from the creation of an update until routing uses it.", metrics, false, true);
+    }
+
+    /**
+     * Write the stage timers or the visibility delay timers, as a summary of their count and total or as a gauge of
+     * their maximum.
+     */
+    private static void writeTimers(StringBuilder out, String name, String help, Map<String, UpdaterMetrics> metrics,
+                                    boolean stages, boolean max) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(max ? " gauge\n" : " summary\n");
+        for (Map.Entry<String, UpdaterMetrics> entry : metrics.entrySet()) {
+            if (!stages) {
+                entry.getValue().visibilityDelay.writePrometheusText(out, name, labels(entry.getKey()), max);
+                continue;
+            }
+            for (Stage stage : Stage.values()) {
+                entry.getValue().stageTimers[stage.ordinal()].writePrometheusText(out, name,
+                        labels(entry.getKey()) + ",stage=\"" + stage.name().toLowerCase(Locale.ROOT) + "\"", max);
+            }
+        }
+    }
+
+    private static void writeCounter(StringBuilder out, String name, String help, Map<String, UpdaterMetrics> metrics,
+                                     ToLongFunction<UpdaterMetrics> value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" counter\n");
+        for (Map.Entry<String, UpdaterMetrics> entry : metrics.entrySet()) {
+            out.append(name).append('{').append(labels(entry.getKey())).append("} ")
+                    .append(value.applyAsLong(entry.getValue())).append('\n');
+        }
+    }
+
+    private static String labels(String source) {
+        return "source=\"" + source.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+    }
+
+    /** Count, total and maximum of a duration. */
+    private static class Timer {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+        void record(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            long n = count.sum();
+            map.put("count", n);
+            map.put("totalMillis", totalNanos.sum() / 1000000);
+            map.put("meanMillis", n == 0 ? 0 : totalNanos.sum() / n / 1000000.0);
+            map.put("maxMillis", maxNanos.get() / 1000000.0);
+            return map;
+        }
+
+        void writePrometheusText(StringBuilder out, String name, String labels, boolean max) {
+            if (count.sum() == 0) {
+                return;
+            }
+            if (max) {
+                out.append(name).append('{').append(labels).append("} ").append(maxNanos.get() / 1e9).append('\n');
+            } else {
+                out.append(name).append("_count{").append(labels).append("} ").append(count.sum()).append('\n');
+                out.append(name).append("_sum{").append(labels).append("} ").append(totalNanos.sum() / 1e9)
+                        .append('\n');
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package org.opentripplanner.updater;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The largest value recorded over a sliding window of time, for gauges that must come back down some time after a
+ * peak. The window is split into buckets, each holding the largest value recorded while it was current, so the
+ * maximum reported covers at least the window less one bucket and at most the whole window. Reading does not change
+ * the state, and recording never blocks: it only allocates when it raises the maximum of a bucket.
+ */
+public class WindowedMaximum {
+
+    /** The largest value recorded during one period of the length of a bucket. */
+    private static final class Bucket {
+        final long period;
+        final long max;
+
+        Bucket(long period, long max) {
+            this.period = period;
+            this.max = max;
+        }
+    }
+
+    private final long bucketMillis;
+
+    private final AtomicReferenceArray<Bucket> buckets;
+
+    /**
+     * @param windowMillis the length of the window, in milliseconds.
+     * @param nBuckets     the number of buckets the window is split into, more of them make it slide more smoothly.
+     */
+    public WindowedMaximum(long windowMillis, int nBuckets) {
+        if (nBuckets < 1 || windowMillis < nBuckets) {
+            throw new IllegalArgumentException("A window of " + windowMillis + " ms cannot be split into "
+                    + nBuckets + " buckets.");
+        }
+        this.bucketMillis = windowMillis / nBuckets;
+        this.buckets = new AtomicReferenceArray<>(nBuckets);
+    }
+
+    /** Record a value observed at the given time, in milliseconds since the epoch. */
+    public void record(long nowMillis, long value) {
+        long period = nowMillis / bucketMillis;
+        int i = (int) (period % buckets.length());
+        Bucket bucket = buckets.get(i);
+        // Values of a period older than the one the bucket already holds are out of the window anyway
+        while (bucket == null || bucket.period < period || (bucket.period == period && bucket.max < value)) {
+            if (buckets.compareAndSet(i, bucket, new Bucket(period, value))) {
+                return;
+            }
+            bucket = buckets.get(i);
+        }
+    }
+
+    /** @return the largest value recorded within the window ending at the given time, or 0 if there is none. */
+    public long get(long nowMillis) {
+        long period = nowMillis / bucketMillis;
+        long max = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            Bucket bucket = buckets.get(i);
+            if (bucket != null && bucket.period > period - buckets.length() && bucket.max > max) {
+                max = bucket.max;
+            }
+        }
+        return max;
+    }
+}
@@ -102,8 +102,9 @@ public class AlertsUpdateHandler {
     private SiriFuzzyTripMatcher siriFuzzyTripMatcher;
 
     public void update(FeedMessage message) {
-        alertPatchService.expire(patchIds);
+        Set<String> idsToExpire = new HashSet<>(patchIds);
         patchIds.clear();
+        Set<AlertPatch> alertPatches = new HashSet<>();
 
         for (FeedEntity entity : message.getEntityList()) {
             if (!entity.hasAlert()) {
@@ -111,8 +112,9 @@ public class AlertsUpdateHandler {
             }
             GtfsRealtime.Alert alert = entity.getAlert();
             String id = entity.getId();
-            handleAlert(id, alert);
+            handleAlert(id, alert, alertPatches);
         }
+        alertPatchService.update(idsToExpire, alertPatches);
     }
 
     public void update(ServiceDelivery delivery) {
@@ -140,8 +142,7 @@ public class AlertsUpdateHandler {
                     }
                 }
 
-                alertPatchService.expire(idsToExpire);
-                alertPatchService.applyAll(alertPatches);
+                alertPatchService.update(idsToExpire, alertPatches);
                 log.info("Added {} alerts, expired {} alerts based on {} situations, current alert-count: {}, elapsed time {}ms", alertPatches.size(), idsToExpire.size(), situations.getPtSituationElements().size(), alertPatchService.getAllAlertPatches().size(), (System.currentTimeMillis()-t1));
             }
         }
@@ -962,7 +963,7 @@ public class AlertsUpdateHandler {
     }
 
 
-    private void handleAlert(String id, GtfsRealtime.Alert alert) {
+    private void handleAlert(String id, GtfsRealtime.Alert alert, Set<AlertPatch> alertPatches) {
         Alert alertText = new Alert();
         alertText.alertDescriptionText = deBuffer(alert.getDescriptionText());
         alertText.alertHeaderText = deBuffer(alert.getHeaderText());
@@ -1051,7 +1052,7 @@ public class AlertsUpdateHandler {
             patch.setId(patchId);
             patchIds.add(patchId);
 
-            alertPatchService.apply(patch);
+            alertPatches.add(patch);
         }
     }
 
@@ -15,17 +15,24 @@ package org.opentripplanner.updater.siri;
 
 import com.google.common.base.Preconditions;
 import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.updater.GraphUpdater;
 import org.opentripplanner.updater.GraphWriterRunnable;
 import org.opentripplanner.updater.stoptime.TimetableSnapshotSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import uk.org.siri.siri20.EstimatedTimetableDeliveryStructure;
 
+import java.util.ArrayList;
 import java.util.List;
 
 public class EstimatedTimetableGraphWriterRunnable implements GraphWriterRunnable {
     private static Logger LOG = LoggerFactory.getLogger(EstimatedTimetableGraphWriterRunnable.class);
 
+    /**
+     * The updater that queued this runnable. Only runnables of the same updater, hence of the same feed, are combined.
+     */
+    private final GraphUpdater source;
+
     /**
      * True iff the list with updates represent all updates that are active right now, i.e. all
      * previous updates should be disregarded
@@ -38,11 +45,14 @@ public class EstimatedTimetableGraphWriterRunnable implements GraphWriterRunnabl
     private final List<EstimatedTimetableDeliveryStructure> updates;
 
 
-    public EstimatedTimetableGraphWriterRunnable(final boolean fullDataset, final List<EstimatedTimetableDeliveryStructure> updates) {
+    public EstimatedTimetableGraphWriterRunnable(final GraphUpdater source, final boolean fullDataset,
+                                                 final List<EstimatedTimetableDeliveryStructure> updates) {
         // Preconditions
+        Preconditions.checkNotNull(source);
         Preconditions.checkNotNull(updates);
 
         // Set fields
+        this.source = source;
         this.fullDataset = fullDataset;
         this.updates = updates;
     }
@@ -58,4 +68,24 @@ public class EstimatedTimetableGraphWriterRunnable implements GraphWriterRunnabl
                     + " The following updates are not applied: {}", updates);
         }
     }
+
+    /**
+     * Applying the deliveries of two runnables in one call has the same effect as applying them one after the other,
+     * as long as the second one does not replace all previous updates. The deliveries of different updaters are kept
+     * apart, so a burst from one feed never ends up in a run of another.
+     */
+    @Override
+    public GraphWriterRunnable coalesce(GraphWriterRunnable next) {
+        if (!(next instanceof EstimatedTimetableGraphWriterRunnable)) {
+            return null;
+        }
+        EstimatedTimetableGraphWriterRunnable other = (EstimatedTimetableGraphWriterRunnable) next;
+        if (other.source != source || other.fullDataset) {
+            return null;
+        }
+        List<EstimatedTimetableDeliveryStructure> combined = new ArrayList<>(updates.size() + other.updates.size());
+        combined.addAll(updates);
+        combined.addAll(other.updates);
+        return new EstimatedTimetableGraphWriterRunnable(source, fullDataset, combined);
+    }
 }
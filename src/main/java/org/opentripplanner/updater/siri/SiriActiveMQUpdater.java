@@ -94,7 +94,7 @@ public class SiriActiveMQUpdater implements GraphUpdater {
                                 !siri.getServiceDelivery().getEstimatedTimetableDeliveries().isEmpty()) {
                             List<EstimatedTimetableDeliveryStructure> updates = siri.getServiceDelivery().getEstimatedTimetableDeliveries();
                             EstimatedTimetableGraphWriterRunnable runnable =
-                                    new EstimatedTimetableGraphWriterRunnable(false, updates);
+                                    new EstimatedTimetableGraphWriterRunnable(this, false, updates);
                             updaterManager.execute(runnable);
                         }
                         if (siri.getServiceDelivery().getVehicleMonitoringDeliveries() != null &&
@@ -17,9 +17,11 @@ import com.fasterxml.jackson.databind.JsonNode;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.updater.JsonConfigurable;
 import org.opentripplanner.updater.SiriHelper;
+import org.opentripplanner.updater.SiriStreamReader;
 import org.opentripplanner.util.HttpUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import uk.org.siri.siri20.EstimatedVehicleJourney;
 import uk.org.siri.siri20.Siri;
 
 import java.io.IOException;
@@ -133,6 +135,65 @@ public class SiriETHttpTripUpdateSource implements EstimatedTimetableSource, Jso
         return null;
     }
 
+    /**
+     * Like {@link #getUpdates()}, but instead of decoding the whole response up front, returns a reader handing out
+     * its EstimatedVehicleJourneys as they are downloaded. The ResponseTimestamp has already been checked.
+     *
+     * @return the reader, which the caller must close, or null if there is no new data.
+     */
+    public SiriStreamReader<EstimatedVehicleJourney> getUpdateStream() {
+        long t1 = System.currentTimeMillis();
+        long creating = 0;
+        long fetching = 0;
+        InputStream is = null;
+        try {
+            String etServiceRequest = SiriHelper.createETServiceRequestAsXml(requestorRef, previewIntervalMillis);
+            creating = System.currentTimeMillis()-t1;
+            t1 = System.currentTimeMillis();
+
+            is = HttpUtils.postData(url, etServiceRequest, timeout, requestHeaders);
+            if (is != null) {
+                fetching = System.currentTimeMillis()-t1;
+                SiriStreamReader<EstimatedVehicleJourney> reader =
+                        new SiriStreamReader<>(is, "EstimatedVehicleJourney", EstimatedVehicleJourney.class);
+                ZonedDateTime responseTimestamp = reader.getResponseTimestamp();
+                if (responseTimestamp != null && responseTimestamp.isBefore(lastTimestamp)) {
+                    LOG.info("Newer data has already been processed");
+                    reader.close();
+                    return null;
+                }
+                if (responseTimestamp != null) {
+                    lastTimestamp = responseTimestamp;
+                }
+
+                //All subsequent requests will return changes since last request
+                fullDataset = false;
+                return reader;
+            }
+        } catch (IOException e) {
+            LOG.info("Failed after {} ms", (System.currentTimeMillis()-t1));
+            LOG.warn("Could not get SIRI-ET data from {}, caused by {}", url, e.getMessage());
+            closeQuietly(is);
+        } catch (Exception e) {
+            LOG.info("Failed after {} ms", (System.currentTimeMillis()-t1));
+            LOG.warn("Failed to parse SIRI-ET feed from " + url + ":", e);
+            closeQuietly(is);
+        } finally {
+            LOG.info("Updating ET [{}]: Create req: {}, Fetching data: {}", requestorRef, creating, fetching);
+        }
+        return null;
+    }
+
+    private static void closeQuietly(InputStream is) {
+        if (is != null) {
+            try {
+                is.close();
+            } catch (IOException e) {
+                // Ignore, the stream is being discarded
+            }
+        }
+    }
+
     @Override
     public boolean getFullDatasetValueOfLastUpdates() {
         return fullDataset;
@@ -19,6 +19,7 @@ import org.opentripplanner.updater.*;
 import org.opentripplanner.updater.stoptime.TimetableSnapshotSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import uk.org.siri.siri20.EstimatedVehicleJourney;
 import uk.org.siri.siri20.Siri;
 
 import java.util.concurrent.ExecutionException;
@@ -65,6 +66,11 @@ public class SiriETUpdater extends PollingGraphUpdater {
      */
     private Boolean purgeExpiredData;
 
+    /**
+     * Property to set on the RealtimeDataSnapshotSource
+     */
+    private Integer purgeTimeBudgetMillis;
+
     /**
      * Feed id that is used for the trip ids in the TripUpdates
      */
@@ -75,6 +81,17 @@ public class SiriETUpdater extends PollingGraphUpdater {
      */
     private SiriFuzzyTripMatcher siriFuzzyTripMatcher;
 
+    /**
+     * Whether to read the EstimatedVehicleJourneys of each response one by one as they are downloaded, applying them in chunks,
+     * instead of decoding the whole response first
+     */
+    private boolean streamingXmlParsing;
+
+    /**
+     * The number of EstimatedVehicleJourneys applied at once when streaming
+     */
+    private int streamingChunkSize;
+
     @Override
     public void setGraphUpdaterManager(GraphUpdaterManager updaterManager) {
         this.updaterManager = updaterManager;
@@ -105,6 +122,9 @@ public class SiriETUpdater extends PollingGraphUpdater {
             this.maxSnapshotFrequency = maxSnapshotFrequency;
         }
         this.purgeExpiredData = config.path("purgeExpiredData").asBoolean(true);
+        this.purgeTimeBudgetMillis = TimetableSnapshotSource.readPurgeTimeBudgetMillis(config);
+        this.streamingXmlParsing = config.path("streamingXmlParsing").asBoolean(false);
+        this.streamingChunkSize = config.path("streamingChunkSize").asInt(500);
         if (config.path("fuzzyTripMatching").asBoolean(true)) {
             this.siriFuzzyTripMatcher = new SiriFuzzyTripMatcher(graph.index);
         }
@@ -135,6 +155,9 @@ public class SiriETUpdater extends PollingGraphUpdater {
                 if (purgeExpiredData != null) {
                     snapshotSource.purgeExpiredData = (purgeExpiredData);
                 }
+                if (purgeTimeBudgetMillis != null) {
+                    snapshotSource.purgeTimeBudgetMillis = (purgeTimeBudgetMillis);
+                }
                 if (siriFuzzyTripMatcher != null) {
                     snapshotSource.siriFuzzyTripMatcher = siriFuzzyTripMatcher;
                 }
@@ -148,20 +171,26 @@ public class SiriETUpdater extends PollingGraphUpdater {
      */
     @Override
     public void runPolling() throws Exception {
+        if (streamingXmlParsing && updateSource instanceof SiriETHttpTripUpdateSource) {
+            runStreamingPolling((SiriETHttpTripUpdateSource) updateSource);
+            return;
+        }
+
         // Get update lists from update source
+        long fetchTime = System.nanoTime();
         Siri updates = updateSource.getUpdates();
+        metrics.recordTime(UpdaterMetrics.Stage.FETCH, System.nanoTime() - fetchTime);
         boolean fullDataset = updateSource.getFullDatasetValueOfLastUpdates();
 
         if (updates != null && updates.getServiceDelivery().getEstimatedTimetableDeliveries() != null) {
+            metrics.addReceived(updates.getServiceDelivery().getEstimatedTimetableDeliveries().stream()
+                    .flatMap(delivery -> delivery.getEstimatedJourneyVersionFrames().stream())
+                    .mapToLong(frame -> frame.getEstimatedVehicleJourneies().size())
+                    .sum());
             // Handle trip updates via graph writer runnable
             EstimatedTimetableGraphWriterRunnable runnable =
-                    new EstimatedTimetableGraphWriterRunnable(fullDataset, updates.getServiceDelivery().getEstimatedTimetableDeliveries());
-            if (blockReadinessUntilInitialized && !isInitialized) {
-                LOG.info("Execute blocking tripupdates");
-                updaterManager.executeBlocking(runnable);
-            } else {
-                updaterManager.execute(runnable);
-            }
+                    new EstimatedTimetableGraphWriterRunnable(this, fullDataset, updates.getServiceDelivery().getEstimatedTimetableDeliveries());
+            execute(runnable);
         }
         if (updates != null &&
                 updates.getServiceDelivery() != null &&
@@ -172,6 +201,40 @@ public class SiriETUpdater extends PollingGraphUpdater {
         }
     }
 
+    /**
+     * Like the polling above, but reads the EstimatedVehicleJourneys of the response one by one and applies them in chunks as
+     * soon as they are downloaded, so the whole response is never held in memory at once.
+     */
+    private void runStreamingPolling(SiriETHttpTripUpdateSource source) throws Exception {
+        boolean moreData;
+        long fetchTime = System.nanoTime();
+        try (SiriStreamReader<EstimatedVehicleJourney> reader = source.getUpdateStream()) {
+            metrics.recordTime(UpdaterMetrics.Stage.FETCH, System.nanoTime() - fetchTime);
+            if (reader == null) {
+                return;
+            }
+            long t1 = System.currentTimeMillis();
+            SiriStreamingUpdates.applyInChunks(reader, streamingChunkSize, source.getFullDatasetValueOfLastUpdates(),
+                    (fullDataset, chunk) -> new EstimatedTimetableGraphWriterRunnable(this, fullDataset, SiriHelper.createEstimatedTimetableDeliveries(chunk)),
+                    updaterManager, metrics);
+            moreData = reader.isMoreData();
+            LOG.info("Read {} EstimatedVehicleJourneys in {} ms", reader.getElementCount(), System.currentTimeMillis() - t1);
+        }
+        if (moreData) {
+            LOG.info("More data is available - fetching immediately");
+            runPolling();
+        }
+    }
+
+    private void execute(GraphWriterRunnable runnable) throws InterruptedException, ExecutionException {
+        if (blockReadinessUntilInitialized && !isInitialized) {
+            LOG.info("Execute blocking tripupdates");
+            updaterManager.executeBlocking(runnable);
+        } else {
+            updaterManager.execute(runnable);
+        }
+    }
+
     @Override
     public void teardown() {
     }
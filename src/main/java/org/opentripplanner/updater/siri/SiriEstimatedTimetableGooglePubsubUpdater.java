@@ -35,6 +35,8 @@ import org.opentripplanner.updater.GraphUpdater;
 import org.opentripplanner.updater.GraphUpdaterManager;
 import org.opentripplanner.updater.GraphWriterRunnable;
 import org.opentripplanner.updater.ReadinessBlockingUpdater;
+import org.opentripplanner.updater.SiriProtobufStreamReader;
+import org.opentripplanner.updater.UpdaterMetrics;
 import org.opentripplanner.updater.stoptime.TimetableSnapshotSource;
 import org.opentripplanner.util.HttpUtils;
 import org.slf4j.Logger;
@@ -49,6 +51,7 @@ import java.time.ZonedDateTime;
 import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -72,7 +75,9 @@ import java.util.concurrent.atomic.AtomicLong;
  *   "type": "google-pubsub-siri-et-updater",
  *   "projectName":"project-1234",                                                      // Google Cloud project name
  *   "topicName": "protobuf.estimated_timetables",                                      // Google Cloud Pubsub topic
- *   "dataInitializationUrl": "http://server/realtime/protobuf/et"  // Optional URL used to initialize with all existing data
+ *   "dataInitializationUrl": "http://server/realtime/protobuf/et", // Optional URL used to initialize with all existing data
+ *   "streamingInitialization": true,                                                   // Optional, apply the initial data in chunks while downloading it
+ *   "initializationChunkSize": 500                                                     // Optional, number of journeys per chunk
  * </pre>
  *
  */
@@ -80,6 +85,8 @@ public class SiriEstimatedTimetableGooglePubsubUpdater extends ReadinessBlocking
 
     private static final int DEFAULT_RECONNECT_PERIOD_SEC = 5; // Five seconds
 
+    private static final int DEFAULT_INITIALIZATION_CHUNK_SIZE = 500;
+
     private static Logger LOG = LoggerFactory.getLogger(SiriEstimatedTimetableGooglePubsubUpdater.class);
 
     /**
@@ -102,6 +109,17 @@ public class SiriEstimatedTimetableGooglePubsubUpdater extends ReadinessBlocking
      */
     private int reconnectPeriodSec;
 
+    /**
+     * Whether the initial data is read and applied in chunks of journeys while it is downloaded, instead of being
+     * mapped and applied as a whole.
+     */
+    private boolean streamingInitialization;
+
+    /**
+     * The number of journeys in each chunk of the initial data
+     */
+    private int initializationChunkSize;
+
     private SubscriptionAdminClient subscriptionAdminClient;
     private ProjectSubscriptionName subscriptionName;
     private ProjectTopicName topic;
@@ -112,6 +130,11 @@ public class SiriEstimatedTimetableGooglePubsubUpdater extends ReadinessBlocking
     private static transient final AtomicLong sizeCounter = new AtomicLong(0);
     private transient long startTime;
 
+    /**
+     * Statistics on the messages received
+     */
+    private final UpdaterMetrics metrics = new UpdaterMetrics();
+
     public SiriEstimatedTimetableGooglePubsubUpdater() {
         try {
             if (System.getenv("GOOGLE_APPLICATION_CREDENTIALS") != null &&
@@ -147,6 +170,11 @@ public class SiriEstimatedTimetableGooglePubsubUpdater extends ReadinessBlocking
         }
     }
 
+    @Override
+    public UpdaterMetrics getMetrics() {
+        return metrics;
+    }
+
     @Override
     public void setGraphUpdaterManager(GraphUpdaterManager updaterManager) {
         this.updaterManager = updaterManager;
@@ -163,6 +191,8 @@ public class SiriEstimatedTimetableGooglePubsubUpdater extends ReadinessBlocking
 
         feedId = config.path("feedId").asText("");
         reconnectPeriodSec = config.path("reconnectPeriodSec").asInt(DEFAULT_RECONNECT_PERIOD_SEC);
+        streamingInitialization = config.path("streamingInitialization").asBoolean(true);
+        initializationChunkSize = config.path("initializationChunkSize").asInt(DEFAULT_INITIALIZATION_CHUNK_SIZE);
 
         blockReadinessUntilInitialized = config.path("blockReadinessUntilInitialized").asBoolean(false);
 
@@ -289,8 +319,11 @@ public class SiriEstimatedTimetableGooglePubsubUpdater extends ReadinessBlocking
         return DurationFormatUtils.formatDuration((now() - startTime), "HH:mm:ss");
     }
 
-    private void initializeData(String dataInitializationUrl, EstimatedTimetableMessageReceiver receiver) throws IOException {
-        if (dataInitializationUrl != null) {
+    private void initializeData(String dataInitializationUrl, EstimatedTimetableMessageReceiver receiver) throws IOException,
+            InterruptedException, ExecutionException {
+        if (dataInitializationUrl != null && streamingInitialization) {
+            initializeDataStreaming(dataInitializationUrl);
+        } else if (dataInitializationUrl != null) {
 
             LOG.info("Fetching initial data from " + dataInitializationUrl);
             final long t1 = System.currentTimeMillis();
@@ -325,6 +358,57 @@ public class SiriEstimatedTimetableGooglePubsubUpdater extends ReadinessBlocking
         }
     }
 
+    /**
+     * Fetch the initial data and apply it in chunks as it comes in. Each chunk is mapped to JAXB on this thread while
+     * the previous one is applied on the graph writer thread. A chunk is only handed to the graph writer once the
+     * previous one is applied, so at most two chunks are kept in memory.
+     *
+     * When an attempt fails midway, the next one downloads a new document and applies it as a whole. Journeys may
+     * have been added, removed or reordered in the meantime, and applying a journey again is harmless.
+     */
+    private void initializeDataStreaming(String dataInitializationUrl) throws IOException, InterruptedException,
+            ExecutionException {
+        LOG.info("Fetching initial data from " + dataInitializationUrl);
+        final long t1 = System.currentTimeMillis();
+
+        int chunkCount = 0;
+        try (SiriProtobufStreamReader reader = new SiriProtobufStreamReader(
+                HttpUtils.getData(dataInitializationUrl, "Content-Type", "application/x-protobuf"),
+                "ServiceDelivery", "EstimatedTimetableDelivery", "EstimatedJourneyVersionFrame",
+                "EstimatedVehicleJourney")) {
+            Future<?> previousChunk = null;
+            Siri siri;
+            while (true) {
+                long parseTime = System.nanoTime();
+                siri = reader.next(initializationChunkSize);
+                metrics.recordTime(UpdaterMetrics.Stage.PARSE, System.nanoTime() - parseTime);
+                if (siri == null) {
+                    break;
+                }
+                if (previousChunk != null) {
+                    previousChunk.get();
+                }
+                previousChunk = updaterManager.executeReturningFuture(new EstimatedTimetableGraphWriterRunnable(this, false,
+                        siri.getServiceDelivery().getEstimatedTimetableDeliveries()));
+                chunkCount++;
+            }
+            if (previousChunk != null) {
+                previousChunk.get();
+            }
+            updateCounter.addAndGet(reader.getElementCount());
+            metrics.addReceived(reader.getElementCount());
+        }
+
+        LOG.info("Pubsub updater initialized after {} ms: [chunks: {},  updates: {}, time since startup: {}]",
+                (System.currentTimeMillis() - t1),
+                chunkCount,
+                updateCounter.get(),
+                getTimeSinceStartupString()
+        );
+
+        isInitialized = true;
+    }
+
     class EstimatedTimetableMessageReceiver implements MessageReceiver {
         @Override
         public void receiveMessage(PubsubMessage message, AckReplyConsumer consumer) {
@@ -335,8 +419,10 @@ public class SiriEstimatedTimetableGooglePubsubUpdater extends ReadinessBlocking
 
                 final ByteString data = message.getData();
 
+                long parseTime = System.nanoTime();
                 final SiriType siriType = SiriType.parseFrom(data);
                 siri = SiriMapper.mapToJaxb(siriType);
+                metrics.recordTime(UpdaterMetrics.Stage.PARSE, System.nanoTime() - parseTime);
 
             } catch (InvalidProtocolBufferException e) {
                 throw new RuntimeException(e);
@@ -353,6 +439,7 @@ public class SiriEstimatedTimetableGooglePubsubUpdater extends ReadinessBlocking
                     //ignore
                 }
                 long numberOfUpdates = updateCounter.addAndGet(numberOfUpdatedTrips);
+                metrics.addReceived(numberOfUpdatedTrips);
                 long numberOfMessages = messageCounter.incrementAndGet();
 
                 if (numberOfMessages % 1000 == 0) {
@@ -362,7 +449,7 @@ public class SiriEstimatedTimetableGooglePubsubUpdater extends ReadinessBlocking
                 }
 
                 EstimatedTimetableGraphWriterRunnable runnable =
-                        new EstimatedTimetableGraphWriterRunnable(false,
+                        new EstimatedTimetableGraphWriterRunnable(SiriEstimatedTimetableGooglePubsubUpdater.this, false,
                                 estimatedTimetableDeliveries);
 
                 if (!isReady()) {
@@ -73,7 +73,7 @@ public class SiriLiteETUpdater extends SiriETUpdater {
         if (updates != null && updates.getServiceDelivery().getEstimatedTimetableDeliveries() != null) {
             // Handle trip updates via graph writer runnable
             EstimatedTimetableGraphWriterRunnable runnable =
-                    new EstimatedTimetableGraphWriterRunnable(fullDataset, updates.getServiceDelivery().getEstimatedTimetableDeliveries());
+                    new EstimatedTimetableGraphWriterRunnable(this, fullDataset, updates.getServiceDelivery().getEstimatedTimetableDeliveries());
             super.updaterManager.execute(runnable);
         }
         if (updates != null &&
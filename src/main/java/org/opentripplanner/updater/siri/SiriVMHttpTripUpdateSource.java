@@ -17,11 +17,14 @@ import com.fasterxml.jackson.databind.JsonNode;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.updater.JsonConfigurable;
 import org.opentripplanner.updater.SiriHelper;
+import org.opentripplanner.updater.SiriStreamReader;
 import org.opentripplanner.util.HttpUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import uk.org.siri.siri20.Siri;
+import uk.org.siri.siri20.VehicleActivityStructure;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.time.ZonedDateTime;
 import java.util.HashMap;
@@ -122,29 +125,87 @@ public class SiriVMHttpTripUpdateSource implements VehicleMonitoringSource, Json
             LOG.info("Failed after {} ms", (System.currentTimeMillis()-t1));
             LOG.warn("Failed to parse SIRI-VM feed from " + url + ":", e);
 
-            final long sleepTime = retryIntervalMillis + retryIntervalMillis * retryCount;
+            waitBeforeRetry();
 
-            retryCount++;
+            return getUpdates();
 
-            LOG.info("Caught timeout - retry no. {} after {} millis", retryCount, sleepTime);
+        } finally {
+            LOG.info("Updating VM [{}]: Create req: {}, Fetching data: {}, Unmarshalling: {}", requestorRef, creating, fetching, unmarshalling);
+        }
+        return null;
+    }
 
-            try {
-                Thread.sleep(sleepTime);
-            } catch (InterruptedException ex) {
-                // Ignore
-            }
+    /**
+     * Like {@link #getUpdates()}, but instead of decoding the whole response up front, returns a reader handing out
+     * its VehicleActivities as they are downloaded. The ResponseTimestamp has already been checked.
+     *
+     * @return the reader, which the caller must close, or null if there is no new data.
+     */
+    public SiriStreamReader<VehicleActivityStructure> getUpdateStream() {
+        long t1 = System.currentTimeMillis();
+        long creating = 0;
+        long fetching = 0;
 
-            // Creating new requestorRef so all data is refreshed
-            requestorRef = originalRequestorRef + "-retry-" + retryCount;
+        fullDataset = false;
+        InputStream is = null;
+        try {
+            String vmServiceRequest = SiriHelper.createVMServiceRequestAsXml(requestorRef);
+            creating = System.currentTimeMillis()-t1;
+            t1 = System.currentTimeMillis();
 
-            return getUpdates();
+            is = HttpUtils.postData(url, vmServiceRequest, timeout, requestHeaders);
+            if (is != null) {
+                fetching = System.currentTimeMillis()-t1;
+                SiriStreamReader<VehicleActivityStructure> reader =
+                        new SiriStreamReader<>(is, "VehicleActivity", VehicleActivityStructure.class);
+                ZonedDateTime responseTimestamp = reader.getResponseTimestamp();
+                if (responseTimestamp != null && responseTimestamp.isBefore(lastTimestamp)) {
+                    LOG.info("Newer data has already been processed");
+                    reader.close();
+                    return null;
+                }
+                if (responseTimestamp != null) {
+                    lastTimestamp = responseTimestamp;
+                }
+                return reader;
+            }
+        } catch (Exception e) {
+            LOG.info("Failed after {} ms", (System.currentTimeMillis()-t1));
+            LOG.warn("Failed to parse SIRI-VM feed from " + url + ":", e);
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (IOException ex) {
+                    // Ignore, the stream is being discarded
+                }
+            }
 
+            waitBeforeRetry();
+
+            return getUpdateStream();
         } finally {
-            LOG.info("Updating VM [{}]: Create req: {}, Fetching data: {}, Unmarshalling: {}", requestorRef, creating, fetching, unmarshalling);
+            LOG.info("Updating VM [{}]: Create req: {}, Fetching data: {}", requestorRef, creating, fetching);
         }
         return null;
     }
 
+    private void waitBeforeRetry() {
+        final long sleepTime = retryIntervalMillis + retryIntervalMillis * retryCount;
+
+        retryCount++;
+
+        LOG.info("Caught timeout - retry no. {} after {} millis", retryCount, sleepTime);
+
+        try {
+            Thread.sleep(sleepTime);
+        } catch (InterruptedException ex) {
+            // Ignore
+        }
+
+        // Creating new requestorRef so all data is refreshed
+        requestorRef = originalRequestorRef + "-retry-" + retryCount;
+    }
+
     @Override
     public boolean getFullDatasetValueOfLastUpdates() {
         return fullDataset;
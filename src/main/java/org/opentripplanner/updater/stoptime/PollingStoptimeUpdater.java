@@ -66,6 +66,11 @@ public class PollingStoptimeUpdater extends PollingGraphUpdater {
      */
     private Boolean purgeExpiredData;
 
+    /**
+     * Property to set on the RealtimeDataSnapshotSource
+     */
+    private Integer purgeTimeBudgetMillis;
+
     /**
      * Feed id that is used for the trip ids in the TripUpdates
      */
@@ -112,6 +117,7 @@ public class PollingStoptimeUpdater extends PollingGraphUpdater {
             this.maxSnapshotFrequency = maxSnapshotFrequency;
         }
         this.purgeExpiredData = config.path("purgeExpiredData").asBoolean(true);
+        this.purgeTimeBudgetMillis = TimetableSnapshotSource.readPurgeTimeBudgetMillis(config);
         if (config.path("fuzzyTripMatching").asBoolean(false)) {
             this.fuzzyTripMatcher = new GtfsRealtimeFuzzyTripMatcher(graph.index);
         }
@@ -142,6 +148,9 @@ public class PollingStoptimeUpdater extends PollingGraphUpdater {
                 if (purgeExpiredData != null) {
                     snapshotSource.purgeExpiredData = (purgeExpiredData);
                 }
+                if (purgeTimeBudgetMillis != null) {
+                    snapshotSource.purgeTimeBudgetMillis = (purgeTimeBudgetMillis);
+                }
                 if (fuzzyTripMatcher != null) {
                     snapshotSource.fuzzyTripMatcher = fuzzyTripMatcher;
                 }
@@ -156,10 +165,13 @@ public class PollingStoptimeUpdater extends PollingGraphUpdater {
     @Override
     public void runPolling() {
         // Get update lists from update source
+        long fetchTime = System.nanoTime();
         List<TripUpdate> updates = updateSource.getUpdates();
+        metrics.recordTime(UpdaterMetrics.Stage.FETCH, System.nanoTime() - fetchTime);
         boolean fullDataset = updateSource.getFullDatasetValueOfLastUpdates();
 
         if (updates != null) {
+            metrics.addReceived(updates.size());
             // Handle trip updates via graph writer runnable
             TripUpdateGraphWriterRunnable runnable =
                     new TripUpdateGraphWriterRunnable(fullDataset, updates, feedId);
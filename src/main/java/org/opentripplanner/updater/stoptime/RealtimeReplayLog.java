@@ -0,0 +1,490 @@
+package org.opentripplanner.updater.stoptime;
+
+import com.google.transit.realtime.GtfsRealtime.TripUpdate;
+import org.entur.protobuf.mapper.SiriMapper;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.updater.SiriHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.org.siri.siri20.EstimatedTimetableDeliveryStructure;
+import uk.org.siri.siri20.EstimatedVehicleJourney;
+import uk.org.siri.siri20.EstimatedVersionFrameStructure;
+import uk.org.siri.siri20.ServiceDelivery;
+import uk.org.siri.siri20.Siri;
+import uk.org.siri.www.siri.SiriType;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * An append-only local log of the realtime updates applied by a {@link TimetableSnapshotSource}, which is replayed
+ * when the server starts, so the realtime state is restored before the updaters have fetched it again.
+ *
+ * The log holds the incoming messages rather than the resulting TripTimes: GTFS-RT TripUpdates as they are, and SIRI
+ * EstimatedVehicleJourneys in their protobuf form, one record for all the journeys of a delivery. Replaying them runs
+ * the same matching and updating as the live updates, so the log stays valid when the graph is rebuilt, and it is as
+ * compact as the protobuf messages.
+ *
+ * Every so many records, the log is rewritten as a checkpoint holding only the records which are the latest for one of
+ * their trips, without the records made obsolete by a full dataset or older than the maximum age. This also happens
+ * right after the replay at startup. The checkpoint is written on a background thread: the log is first renamed,
+ * new records go to a fresh log, and once the renamed log is compacted the records appended in the meantime are added
+ * to it and it replaces the log. Until then, reading the log reads the renamed log first. A checkpoint is written to
+ * a temporary file which then replaces the log, so the log is never lost half-written. A record cut off by a crash is
+ * ignored when reading.
+ *
+ * Writing the log never fails an update: when the file cannot be written, an error is logged and logging stops.
+ */
+public class RealtimeReplayLog implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RealtimeReplayLog.class);
+
+    private static final int MAGIC = 0x4F545052; // "OTPR"
+
+    private static final int VERSION = 2;
+
+    private static final byte CLEAR = 0;
+
+    private static final byte TRIP_UPDATE = 1;
+
+    private static final byte ESTIMATED_VEHICLE_JOURNEY = 2;
+
+    /** The maximum number of records applied at once when replaying. */
+    private static final int REPLAY_BATCH_SIZE = 1000;
+
+    private final File file;
+
+    /** The log being compacted by a background checkpoint, whose records come before those of the log. */
+    private final File rotatedFile;
+
+    private final File checkpointFile;
+
+    private final int checkpointInterval;
+
+    private final long maxAgeMillis;
+
+    private final ExecutorService checkpointExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "realtime-replay-log-checkpoint");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private DataOutputStream output;
+
+    private int recordsSinceCheckpoint = 0;
+
+    /** The checkpoint running in the background, if any. */
+    private Future<?> pendingCheckpoint;
+
+    private boolean failed = false;
+
+    /**
+     * @param checkpointInterval the number of records after which the log is rewritten as a checkpoint
+     * @param maxAgeMillis the age after which records are left out of checkpoints and not replayed
+     */
+    public RealtimeReplayLog(File file, int checkpointInterval, long maxAgeMillis) {
+        this.file = file;
+        this.rotatedFile = new File(file.getPath() + ".rotated");
+        this.checkpointFile = new File(file.getPath() + ".tmp");
+        this.checkpointInterval = checkpointInterval;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /** Record that all updates of a feed were cleared, as is done before applying a full dataset. */
+    public synchronized void logClear(String feedId) {
+        append(new Record(CLEAR, feedId, Collections.emptyList(), new byte[0]));
+    }
+
+    public synchronized void logTripUpdate(String feedId, TripUpdate tripUpdate) {
+        List<String> keys = Collections.emptyList();
+        if (tripUpdate.hasTrip() && tripUpdate.getTrip().hasTripId()) {
+            keys = Collections.singletonList(tripUpdate.getTrip().getTripId() + "/"
+                    + tripUpdate.getTrip().getStartDate());
+        }
+        append(new Record(TRIP_UPDATE, feedId, keys, tripUpdate.toByteArray()));
+    }
+
+    /** Record the journeys of a delivery, which are mapped to protobuf and written together. */
+    public synchronized void logEstimatedVehicleJourneys(String feedId, List<EstimatedVehicleJourney> journeys) {
+        if (failed || journeys.isEmpty()) {
+            return;
+        }
+        List<String> keys = new ArrayList<>(journeys.size());
+        for (EstimatedVehicleJourney journey : journeys) {
+            String key = getKey(journey);
+            if (!key.isEmpty()) {
+                keys.add(key);
+            }
+        }
+        ServiceDelivery serviceDelivery = new ServiceDelivery();
+        serviceDelivery.getEstimatedTimetableDeliveries().addAll(
+                SiriHelper.createEstimatedTimetableDeliveries(journeys));
+        Siri siri = new Siri();
+        siri.setServiceDelivery(serviceDelivery);
+        // A journey without a key can never be replaced by a later record, so neither can the whole record
+        append(new Record(ESTIMATED_VEHICLE_JOURNEY, feedId, keys.size() == journeys.size() ? keys :
+                Collections.emptyList(), SiriMapper.mapToPbf(siri).toByteArray()));
+    }
+
+    /** Write the records logged so far to the file. This is called after each applied message. */
+    public synchronized void flush() {
+        if (output == null) {
+            return;
+        }
+        try {
+            output.flush();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Apply the records of the log to the given snapshot source, and rewrite the log as a checkpoint. Records are
+     * applied in batches of consecutive records of the same kind and feed.
+     *
+     * @return the number of records replayed
+     */
+    public synchronized int replay(Graph graph, TimetableSnapshotSource snapshotSource) {
+        long startTime = System.currentTimeMillis();
+        closeOutput();
+        List<Record> records = compact(readRecords());
+        int i = 0;
+        while (i < records.size()) {
+            Record first = records.get(i);
+            int end = i + 1;
+            while (end < records.size() && end - i < REPLAY_BATCH_SIZE && records.get(end).type == first.type
+                    && records.get(end).feedId.equals(first.feedId)) {
+                end++;
+            }
+            try {
+                apply(graph, snapshotSource, records.subList(i, end));
+            } catch (Exception e) {
+                LOG.warn("Could not replay {} realtime updates: {}", end - i, e.getMessage());
+            }
+            i = end;
+        }
+        LOG.info("Replayed {} realtime updates from {} in {} ms.", records.size(), file,
+                System.currentTimeMillis() - startTime);
+        if (writeCheckpoint(records, Collections.emptyList())) {
+            rotatedFile.delete();
+            recordsSinceCheckpoint = 0;
+        }
+        return records.size();
+    }
+
+    /**
+     * Start rewriting the log in the background, keeping only the records needed to restore the current state. Does
+     * nothing if a checkpoint is already running.
+     */
+    public synchronized void checkpoint() {
+        if (failed || (pendingCheckpoint != null && !pendingCheckpoint.isDone())) {
+            return;
+        }
+        closeOutput();
+        // A rotated log left by a crash is compacted along with the records appended after it
+        if (!rotatedFile.exists() && file.exists()) {
+            try {
+                Files.move(file.toPath(), rotatedFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                fail(e);
+                return;
+            }
+        }
+        recordsSinceCheckpoint = 0;
+        pendingCheckpoint = checkpointExecutor.submit(this::finishCheckpoint);
+    }
+
+    /** Wait for the checkpoint running in the background, if any. */
+    synchronized void awaitCheckpoint() {
+        Future<?> checkpoint = pendingCheckpoint;
+        if (checkpoint == null) {
+            return;
+        }
+        try {
+            // Release the lock, the end of the checkpoint needs it
+            while (!checkpoint.isDone()) {
+                wait(100);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        awaitCheckpoint();
+        checkpointExecutor.shutdown();
+        closeOutput();
+    }
+
+    /**
+     * Compact the rotated log, then add the records appended to the log since it was rotated and replace the log
+     * with the result. Only that last step holds the lock, the appended records are few.
+     */
+    private void finishCheckpoint() {
+        List<Record> rotated = compact(readRecords(rotatedFile));
+        synchronized (this) {
+            try {
+                if (failed) {
+                    return;
+                }
+                closeOutput();
+                if (writeCheckpoint(rotated, readRecords(file))) {
+                    rotatedFile.delete();
+                }
+            } finally {
+                notifyAll();
+            }
+        }
+    }
+
+    private void append(Record record) {
+        if (failed) {
+            return;
+        }
+        try {
+            if (output == null) {
+                boolean exists = file.exists() && file.length() > 0;
+                output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+                if (!exists) {
+                    output.writeInt(MAGIC);
+                    output.writeInt(VERSION);
+                }
+            }
+            write(output, record);
+        } catch (IOException e) {
+            fail(e);
+            return;
+        }
+        if (++recordsSinceCheckpoint >= checkpointInterval) {
+            checkpoint();
+        }
+    }
+
+    private void apply(Graph graph, TimetableSnapshotSource snapshotSource, List<Record> records) throws IOException {
+        Record first = records.get(0);
+        if (first.type == TRIP_UPDATE) {
+            List<TripUpdate> tripUpdates = new ArrayList<>(records.size());
+            for (Record record : records) {
+                tripUpdates.add(TripUpdate.parseFrom(record.payload));
+            }
+            snapshotSource.applyTripUpdates(graph, false, tripUpdates, first.feedId);
+        } else if (first.type == ESTIMATED_VEHICLE_JOURNEY) {
+            List<EstimatedVehicleJourney> journeys = new ArrayList<>(records.size());
+            for (Record record : records) {
+                Siri siri = SiriMapper.mapToJaxb(SiriType.parseFrom(record.payload));
+                for (EstimatedTimetableDeliveryStructure delivery :
+                        siri.getServiceDelivery().getEstimatedTimetableDeliveries()) {
+                    for (EstimatedVersionFrameStructure frame : delivery.getEstimatedJourneyVersionFrames()) {
+                        journeys.addAll(frame.getEstimatedVehicleJourneies());
+                    }
+                }
+            }
+            snapshotSource.applyEstimatedTimetable(graph, false,
+                    SiriHelper.createEstimatedTimetableDeliveries(journeys));
+        }
+    }
+
+    /**
+     * Keep the records which are the latest for at least one of their trips, leaving out cleared and expired records.
+     * The records keep their order, so replaying a record also holding outdated journeys is corrected by the later
+     * records of those journeys.
+     */
+    private List<Record> compact(List<Record> records) {
+        long minTimestamp = System.currentTimeMillis() - maxAgeMillis;
+        Set<List<Object>> laterKeys = new HashSet<>();
+        Set<String> laterClears = new HashSet<>();
+        List<Record> kept = new ArrayList<>();
+        // Walk back from the latest record, which sees every record replacing it first
+        for (int i = records.size() - 1; i >= 0; i--) {
+            Record record = records.get(i);
+            if (record.timestamp < minTimestamp) {
+                continue;
+            }
+            if (record.type == CLEAR) {
+                // The snapshot source starts out empty, so the clear itself is not needed anymore
+                laterClears.add(record.feedId);
+                continue;
+            }
+            if (laterClears.contains(record.feedId)) {
+                continue;
+            }
+            // Records without keys cannot be replaced by later ones, they are all kept
+            boolean latest = record.keys.isEmpty();
+            for (String key : record.keys) {
+                latest |= laterKeys.add(Arrays.asList(record.type, record.feedId, key));
+            }
+            if (latest) {
+                kept.add(record);
+            }
+        }
+        Collections.reverse(kept);
+        return kept;
+    }
+
+    /** @return the records of the rotated log, if any, followed by those of the log. */
+    private List<Record> readRecords() {
+        List<Record> records = readRecords(rotatedFile);
+        records.addAll(readRecords(file));
+        return records;
+    }
+
+    private List<Record> readRecords(File file) {
+        List<Record> records = new ArrayList<>();
+        if (!file.exists()) {
+            return records;
+        }
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                LOG.warn("Ignoring realtime replay log {} written in an unknown format.", file);
+                return records;
+            }
+            while (true) {
+                byte type;
+                try {
+                    type = input.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                String feedId = input.readUTF();
+                int nKeys = input.readInt();
+                List<String> keys = new ArrayList<>(nKeys);
+                for (int i = 0; i < nKeys; i++) {
+                    keys.add(input.readUTF());
+                }
+                long timestamp = input.readLong();
+                byte[] payload = new byte[input.readInt()];
+                input.readFully(payload);
+                records.add(new Record(type, feedId, keys, timestamp, payload));
+            }
+        } catch (EOFException e) {
+            LOG.warn("Ignoring the incomplete last record of realtime replay log {}.", file);
+        } catch (IOException e) {
+            LOG.error("Could not read realtime replay log {}: {}", file, e.getMessage());
+        }
+        return records;
+    }
+
+    /**
+     * Replace the log with the given records, written to a temporary file first.
+     *
+     * @return whether the log was replaced.
+     */
+    private boolean writeCheckpoint(List<Record> records, List<Record> moreRecords) {
+        try (DataOutputStream checkpoint =
+                     new DataOutputStream(new BufferedOutputStream(new FileOutputStream(checkpointFile)))) {
+            checkpoint.writeInt(MAGIC);
+            checkpoint.writeInt(VERSION);
+            for (Record record : records) {
+                write(checkpoint, record);
+            }
+            for (Record record : moreRecords) {
+                write(checkpoint, record);
+            }
+        } catch (IOException e) {
+            fail(e);
+            return false;
+        }
+        try {
+            Files.move(checkpointFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            fail(e);
+            return false;
+        }
+        LOG.debug("Wrote checkpoint of {} realtime updates to {}.", records.size() + moreRecords.size(), file);
+        return true;
+    }
+
+    private void closeOutput() {
+        if (output != null) {
+            DataOutputStream closing = output;
+            output = null;
+            try {
+                closing.close();
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+    }
+
+    private void fail(IOException e) {
+        LOG.error("Could not write realtime replay log {}, no more updates will be logged: {}", file,
+                e.getMessage());
+        failed = true;
+        if (output != null) {
+            DataOutputStream closing = output;
+            output = null;
+            try {
+                closing.close();
+            } catch (IOException closeException) {
+                LOG.debug("Could not close realtime replay log {} either.", file, closeException);
+            }
+        }
+    }
+
+    private static void write(DataOutputStream output, Record record) throws IOException {
+        output.writeByte(record.type);
+        output.writeUTF(record.feedId);
+        output.writeInt(record.keys.size());
+        for (String key : record.keys) {
+            output.writeUTF(key);
+        }
+        output.writeLong(record.timestamp);
+        output.writeInt(record.payload.length);
+        output.write(record.payload);
+    }
+
+    private static String getKey(EstimatedVehicleJourney journey) {
+        if (journey.getFramedVehicleJourneyRef() != null) {
+            String dataFrameRef = journey.getFramedVehicleJourneyRef().getDataFrameRef() != null ?
+                    journey.getFramedVehicleJourneyRef().getDataFrameRef().getValue() : "";
+            return dataFrameRef + "/" + journey.getFramedVehicleJourneyRef().getDatedVehicleJourneyRef();
+        } else if (journey.getDatedVehicleJourneyRef() != null) {
+            return journey.getDatedVehicleJourneyRef().getValue();
+        } else if (journey.getEstimatedVehicleJourneyCode() != null) {
+            return journey.getEstimatedVehicleJourneyCode();
+        }
+        return "";
+    }
+
+    private static class Record {
+        final byte type;
+        final String feedId;
+        /** The trips this record updates, empty if they are not known. */
+        final List<String> keys;
+        final long timestamp;
+        final byte[] payload;
+
+        Record(byte type, String feedId, List<String> keys, byte[] payload) {
+            this(type, feedId, keys, System.currentTimeMillis(), payload);
+        }
+
+        Record(byte type, String feedId, List<String> keys, long timestamp, byte[] payload) {
+            this.type = type;
+            this.feedId = feedId;
+            this.keys = keys;
+            this.timestamp = timestamp;
+            this.payload = payload;
+        }
+    }
+}
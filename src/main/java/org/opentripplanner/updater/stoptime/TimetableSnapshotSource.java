@@ -13,6 +13,7 @@
 
 package org.opentripplanner.updater.stoptime;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.base.Preconditions;
 import com.google.transit.realtime.GtfsRealtime.TripDescriptor;
 import com.google.transit.realtime.GtfsRealtime.TripUpdate;
@@ -36,6 +37,8 @@ import org.opentripplanner.routing.trippattern.RealTimeState;
 import org.opentripplanner.routing.trippattern.TripTimes;
 import org.opentripplanner.updater.GtfsRealtimeFuzzyTripMatcher;
 import org.opentripplanner.updater.SiriFuzzyTripMatcher;
+import org.opentripplanner.updater.UpdaterMetrics;
+import org.opentripplanner.updater.WindowedMaximum;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import uk.org.siri.siri20.ArrivalBoardingActivityEnumeration;
@@ -62,10 +65,20 @@ import java.util.Calendar;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
 
 import static org.opentripplanner.model.StopPattern.PICKDROP_NONE;
 import static org.opentripplanner.model.StopPattern.PICKDROP_SCHEDULED;
@@ -88,6 +101,11 @@ public class TimetableSnapshotSource {
      */
     private static final long MAX_ARRIVAL_DEPARTURE_TIME = 48 * 60 * 60;
 
+    /**
+     * Length of the window over which the largest staleness of the snapshots handed to requests is reported
+     */
+    private static final long STALENESS_WINDOW_MILLIS = 60 * MILLIS_PER_SECOND;
+
     public int logFrequency = 2000;
 
     private int appliedBlockCount = 0;
@@ -112,11 +130,60 @@ public class TimetableSnapshotSource {
      */
     private final TimetableSnapshot buffer = new TimetableSnapshot();
 
+    /**
+     * Deliveries with at least this many journeys are matched to trips in parallel
+     */
+    private static final int PARALLEL_MATCHING_THRESHOLD = 64;
+
+    /**
+     * Threads matching the journeys of large SIRI-ET deliveries to trips
+     */
+    private static final ForkJoinPool MATCHING_POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+            pool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("siri-trip-matcher-" + thread.getPoolIndex());
+                return thread;
+            }, null, false);
+
+    /**
+     * Publishes snapshots that could not be committed right after an update because of maxSnapshotFrequency
+     */
+    private static final ScheduledExecutorService SNAPSHOT_PUBLISHER = Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+                Thread thread = new Thread(runnable, "timetable-snapshot-publisher");
+                thread.setDaemon(true);
+                return thread;
+            });
+
     /**
      * Lock to indicate that buffer is in use
      */
     private final ReentrantLock bufferLock = new ReentrantLock(true);
 
+    /** Whether a publication of the buffer is scheduled on the SNAPSHOT_PUBLISHER. Guarded by bufferLock. */
+    private boolean publicationScheduled = false;
+
+    /**
+     * The number of full datasets being applied in several chunks, during which the buffer is not published, so
+     * requests never see a buffer cleared by a full dataset and only partly filled again. Guarded by bufferLock.
+     */
+    private int publicationHolds = 0;
+
+    /** When the current snapshot was published, in milliseconds since the epoch. */
+    private volatile long snapshotPublishedTime = 0;
+
+    /** Since when the buffer holds updates not yet published, in milliseconds since the epoch, or 0 if it holds none. */
+    private volatile long bufferDirtySince = 0;
+
+    /** Statistics on the snapshots handed to requests. */
+    private final LongAdder snapshotReads = new LongAdder();
+    private final WindowedMaximum maxSnapshotStalenessSeen = new WindowedMaximum(STALENESS_WINDOW_MILLIS, 6);
+
+    /** Statistics on the updates applied, for each kind of update. */
+    private final UpdaterMetrics tripUpdateMetrics = new UpdaterMetrics();
+    private final UpdaterMetrics estimatedTimetableMetrics = new UpdaterMetrics();
+    private final UpdaterMetrics vehicleMonitoringMetrics = new UpdaterMetrics();
+
     /**
      * A synchronized cache of trip patterns that are added to the graph due to GTFS-realtime messages.
      */
@@ -125,7 +192,28 @@ public class TimetableSnapshotSource {
     /** Should expired realtime data be purged from the graph. */
     public boolean purgeExpiredData = true;
 
-    protected ServiceDate lastPurgeDate = null;
+    /**
+     * The maximum time spent purging expired realtime data after each update, in milliseconds. Whatever is left is
+     * purged after the next updates, so a day expiring does not hold the buffer for a long time at once.
+     */
+    public int purgeTimeBudgetMillis = 20;
+
+    /**
+     * Read the time budget of the purge of expired realtime data from the configuration of an updater, shared by the
+     * updaters creating a snapshot source.
+     *
+     * @return the configured purgeTimeBudgetMs, or null if it is missing or negative, to keep the current budget.
+     */
+    public static Integer readPurgeTimeBudgetMillis(JsonNode config) {
+        int purgeTimeBudgetMillis = config.path("purgeTimeBudgetMs").asInt(-1);
+        return purgeTimeBudgetMillis >= 0 ? purgeTimeBudgetMillis : null;
+    }
+
+    /**
+     * If set, the incoming GTFS-RT TripUpdates and SIRI EstimatedVehicleJourneys are written to this log, so they can
+     * be replayed after a restart. Set once the log has been replayed, so replayed updates are not logged again.
+     */
+    public volatile RealtimeReplayLog replayLog = null;
 
     protected long lastSnapshotTime = -1;
 
@@ -157,48 +245,165 @@ public class TimetableSnapshotSource {
         return SIRI_FEED_ID;
     }
 
+    /** @return the number of snapshots committed from the buffer. */
+    public long getSnapshotCommitCount() {
+        return buffer.getCommitCount();
+    }
+
+    /** @return the total time spent committing snapshots, in nanoseconds. */
+    public long getTotalSnapshotCommitNanos() {
+        return buffer.getTotalCommitNanos();
+    }
+
+    /** @return the duration of the last snapshot commit, in nanoseconds. */
+    public long getLastSnapshotCommitNanos() {
+        return buffer.getLastCommitNanos();
+    }
+
+    /** @return the number of timetables changed in the last snapshot commit. */
+    public int getLastSnapshotChangedTimetables() {
+        return buffer.getLastCommitChangedTimetables();
+    }
+
+    /** @return the time since the current snapshot was published, in milliseconds. */
+    public long getSnapshotAgeMillis() {
+        return snapshotPublishedTime == 0 ? 0 : System.currentTimeMillis() - snapshotPublishedTime;
+    }
+
     /**
-     * @return an up-to-date snapshot mapping TripPatterns to Timetables. This snapshot and the
+     * @return how long the oldest realtime update not yet visible to requests has been waiting to be published, in
+     *         milliseconds, or 0 if all updates have been published.
+     */
+    public long getSnapshotStalenessMillis() {
+        long dirtySince = bufferDirtySince;
+        return dirtySince == 0 ? 0 : System.currentTimeMillis() - dirtySince;
+    }
+
+    /**
+     * @return the largest staleness of the snapshot handed to any request over the last minute, in milliseconds. A
+     *         single stall is only reported for a minute, so it does not hide the staleness seen afterwards.
+     */
+    public long getMaxSnapshotStalenessSeenMillis() {
+        return maxSnapshotStalenessSeen.get(System.currentTimeMillis());
+    }
+
+    /** @return the number of times a snapshot was handed to a request. */
+    public long getSnapshotReadCount() {
+        return snapshotReads.sum();
+    }
+
+    /** @return the statistics on the GTFS-RT, SIRI-ET and SIRI-VM updates applied, by kind of update. */
+    public Map<String, UpdaterMetrics> getMetrics() {
+        Map<String, UpdaterMetrics> metrics = new LinkedHashMap<>();
+        metrics.put("gtfs-rt", tripUpdateMetrics);
+        metrics.put("siri-et", estimatedTimetableMetrics);
+        metrics.put("siri-vm", vehicleMonitoringMetrics);
+        return metrics;
+    }
+
+    /**
+     * @return the latest published snapshot mapping TripPatterns to Timetables. This snapshot and the
      *         timetable objects it references are guaranteed to never change, so the requesting
      *         thread is provided a consistent view of all TripTimes. The routing thread need only
      *         release its reference to the snapshot to release resources.
+     *
+     *         Snapshots are only committed and published by the threads applying updates, so this never
+     *         takes a lock or commits on the request thread.
      */
     public TimetableSnapshot getTimetableSnapshot() {
-        TimetableSnapshot snapshotToReturn;
-
-        // Try to get a lock on the buffer
-        if (bufferLock.tryLock()) {
-            // Make a new snapshot if necessary
-            try {
-                snapshotToReturn = getTimetableSnapshot(false);
-            } finally {
-                bufferLock.unlock();
-            }
-        } else {
-            // No lock could be obtained because there is either a snapshot commit busy or updates
-            // are applied at this moment, just return the current snapshot
-            snapshotToReturn = snapshot;
+        long dirtySince = bufferDirtySince;
+        if (dirtySince != 0) {
+            long now = System.currentTimeMillis();
+            maxSnapshotStalenessSeen.record(now, now - dirtySince);
         }
-
-        return snapshotToReturn;
+        snapshotReads.increment();
+        return snapshot;
     }
 
+    /**
+     * Commit the buffer and publish it as the new snapshot, unless the previous snapshot was published less than
+     * maxSnapshotFrequency ago. In that case a publication is scheduled for when that time has passed, so the
+     * updates are published even if no further update arrives. Must be called while holding the buffer lock.
+     */
     private TimetableSnapshot getTimetableSnapshot(final boolean force) {
         final long now = System.currentTimeMillis();
+        if (publicationHolds > 0) {
+            LOG.debug("Publication is held back. Reusing snapshot {}", snapshot);
+            if (buffer.isDirty() && bufferDirtySince == 0) {
+                bufferDirtySince = now;
+            }
+            return snapshot;
+        }
         if (force || now - lastSnapshotTime > maxSnapshotFrequency) {
             if (force || buffer.isDirty()) {
                 LOG.debug("Committing {}", buffer.toString());
                 snapshot = buffer.commit(force);
+                snapshotPublishedTime = System.currentTimeMillis();
+                bufferDirtySince = 0;
+                tripUpdateMetrics.recordPublished(snapshotPublishedTime);
+                estimatedTimetableMetrics.recordPublished(snapshotPublishedTime);
+                vehicleMonitoringMetrics.recordPublished(snapshotPublishedTime);
             } else {
                 LOG.debug("Buffer was unchanged, keeping old snapshot.");
             }
             lastSnapshotTime = System.currentTimeMillis();
         } else {
             LOG.debug("Snapshot frequency exceeded. Reusing snapshot {}", snapshot);
+            if (buffer.isDirty()) {
+                if (bufferDirtySince == 0) {
+                    bufferDirtySince = now;
+                }
+                schedulePublication(lastSnapshotTime + maxSnapshotFrequency + 1 - now);
+            }
         }
         return snapshot;
     }
 
+    /**
+     * Hold back the publication of the buffer until {@link #releasePublication()} is called, while a full dataset is
+     * applied in several chunks. The chunk clearing the buffer and the following ones are then published at once.
+     */
+    public void holdPublication() {
+        bufferLock.lock();
+        try {
+            publicationHolds++;
+        } finally {
+            bufferLock.unlock();
+        }
+    }
+
+    /**
+     * Release a hold taken with {@link #holdPublication()}, publishing the buffer once no hold is left, subject to
+     * maxSnapshotFrequency like any update.
+     */
+    public void releasePublication() {
+        bufferLock.lock();
+        try {
+            if (publicationHolds > 0) {
+                publicationHolds--;
+            }
+            getTimetableSnapshot(false);
+        } finally {
+            bufferLock.unlock();
+        }
+    }
+
+    private void schedulePublication(long delayMillis) {
+        if (publicationScheduled) {
+            return;
+        }
+        publicationScheduled = true;
+        SNAPSHOT_PUBLISHER.schedule(() -> {
+            bufferLock.lock();
+            try {
+                publicationScheduled = false;
+                getTimetableSnapshot(false);
+            } finally {
+                bufferLock.unlock();
+            }
+        }, Math.max(0, delayMillis), TimeUnit.MILLISECONDS);
+    }
+
     /**
      * Method to apply a trip update list to the most recent version of the timetable snapshot. A
      * GTFS-RT feed is always applied against a single static feed (indicated by SIRI_FEED_ID).
@@ -222,8 +427,23 @@ public class TimetableSnapshotSource {
             return;
         }
 
+        RealtimeReplayLog replayLog = this.replayLog;
+        if (replayLog != null) {
+            if (fullDataset) {
+                replayLog.logClear(feedId);
+            }
+            for (TripUpdate tripUpdate : updates) {
+                replayLog.logTripUpdate(feedId, tripUpdate);
+            }
+            replayLog.flush();
+        }
+
+        tripUpdateMetrics.addReceived(updates.size());
+        int appliedCount = 0;
+
         // Acquire lock on buffer
         bufferLock.lock();
+        long lockTime = System.nanoTime();
 
         try {
             if (fullDataset) {
@@ -288,6 +508,10 @@ public class TimetableSnapshotSource {
 
                 if (applied) {
                     appliedBlockCount++;
+                    appliedCount++;
+                    if (tripUpdate.hasTimestamp()) {
+                        tripUpdateMetrics.recordAppliedCreationTime(tripUpdate.getTimestamp() * 1000);
+                    }
                 } else {
                     LOG.warn("Failed to apply TripUpdate.");
                     LOG.trace(" Contents: {}", tripUpdate);
@@ -301,7 +525,7 @@ public class TimetableSnapshotSource {
 
             // Make a snapshot after each message in anticipation of incoming requests
             // Purge data if necessary (and force new snapshot if anything was purged)
-            // Make sure that the public (locking) getTimetableSnapshot function is not called.
+            // Make sure that the public getTimetableSnapshot function is not called, it never commits.
             if (purgeExpiredData) {
                 final boolean modified = purgeExpiredData();
                 getTimetableSnapshot(modified);
@@ -311,6 +535,9 @@ public class TimetableSnapshotSource {
         } finally {
             // Always release lock
             bufferLock.unlock();
+            tripUpdateMetrics.recordTime(UpdaterMetrics.Stage.APPLY, System.nanoTime() - lockTime);
+            tripUpdateMetrics.addApplied(appliedCount);
+            tripUpdateMetrics.addFailedToMatch(updates.size() - appliedCount);
         }
     }
 
@@ -331,6 +558,7 @@ public class TimetableSnapshotSource {
 
         // Acquire lock on buffer
         bufferLock.lock();
+        long lockTime = System.nanoTime();
 
         try {
             if (fullDataset) {
@@ -352,11 +580,18 @@ public class TimetableSnapshotSource {
                         boolean handled = handleModifiedTrip(graph, activity, serviceDate);
                         if (handled) {
                             handledCounter++;
+                            if (activity.getRecordedAtTime() != null) {
+                                vehicleMonitoringMetrics.recordAppliedCreationTime(
+                                        activity.getRecordedAtTime().toInstant().toEpochMilli());
+                            }
                         } else {
                             skippedCounter++;
                         }
                     }
                     LOG.info("Applied {} VM-activities, skipped {}.", handledCounter, skippedCounter);
+                    vehicleMonitoringMetrics.addReceived(activities.size());
+                    vehicleMonitoringMetrics.addApplied(handledCounter);
+                    vehicleMonitoringMetrics.addFailedToMatch(skippedCounter);
                 }
                 List<VehicleActivityCancellationStructure> cancellations = vmDelivery.getVehicleActivityCancellations();
                 if (cancellations != null && !cancellations.isEmpty()) {
@@ -374,7 +609,7 @@ public class TimetableSnapshotSource {
 
             // Make a snapshot after each message in anticipation of incoming requests
             // Purge data if necessary (and force new snapshot if anything was purged)
-            // Make sure that the public (locking) getTimetableSnapshot function is not called.
+            // Make sure that the public getTimetableSnapshot function is not called, it never commits.
             if (purgeExpiredData) {
                 final boolean modified = purgeExpiredData();
                 getTimetableSnapshot(modified);
@@ -384,6 +619,7 @@ public class TimetableSnapshotSource {
         } finally {
             // Always release lock
             bufferLock.unlock();
+            vehicleMonitoringMetrics.recordTime(UpdaterMetrics.Stage.APPLY, System.nanoTime() - lockTime);
             if (keepLogging) {
                 LOG.info("Reducing SIRI-VM logging until restart");
                 keepLogging = false;
@@ -394,6 +630,10 @@ public class TimetableSnapshotSource {
     /**
      * Method to apply a trip update list to the most recent version of the timetable snapshot.
      *
+     * The journeys are first matched to trips and their updated TripTimes are built, without holding the lock on the
+     * buffer, and in parallel for large deliveries. Only applying the results to the buffer is done under the lock,
+     * in a single critical section.
+     *
      *  @param graph graph to update (needed for adding/changing stop patterns)
      * @param fullDataset true iff the list with updates represent all updates that are active right
      *        now, i.e. all previous updates should be disregarded
@@ -405,8 +645,36 @@ public class TimetableSnapshotSource {
             return;
         }
 
+        List<EstimatedVehicleJourney> journeys = new ArrayList<>();
+        for (EstimatedTimetableDeliveryStructure etDelivery : updates) {
+            List<EstimatedVersionFrameStructure> estimatedJourneyVersions = etDelivery.getEstimatedJourneyVersionFrames();
+            if (estimatedJourneyVersions != null) {
+                for (EstimatedVersionFrameStructure estimatedJourneyVersion : estimatedJourneyVersions) {
+                    journeys.addAll(estimatedJourneyVersion.getEstimatedVehicleJourneies());
+                }
+            }
+        }
+        LOG.debug("Handling {} EstimatedVehicleJourneys.", journeys.size());
+
+        RealtimeReplayLog replayLog = this.replayLog;
+        if (replayLog != null) {
+            if (fullDataset) {
+                replayLog.logClear(SIRI_FEED_ID);
+            }
+            replayLog.logEstimatedVehicleJourneys(SIRI_FEED_ID, journeys);
+            replayLog.flush();
+        }
+
+        estimatedTimetableMetrics.addReceived(journeys.size());
+
+        // Matching only reads the graph and the published snapshot, so it does not need the lock
+        long matchTime = System.nanoTime();
+        List<ModifiedTripMatch> matches = matchModifiedTrips(graph, journeys);
+        estimatedTimetableMetrics.recordTime(UpdaterMetrics.Stage.MATCH, System.nanoTime() - matchTime);
+
         // Acquire lock on buffer
         bufferLock.lock();
+        long lockTime = System.nanoTime();
 
         try {
             if (fullDataset) {
@@ -414,57 +682,61 @@ public class TimetableSnapshotSource {
                 buffer.clear(SIRI_FEED_ID);
             }
 
-            for (EstimatedTimetableDeliveryStructure etDelivery : updates) {
-
-                List<EstimatedVersionFrameStructure> estimatedJourneyVersions = etDelivery.getEstimatedJourneyVersionFrames();
-                if (estimatedJourneyVersions != null) {
-                    //Handle deliveries
-                    for (EstimatedVersionFrameStructure estimatedJourneyVersion : estimatedJourneyVersions) {
-                        List<EstimatedVehicleJourney> journeys = estimatedJourneyVersion.getEstimatedVehicleJourneies();
-                        LOG.debug("Handling {} EstimatedVehicleJourneys.", journeys.size());
-                        int handledCounter = 0;
-                        int skippedCounter = 0;
-                        int addedCounter = 0;
-                        int notMonitoredCounter = 0;
-                        for (EstimatedVehicleJourney journey : journeys) {
-                            if (journey.isExtraJourney() != null && journey.isExtraJourney()) {
-                                // Added trip
-                                try {
-                                    if (handleAddedTrip(graph, journey)) {
-                                        addedCounter++;
-                                    } else {
-                                        skippedCounter++;
-                                    }
-                                } catch (Throwable t) {
-                                    // Since this is work in progress - catch everything to continue processing updates
-                                    LOG.warn("Adding ExtraJourney with id='{}' failed with '{}'.", journey.getEstimatedVehicleJourneyCode(), t.getMessage());
-                                    skippedCounter++;
-                                }
-                            } else {
-                                // Updated trip
-                                if (handleModifiedTrip(graph, journey)) {
-                                    handledCounter++;
-                                } else {
-                                    if (journey.isMonitored() != null && !journey.isMonitored()) {
-                                        notMonitoredCounter++;
-                                    } else {
-                                        skippedCounter++;
-                                    }
-                                }
-                            }
+            int handledCounter = 0;
+            int skippedCounter = 0;
+            int addedCounter = 0;
+            int notMonitoredCounter = 0;
+            boolean tripsAdded = false;
+            // The trips updated by the journeys applied so far, which their matches of later journeys do not reflect
+            Set<Trip> updatedTrips = new HashSet<>();
+            for (int i = 0; i < journeys.size(); i++) {
+                EstimatedVehicleJourney journey = journeys.get(i);
+                if (isExtraJourney(journey)) {
+                    // Added trip
+                    try {
+                        if (handleAddedTrip(graph, journey)) {
+                            addedCounter++;
+                            tripsAdded = true;
+                            recordAppliedCreationTime(journey);
+                        } else {
+                            skippedCounter++;
+                        }
+                    } catch (Throwable t) {
+                        // Since this is work in progress - catch everything to continue processing updates
+                        LOG.warn("Adding ExtraJourney with id='{}' failed with '{}'.", journey.getEstimatedVehicleJourneyCode(), t.getMessage());
+                        skippedCounter++;
+                    }
+                } else {
+                    // Updated trip
+                    ModifiedTripMatch match = matches.get(i);
+                    if ((match == null && tripsAdded) || (match != null && match.updatesAnyOf(updatedTrips))) {
+                        // The journey may refer to a trip added earlier in this delivery, or update a trip an earlier
+                        // journey updated, neither of which it saw when it was matched against the published snapshot.
+                        // It is matched again against the buffer, which holds the earlier journeys.
+                        match = matchModifiedTripSafely(graph, journey, buffer);
+                    }
+                    if (match != null) {
+                        match.updates.forEach(update -> updatedTrips.add(update.trip));
+                    }
+                    if (applyModifiedTrip(graph, journey, match)) {
+                        handledCounter++;
+                        recordAppliedCreationTime(journey);
+                    } else {
+                        if (journey.isMonitored() != null && !journey.isMonitored()) {
+                            notMonitoredCounter++;
+                        } else {
+                            skippedCounter++;
                         }
-                        LOG.debug("Processed EstimatedVehicleJourneys: updated {}, added {}, skipped {}, not monitored {}.", handledCounter, addedCounter, skippedCounter, notMonitoredCounter);
                     }
                 }
             }
-
-            LOG.debug("message contains {} trip updates", updates.size());
-            int uIndex = 0;
-            LOG.debug("end of update message");
+            LOG.debug("Processed EstimatedVehicleJourneys: updated {}, added {}, skipped {}, not monitored {}.", handledCounter, addedCounter, skippedCounter, notMonitoredCounter);
+            estimatedTimetableMetrics.addApplied(handledCounter + addedCounter);
+            estimatedTimetableMetrics.addFailedToMatch(skippedCounter);
 
             // Make a snapshot after each message in anticipation of incoming requests
             // Purge data if necessary (and force new snapshot if anything was purged)
-            // Make sure that the public (locking) getTimetableSnapshot function is not called.
+            // Make sure that the public getTimetableSnapshot function is not called, it never commits.
             if (purgeExpiredData) {
                 final boolean modified = purgeExpiredData();
                 getTimetableSnapshot(modified);
@@ -474,6 +746,57 @@ public class TimetableSnapshotSource {
         } finally {
             // Always release lock
             bufferLock.unlock();
+            estimatedTimetableMetrics.recordTime(UpdaterMetrics.Stage.APPLY, System.nanoTime() - lockTime);
+        }
+    }
+
+    private void recordAppliedCreationTime(EstimatedVehicleJourney journey) {
+        if (journey.getRecordedAtTime() != null) {
+            estimatedTimetableMetrics.recordAppliedCreationTime(journey.getRecordedAtTime().toInstant().toEpochMilli());
+        }
+    }
+
+    private static boolean isExtraJourney(EstimatedVehicleJourney journey) {
+        return journey.isExtraJourney() != null && journey.isExtraJourney();
+    }
+
+    /**
+     * Match the journeys that modify existing trips against the published snapshot, in parallel if there are many of
+     * them.
+     *
+     * @return for each journey, its match, or null if it is an added trip or could not be matched.
+     */
+    private List<ModifiedTripMatch> matchModifiedTrips(Graph graph, List<EstimatedVehicleJourney> journeys) {
+        TimetableSnapshot timetables = snapshot;
+        if (journeys.size() >= PARALLEL_MATCHING_THRESHOLD) {
+            try {
+                return MATCHING_POOL.submit(() -> journeys.parallelStream()
+                        .map(journey -> matchModifiedTripSafely(graph, journey, timetables))
+                        .collect(Collectors.toList())).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                LOG.warn("Interrupted while matching EstimatedVehicleJourneys, matching them sequentially.");
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+        List<ModifiedTripMatch> matches = new ArrayList<>(journeys.size());
+        for (EstimatedVehicleJourney journey : journeys) {
+            matches.add(matchModifiedTripSafely(graph, journey, timetables));
+        }
+        return matches;
+    }
+
+    private ModifiedTripMatch matchModifiedTripSafely(Graph graph, EstimatedVehicleJourney journey,
+            TimetableSnapshot timetables) {
+        if (isExtraJourney(journey)) {
+            return null;
+        }
+        try {
+            return matchModifiedTrip(graph, journey, timetables);
+        } catch (RuntimeException e) {
+            LOG.warn("Matching EstimatedVehicleJourney with id='{}' failed with '{}'.", journey.getEstimatedVehicleJourneyCode(), e.getMessage());
+            return null;
         }
     }
 
@@ -569,9 +892,16 @@ public class TimetableSnapshotSource {
      *
      */
     private Timetable getCurrentTimetable(TripPattern tripPattern, ServiceDate serviceDate) {
-        TimetableSnapshot timetableSnapshot = getTimetableSnapshot();
-        if (timetableSnapshot!=null) {
-            return getTimetableSnapshot().resolve(tripPattern, serviceDate);
+        return resolve(snapshot, tripPattern, serviceDate);
+    }
+
+    /**
+     * @param timetables the published snapshot or the buffer, null if no snapshot was published yet
+     * @return the timetable of the pattern on the service date in the given timetables, the scheduled one if none
+     */
+    private static Timetable resolve(TimetableSnapshot timetables, TripPattern tripPattern, ServiceDate serviceDate) {
+        if (timetables != null) {
+            return timetables.resolve(tripPattern, serviceDate);
         }
         return tripPattern.scheduledTimetable;
     }
@@ -856,13 +1186,22 @@ public class TimetableSnapshotSource {
         return 700;
     }
 
-    private boolean handleModifiedTrip(Graph graph, EstimatedVehicleJourney estimatedVehicleJourney) {
+    /**
+     * Match an EstimatedVehicleJourney to the trips it updates and build their updated TripTimes. This does not
+     * modify the buffer, so it can be done for several journeys in parallel.
+     *
+     * @param timetables the timetables the updated TripTimes are based on, the published snapshot, or the buffer
+     *                   while holding the buffer lock
+     * @return the match, or null if the journey cannot be applied.
+     */
+    private ModifiedTripMatch matchModifiedTrip(Graph graph, EstimatedVehicleJourney estimatedVehicleJourney,
+            TimetableSnapshot timetables) {
 
         //Check if EstimatedVehicleJourney is reported as NOT monitored
         if (estimatedVehicleJourney.isMonitored() != null && !estimatedVehicleJourney.isMonitored()) {
             //Ignore the notMonitored-flag if the journey is NOT monitored because it has been cancelled
             if (estimatedVehicleJourney.isCancellation() != null && !estimatedVehicleJourney.isCancellation()) {
-                return false;
+                return null;
             }
         }
 
@@ -875,7 +1214,7 @@ public class TimetableSnapshotSource {
         ServiceDate serviceDate = getServiceDateForEstimatedVehicleJourney(estimatedVehicleJourney);
 
         if (serviceDate == null) {
-            return false;
+            return null;
         }
 
         Set<TripTimes> times = new HashSet<>();
@@ -890,7 +1229,7 @@ public class TimetableSnapshotSource {
             TripPattern exactPattern = graphIndex.patternForTrip.get(tripMatchedByServiceJourneyId);
 
             if (exactPattern != null) {
-                var timetable = getCurrentTimetable(exactPattern, serviceDate);
+                var timetable = resolve(timetables, exactPattern, serviceDate);
                 var exactUpdatedTripTimes = timetable.createUpdatedTripTimes(
                     graph, estimatedVehicleJourney, timeZone, tripMatchedByServiceJourneyId.getId()
                 );
@@ -899,7 +1238,7 @@ public class TimetableSnapshotSource {
                     patterns.add(exactPattern);
                 } else {
                     LOG.info("Failed to update TripTimes for trip found by exact match {}", tripMatchedByServiceJourneyId.getId());
-                    return false;
+                    return null;
                 }
             }
         } else {
@@ -910,7 +1249,7 @@ public class TimetableSnapshotSource {
 
             if (trips == null || trips.isEmpty()) {
                 LOG.debug("No trips found for EstimatedVehicleJourney. [operator={}, vehicleModes={}, lineRef={}, vehicleRef={}]", operatorRef, vehicleModes, lineRef, vehicleRef);
-                return false;
+                return null;
             }
 
             //Find the trips that best corresponds to EstimatedVehicleJourney
@@ -918,13 +1257,13 @@ public class TimetableSnapshotSource {
 
             if (matchingTrips == null || matchingTrips.isEmpty()) {
                 LOG.debug("Found no matching trip for SIRI ET (serviceDate, departureTime). [operator={}, vehicleModes={}, lineRef={}, vehicleJourneyRef={}]", operatorRef, vehicleModes, lineRef, vehicleRef);
-                return false;
+                return null;
             }
 
             for (Trip matchingTrip : matchingTrips) {
                 TripPattern pattern = getPatternForTrip(matchingTrip, estimatedVehicleJourney);
                 if (pattern != null) {
-                    var timetable = getCurrentTimetable(pattern, serviceDate);
+                    var timetable = resolve(timetables, pattern, serviceDate);
                     var updatedTripTimes = timetable.createUpdatedTripTimes(
                         graph, estimatedVehicleJourney, timeZone, matchingTrip.getId()
                     );
@@ -938,48 +1277,107 @@ public class TimetableSnapshotSource {
 
         if (patterns.isEmpty()) {
             LOG.debug("Found no matching pattern for SIRI ET (firstStopId, lastStopId, numberOfStops). [operator={}, vehicleModes={}, lineRef={}, vehicleRef={}]", operatorRef, vehicleModes, lineRef, vehicleRef);
-            return false;
+            return null;
         }
 
         if (times.isEmpty()) {
-            return false;
+            return null;
         }
 
-        boolean result = false;
+        ModifiedTripMatch match = new ModifiedTripMatch(serviceDate);
         for (TripTimes tripTimes : times) {
             Trip trip = tripTimes.trip;
             for (TripPattern pattern : patterns) {
                 if (tripTimes.getNumStops() == pattern.stopPattern.stops.length) {
-                        // All tripTimes should be handled the same way to always allow latest realtime-update
-                        // to replace previous update regardless of realtimestate
-                        cancelScheduledTrip(SIRI_FEED_ID, trip.getId().getId(), serviceDate);
+                    // Calculate modified stop-pattern
+                    Timetable currentTimetable = resolve(timetables, pattern, serviceDate);
+                    List<Stop> modifiedStops = currentTimetable.createModifiedStops(estimatedVehicleJourney, graphIndex);
+                    List<StopTime> modifiedStopTimes = currentTimetable.createModifiedStopTimes(tripTimes, estimatedVehicleJourney, trip, graphIndex);
+                    match.updates.add(new ModifiedTripTimes(trip, tripTimes, modifiedStops, modifiedStopTimes));
+                } else {
+                    LOG.debug("Ignoring update since number of stops do not match");
+                }
+            }
+        }
 
-                        // Check whether trip id has been used for previously ADDED/MODIFIED trip message and cancel
-                        // previously created trip
-                        cancelPreviouslyAddedTrip(SIRI_FEED_ID, trip.getId().getId(), serviceDate);
+        return match;
+    }
 
-                        // Calculate modified stop-pattern
-                        Timetable currentTimetable = getCurrentTimetable(pattern, serviceDate);
-                        List<Stop> modifiedStops = currentTimetable.createModifiedStops(estimatedVehicleJourney, graphIndex);
-                        List<StopTime> modifiedStopTimes = currentTimetable.createModifiedStopTimes(tripTimes, estimatedVehicleJourney, trip, graphIndex);
+    /**
+     * Apply the result of {@link #matchModifiedTrip} to the buffer. Must be called while holding the buffer lock.
+     *
+     * @return true iff any trip was updated.
+     */
+    private boolean applyModifiedTrip(Graph graph, EstimatedVehicleJourney estimatedVehicleJourney, ModifiedTripMatch match) {
+        if (match == null) {
+            return false;
+        }
+        ServiceDate serviceDate = match.serviceDate;
+        boolean result = false;
+        for (ModifiedTripTimes update : match.updates) {
+            Trip trip = update.trip;
+            TripTimes tripTimes = update.tripTimes;
 
-                        if (modifiedStops != null && modifiedStops.isEmpty()) {
-                            tripTimes.cancel();
-                        }
+            // All tripTimes should be handled the same way to always allow latest realtime-update
+            // to replace previous update regardless of realtimestate
+            cancelScheduledTrip(SIRI_FEED_ID, trip.getId().getId(), serviceDate);
 
-                        // Add updated trip
-                        result = result | addTripToGraphAndBuffer(SIRI_FEED_ID, graph, trip, modifiedStopTimes, modifiedStops, tripTimes, serviceDate);
+            // Check whether trip id has been used for previously ADDED/MODIFIED trip message and cancel
+            // previously created trip
+            cancelPreviouslyAddedTrip(SIRI_FEED_ID, trip.getId().getId(), serviceDate);
 
-                    LOG.debug("Applied realtime data for trip {}", trip.getId().getId());
-                } else {
-                    LOG.debug("Ignoring update since number of stops do not match");
-                }
+            if (update.modifiedStops != null && update.modifiedStops.isEmpty()) {
+                tripTimes.cancel();
             }
+
+            // Add updated trip
+            result = result | addTripToGraphAndBuffer(SIRI_FEED_ID, graph, trip, update.modifiedStopTimes, update.modifiedStops, tripTimes, serviceDate);
+
+            LOG.debug("Applied realtime data for trip {}", trip.getId().getId());
         }
 
         return result;
     }
 
+    /** The trips an EstimatedVehicleJourney was matched to, with their updated times. */
+    private static class ModifiedTripMatch {
+
+        final ServiceDate serviceDate;
+
+        final List<ModifiedTripTimes> updates = new ArrayList<>();
+
+        ModifiedTripMatch(ServiceDate serviceDate) {
+            this.serviceDate = serviceDate;
+        }
+
+        boolean updatesAnyOf(Set<Trip> trips) {
+            for (ModifiedTripTimes update : updates) {
+                if (trips.contains(update.trip)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static class ModifiedTripTimes {
+
+        final Trip trip;
+
+        final TripTimes tripTimes;
+
+        final List<Stop> modifiedStops;
+
+        final List<StopTime> modifiedStopTimes;
+
+        ModifiedTripTimes(Trip trip, TripTimes tripTimes, List<Stop> modifiedStops, List<StopTime> modifiedStopTimes) {
+            this.trip = trip;
+            this.tripTimes = tripTimes;
+            this.modifiedStops = modifiedStops;
+            this.modifiedStopTimes = modifiedStopTimes;
+        }
+    }
+
     private ServiceDate getServiceDateForEstimatedVehicleJourney(EstimatedVehicleJourney estimatedVehicleJourney) {
         ZonedDateTime date;
         if (estimatedVehicleJourney.getRecordedCalls() != null && !estimatedVehicleJourney.getRecordedCalls().getRecordedCalls().isEmpty()){
@@ -1708,15 +2106,13 @@ public class TimetableSnapshotSource {
         final ServiceDate today = new ServiceDate();
         final ServiceDate previously = today.previous().previous(); // Just to be safe...
 
-        if(lastPurgeDate != null && lastPurgeDate.compareTo(previously) > 0) {
+        if (!buffer.hasExpiredData(previously)) {
             return false;
         }
 
         LOG.debug("purging expired realtime data");
 
-        lastPurgeDate = previously;
-
-        return buffer.purgeExpiredData(previously);
+        return buffer.purgeExpiredData(previously, TimeUnit.MILLISECONDS.toNanos(purgeTimeBudgetMillis));
     }
 
     /**
@@ -1848,8 +2244,9 @@ public class TimetableSnapshotSource {
         }
 
         TripPattern lastAddedTripPattern = null;
-        if (getTimetableSnapshot() != null) {
-            lastAddedTripPattern  = getTimetableSnapshot().getLastAddedTripPattern(trip.getId().getAgencyId(), trip.getId().getId(), journeyDate);
+        TimetableSnapshot timetableSnapshot = snapshot;
+        if (timetableSnapshot != null) {
+            lastAddedTripPattern  = timetableSnapshot.getLastAddedTripPattern(trip.getId().getAgencyId(), trip.getId().getId(), journeyDate);
         }
 
         TripPattern tripPattern;
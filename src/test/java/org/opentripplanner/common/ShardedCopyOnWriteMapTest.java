@@ -0,0 +1,61 @@
+package org.opentripplanner.common;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ShardedCopyOnWriteMapTest {
+
+    @Test
+    public void testSnapshotIsNotAffectedByLaterWrites() {
+        ShardedCopyOnWriteMap<Integer, String> map = new ShardedCopyOnWriteMap<>();
+        for (int i = 0; i < 1000; i++) {
+            map.put(i, "v" + i);
+        }
+        ShardedCopyOnWriteMap<Integer, String> snapshot = map.snapshot();
+        assertEquals(0, map.getShardsCopiedSinceSnapshot());
+
+        map.put(1, "changed");
+        map.put(1000, "added");
+        map.remove(2);
+
+        assertEquals("changed", map.get(1));
+        assertEquals("added", map.get(1000));
+        assertNull(map.get(2));
+        assertEquals(1000, map.size());
+
+        assertEquals("v1", snapshot.get(1));
+        assertNull(snapshot.get(1000));
+        assertEquals("v2", snapshot.get(2));
+        assertEquals(1000, snapshot.size());
+
+        // Only the shards holding the three written keys were copied.
+        assertTrue(map.getShardsCopiedSinceSnapshot() <= 3);
+    }
+
+    @Test
+    public void testRemoveIf() {
+        ShardedCopyOnWriteMap<Integer, String> map = new ShardedCopyOnWriteMap<>();
+        for (int i = 0; i < 100; i++) {
+            map.put(i, "v" + i);
+        }
+        ShardedCopyOnWriteMap<Integer, String> snapshot = map.snapshot();
+
+        assertTrue(map.removeIf((key, value) -> key % 2 == 0));
+        assertFalse(map.removeIf((key, value) -> key % 2 == 0));
+        assertEquals(50, map.size());
+        assertEquals(50, map.entries().size());
+        assertFalse(map.containsKey(10));
+        assertTrue(snapshot.containsKey(10));
+        assertEquals(100, snapshot.entries().size());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testSnapshotIsReadOnly() {
+        ShardedCopyOnWriteMap<Integer, String> map = new ShardedCopyOnWriteMap<>();
+        map.snapshot().put(1, "v1");
+    }
+}
@@ -13,6 +13,7 @@
 
 package org.opentripplanner.common.geometry;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -123,6 +124,10 @@ public class CompactLineStringTest extends TestCase {
         assertEquals(expectedPackedLen, packed.length);
         int[] unpacked = DlugoszVarLenIntPacker.unpack(packed);
         assertTrue(Arrays.equals(arr, unpacked));
+        // The same values unpacked from the middle of a larger buffer
+        ByteBuffer buffer = ByteBuffer.allocate(packed.length + 2);
+        buffer.put((byte) 0x7F).put(packed).put((byte) 0x7F);
+        assertTrue(Arrays.equals(arr, DlugoszVarLenIntPacker.unpack(buffer, 1, packed.length)));
     }
 
     private String unsignedCharString(byte[] data) {
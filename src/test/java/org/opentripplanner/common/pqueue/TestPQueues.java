@@ -25,7 +25,7 @@ import junit.framework.TestCase;
 public class TestPQueues extends TestCase { 
     private static final int N = 50000;
 
-    public void doQueue(BinHeap<Integer> q,
+    public void doQueue(OTPPriorityQueue<Integer> q,
                         List<Integer> input, List<Integer> expected) {
         List<Integer> result = new ArrayList<Integer>(N);
         int expectedSum = 0;
@@ -58,7 +58,7 @@ public class TestPQueues extends TestCase {
         assertTrue(sum == expectedSum);
     }
     
-    public void fillQueue(BinHeap<Integer> q, List<Integer> input) {
+    public void fillQueue(OTPPriorityQueue<Integer> q, List<Integer> input) {
         for (Integer i : input) {
             q.insert(i, i * 0.5);
         }
@@ -90,6 +90,28 @@ public class TestPQueues extends TestCase {
         }
         doQueue(new BinHeap<Integer>(), input, expected);
         fillQueue(new BinHeap<Integer>(), input);
+        doQueue(new FourAryHeap<Integer>(), input, expected);
+        fillQueue(new FourAryHeap<Integer>(), input);
+        for (PriorityQueueType type : PriorityQueueType.values()) {
+            doQueue(type.<Integer>create(10), input, expected);
+        }
+    }
+
+    public void testClearKeepsCapacity() {
+        for (PriorityQueueType type : PriorityQueueType.values()) {
+            OTPPriorityQueue<Integer> q = type.create(10);
+            for (int i = 0; i < 100; i++) q.insert(i, 100 - i);
+            int capacity = q.capacity();
+            assertTrue(capacity >= 100);
+            q.clear();
+            assertTrue(q.empty());
+            assertNull(q.peek_min());
+            assertEquals(capacity, q.capacity());
+            q.insert(5, 5);
+            q.insert(3, 3);
+            assertEquals(3.0, q.peek_min_key());
+            assertEquals(Integer.valueOf(3), q.extract_min());
+        }
     }
 
     /*
@@ -18,6 +18,7 @@ import org.opentripplanner.model.calendar.ServiceDate;
 import org.opentripplanner.model.impl.OtpTransitBuilder;
 import org.opentripplanner.netex.loader.NetexBundle;
 import org.opentripplanner.netex.loader.NetexLoader;
+import org.opentripplanner.routing.trippattern.Deduplicator;
 import org.opentripplanner.standalone.config.GraphBuilderParameters;
 import org.opentripplanner.standalone.datastore.FileType;
 import org.opentripplanner.standalone.datastore.configure.DataStoreConfig;
@@ -50,7 +51,7 @@ public class MappingTest {
                 new GraphBuilderParameters(buildConfig)
         );
 
-        otpBuilderFromNetex = new NetexLoader(netexBundle, gba -> {}).loadBundle();
+        otpBuilderFromNetex = new NetexLoader(netexBundle, gba -> {}, new Deduplicator()).loadBundle();
         otpBuilderFromGtfs = GtfsContextBuilder
                 .contextBuilder(gtfsFile)
                 .turnOnSetAgencyToFeedIdForAllElements().build()
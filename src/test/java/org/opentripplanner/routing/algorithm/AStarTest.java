@@ -16,6 +16,7 @@ package org.opentripplanner.routing.algorithm;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
 
 import java.util.HashSet;
 import java.util.List;
@@ -243,6 +244,28 @@ public class AStarTest {
         }
     }
 
+    @Test
+    public void testWorkspaceReleasedWhenSearchFails() {
+        RoutingRequest options = new RoutingRequest();
+        options.walkSpeed = 1.0;
+        options.setRoutingContext(_graph, _graph.getVertex("56th_24th"), _graph.getVertex("leary_20th"));
+
+        SearchWorkspacePool pool = SearchWorkspacePool.getInstance();
+        int idle = pool.getIdleCount();
+        SearchTerminationStrategy failing = (origin, target, current, spt, traverseOptions) -> {
+            throw new IllegalStateException("search failed");
+        };
+        try {
+            new AStar().getShortestPathTree(options, -1, failing);
+            fail("The search should have failed");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        // The workspace borrowed by the failed search went back to the pool
+        assertEquals(Math.max(idle, 1), pool.getIdleCount());
+    }
+
     /****
      * Private Methods
      ****/
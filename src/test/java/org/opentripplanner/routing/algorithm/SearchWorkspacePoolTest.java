@@ -0,0 +1,60 @@
+package org.opentripplanner.routing.algorithm;
+
+import org.junit.Test;
+import org.opentripplanner.common.pqueue.PriorityQueueType;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.SimpleConcreteVertex;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SearchWorkspacePoolTest {
+
+    @Test
+    public void testWorkspacesAreReused() {
+        SearchWorkspacePool pool = new SearchWorkspacePool(1);
+        SearchWorkspace first = pool.borrow(PriorityQueueType.BINARY_HEAP, 10);
+        SearchWorkspace second = pool.borrow(PriorityQueueType.BINARY_HEAP, 10);
+        assertNotSame(first, second);
+        assertEquals(0, pool.getHitCount());
+        assertEquals(2, pool.getMissCount());
+
+        pool.release(first);
+        // the pool only keeps one workspace, the second one is dropped
+        pool.release(second);
+        assertEquals(1, pool.getIdleCount());
+
+        assertSame(first, pool.borrow(PriorityQueueType.BINARY_HEAP, 10));
+        assertEquals(1, pool.getHitCount());
+        assertEquals(0, pool.getIdleCount());
+    }
+
+    @Test
+    public void testReleasedWorkspaceIsEmpty() {
+        SearchWorkspacePool pool = new SearchWorkspacePool(1);
+        SearchWorkspace workspace = pool.borrow(PriorityQueueType.BINARY_HEAP, 10);
+        State state = new State(new SimpleConcreteVertex(new Graph(), "v", 0, 0), new RoutingRequest());
+        workspace.queue.insert(state, 1);
+        pool.release(workspace);
+
+        SearchWorkspace reused = pool.borrow(PriorityQueueType.BINARY_HEAP, 100);
+        assertSame(workspace, reused);
+        assertTrue(reused.queue.empty());
+        assertTrue(reused.capacity() >= 100);
+    }
+
+    @Test
+    public void testWorkspacesAreKeptApartByQueueType() {
+        SearchWorkspacePool pool = new SearchWorkspacePool(1);
+        SearchWorkspace binary = pool.borrow(PriorityQueueType.BINARY_HEAP, 10);
+        pool.release(binary);
+        SearchWorkspace fourAry = pool.borrow(PriorityQueueType.FOUR_ARY_HEAP, 10);
+        assertNotSame(binary, fourAry);
+        assertEquals(PriorityQueueType.FOUR_ARY_HEAP, fourAry.queueType);
+        assertSame(binary, pool.borrow(PriorityQueueType.BINARY_HEAP, 10));
+    }
+}
@@ -0,0 +1,86 @@
+package org.opentripplanner.routing.algorithm.raptor;
+
+import org.opentripplanner.GtfsTest;
+import org.opentripplanner.api.model.Itinerary;
+import org.opentripplanner.api.model.TripPlan;
+import org.opentripplanner.api.resource.GraphPathToTripPlanConverter;
+import org.opentripplanner.common.model.GenericLocation;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.SearchAlgorithm;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.impl.GraphPathFinder;
+import org.opentripplanner.routing.spt.GraphPath;
+
+import java.util.List;
+
+public class RaptorSearchTest extends GtfsTest {
+
+    @Override
+    public String getFeedName() {
+        return "mmri/2d";
+    }
+
+    public void testTransferAtSameStop() {
+        // The itinerary must come from RAPTOR itself, not from the fallback on AStar
+        List<GraphPath> raptorPaths = new RaptorSearch(graph.index.getRaptorTransitIndex(),
+                request(SearchAlgorithm.RAPTOR)).getPaths(10);
+        assertFalse(raptorPaths.isEmpty());
+        assertEquals(2, raptorPaths.get(0).getTrips().size());
+
+        List<GraphPath> paths = new GraphPathFinder(router).getPaths(request(SearchAlgorithm.RAPTOR));
+        assertEquals(1, paths.size());
+        assertEquals(raptorPaths.get(0).getTrips(), paths.get(0).getTrips());
+        assertEquals(raptorPaths.get(0).getEndTime(), paths.get(0).getEndTime());
+
+        Itinerary itinerary = plan(SearchAlgorithm.RAPTOR);
+
+        assertEquals(2, itinerary.legs.size());
+        assertEquals(1388530860000L, itinerary.legs.get(0).startTime.getTimeInMillis());
+        assertEquals(1388530980000L, itinerary.legs.get(0).endTime.getTimeInMillis());
+        assertEquals("2d3", itinerary.legs.get(0).to.stopId.getId());
+        assertEquals(1388530980000L, itinerary.legs.get(1).startTime.getTimeInMillis());
+        assertEquals(1388531040000L, itinerary.legs.get(1).endTime.getTimeInMillis());
+        assertEquals("2d4", itinerary.legs.get(1).to.stopId.getId());
+    }
+
+    public void testSameResultAsAStar() {
+        Itinerary raptor = plan(SearchAlgorithm.RAPTOR);
+        Itinerary aStar = plan(SearchAlgorithm.ASTAR);
+
+        assertEquals(aStar.startTime.getTimeInMillis(), raptor.startTime.getTimeInMillis());
+        assertEquals(aStar.endTime.getTimeInMillis(), raptor.endTime.getTimeInMillis());
+        assertEquals(aStar.transfers, raptor.transfers);
+    }
+
+    public void testUnsupportedRequests() {
+        RoutingRequest request = new RoutingRequest();
+        request.setArriveBy(true);
+        assertFalse(RaptorSearch.isSupported(request));
+
+        request = new RoutingRequest();
+        request.setModes(new TraverseModeSet(TraverseMode.WALK));
+        assertFalse(RaptorSearch.isSupported(request));
+    }
+
+    private Itinerary plan(SearchAlgorithm searchAlgorithm) {
+        RoutingRequest request = request(searchAlgorithm);
+        List<GraphPath> paths = new GraphPathFinder(router).getPaths(request);
+        TripPlan tripPlan = GraphPathToTripPlanConverter.generatePlan(paths, request);
+        return tripPlan.itinerary.get(0);
+    }
+
+    private RoutingRequest request(SearchAlgorithm searchAlgorithm) {
+        RoutingRequest request = new RoutingRequest();
+        request.dateTime = 1388530860L;
+        request.from = new GenericLocation(null, "FEED:2d1");
+        request.to = new GenericLocation(null, "FEED:2d4");
+        request.setModes(new TraverseModeSet(TraverseMode.WALK, TraverseMode.TRANSIT));
+        request.setNumItineraries(1);
+        request.setWaitReluctance(1);
+        request.setWalkBoardCost(30);
+        request.searchAlgorithm = searchAlgorithm;
+        request.setRoutingContext(graph);
+        return request;
+    }
+}
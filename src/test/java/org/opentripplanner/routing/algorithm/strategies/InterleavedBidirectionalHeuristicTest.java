@@ -0,0 +1,89 @@
+package org.opentripplanner.routing.algorithm.strategies;
+
+import org.opentripplanner.GtfsTest;
+import org.opentripplanner.api.model.Itinerary;
+import org.opentripplanner.api.model.TripPlan;
+import org.opentripplanner.api.resource.GraphPathToTripPlanConverter;
+import org.opentripplanner.common.model.GenericLocation;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.impl.GraphPathFinder;
+import org.opentripplanner.routing.spt.GraphPath;
+
+import java.util.List;
+
+public class InterleavedBidirectionalHeuristicTest extends GtfsTest {
+
+    @Override
+    public String getFeedName() {
+        return "mmri/2d";
+    }
+
+    public void testParallelHeuristicGivesSameResult() {
+        Itinerary interleaved = plan(false);
+        Itinerary parallel = plan(true);
+
+        assertEquals(interleaved.startTime.getTimeInMillis(), parallel.startTime.getTimeInMillis());
+        assertEquals(interleaved.endTime.getTimeInMillis(), parallel.endTime.getTimeInMillis());
+        assertEquals(interleaved.legs.size(), parallel.legs.size());
+    }
+
+    public void testParallelHeuristicReinitializedWithAnotherTarget() throws InterruptedException {
+        InterleavedBidirectionalHeuristic fresh = new InterleavedBidirectionalHeuristic(8, true);
+        RoutingRequest request = request("FEED:2d5");
+        fresh.initialize(request, Long.MAX_VALUE);
+        awaitBackwardSearch(fresh);
+        request.cleanup();
+
+        InterleavedBidirectionalHeuristic reused = new InterleavedBidirectionalHeuristic(8, true);
+        request = request("FEED:2d4");
+        reused.initialize(request, Long.MAX_VALUE);
+        awaitBackwardSearch(reused);
+        request.cleanup();
+        // The previous search has ended and must not stop the search towards the new target from running.
+        request = request("FEED:2d5");
+        reused.initialize(request, Long.MAX_VALUE);
+        awaitBackwardSearch(reused);
+        request.cleanup();
+
+        assertSame(request.rctx.target, reused.target);
+        assertFalse(reused.concurrentTransitWeights.isEmpty());
+        assertEquals(fresh.concurrentTransitWeights, reused.concurrentTransitWeights);
+        assertEquals(fresh.maxWeightSeen, reused.maxWeightSeen);
+    }
+
+    private static void awaitBackwardSearch(InterleavedBidirectionalHeuristic heuristic) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!heuristic.finished && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(heuristic.finished);
+    }
+
+    private RoutingRequest request(String to) {
+        RoutingRequest request = new RoutingRequest();
+        request.dateTime = 1388530860L;
+        request.from = new GenericLocation(null, "FEED:2d1");
+        request.to = new GenericLocation(null, to);
+        request.setModes(new TraverseModeSet(TraverseMode.WALK, TraverseMode.TRANSIT));
+        request.setRoutingContext(graph);
+        return request;
+    }
+
+    private Itinerary plan(boolean parallelHeuristic) {
+        RoutingRequest request = new RoutingRequest();
+        request.dateTime = 1388530860L;
+        request.from = new GenericLocation(null, "FEED:2d1");
+        request.to = new GenericLocation(null, "FEED:2d4");
+        request.setModes(new TraverseModeSet(TraverseMode.WALK, TraverseMode.TRANSIT));
+        request.setNumItineraries(1);
+        request.parallelHeuristic = parallelHeuristic;
+        request.setRoutingContext(graph);
+
+        List<GraphPath> paths = new GraphPathFinder(router).getPaths(request);
+        TripPlan tripPlan = GraphPathToTripPlanConverter.generatePlan(paths, request);
+        request.cleanup();
+        return tripPlan.itinerary.get(0);
+    }
+}
@@ -14,10 +14,19 @@
 package org.opentripplanner.routing.core;
 
 import org.junit.Test;
+import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.SimpleConcreteEdge;
+import org.opentripplanner.routing.graph.SimpleConcreteVertex;
+import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.impl.StreetVertexIndexServiceImpl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 public class StateEditorTest {
 
@@ -58,4 +67,121 @@ public class StateEditorTest {
         assertEquals(true, updatedState.isBikeParked());
         assertEquals(false, updatedState.isBikeRenting());
     }
+
+    /**
+     * Changing the back mode or entering a no-through-traffic area must neither copy the StateData nor affect the
+     * parent state.
+     */
+    @Test
+    public final void testModeSwitchDoesNotCopyStateData() {
+        RoutingRequest request = new RoutingRequest();
+        Graph graph = new Graph();
+        Vertex v0 = new SimpleConcreteVertex(graph, "v0", 0, 0);
+        Vertex v1 = new SimpleConcreteVertex(graph, "v1", 0, 1);
+        Edge edge = new SimpleConcreteEdge(v0, v1);
+        State parent = new State(v0, request);
+
+        StateEditor se = parent.edit(edge);
+        se.setBackMode(TraverseMode.LEG_SWITCH);
+        se.setBackWalkingBike(true);
+        se.setEnteredNoThroughTrafficArea();
+        State child = se.makeState();
+
+        assertSame(parent.stateData, child.stateData);
+        assertEquals(TraverseMode.LEG_SWITCH, child.getBackMode());
+        assertTrue(child.isBackWalkingBike());
+        assertTrue(child.hasEnteredNoThruTrafficArea());
+        assertNull(parent.getBackMode());
+        assertFalse(parent.isBackWalkingBike());
+        assertFalse(parent.hasEnteredNoThruTrafficArea());
+    }
+
+    /**
+     * The back mode and the no-through-traffic flag are carried over to child states that do not change them, without
+     * a child that changes them affecting its parent.
+     */
+    @Test
+    public final void testBackModeInheritedByChildState() {
+        RoutingRequest request = new RoutingRequest();
+        Graph graph = new Graph();
+        Vertex v0 = new SimpleConcreteVertex(graph, "v0", 0, 0);
+        Vertex v1 = new SimpleConcreteVertex(graph, "v1", 0, 1);
+        Edge forward = new SimpleConcreteEdge(v0, v1);
+        Edge back = new SimpleConcreteEdge(v1, v0);
+        State parent = new State(v0, request);
+
+        StateEditor se = parent.edit(forward);
+        se.setBackMode(TraverseMode.WALK);
+        se.setEnteredNoThroughTrafficArea();
+        State child = se.makeState();
+
+        State grandChild = child.edit(back).makeState();
+        assertEquals(TraverseMode.WALK, grandChild.getBackMode());
+        assertTrue(grandChild.hasEnteredNoThruTrafficArea());
+
+        se = grandChild.edit(forward);
+        se.setBackMode(TraverseMode.LEG_SWITCH);
+        State greatGrandChild = se.makeState();
+        assertEquals(TraverseMode.LEG_SWITCH, greatGrandChild.getBackMode());
+        assertEquals(TraverseMode.WALK, grandChild.getBackMode());
+        assertEquals(TraverseMode.WALK, child.getBackMode());
+    }
+
+    /**
+     * Boarding copies the StateData once, leaving the parent unboarded. Boarding again does not copy it any more.
+     */
+    @Test
+    public final void testEverBoardedCopiesStateDataOnce() {
+        RoutingRequest request = new RoutingRequest();
+        Graph graph = new Graph();
+        Vertex v0 = new SimpleConcreteVertex(graph, "v0", 0, 0);
+        Vertex v1 = new SimpleConcreteVertex(graph, "v1", 0, 1);
+        Edge forward = new SimpleConcreteEdge(v0, v1);
+        Edge back = new SimpleConcreteEdge(v1, v0);
+        State parent = new State(v0, request);
+
+        StateEditor se = parent.edit(forward);
+        se.setEverBoarded(true);
+        State boarded = se.makeState();
+        assertNotSame(parent.stateData, boarded.stateData);
+        assertTrue(boarded.isEverBoarded());
+        assertFalse(parent.isEverBoarded());
+
+        se = boarded.edit(back);
+        se.setEverBoarded(true);
+        State boardedAgain = se.makeState();
+        assertSame(boarded.stateData, boardedAgain.stateData);
+        assertTrue(boardedAgain.isEverBoarded());
+    }
+
+    /**
+     * When joining two paths, the last state of the first path keeps its back mode if it has boarded, and takes the
+     * one of the first state of the next path otherwise, as its StateData does.
+     */
+    @Test
+    public final void testMergeBackMode() {
+        RoutingRequest request = new RoutingRequest();
+        Graph graph = new Graph();
+        Vertex v0 = new SimpleConcreteVertex(graph, "v0", 0, 0);
+        Vertex v1 = new SimpleConcreteVertex(graph, "v1", 0, 1);
+        Edge edge = new SimpleConcreteEdge(v0, v1);
+
+        StateEditor se = new State(v0, request).edit(edge);
+        se.setBackMode(TraverseMode.CAR);
+        State next = se.makeState();
+
+        se = new State(v0, request).edit(edge);
+        se.setBackMode(TraverseMode.WALK);
+        State unboarded = se.makeState();
+        StateMerger.merge(unboarded, next);
+        assertEquals(TraverseMode.CAR, unboarded.getBackMode());
+
+        se = new State(v0, request).edit(edge);
+        se.setBackMode(TraverseMode.BUS);
+        se.setEverBoarded(true);
+        State boarded = se.makeState();
+        StateMerger.merge(boarded, next);
+        assertEquals(TraverseMode.BUS, boarded.getBackMode());
+        assertTrue(boarded.isEverBoarded());
+    }
 }
@@ -249,4 +249,43 @@ public class TimetableSnapshotTest {
         assertNull(resolver.commit());
         assertFalse(resolver.isDirty());
     }
+
+    @Test
+    public void testIncrementalPurge() {
+        ServiceDate today = new ServiceDate();
+        ServiceDate yesterday = today.previous();
+        TripPattern pattern = patternIndex.get(new AgencyAndId("agency", "1.1"));
+
+        TripDescriptor.Builder tripDescriptorBuilder = TripDescriptor.newBuilder();
+
+        tripDescriptorBuilder.setTripId("1.1");
+        tripDescriptorBuilder.setScheduleRelationship(ScheduleRelationship.CANCELED);
+
+        TripUpdate.Builder tripUpdateBuilder = TripUpdate.newBuilder();
+
+        tripUpdateBuilder.setTrip(tripDescriptorBuilder);
+
+        TripUpdate tripUpdate = tripUpdateBuilder.build();
+
+        TimetableSnapshot resolver = new TimetableSnapshot();
+        updateResolver(resolver, pattern, tripUpdate, "agency", today);
+        updateResolver(resolver, pattern, tripUpdate, "agency", yesterday);
+        assertNotNull(resolver.commit());
+
+        assertTrue(resolver.hasExpiredData(yesterday));
+        assertFalse(resolver.hasExpiredData(yesterday.previous()));
+
+        // Without any time budget, each call removes a single entry: the timetable, then the last added pattern
+        assertTrue(resolver.purgeExpiredData(yesterday, 0));
+        assertEquals(resolver.resolve(pattern, yesterday), resolver.resolve(pattern, null));
+        assertNotNull(resolver.getLastAddedTripPattern("agency", "1.1", yesterday));
+        assertTrue(resolver.purgeExpiredData(yesterday, 0));
+        assertNull(resolver.getLastAddedTripPattern("agency", "1.1", yesterday));
+
+        assertFalse(resolver.purgeExpiredData(yesterday, 0));
+        assertFalse(resolver.hasExpiredData(yesterday));
+
+        assertNotSame(resolver.resolve(pattern, today), resolver.resolve(pattern, null));
+        assertNotNull(resolver.getLastAddedTripPattern("agency", "1.1", today));
+    }
 }
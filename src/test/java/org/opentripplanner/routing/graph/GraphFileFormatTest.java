@@ -0,0 +1,162 @@
+package org.opentripplanner.routing.graph;
+
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.LineString;
+import org.opentripplanner.common.TurnRestriction;
+import org.opentripplanner.common.TurnRestrictionType;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.routing.alertpatch.Alert;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetNetworkColumns;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.services.notes.StreetNotesService;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.routing.vertextype.StreetVertex;
+import org.opentripplanner.standalone.datastore.FileType;
+import org.opentripplanner.standalone.datastore.file.FileDataSource;
+import org.opentripplanner.util.I18NString;
+import org.opentripplanner.util.NonLocalizedString;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class GraphFileFormatTest {
+
+    @Test
+    public void testSectionsShareObjects() throws Exception {
+        Graph graph = new Graph();
+        StreetVertex a = new IntersectionVertex(graph, "A", 10.0, 10.0);
+        StreetVertex b = new IntersectionVertex(graph, "B", 10.1, 10.0);
+        StreetVertex c = new IntersectionVertex(graph, "C", 10.2, 10.0);
+        I18NString name = new NonLocalizedString("Street");
+        StreetEdge ab = new StreetEdge(a, b, null, name, 10, StreetTraversalPermission.ALL, false);
+        StreetEdge bc = new StreetEdge(b, c, null, name, 10, StreetTraversalPermission.ALL, false);
+        StreetEdge ca = new StreetEdge(c, a, null, "Other street", 10, StreetTraversalPermission.ALL, false);
+
+        // One edge per section
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GraphFileFormat.write(graph, Arrays.asList(ab, bc, ca), null, out, 1);
+        GraphFileFormat.Contents contents = GraphFileFormat.read(new ByteArrayInputStream(out.toByteArray()));
+
+        assertEquals(3, contents.vertices.size());
+        assertEquals(3, contents.edges.size());
+        StreetEdge ab2 = (StreetEdge) contents.edges.get(0);
+        StreetEdge bc2 = (StreetEdge) contents.edges.get(1);
+        StreetEdge ca2 = (StreetEdge) contents.edges.get(2);
+        assertNotSame(ab, ab2);
+        assertEquals("B", ab2.getToVertex().getLabel());
+
+        // The vertices are decoded once, whichever section refers to them
+        assertSame(contents.vertices.get(1), ab2.getToVertex());
+        assertSame(ab2.getToVertex(), bc2.getFromVertex());
+        assertSame(ca2.getToVertex(), ab2.getFromVertex());
+
+        // The name is only reachable from the edges of two different sections, it is still a single instance
+        assertSame(ab2.getRawName(), bc2.getRawName());
+        assertEquals("Other street", ca2.getName());
+    }
+
+    @Test
+    public void testGraphRefersToDecodedEdges() throws Exception {
+        Graph graph = new Graph();
+        StreetVertex a = new IntersectionVertex(graph, "A", 10.0, 10.0);
+        StreetVertex b = new IntersectionVertex(graph, "B", 10.1, 10.0);
+        StreetVertex c = new IntersectionVertex(graph, "C", 10.2, 10.0);
+        StreetEdge ab = new StreetEdge(a, b, null, "AB", 10, StreetTraversalPermission.ALL, false);
+        StreetEdge bc = new StreetEdge(b, c, null, "BC", 10, StreetTraversalPermission.ALL, false);
+        graph.addTurnRestriction(ab, new TurnRestriction(ab, bc, TurnRestrictionType.NO_TURN,
+                new TraverseModeSet(TraverseMode.CAR)));
+        graph.streetNotesService.addStaticNote(ab, Alert.createSimpleAlerts("Note"),
+                StreetNotesService.ALWAYS_MATCHER);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GraphFileFormat.write(graph, Arrays.asList(ab, bc), null, out, 1);
+        GraphFileFormat.Contents contents = GraphFileFormat.read(new ByteArrayInputStream(out.toByteArray()));
+        StreetEdge ab2 = (StreetEdge) contents.edges.get(0);
+        StreetEdge bc2 = (StreetEdge) contents.edges.get(1);
+
+        // The turn restrictions are keyed on the decoded edges and point to them
+        List<TurnRestriction> restrictions = contents.graph.getTurnRestrictions(ab2);
+        assertEquals(1, restrictions.size());
+        assertSame(ab2, restrictions.get(0).from);
+        assertSame(bc2, restrictions.get(0).to);
+        assertTrue(contents.graph.getTurnRestrictions(bc2).isEmpty());
+
+        // The static street notes are found from the decoded edges
+        State state = mock(State.class);
+        when(state.getBackEdge()).thenReturn(ab2);
+        Set<Alert> notes = contents.graph.streetNotesService.getNotes(state);
+        assertEquals(1, notes.size());
+        assertEquals("Note", notes.iterator().next().alertHeaderText.toString());
+        when(state.getBackEdge()).thenReturn(bc2);
+        assertNull(contents.graph.streetNotesService.getNotes(state));
+    }
+
+    @Test
+    public void testStreetNetworkColumns() throws Exception {
+        Graph graph = new Graph();
+        StreetVertex a = new IntersectionVertex(graph, "A", 10.0, 10.0);
+        StreetVertex b = new IntersectionVertex(graph, "B", 10.1, 10.0);
+        LineString geometry = GeometryUtils.getGeometryFactory().createLineString(new Coordinate[] {
+                new Coordinate(10.0, 10.0), new Coordinate(10.05, 10.01), new Coordinate(10.1, 10.0) });
+        StreetEdge ab = new StreetEdge(a, b, geometry, "Street", 12.345, StreetTraversalPermission.PEDESTRIAN,
+                false);
+        StreetEdge ba = new StreetEdge(b, a, (LineString) geometry.reverse(), "Street", 12.345,
+                StreetTraversalPermission.PEDESTRIAN, true);
+        ba.shareData(ab);
+        ba.setStairs(true);
+        List<Edge> edges = Arrays.asList(ab, ba);
+
+        StreetNetworkColumns columns = StreetNetworkColumns.build(edges);
+        assertEquals(2, columns.attach(edges, true));
+        assertEquals(2, columns.getEdgeCount());
+        // The geometry is only held by the columns now
+        assertEquals(geometry, ab.getGeometry());
+        assertEquals(geometry.reverse(), ba.getGeometry());
+
+        File file = File.createTempFile("graph", ".obj");
+        file.deleteOnExit();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            GraphFileFormat.write(graph, edges, columns, out);
+        }
+        GraphFileFormat.Contents contents;
+        try (FileInputStream in = new FileInputStream(file)) {
+            contents = GraphFileFormat.read(in, in.getChannel());
+        }
+        assertEquals(2, contents.streetNetworkColumns.attach(contents.edges, false));
+        StreetEdge ab2 = (StreetEdge) contents.edges.get(0);
+        StreetEdge ba2 = (StreetEdge) contents.edges.get(1);
+        assertEquals(geometry, ab2.getGeometry());
+        assertEquals(geometry.reverse(), ba2.getGeometry());
+        assertEquals(12.345, ba2.getDistance(), 0.001);
+        assertTrue(ba2.isStairs());
+
+        // Rebuilding the graph replaces the graph file instead of overwriting it, which the mapping of the loaded
+        // graph survives
+        try (OutputStream out = new FileDataSource(file, FileType.GRAPH).asOutputStream()) {
+            out.write(0);
+        }
+        assertEquals(1, file.length());
+        assertEquals(geometry, ab2.getGeometry());
+        assertEquals(geometry.reverse(), ba2.getGeometry());
+    }
+}
@@ -0,0 +1,60 @@
+package org.opentripplanner.routing.graph;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class LazyIndexTest {
+
+    @Test
+    public void testBuiltOnce() throws Exception {
+        AtomicInteger builds = new AtomicInteger();
+        LazyIndex<List<String>> index = new LazyIndex<>("test", () -> {
+            builds.incrementAndGet();
+            return Arrays.asList("a", "b");
+        }, list -> list.size() * 10L);
+        assertFalse(index.isBuilt());
+        assertEquals(0, index.estimateFootprint());
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<List<String>>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(index::get));
+            }
+            for (Future<List<String>> result : results) {
+                assertSame(index.get(), result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(1, builds.get());
+        assertTrue(index.isBuilt());
+        assertEquals(20, index.estimateFootprint());
+    }
+
+    @Test
+    public void testNullIsNotMemoized() {
+        AtomicInteger builds = new AtomicInteger();
+        LazyIndex<String> index = new LazyIndex<>("test", () -> {
+            builds.incrementAndGet();
+            return null;
+        }, string -> 0);
+        assertNull(index.get());
+        assertNull(index.get());
+        assertEquals(2, builds.get());
+        assertFalse(index.isBuilt());
+    }
+}
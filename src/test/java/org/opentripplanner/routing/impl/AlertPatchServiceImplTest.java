@@ -20,6 +20,8 @@ import org.opentripplanner.routing.alertpatch.Alert;
 import org.opentripplanner.routing.alertpatch.AlertPatch;
 import org.opentripplanner.routing.graph.Graph;
 
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
@@ -137,4 +139,20 @@ public class AlertPatchServiceImplTest {
         assertEquals(1, instance.getAllAlertPatches().size());
         assertTrue(instance.getAllAlertPatches().contains(alerts[0]));
     }
+
+    @Test
+    public void testUpdate() {
+        AlertPatchServiceImpl instance = getAlertPatchServiceImpl();
+        instance.applyAll(new HashSet<>(Arrays.asList(alerts[0], alerts[1])));
+        Collection<AlertPatch> routePatches = instance.getRoutePatches(testRoute);
+
+        instance.update(Collections.singleton(alerts[0].getId()), Collections.singleton(alerts[2]));
+
+        assertEquals(2, instance.getAllAlertPatches().size());
+        assertTrue(instance.getRoutePatches(testRoute).isEmpty());
+        assertTrue(instance.getStopPatches(testStop).contains(alerts[1]));
+        assertTrue(instance.getStopAndRoutePatches(testStop, testRoute).contains(alerts[2]));
+        // The patches looked up before the update are left as they were
+        assertEquals(Collections.singleton(alerts[0]), routePatches);
+    }
 }
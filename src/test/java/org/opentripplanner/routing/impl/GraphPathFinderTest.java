@@ -0,0 +1,46 @@
+package org.opentripplanner.routing.impl;
+
+import org.opentripplanner.GtfsTest;
+import org.opentripplanner.common.model.GenericLocation;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.spt.GraphPath;
+
+import java.util.List;
+
+public class GraphPathFinderTest extends GtfsTest {
+
+    @Override
+    public String getFeedName() {
+        return "mmri/2d";
+    }
+
+    public void testParallelCompactionGivesSameResult() {
+        List<GraphPath> sequential = plan(false);
+        List<GraphPath> parallel = plan(true);
+
+        assertEquals(sequential.size(), parallel.size());
+        for (int i = 0; i < sequential.size(); i++) {
+            assertEquals(sequential.get(i).getStartTime(), parallel.get(i).getStartTime());
+            assertEquals(sequential.get(i).getEndTime(), parallel.get(i).getEndTime());
+            assertEquals(sequential.get(i).getTrips(), parallel.get(i).getTrips());
+        }
+    }
+
+    private List<GraphPath> plan(boolean parallelItinerarySearch) {
+        RoutingRequest request = new RoutingRequest();
+        request.dateTime = 1388530860L;
+        request.from = new GenericLocation(null, "FEED:2d1");
+        request.to = new GenericLocation(null, "FEED:2d4");
+        request.setModes(new TraverseModeSet(TraverseMode.WALK, TraverseMode.TRANSIT));
+        request.setNumItineraries(3);
+        request.compactLegsByReversedSearch = true;
+        request.parallelItinerarySearch = parallelItinerarySearch;
+        request.setRoutingContext(graph);
+
+        List<GraphPath> paths = new GraphPathFinder(router).getPaths(request);
+        request.cleanup();
+        return paths;
+    }
+}
@@ -0,0 +1,122 @@
+package org.opentripplanner.routing.spt;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.opentripplanner.routing.core.RoutingContext;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.edgetype.TemporaryFreeEdge;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.SimpleConcreteEdge;
+import org.opentripplanner.routing.graph.SimpleConcreteVertex;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.location.TemporaryStreetLocation;
+import org.opentripplanner.util.NonLocalizedString;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ArrayShortestPathTreeTest {
+
+    private Graph graph;
+
+    private Vertex v0;
+
+    private Vertex v1;
+
+    private RoutingRequest options;
+
+    @Before
+    public void setUp() {
+        graph = new Graph();
+        v0 = new SimpleConcreteVertex(graph, "v0", 0, 0);
+        v1 = new SimpleConcreteVertex(graph, "v1", 0, 1);
+        new SimpleConcreteEdge(v0, v1);
+        new SimpleConcreteEdge(v1, v0);
+        graph.rebuildVertexAndEdgeIndices();
+        options = new RoutingRequest();
+    }
+
+    @Test
+    public void testIndicesAreDense() {
+        assertEquals(2, graph.getVertexIndexCount());
+        assertEquals(2, graph.getEdgeIndexCount());
+        assertNotEquals(v0.getIndex(), v1.getIndex());
+        for (Edge e : graph.getEdges()) {
+            assertTrue(e.getIndex() >= 0 && e.getIndex() < 2);
+        }
+        Vertex added = new SimpleConcreteVertex(graph, "v2", 1, 1);
+        assertEquals(-1, added.getIndex());
+    }
+
+    @Test
+    public void testAddAndVisit() {
+        ShortestPathTree spt = new ArrayShortestPathTree(options, new DominanceFunction.MinimumWeight(), 2);
+        State s0 = new State(v0, options);
+        State s1 = new State(v1, options);
+        assertTrue(spt.add(s0));
+        assertTrue(spt.add(s1));
+        // an equal state does not replace the existing one
+        assertFalse(spt.add(new State(v0, options)));
+
+        assertSame(s0, spt.getState(v0));
+        assertSame(s1, spt.getState(v1));
+        assertTrue(spt.visit(s0));
+        assertEquals(2, spt.getVertexCount());
+        assertEquals(2, spt.getAllStates().size());
+    }
+
+    @Test
+    public void testVerticesOutsideIndexRange() {
+        ShortestPathTree spt = new ArrayShortestPathTree(options, new DominanceFunction.MinimumWeight(), 2);
+        Vertex unindexed = new SimpleConcreteVertex(graph, "unindexed", 1, 1);
+        Vertex beyondRange = new SimpleConcreteVertex(null, "beyondRange", 1, 2);
+        beyondRange.setIndex(5000);
+        Vertex sameIndex = new SimpleConcreteVertex(null, "sameIndex", 1, 3);
+        sameIndex.setIndex(v0.getIndex());
+
+        State s0 = new State(v0, options);
+        State unindexedState = new State(unindexed, options);
+        State beyondRangeState = new State(beyondRange, options);
+        State sameIndexState = new State(sameIndex, options);
+        assertTrue(spt.add(s0));
+        assertTrue(spt.add(unindexedState));
+        assertTrue(spt.add(beyondRangeState));
+        assertTrue(spt.add(sameIndexState));
+
+        assertSame(s0, spt.getState(v0));
+        assertSame(unindexedState, spt.getState(unindexed));
+        assertSame(beyondRangeState, spt.getState(beyondRange));
+        assertSame(sameIndexState, spt.getState(sameIndex));
+        assertNull(spt.getStates(v1));
+        assertEquals(4, spt.getVertexCount());
+        assertEquals(4, spt.getVertices().size());
+    }
+
+    @Test
+    public void testTemporaryVerticesAreNotIndexed() {
+        TemporaryStreetLocation from = new TemporaryStreetLocation("from", new Coordinate(0, 0.5),
+                new NonLocalizedString("from"), false);
+        new TemporaryFreeEdge(from, v0);
+        options.modes = new TraverseModeSet(TraverseMode.WALK);
+        new RoutingContext(options, graph, from, v1);
+        // The vertex is shared by every thread working on the request, it must not claim a slot of the arrays
+        assertEquals(-1, from.getIndex());
+
+        ShortestPathTree spt = new ArrayShortestPathTree(options, new DominanceFunction.MinimumWeight(), 2);
+        ShortestPathTree other = new ArrayShortestPathTree(options, new DominanceFunction.MinimumWeight(), 2);
+        State fromState = new State(from, options);
+        assertTrue(spt.add(fromState));
+        assertTrue(spt.add(new State(v0, options)));
+        assertSame(fromState, spt.getState(from));
+        assertNull(other.getStates(from));
+    }
+}
@@ -0,0 +1,46 @@
+package org.opentripplanner.routing.trippattern;
+
+import org.junit.Test;
+
+import java.util.BitSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DeduplicatorTest {
+
+    @Test
+    public void testBytesSaved() {
+        Deduplicator deduplicator = new Deduplicator();
+        int[] times = { 0, 60, 120 };
+        assertSame(times, deduplicator.deduplicateIntArray(times));
+        // Nothing is saved by deduplicating the canonical instance itself
+        assertSame(times, deduplicator.deduplicateIntArray(times));
+        assertEquals(0, deduplicator.getBytesSaved());
+
+        assertSame(times, deduplicator.deduplicateIntArray(new int[] { 0, 60, 120 }));
+        assertEquals(16 + 3 * 4, deduplicator.getBytesSaved());
+
+        BitSet timepoints = new BitSet();
+        timepoints.set(1);
+        assertSame(timepoints, deduplicator.deduplicateBitSet(timepoints));
+        BitSet other = new BitSet();
+        other.set(1);
+        assertSame(timepoints, deduplicator.deduplicateBitSet(other));
+
+        String[] headsigns = { "A", "B" };
+        String[] canonical = deduplicator.deduplicateStringArray(headsigns);
+        assertSame(canonical, deduplicator.deduplicateStringArray(new String[] { "A", "B" }));
+        assertSame(canonical[0], deduplicator.deduplicateString(new String("A")));
+
+        // An int array, a BitSet, a String array and its two Strings
+        assertEquals(5 * 36 + 2 * 24, deduplicator.getBytesRetained());
+
+        long saved = deduplicator.getBytesSaved();
+        deduplicator.reset();
+        assertEquals(0, deduplicator.getBytesSaved());
+        assertEquals(0, deduplicator.getBytesRetained());
+        assertTrue(saved > 16 + 3 * 4);
+    }
+}
@@ -0,0 +1,270 @@
+package org.opentripplanner.routing.trippattern;
+
+import org.junit.Test;
+import org.opentripplanner.model.AgencyAndId;
+import org.opentripplanner.model.Route;
+import org.opentripplanner.model.Stop;
+import org.opentripplanner.model.StopPattern;
+import org.opentripplanner.model.StopTime;
+import org.opentripplanner.model.Trip;
+import org.opentripplanner.model.calendar.ServiceDate;
+import org.opentripplanner.routing.core.RoutingContext;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.ServiceDay;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.StopTransfer;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.edgetype.Timetable;
+import org.opentripplanner.routing.edgetype.TripPattern;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.impl.StreetVertexIndexServiceImpl;
+import org.opentripplanner.routing.request.BannedStopSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class SortedDepartureIndexTest {
+
+    private final Deduplicator deduplicator = new Deduplicator();
+
+    @Test
+    public void testSortsByFirstDeparture() {
+        TripTimes late = createTripTimes("late", 600, 700, 800);
+        TripTimes early = createTripTimes("early", 0, 100, 200);
+        TripTimes middle = createTripTimes("middle", 300, 400, 500);
+        SortedDepartureIndex index = SortedDepartureIndex.build(Arrays.asList(late, early, middle), 3);
+
+        assertEquals(3, index.size());
+        assertSame(early, index.get(0));
+        assertSame(middle, index.get(1));
+        assertSame(late, index.get(2));
+        assertEquals(1, index.getTimetablePosition(0));
+        assertEquals(0, index.getTimetablePosition(2));
+
+        assertTrue(index.departuresSorted(1));
+        assertEquals(1, index.firstDepartureAtOrAfter(1, 101));
+        assertEquals(1, index.firstDepartureAtOrAfter(1, 400));
+        assertEquals(3, index.firstDepartureAtOrAfter(1, 701));
+        assertEquals(0, index.lastArrivalAtOrBefore(2, 499));
+        assertEquals(1, index.lastArrivalAtOrBefore(2, 500));
+        assertEquals(-1, index.lastArrivalAtOrBefore(2, 199));
+    }
+
+    @Test
+    public void testDetectsOvertaking() {
+        TripTimes slow = createTripTimes("slow", 0, 600, 1200);
+        TripTimes fast = createTripTimes("fast", 300, 400, 500);
+        SortedDepartureIndex index = SortedDepartureIndex.build(Arrays.asList(slow, fast), 3);
+
+        assertTrue(index.departuresSorted(0));
+        assertFalse(index.departuresSorted(1));
+        assertFalse(index.arrivalsSorted(2));
+    }
+
+    @Test
+    public void testLeavesOutCancelledTrips() {
+        TripTimes cancelled = createTripTimes("cancelled", 0, 900, 1800);
+        cancelled.cancel();
+        TripTimes running = createTripTimes("running", 300, 400, 500);
+        SortedDepartureIndex index = SortedDepartureIndex.build(Arrays.asList(cancelled, running), 3);
+
+        assertEquals(1, index.size());
+        assertTrue(index.departuresSorted(1));
+    }
+
+    @Test
+    public void testCachesTripsRunningPerServiceDate() {
+        TripTimes weekday = createTripTimes("weekday", 0, 100, 200);
+        weekday.serviceCode = 0;
+        TripTimes weekend = createTripTimes("weekend", 300, 400, 500);
+        weekend.serviceCode = 1;
+        SortedDepartureIndex index = SortedDepartureIndex.build(Arrays.asList(weekday, weekend), 3);
+
+        ServiceDay serviceDay = mock(ServiceDay.class);
+        when(serviceDay.getServiceDate()).thenReturn(new ServiceDate(2018, 6, 16));
+        when(serviceDay.serviceRunning(0)).thenReturn(false);
+        when(serviceDay.serviceRunning(1)).thenReturn(true);
+
+        BitSet running = index.getTripsRunning(serviceDay);
+        assertFalse(running.get(0));
+        assertTrue(running.get(1));
+        assertSame(running, index.getTripsRunning(serviceDay));
+        verify(serviceDay, times(1)).serviceRunning(1);
+    }
+
+    @Test
+    public void testNoIndexForDifferentStopCounts() {
+        TripTimes full = createTripTimes("full", 0, 100, 200);
+        TripTimes shortened = createTripTimes("short", 300, 400);
+        assertNull(SortedDepartureIndex.build(Arrays.asList(full, shortened), 3));
+    }
+
+    /**
+     * Search random timetables both through the sorted departures and by a linear scan, and check that the same trip
+     * is found. The trips do not overtake each other, so the sorted departures are used at every stop.
+     */
+    @Test
+    public void testSameTripAsLinearScan() {
+        Random random = new Random(42);
+        Stop[] stops = new Stop[3];
+        for (int s = 0; s < stops.length; s++) {
+            stops[s] = new Stop();
+            stops[s].setId(new AgencyAndId("agency", "stop" + s));
+        }
+        Stop previousStop = new Stop();
+        previousStop.setId(new AgencyAndId("agency", "previous"));
+        Trip previousTrip = new Trip();
+        previousTrip.setId(new AgencyAndId("agency", "previous"));
+        Route route = new Route();
+        route.setId(new AgencyAndId("agency", "route"));
+        route.setType(3);
+
+        for (int n = 0; n < 100; n++) {
+            int nTrips = 1 + random.nextInt(30);
+            // Draw the first departures in timetable order, at whole minutes so that several trips leave together,
+            // and some before midnight.
+            int[] firstDepartures = new int[nTrips];
+            for (int i = 0; i < nTrips; i++) {
+                firstDepartures[i] = 60 * (random.nextInt(120) - 15);
+            }
+            // Then the times at the other stops in sorted order, without any trip overtaking another one.
+            Integer[] order = new Integer[nTrips];
+            for (int i = 0; i < nTrips; i++) order[i] = i;
+            Arrays.sort(order, Comparator.comparingInt((Integer i) -> firstDepartures[i]).thenComparingInt(i -> i));
+            int[][] arrivals = new int[nTrips][stops.length];
+            int[][] departures = new int[nTrips][stops.length];
+            for (int k = 0; k < nTrips; k++) {
+                int i = order[k];
+                arrivals[i][0] = departures[i][0] = firstDepartures[i];
+                for (int s = 1; s < stops.length; s++) {
+                    arrivals[i][s] = departures[i][s - 1] + 60 * random.nextInt(4);
+                    departures[i][s] = arrivals[i][s] + 60 * random.nextInt(2);
+                    if (k > 0) {
+                        int j = order[k - 1];
+                        arrivals[i][s] = Math.max(arrivals[i][s], arrivals[j][s]);
+                        departures[i][s] = Math.max(Math.max(departures[i][s], arrivals[i][s]), departures[j][s]);
+                    }
+                }
+            }
+
+            Graph graph = new Graph();
+            graph.streetIndex = new StreetVertexIndexServiceImpl(graph);
+            RoutingRequest request = new RoutingRequest();
+            request.rctx = new RoutingContext(request, graph);
+            List<TripTimes> tripTimes = new ArrayList<>();
+            for (int i = 0; i < nTrips; i++) {
+                TripTimes tt = createTripTimes("trip" + i, stops, arrivals[i], departures[i]);
+                tt.trip.setRoute(route);
+                tt.serviceCode = random.nextInt(5) == 0 ? 1 : 0;
+                if (random.nextInt(10) == 0) {
+                    tt.cancel();
+                }
+                if (random.nextInt(10) == 0) {
+                    request.bannedTrips.put(tt.trip.getId(), BannedStopSet.ALL);
+                }
+                for (int s = 0; s < stops.length; s++) {
+                    if (random.nextInt(4) == 0) {
+                        int transferTime = random.nextInt(4) == 0
+                                ? StopTransfer.FORBIDDEN_TRANSFER : 60 * random.nextInt(10);
+                        graph.getTransferTable().addTransferTime(previousStop, stops[s], null, null, previousTrip,
+                                tt.trip, transferTime);
+                        graph.getTransferTable().addTransferTime(stops[s], previousStop, null, null, tt.trip,
+                                previousTrip, transferTime);
+                    }
+                }
+                tripTimes.add(tt);
+            }
+
+            TripPattern pattern = new TripPattern(route, new StopPattern(createStopTimes(stops, arrivals[0],
+                    departures[0])));
+            Timetable scanned = new Timetable(pattern);
+            Timetable indexed = new Timetable(pattern);
+            for (TripTimes tt : tripTimes) {
+                scanned.addTripTimes(tt);
+                indexed.addTripTimes(tt);
+            }
+            indexed.finish();
+            SortedDepartureIndex index = SortedDepartureIndex.build(tripTimes, stops.length);
+            for (int s = 0; s < stops.length; s++) {
+                assertTrue(index.departuresSorted(s));
+                assertTrue(index.arrivalsSorted(s));
+            }
+
+            ServiceDay serviceDay = mock(ServiceDay.class);
+            when(serviceDay.getServiceDate()).thenReturn(new ServiceDate(2018, 6, 16));
+            when(serviceDay.serviceRunning(0)).thenReturn(true);
+            when(serviceDay.serviceRunning(1)).thenReturn(false);
+            when(serviceDay.secondsSinceMidnight(anyLong()))
+                    .thenAnswer(invocation -> (int) (long) (Long) invocation.getArguments()[0]);
+
+            for (int q = 0; q < 50; q++) {
+                State state = mock(State.class);
+                when(state.getOptions()).thenReturn(request);
+                when(state.getNonTransitMode()).thenReturn(TraverseMode.WALK);
+                when(state.getTimeSeconds()).thenReturn((long) random.nextInt(9000) - 1800);
+                when(state.isEverBoarded()).thenReturn(random.nextBoolean());
+                when(state.getPreviousStop()).thenReturn(previousStop);
+                when(state.getPreviousTrip()).thenReturn(previousTrip);
+                when(state.getLastAlightedTimeSeconds()).thenReturn((long) random.nextInt(9000) - 1800);
+                for (int s = 0; s < stops.length; s++) {
+                    for (boolean boarding : new boolean[] { true, false }) {
+                        assertSame("timetable " + n + ", query " + q + ", stop " + s + ", boarding " + boarding,
+                                scanned.getNextTrip(state, serviceDay, s, boarding),
+                                indexed.getNextTrip(state, serviceDay, s, boarding));
+                    }
+                }
+            }
+        }
+    }
+
+    private TripTimes createTripTimes(String id, Stop[] stops, int[] arrivals, int[] departures) {
+        Trip trip = new Trip();
+        trip.setId(new AgencyAndId("agency", id));
+        return new TripTimes(trip, createStopTimes(stops, arrivals, departures), deduplicator);
+    }
+
+    private static List<StopTime> createStopTimes(Stop[] stops, int[] arrivals, int[] departures) {
+        List<StopTime> stopTimes = new ArrayList<>();
+        for (int i = 0; i < stops.length; i++) {
+            StopTime stopTime = new StopTime();
+            stopTime.setStop(stops[i]);
+            stopTime.setArrivalTime(arrivals[i]);
+            stopTime.setDepartureTime(departures[i]);
+            stopTime.setStopSequence(i);
+            stopTimes.add(stopTime);
+        }
+        return stopTimes;
+    }
+
+    private TripTimes createTripTimes(String id, int... times) {
+        Trip trip = new Trip();
+        trip.setId(new AgencyAndId("agency", id));
+        List<StopTime> stopTimes = new ArrayList<>();
+        for (int i = 0; i < times.length; i++) {
+            Stop stop = new Stop();
+            stop.setId(new AgencyAndId("agency", "stop" + i));
+            StopTime stopTime = new StopTime();
+            stopTime.setStop(stop);
+            stopTime.setArrivalTime(times[i]);
+            stopTime.setDepartureTime(times[i]);
+            stopTime.setStopSequence(i);
+            stopTimes.add(stopTime);
+        }
+        return new TripTimes(trip, stopTimes, deduplicator);
+    }
+}
@@ -8,7 +8,11 @@ import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -70,13 +74,38 @@ public class FileDataSourceTest {
         // Verify the content by reading the file using the subject input stream
         assertEquals("Hello!", IOUtils.toString(subject.asInputStream(), UTF_8));
 
-        // Then write something else - replacing the existing content
-        IOUtils.write("Go, go, go!", subject.asOutputStream(), UTF_8);
+        // Then write something else - replacing the existing content once the stream is closed
+        try (OutputStream out = subject.asOutputStream()) {
+            IOUtils.write("Go, go, go!", out, UTF_8);
+        }
 
         // Assert content can be read using the subject and file
         assertEquals("Go, go, go!", IOUtils.toString(subject.asInputStream(), UTF_8));
     }
 
+    @Test
+    public void testMappedFileIsNotOverwritten() throws IOException {
+        File target = new File(tempDir, FILENAME);
+        FileDataSource subject = new FileDataSource(target, GRAPH);
+        FileUtils.write(target, "Hello!", UTF_8);
+
+        try (FileChannel channel = FileChannel.open(target.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            try (OutputStream out = subject.asOutputStream()) {
+                IOUtils.write("Go, go, go!", out, UTF_8);
+            }
+
+            // The file is replaced, the mapping of the previous file keeps its content
+            assertEquals("Go, go, go!", IOUtils.toString(subject.asInputStream(), UTF_8));
+            byte[] bytes = new byte[mapped.remaining()];
+            mapped.get(bytes);
+            assertEquals("Hello!", new String(bytes, UTF_8));
+        }
+        assertEquals(1, tempDir.list().length);
+        target.delete();
+    }
+
     @Test
     public void verifyReadingNoneExistingFileFails() {
         // given
@@ -0,0 +1,145 @@
+package org.opentripplanner.updater;
+
+import org.junit.Test;
+import org.opentripplanner.routing.graph.Graph;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GraphUpdaterManagerTest {
+
+    /** Records the labels it was run with, combining with any following runnable of the same class. */
+    private static class LabelRunnable implements GraphWriterRunnable {
+
+        private final List<String> labels;
+
+        private final List<List<String>> runs;
+
+        LabelRunnable(List<String> labels, List<List<String>> runs) {
+            this.labels = labels;
+            this.runs = runs;
+        }
+
+        @Override
+        public void run(Graph graph) {
+            runs.add(labels);
+        }
+
+        @Override
+        public GraphWriterRunnable coalesce(GraphWriterRunnable next) {
+            if (!(next instanceof LabelRunnable)) {
+                return null;
+            }
+            List<String> combined = new ArrayList<>(labels);
+            combined.addAll(((LabelRunnable) next).labels);
+            return new LabelRunnable(combined, runs);
+        }
+    }
+
+    @Test
+    public void testQueuedRunnablesAreCoalesced() throws Exception {
+        GraphUpdaterManager manager = new GraphUpdaterManager(new Graph(), 10);
+        List<List<String>> runs = new ArrayList<>();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        // Hold the writer thread so the following runnables pile up in the queue
+        manager.execute(graph -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        started.await();
+        List<String> a = new ArrayList<>();
+        a.add("a");
+        List<String> b = new ArrayList<>();
+        b.add("b");
+        manager.execute(new LabelRunnable(a, runs));
+        manager.execute(new LabelRunnable(b, runs));
+        assertEquals(2, manager.getQueueDepth());
+        release.countDown();
+
+        manager.executeBlocking(graph -> { });
+        manager.stop();
+
+        assertEquals(1, runs.size());
+        assertEquals(2, runs.get(0).size());
+        assertEquals("a", runs.get(0).get(0));
+        assertEquals("b", runs.get(0).get(1));
+        assertEquals(4, manager.getExecutedCount());
+        assertEquals(1, manager.getCoalescedCount());
+        assertEquals(0, manager.getQueueDepth());
+    }
+
+    @Test
+    public void testRunnablesSubmittedByTheWriterThreadAreRunRightAway() throws Exception {
+        GraphUpdaterManager manager = new GraphUpdaterManager(new Graph(), 1);
+        List<String> runs = new ArrayList<>();
+
+        // The second runnable would not fit in the queue, which only the writer thread itself empties
+        manager.executeBlocking(graph -> {
+            manager.execute(g -> runs.add("a"));
+            manager.execute(g -> runs.add("b"));
+            runs.add("c");
+        });
+        manager.stop();
+
+        assertEquals(3, runs.size());
+        assertEquals("a", runs.get(0));
+        assertEquals("b", runs.get(1));
+        assertEquals("c", runs.get(2));
+    }
+
+    @Test
+    public void testQueuedRunnablesAreCancelledOnStop() throws Exception {
+        GraphUpdaterManager manager = new GraphUpdaterManager(new Graph(), 10);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        // Hold the writer thread until it is interrupted by stopping the manager
+        manager.execute(graph -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        started.await();
+        ExecutorService updater = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> blocked = updater.submit(() -> {
+                manager.executeBlocking(graph -> { });
+                return null;
+            });
+            while (manager.getQueueDepth() == 0) {
+                Thread.sleep(10);
+            }
+            manager.stop();
+
+            try {
+                blocked.get(10, TimeUnit.SECONDS);
+                fail("The queued runnable was not cancelled");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof CancellationException);
+            }
+            assertEquals(0, manager.getQueueDepth());
+        } finally {
+            updater.shutdown();
+        }
+    }
+}
@@ -50,6 +50,16 @@ public class SiriFuzzyTripMatcherTest extends GtfsTest {
 
     }
 
+    public void testIndexIsSharedPerGraph() throws Exception {
+        SiriFuzzyTripMatcherIndex matcherIndex = graph.index.getSiriFuzzyTripMatcherIndex();
+        assertSame(matcherIndex, graph.index.getSiriFuzzyTripMatcherIndex());
+
+        Set<Trip> trips = matcherIndex.getTripsById("10W1020");
+        assertNotNull(trips);
+        assertEquals(1, trips.size());
+        assertNull(matcherIndex.getTripsById("no such trip"));
+    }
+
     @Override
     public String getFeedName() {
         return "google_transit.zip";
@@ -0,0 +1,71 @@
+package org.opentripplanner.updater;
+
+import org.entur.protobuf.mapper.SiriMapper;
+import org.junit.Test;
+import uk.org.siri.siri20.EstimatedTimetableDeliveryStructure;
+import uk.org.siri.siri20.EstimatedVehicleJourney;
+import uk.org.siri.siri20.Siri;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SiriProtobufStreamReaderTest {
+
+    private static final String XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+            + "<Siri xmlns=\"http://www.siri.org.uk/siri\" version=\"2.0\">"
+            + "<ServiceDelivery>"
+            + "<ResponseTimestamp>2018-05-03T10:00:00+02:00</ResponseTimestamp>"
+            + "<EstimatedTimetableDelivery version=\"2.0\">"
+            + "<EstimatedJourneyVersionFrame>"
+            + "<EstimatedVehicleJourney><LineRef>L1</LineRef></EstimatedVehicleJourney>"
+            + "<EstimatedVehicleJourney><LineRef>L2</LineRef></EstimatedVehicleJourney>"
+            + "<EstimatedVehicleJourney><LineRef>L3</LineRef></EstimatedVehicleJourney>"
+            + "</EstimatedJourneyVersionFrame>"
+            + "<EstimatedJourneyVersionFrame>"
+            + "<EstimatedVehicleJourney><LineRef>L4</LineRef></EstimatedVehicleJourney>"
+            + "</EstimatedJourneyVersionFrame>"
+            + "</EstimatedTimetableDelivery>"
+            + "</ServiceDelivery>"
+            + "</Siri>";
+
+    @Test
+    public void testReadInChunks() throws Exception {
+        Siri siri = SiriHelper.unmarshal(new ByteArrayInputStream(XML.getBytes(StandardCharsets.UTF_8)));
+        byte[] data = SiriMapper.mapToPbf(siri).toByteArray();
+
+        try (SiriProtobufStreamReader reader = new SiriProtobufStreamReader(new ByteArrayInputStream(data),
+                "ServiceDelivery", "EstimatedTimetableDelivery", "EstimatedJourneyVersionFrame",
+                "EstimatedVehicleJourney")) {
+
+            Siri chunk = reader.next(2);
+            assertEquals(ZonedDateTime.parse("2018-05-03T10:00:00+02:00").toInstant(),
+                    chunk.getServiceDelivery().getResponseTimestamp().toInstant());
+            assertLineRefs(chunk, "L1", "L2");
+
+            // A chunk ends with its version frame
+            assertLineRefs(reader.next(2), "L3");
+            assertLineRefs(reader.next(2), "L4");
+
+            assertNull(reader.next(2));
+            assertEquals(4, reader.getElementCount());
+        }
+    }
+
+    private static void assertLineRefs(Siri chunk, String... lineRefs) {
+        List<EstimatedTimetableDeliveryStructure> deliveries = chunk.getServiceDelivery()
+                .getEstimatedTimetableDeliveries();
+        assertEquals(1, deliveries.size());
+        assertEquals(1, deliveries.get(0).getEstimatedJourneyVersionFrames().size());
+        List<EstimatedVehicleJourney> journeys = deliveries.get(0).getEstimatedJourneyVersionFrames().get(0)
+                .getEstimatedVehicleJourneies();
+        assertEquals(lineRefs.length, journeys.size());
+        for (int i = 0; i < lineRefs.length; i++) {
+            assertEquals(lineRefs[i], journeys.get(i).getLineRef().getValue());
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package org.opentripplanner.updater;
+
+import org.junit.Test;
+import uk.org.siri.siri20.EstimatedVehicleJourney;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SiriStreamReaderTest {
+
+    private static final String XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+            + "<Siri xmlns=\"http://www.siri.org.uk/siri\" version=\"2.0\">"
+            + "<ServiceDelivery>"
+            + "<ResponseTimestamp>2018-05-03T10:00:00+02:00</ResponseTimestamp>"
+            + "<MoreData>true</MoreData>"
+            + "<EstimatedTimetableDelivery version=\"2.0\">"
+            + "<ResponseTimestamp>2018-05-03T10:00:01+02:00</ResponseTimestamp>"
+            + "<EstimatedJourneyVersionFrame>"
+            + "<RecordedAtTime>2018-05-03T10:00:00+02:00</RecordedAtTime>"
+            + "<EstimatedVehicleJourney><LineRef>L1</LineRef></EstimatedVehicleJourney>"
+            + "<EstimatedVehicleJourney><LineRef>L2</LineRef></EstimatedVehicleJourney>"
+            + "<EstimatedVehicleJourney><LineRef>L3</LineRef></EstimatedVehicleJourney>"
+            + "</EstimatedJourneyVersionFrame>"
+            + "</EstimatedTimetableDelivery>"
+            + "</ServiceDelivery>"
+            + "</Siri>";
+
+    @Test
+    public void testReadInChunks() throws Exception {
+        try (SiriStreamReader<EstimatedVehicleJourney> reader = new SiriStreamReader<>(
+                new ByteArrayInputStream(XML.getBytes(StandardCharsets.UTF_8)),
+                "EstimatedVehicleJourney", EstimatedVehicleJourney.class)) {
+
+            assertEquals(ZonedDateTime.parse("2018-05-03T10:00:00+02:00"), reader.getResponseTimestamp());
+
+            List<EstimatedVehicleJourney> chunk = reader.next(2);
+            assertEquals(2, chunk.size());
+            assertEquals("L1", chunk.get(0).getLineRef().getValue());
+            assertEquals("L2", chunk.get(1).getLineRef().getValue());
+
+            chunk = reader.next(2);
+            assertEquals(1, chunk.size());
+            assertEquals("L3", chunk.get(0).getLineRef().getValue());
+
+            assertTrue(reader.next(2).isEmpty());
+            assertEquals(3, reader.getElementCount());
+            assertTrue(reader.isMoreData());
+        }
+    }
+
+    @Test
+    public void testEmptyDelivery() throws Exception {
+        String xml = "<Siri xmlns=\"http://www.siri.org.uk/siri\" version=\"2.0\"><ServiceDelivery>"
+                + "<ResponseTimestamp>2018-05-03T10:00:00+02:00</ResponseTimestamp>"
+                + "</ServiceDelivery></Siri>";
+        try (SiriStreamReader<EstimatedVehicleJourney> reader = new SiriStreamReader<>(
+                new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)),
+                "EstimatedVehicleJourney", EstimatedVehicleJourney.class)) {
+            assertTrue(reader.next(10).isEmpty());
+            assertFalse(reader.isMoreData());
+        }
+    }
+}
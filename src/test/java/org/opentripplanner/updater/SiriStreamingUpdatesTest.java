@@ -0,0 +1,102 @@
+package org.opentripplanner.updater;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opentripplanner.routing.graph.Graph;
+import uk.org.siri.siri20.EstimatedVehicleJourney;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SiriStreamingUpdatesTest {
+
+    private GraphUpdaterManager updaterManager;
+
+    private UpdaterMetrics metrics;
+
+    /** The full dataset flag, the number of journeys and the queue depth of each chunk, as it was applied. */
+    private List<String> applied;
+
+    @Before
+    public void setUp() {
+        updaterManager = new GraphUpdaterManager(new Graph(), 10);
+        metrics = new UpdaterMetrics();
+        applied = Collections.synchronizedList(new ArrayList<>());
+    }
+
+    @After
+    public void tearDown() {
+        updaterManager.stop();
+    }
+
+    @Test
+    public void testFullDatasetInChunks() throws Exception {
+        apply(journeys(5), 2, true);
+
+        // Only the first chunk replaces the previous updates, and no chunk waits while another is applied
+        assertEquals(3, applied.size());
+        assertEquals("true 2 0", applied.get(0));
+        assertEquals("false 2 0", applied.get(1));
+        assertEquals("false 1 0", applied.get(2));
+        assertEquals(5, metrics.getReceived());
+    }
+
+    @Test
+    public void testIncrementalUpdatesInChunks() throws Exception {
+        apply(journeys(4), 2, false);
+
+        assertEquals(2, applied.size());
+        assertEquals("false 2 0", applied.get(0));
+        assertEquals("false 2 0", applied.get(1));
+    }
+
+    @Test
+    public void testEmptyFullDatasetIsApplied() throws Exception {
+        apply(journeys(0), 2, true);
+
+        // An empty full dataset still clears the previous updates
+        assertEquals(1, applied.size());
+        assertEquals("true 0 0", applied.get(0));
+    }
+
+    @Test
+    public void testEmptyIncrementalUpdatesAreNotApplied() throws Exception {
+        apply(journeys(0), 2, false);
+
+        assertTrue(applied.isEmpty());
+        assertEquals(0, metrics.getReceived());
+    }
+
+    private void apply(String xml, int chunkSize, boolean fullDataset) throws Exception {
+        try (SiriStreamReader<EstimatedVehicleJourney> reader = new SiriStreamReader<>(
+                new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)),
+                "EstimatedVehicleJourney", EstimatedVehicleJourney.class)) {
+            SiriStreamingUpdates.applyInChunks(reader, chunkSize, fullDataset,
+                    (full, chunk) -> graph -> applied.add(full + " " + chunk.size() + " "
+                            + updaterManager.getQueueDepth()),
+                    updaterManager, metrics);
+        }
+    }
+
+    private static String journeys(int count) {
+        StringBuilder xml = new StringBuilder("<Siri xmlns=\"http://www.siri.org.uk/siri\" version=\"2.0\">"
+                + "<ServiceDelivery>"
+                + "<ResponseTimestamp>2018-05-03T10:00:00+02:00</ResponseTimestamp>"
+                + "<EstimatedTimetableDelivery version=\"2.0\">"
+                + "<EstimatedJourneyVersionFrame>");
+        for (int i = 0; i < count; i++) {
+            xml.append("<EstimatedVehicleJourney><LineRef>L").append(i).append("</LineRef></EstimatedVehicleJourney>");
+        }
+        return xml.append("</EstimatedJourneyVersionFrame>"
+                + "</EstimatedTimetableDelivery>"
+                + "</ServiceDelivery>"
+                + "</Siri>").toString();
+    }
+}
@@ -0,0 +1,72 @@
+package org.opentripplanner.updater;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class UpdaterMetricsTest {
+
+    @Test
+    public void testRecord() {
+        UpdaterMetrics metrics = new UpdaterMetrics();
+        metrics.addReceived(10);
+        metrics.addApplied(8);
+        metrics.addFailedToMatch(2);
+        metrics.recordTime(UpdaterMetrics.Stage.APPLY, 2000000);
+        metrics.recordTime(UpdaterMetrics.Stage.APPLY, 4000000);
+
+        Map<String, Object> map = metrics.toMap();
+        assertEquals(10L, map.get("received"));
+        assertEquals(8L, map.get("applied"));
+        assertEquals(2L, map.get("failedToMatch"));
+        @SuppressWarnings("unchecked")
+        Map<String, Object> apply = (Map<String, Object>) map.get("apply");
+        assertEquals(2L, apply.get("count"));
+        assertEquals(6L, apply.get("totalMillis"));
+        assertEquals(4.0, apply.get("maxMillis"));
+        // Stages without any time recorded are left out
+        assertFalse(map.containsKey("fetch"));
+    }
+
+    @Test
+    public void testVisibilityDelay() {
+        UpdaterMetrics metrics = new UpdaterMetrics();
+        // Nothing applied, nothing to record
+        metrics.recordPublished(1000);
+        assertFalse(metrics.toMap().containsKey("visibilityDelay"));
+
+        metrics.recordAppliedCreationTime(500);
+        metrics.recordAppliedCreationTime(200);
+        metrics.recordPublished(1000);
+        // Once published, the updates are not counted again
+        metrics.recordPublished(2000);
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> delay = (Map<String, Object>) metrics.toMap().get("visibilityDelay");
+        assertEquals(1L, delay.get("count"));
+        assertEquals(800.0, delay.get("maxMillis"));
+    }
+
+    @Test
+    public void testPrometheusText() {
+        UpdaterMetrics metrics = new UpdaterMetrics();
+        metrics.addReceived(3);
+        metrics.recordTime(UpdaterMetrics.Stage.FETCH, 1500000000L);
+
+        StringBuilder text = new StringBuilder();
+        UpdaterMetrics.writePrometheusText(Collections.singletonMap("0:SiriETUpdater", metrics), text);
+
+        String lines = text.toString();
+        assertTrue(lines.contains("# TYPE otp_updater_received_total counter\n"));
+        assertTrue(lines.contains("otp_updater_received_total{source=\"0:SiriETUpdater\"} 3\n"));
+        assertTrue(lines.contains("otp_updater_stage_seconds_count{source=\"0:SiriETUpdater\",stage=\"fetch\"} 1\n"));
+        assertTrue(lines.contains("otp_updater_stage_seconds_sum{source=\"0:SiriETUpdater\",stage=\"fetch\"} 1.5\n"));
+        assertTrue(lines.contains("otp_updater_stage_max_seconds{source=\"0:SiriETUpdater\",stage=\"fetch\"} 1.5\n"));
+        assertFalse(lines.contains("stage=\"apply\""));
+    }
+}
@@ -0,0 +1,40 @@
+package org.opentripplanner.updater;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class WindowedMaximumTest {
+
+    @Test
+    public void testMaximumOverWindow() {
+        WindowedMaximum max = new WindowedMaximum(60000, 6);
+        assertEquals(0, max.get(0));
+
+        max.record(0, 5);
+        max.record(5000, 3);
+        max.record(15000, 2);
+        assertEquals(5, max.get(15000));
+        // Reading does not reset the maximum
+        assertEquals(5, max.get(15000));
+        assertEquals(5, max.get(59999));
+
+        // The first bucket leaves the window
+        assertEquals(2, max.get(60000));
+        assertEquals(0, max.get(200000));
+    }
+
+    @Test
+    public void testBucketsAreReused() {
+        WindowedMaximum max = new WindowedMaximum(60000, 6);
+        max.record(0, 5);
+        max.record(15000, 2);
+        max.record(60000, 1);
+        assertEquals(2, max.get(60000));
+
+        // A value recorded late for a period that has left the window is ignored
+        max.record(0, 100);
+        assertEquals(2, max.get(60000));
+        assertEquals(1, max.get(80000));
+    }
+}
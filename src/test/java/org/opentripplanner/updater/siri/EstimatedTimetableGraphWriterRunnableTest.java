@@ -0,0 +1,37 @@
+package org.opentripplanner.updater.siri;
+
+import org.junit.Test;
+import org.opentripplanner.updater.GraphUpdater;
+import org.opentripplanner.updater.GraphWriterRunnable;
+import uk.org.siri.siri20.EstimatedTimetableDeliveryStructure;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+
+public class EstimatedTimetableGraphWriterRunnableTest {
+
+    private final GraphUpdater feedA = mock(GraphUpdater.class);
+
+    private final GraphUpdater feedB = mock(GraphUpdater.class);
+
+    @Test
+    public void testCoalescesUpdatesOfTheSameUpdater() {
+        GraphWriterRunnable first = runnable(feedA, true);
+        assertNotNull(first.coalesce(runnable(feedA, false)));
+        assertNull(first.coalesce(runnable(feedA, true)));
+    }
+
+    @Test
+    public void testKeepsUpdatesOfDifferentUpdatersApart() {
+        assertNull(runnable(feedA, false).coalesce(runnable(feedB, false)));
+        assertNull(runnable(feedA, true).coalesce(runnable(feedB, false)));
+    }
+
+    private static EstimatedTimetableGraphWriterRunnable runnable(GraphUpdater source, boolean fullDataset) {
+        return new EstimatedTimetableGraphWriterRunnable(source, fullDataset,
+                Collections.singletonList(new EstimatedTimetableDeliveryStructure()));
+    }
+}
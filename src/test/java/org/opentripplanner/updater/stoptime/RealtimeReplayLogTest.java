@@ -0,0 +1,179 @@
+package org.opentripplanner.updater.stoptime;
+
+import com.google.transit.realtime.GtfsRealtime.TripDescriptor;
+import com.google.transit.realtime.GtfsRealtime.TripUpdate;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.opentripplanner.routing.graph.Graph;
+import uk.org.siri.siri20.DatedVehicleJourneyRef;
+import uk.org.siri.siri20.EstimatedTimetableDeliveryStructure;
+import uk.org.siri.siri20.EstimatedVehicleJourney;
+import uk.org.siri.siri20.EstimatedVersionFrameStructure;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+public class RealtimeReplayLogTest {
+
+    private static final long MAX_AGE = 3600 * 1000;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("realtime", "log");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+        new File(file.getPath() + ".rotated").delete();
+    }
+
+    @Test
+    public void testReplayLatestUpdateOfEachTrip() {
+        RealtimeReplayLog log = new RealtimeReplayLog(file, 1000, MAX_AGE);
+        log.logTripUpdate("F", tripUpdate("A", 60));
+        log.logTripUpdate("F", tripUpdate("B", 0));
+        log.logTripUpdate("F", tripUpdate("A", 120));
+        log.close();
+
+        TimetableSnapshotSource snapshotSource = mock(TimetableSnapshotSource.class);
+        assertEquals(2, new RealtimeReplayLog(file, 1000, MAX_AGE).replay(null, snapshotSource));
+        verify(snapshotSource).applyTripUpdates(null, false,
+                Arrays.asList(tripUpdate("B", 0), tripUpdate("A", 120)), "F");
+
+        // The replay left a checkpoint with the same content
+        snapshotSource = mock(TimetableSnapshotSource.class);
+        assertEquals(2, new RealtimeReplayLog(file, 1000, MAX_AGE).replay(null, snapshotSource));
+    }
+
+    @Test
+    public void testClear() {
+        RealtimeReplayLog log = new RealtimeReplayLog(file, 1000, MAX_AGE);
+        log.logTripUpdate("F", tripUpdate("A", 60));
+        log.logTripUpdate("G", tripUpdate("C", 60));
+        log.logClear("F");
+        log.logTripUpdate("F", tripUpdate("B", 0));
+        log.close();
+
+        TimetableSnapshotSource snapshotSource = mock(TimetableSnapshotSource.class);
+        new RealtimeReplayLog(file, 1000, MAX_AGE).replay(null, snapshotSource);
+        verify(snapshotSource).applyTripUpdates(null, false, Collections.singletonList(tripUpdate("C", 60)), "G");
+        verify(snapshotSource).applyTripUpdates(null, false, Collections.singletonList(tripUpdate("B", 0)), "F");
+        verifyNoMoreInteractions(snapshotSource);
+    }
+
+    @Test
+    public void testCheckpointInterval() {
+        RealtimeReplayLog log = new RealtimeReplayLog(file, 2, MAX_AGE);
+        long previousLength = 0;
+        for (int i = 0; i < 10; i++) {
+            log.logTripUpdate("F", tripUpdate("A", i));
+            log.flush();
+            if (i % 2 == 1) {
+                log.awaitCheckpoint();
+                // Just after a checkpoint, only the latest update is left
+                assertEquals(previousLength == 0 ? file.length() : previousLength, file.length());
+                previousLength = file.length();
+            }
+        }
+        log.close();
+
+        TimetableSnapshotSource snapshotSource = mock(TimetableSnapshotSource.class);
+        new RealtimeReplayLog(file, 2, MAX_AGE).replay(null, snapshotSource);
+        verify(snapshotSource).applyTripUpdates(null, false, Collections.singletonList(tripUpdate("A", 9)), "F");
+    }
+
+    @Test
+    public void testIncompleteLastRecord() throws IOException {
+        RealtimeReplayLog log = new RealtimeReplayLog(file, 1000, MAX_AGE);
+        log.logTripUpdate("F", tripUpdate("A", 60));
+        log.close();
+        try (FileOutputStream output = new FileOutputStream(file, true)) {
+            // The start of a record cut off by a crash
+            output.write(new byte[] { 1, 0, 1 });
+        }
+
+        TimetableSnapshotSource snapshotSource = mock(TimetableSnapshotSource.class);
+        assertEquals(1, new RealtimeReplayLog(file, 1000, MAX_AGE).replay(null, snapshotSource));
+        verify(snapshotSource).applyTripUpdates(null, false, Collections.singletonList(tripUpdate("A", 60)), "F");
+    }
+
+    @Test
+    public void testRotatedLogIsReplayedFirst() throws IOException {
+        RealtimeReplayLog log = new RealtimeReplayLog(file, 1000, MAX_AGE);
+        log.logTripUpdate("F", tripUpdate("A", 60));
+        log.logTripUpdate("F", tripUpdate("B", 60));
+        log.close();
+        // A crash while a checkpoint was compacting the rotated log
+        Files.move(file.toPath(), new File(file.getPath() + ".rotated").toPath());
+        log = new RealtimeReplayLog(file, 1000, MAX_AGE);
+        log.logTripUpdate("F", tripUpdate("A", 120));
+        log.close();
+
+        TimetableSnapshotSource snapshotSource = mock(TimetableSnapshotSource.class);
+        assertEquals(2, new RealtimeReplayLog(file, 1000, MAX_AGE).replay(null, snapshotSource));
+        verify(snapshotSource).applyTripUpdates(null, false,
+                Arrays.asList(tripUpdate("B", 60), tripUpdate("A", 120)), "F");
+        assertFalse(new File(file.getPath() + ".rotated").exists());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testEstimatedVehicleJourneysOfADelivery() {
+        RealtimeReplayLog log = new RealtimeReplayLog(file, 1000, MAX_AGE);
+        log.logEstimatedVehicleJourneys("S", Arrays.asList(journey("A"), journey("B")));
+        log.logEstimatedVehicleJourneys("S", Collections.singletonList(journey("A")));
+        log.logEstimatedVehicleJourneys("S", Collections.singletonList(journey("B")));
+        log.logEstimatedVehicleJourneys("S", Collections.singletonList(journey("C")));
+        log.close();
+
+        // The first delivery is replaced by the next two, which are kept along with the last one
+        TimetableSnapshotSource snapshotSource = mock(TimetableSnapshotSource.class);
+        assertEquals(3, new RealtimeReplayLog(file, 1000, MAX_AGE).replay(null, snapshotSource));
+        ArgumentCaptor<List> deliveries = ArgumentCaptor.forClass(List.class);
+        verify(snapshotSource).applyEstimatedTimetable(eq((Graph) null), eq(false), deliveries.capture());
+        List<String> refs = new ArrayList<>();
+        for (EstimatedTimetableDeliveryStructure delivery :
+                (List<EstimatedTimetableDeliveryStructure>) deliveries.getValue()) {
+            for (EstimatedVersionFrameStructure frame : delivery.getEstimatedJourneyVersionFrames()) {
+                for (EstimatedVehicleJourney journey : frame.getEstimatedVehicleJourneies()) {
+                    refs.add(journey.getDatedVehicleJourneyRef().getValue());
+                }
+            }
+        }
+        assertEquals(Arrays.asList("A", "B", "C"), refs);
+    }
+
+    private static EstimatedVehicleJourney journey(String ref) {
+        EstimatedVehicleJourney journey = new EstimatedVehicleJourney();
+        DatedVehicleJourneyRef datedVehicleJourneyRef = new DatedVehicleJourneyRef();
+        datedVehicleJourneyRef.setValue(ref);
+        journey.setDatedVehicleJourneyRef(datedVehicleJourneyRef);
+        return journey;
+    }
+
+    private static TripUpdate tripUpdate(String tripId, int delay) {
+        return TripUpdate.newBuilder()
+                .setTrip(TripDescriptor.newBuilder().setTripId(tripId).setStartDate("20180503"))
+                .setDelay(delay)
+                .build();
+    }
+}
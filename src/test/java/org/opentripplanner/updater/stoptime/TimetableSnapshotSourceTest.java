@@ -13,6 +13,7 @@
 
 package org.opentripplanner.updater.stoptime;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.protobuf.InvalidProtocolBufferException;
 import com.google.transit.realtime.GtfsRealtime.TripDescriptor;
 import com.google.transit.realtime.GtfsRealtime.TripUpdate;
@@ -25,6 +26,7 @@ import org.opentripplanner.ConstantsForTests;
 import org.opentripplanner.gtfs.GtfsContext;
 import org.opentripplanner.gtfs.GtfsContextBuilder;
 import org.opentripplanner.model.AgencyAndId;
+import org.opentripplanner.model.Operator;
 import org.opentripplanner.model.Stop;
 import org.opentripplanner.model.Trip;
 import org.opentripplanner.model.calendar.CalendarServiceData;
@@ -40,8 +42,16 @@ import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
 import org.opentripplanner.routing.trippattern.RealTimeState;
 import org.opentripplanner.routing.trippattern.TripTimes;
 import org.opentripplanner.routing.vertextype.TransitStopDepart;
+import org.opentripplanner.updater.SiriHelper;
+import uk.org.siri.siri20.EstimatedTimetableDeliveryStructure;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.List;
@@ -50,6 +60,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.opentripplanner.calendar.impl.CalendarServiceDataFactoryImpl.createCalendarServiceData;
@@ -106,7 +117,7 @@ public class TimetableSnapshotSourceTest {
     }
 
     @Test
-    public void testGetSnapshot() throws InvalidProtocolBufferException {
+    public void testGetSnapshot() throws InvalidProtocolBufferException, InterruptedException {
         updater.applyTripUpdates(graph, fullDataset, Arrays.asList(TripUpdate.parseFrom(cancellation)), feedId);
 
         final TimetableSnapshot snapshot = updater.getTimetableSnapshot();
@@ -116,10 +127,25 @@ public class TimetableSnapshotSourceTest {
         updater.applyTripUpdates(graph, fullDataset, Arrays.asList(TripUpdate.parseFrom(cancellation)), feedId);
         assertSame(snapshot, updater.getTimetableSnapshot());
 
-        updater.maxSnapshotFrequency = (-1);
-        final TimetableSnapshot newSnapshot = updater.getTimetableSnapshot();
+        // Requests never commit, the deferred update is published in the background
+        TimetableSnapshot newSnapshot = updater.getTimetableSnapshot();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (newSnapshot == snapshot && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+            newSnapshot = updater.getTimetableSnapshot();
+        }
         assertNotNull(newSnapshot);
         assertNotSame(snapshot, newSnapshot);
+        assertEquals(0, updater.getSnapshotStalenessMillis());
+
+        updater.maxSnapshotFrequency = (-1);
+        updater.applyTripUpdates(graph, fullDataset, Arrays.asList(TripUpdate.parseFrom(cancellation)), feedId);
+        assertNotSame(newSnapshot, updater.getTimetableSnapshot());
+
+        // The largest staleness seen by requests is not reset when it is read
+        long maxStaleness = updater.getMaxSnapshotStalenessSeenMillis();
+        assertTrue(maxStaleness > 0);
+        assertEquals(maxStaleness, updater.getMaxSnapshotStalenessSeenMillis());
     }
 
     @Test
@@ -458,6 +484,184 @@ public class TimetableSnapshotSourceTest {
         }
     }
 
+    @Test
+    public void testSameTripTwiceInOneEstimatedTimetableDelivery() throws Exception {
+        updater.maxSnapshotFrequency = (-1);
+        updater.applyEstimatedTimetable(graph, fullDataset, delivery(
+                delayedJourney("1.1", 5),
+                delayedJourney("1.1", 10)));
+
+        // The later journey wins, as if the journeys had come in separate deliveries
+        final TimetableSnapshotSource separately = new TimetableSnapshotSource(graph);
+        separately.maxSnapshotFrequency = (-1);
+        separately.applyEstimatedTimetable(graph, fullDataset, delivery(delayedJourney("1.1", 5)));
+        separately.applyEstimatedTimetable(graph, fullDataset, delivery(delayedJourney("1.1", 10)));
+
+        assertSameTripTimes(separately, updater, "1.1");
+        assertDelays(updater, "1.1", 600);
+        assertScheduledTripCanceled(updater, "1.1");
+    }
+
+    @Test
+    public void testSameTripTwiceInOneEstimatedTimetableDeliveryWithAddedTrip() throws Exception {
+        final Operator operator = new Operator();
+        operator.setId(new AgencyAndId(feedId, "OP"));
+        graph.index.operatorForId.put(operator.getId(), operator);
+
+        updater.maxSnapshotFrequency = (-1);
+        updater.applyEstimatedTimetable(graph, fullDataset, delivery(
+                delayedJourney("1.1", 5),
+                extraJourney("1.1-extra", "OP", 5),
+                delayedJourney("1.1", 10)));
+
+        final TimetableSnapshotSource separately = new TimetableSnapshotSource(graph);
+        separately.maxSnapshotFrequency = (-1);
+        separately.applyEstimatedTimetable(graph, fullDataset, delivery(delayedJourney("1.1", 5)));
+        separately.applyEstimatedTimetable(graph, fullDataset, delivery(extraJourney("1.1-extra", "OP", 5)));
+        separately.applyEstimatedTimetable(graph, fullDataset, delivery(delayedJourney("1.1", 10)));
+
+        assertNotNull("Added trip should be in the graph", graph.index.tripForId.get(new AgencyAndId(feedId, "1.1-extra")));
+        assertNotNull("Added trip should be in the snapshot",
+                updater.getTimetableSnapshot().getLastAddedTripPattern(feedId, "1.1-extra", tomorrow()));
+        assertSameTripTimes(separately, updater, "1.1");
+        assertDelays(updater, "1.1", 600);
+        assertScheduledTripCanceled(updater, "1.1");
+    }
+
+    private static void assertSameTripTimes(TimetableSnapshotSource expected, TimetableSnapshotSource actual, String tripId) {
+        final TripTimes expectedTripTimes = lastAddedTripTimes(expected, tripId);
+        final TripTimes actualTripTimes = lastAddedTripTimes(actual, tripId);
+        assertEquals(expectedTripTimes.getRealTimeState(), actualTripTimes.getRealTimeState());
+        assertEquals(expectedTripTimes.getNumStops(), actualTripTimes.getNumStops());
+        for (int i = 0; i < expectedTripTimes.getNumStops(); i++) {
+            assertEquals(expectedTripTimes.getArrivalTime(i), actualTripTimes.getArrivalTime(i));
+            assertEquals(expectedTripTimes.getDepartureTime(i), actualTripTimes.getDepartureTime(i));
+        }
+    }
+
+    private static void assertDelays(TimetableSnapshotSource source, String tripId, int delay) {
+        final TripTimes tripTimes = lastAddedTripTimes(source, tripId);
+        assertFalse(tripTimes.isCanceled());
+        for (int i = 0; i < tripTimes.getNumStops(); i++) {
+            assertEquals(delay, tripTimes.getArrivalDelay(i));
+            assertEquals(delay, tripTimes.getDepartureDelay(i));
+        }
+    }
+
+    private static void assertScheduledTripCanceled(TimetableSnapshotSource source, String tripId) {
+        final Trip trip = graph.index.tripForId.get(new AgencyAndId(feedId, tripId));
+        final Timetable timetable = source.getTimetableSnapshot().resolve(graph.index.patternForTrip.get(trip), tomorrow());
+        final int tripIndex = timetable.getTripIndex(tripId);
+        assertTrue("Scheduled trip should be found in time table for service date", tripIndex > -1);
+        assertTrue("Scheduled trip should be canceled in time table for service date",
+                timetable.getTripTimes(tripIndex).isCanceled());
+    }
+
+    private static TripTimes lastAddedTripTimes(TimetableSnapshotSource source, String tripId) {
+        final TimetableSnapshot snapshot = source.getTimetableSnapshot();
+        final TripPattern pattern = snapshot.getLastAddedTripPattern(feedId, tripId, tomorrow());
+        assertNotNull("New trip pattern should be found", pattern);
+        final Timetable timetable = snapshot.resolve(pattern, tomorrow());
+        final int tripIndex = timetable.getTripIndex(tripId);
+        assertTrue("Trip should be found in time table for service date", tripIndex > -1);
+        return timetable.getTripTimes(tripIndex);
+    }
+
+    /** Tomorrow in the time zone of the test feed, so that the updates are not purged as expired. */
+    private static ServiceDate tomorrow() {
+        return new ServiceDate(LocalDate.now(ZoneId.of("America/New_York")).plusDays(1));
+    }
+
+    /** The time of day of the trips of the test feed, tomorrow. */
+    private static String time(int minutes) {
+        ZonedDateTime midnight = LocalDate.now(ZoneId.of("America/New_York")).plusDays(1)
+                .atStartOfDay(ZoneId.of("America/New_York"));
+        return midnight.plusMinutes(minutes).format(DateTimeFormatter.ISO_OFFSET_DATE_TIME);
+    }
+
+    /** An update of a scheduled trip of the test feed, calling at A, B and C 0, 10 and 20 minutes after midnight. */
+    private static String delayedJourney(String tripId, int delayMinutes) {
+        StringBuilder xml = new StringBuilder("<EstimatedVehicleJourney>"
+                + "<LineRef>1</LineRef>"
+                + "<DatedVehicleJourneyRef>" + tripId + "</DatedVehicleJourneyRef>"
+                + "<EstimatedCalls>");
+        String[] stops = { "A", "B", "C" };
+        for (int i = 0; i < stops.length; i++) {
+            xml.append("<EstimatedCall>")
+                    .append("<StopPointRef>").append(stops[i]).append("</StopPointRef>")
+                    .append("<AimedArrivalTime>").append(time(i * 10)).append("</AimedArrivalTime>")
+                    .append("<ExpectedArrivalTime>").append(time(i * 10 + delayMinutes)).append("</ExpectedArrivalTime>")
+                    .append("<AimedDepartureTime>").append(time(i * 10)).append("</AimedDepartureTime>")
+                    .append("<ExpectedDepartureTime>").append(time(i * 10 + delayMinutes)).append("</ExpectedDepartureTime>")
+                    .append("</EstimatedCall>");
+        }
+        return xml.append("</EstimatedCalls></EstimatedVehicleJourney>").toString();
+    }
+
+    /** A trip added on route 1, calling at A, B and C the given number of minutes after the scheduled trips. */
+    private static String extraJourney(String code, String operatorRef, int offsetMinutes) {
+        StringBuilder xml = new StringBuilder("<EstimatedVehicleJourney>"
+                + "<LineRef>1</LineRef>"
+                + "<ExtraJourney>true</ExtraJourney>"
+                + "<OperatorRef>" + operatorRef + "</OperatorRef>"
+                + "<EstimatedVehicleJourneyCode>" + code + "</EstimatedVehicleJourneyCode>"
+                + "<EstimatedCalls>");
+        String[] stops = { "A", "B", "C" };
+        for (int i = 0; i < stops.length; i++) {
+            xml.append("<EstimatedCall>")
+                    .append("<StopPointRef>").append(stops[i]).append("</StopPointRef>")
+                    .append("<AimedArrivalTime>").append(time(i * 10 + offsetMinutes)).append("</AimedArrivalTime>")
+                    .append("<ArrivalBoardingActivity>alighting</ArrivalBoardingActivity>")
+                    .append("<AimedDepartureTime>").append(time(i * 10 + offsetMinutes)).append("</AimedDepartureTime>")
+                    .append("<DepartureBoardingActivity>boarding</DepartureBoardingActivity>")
+                    .append("</EstimatedCall>");
+        }
+        return xml.append("</EstimatedCalls></EstimatedVehicleJourney>").toString();
+    }
+
+    private static List<EstimatedTimetableDeliveryStructure> delivery(String... journeys) throws Exception {
+        String xml = "<Siri xmlns=\"http://www.siri.org.uk/siri\" version=\"2.0\">"
+                + "<ServiceDelivery>"
+                + "<ResponseTimestamp>" + time(0) + "</ResponseTimestamp>"
+                + "<EstimatedTimetableDelivery version=\"2.0\">"
+                + "<EstimatedJourneyVersionFrame>"
+                + String.join("", journeys)
+                + "</EstimatedJourneyVersionFrame>"
+                + "</EstimatedTimetableDelivery>"
+                + "</ServiceDelivery>"
+                + "</Siri>";
+        return SiriHelper.unmarshal(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)))
+                .getServiceDelivery().getEstimatedTimetableDeliveries();
+    }
+
+    @Test
+    public void testHeldPublication() throws Exception {
+        updater.maxSnapshotFrequency = (-1);
+        final TimetableSnapshot snapshot = updater.getTimetableSnapshot();
+
+        // The chunks of a full dataset are not published until the last one is applied
+        updater.holdPublication();
+        updater.applyEstimatedTimetable(graph, true, delivery(delayedJourney("1.1", 10)));
+        updater.applyEstimatedTimetable(graph, false, delivery(delayedJourney("1.1", 5)));
+        assertSame(snapshot, updater.getTimetableSnapshot());
+
+        updater.releasePublication();
+        assertNotSame(snapshot, updater.getTimetableSnapshot());
+        assertDelays(updater, "1.1", 300);
+        assertEquals(0, updater.getSnapshotStalenessMillis());
+    }
+
+    @Test
+    public void testReadPurgeTimeBudgetMillis() throws Exception {
+        final ObjectMapper mapper = new ObjectMapper();
+        assertEquals(Integer.valueOf(50), TimetableSnapshotSource.readPurgeTimeBudgetMillis(
+                mapper.readTree("{\"purgeTimeBudgetMs\": 50}")));
+        assertEquals(Integer.valueOf(0), TimetableSnapshotSource.readPurgeTimeBudgetMillis(
+                mapper.readTree("{\"purgeTimeBudgetMs\": 0}")));
+        assertNull(TimetableSnapshotSource.readPurgeTimeBudgetMillis(mapper.readTree("{\"purgeTimeBudgetMs\": -1}")));
+        assertNull(TimetableSnapshotSource.readPurgeTimeBudgetMillis(mapper.readTree("{}")));
+    }
+
     @Test
     public void testPurgeExpiredData() throws InvalidProtocolBufferException {
         final AgencyAndId tripId = new AgencyAndId(feedId, "1.1");